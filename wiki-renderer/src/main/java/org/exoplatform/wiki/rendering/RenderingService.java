@@ -16,6 +16,8 @@
  */
 package org.exoplatform.wiki.rendering;
 
+import java.util.List;
+
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.manager.ComponentRepositoryException;
@@ -53,11 +55,30 @@ public interface RenderingService {
    * @param markup The wiki page markup.
    * @param sourceSyntax The syntax used by the wiki page.
    * @param targetSyntax The target syntax to apply.
-   * @param supportSectionEdit If "true", the "Edit section" function is supported. Otherwise, this function is not supported.
+   * @param supportSectionEdit If "true", the sections are marked with anchors which can be turned
+   *          into "Edit section" links by {@link #addSectionEditLinks(String)}. Otherwise, the sections are not marked.
    * @return The readable content of the rendered wiki page.
    */
   public String render(String markup, String sourceSyntax, String targetSyntax, boolean supportSectionEdit) throws ConversionException, ComponentLookupException;
 
+  /**
+   * Checks if a rendered content contains section anchors.
+   *
+   * @param content The content rendered with the section edition support.
+   * @return "True" if the content has at least one section anchor, otherwise "false".
+   */
+  public boolean hasSectionAnchors(String content);
+
+  /**
+   * Adds the "Edit section" links, labelled in the current user locale, to the section anchors of a rendered content.
+   * The content without these links is the same for all users, so it can be cached.
+   *
+   * @param content The content rendered in XHTML with the section edition support.
+   * @return The content including the "Edit section" links.
+   * @throws ConversionException
+   */
+  public String addSectionEditLinks(String content) throws ConversionException;
+
   /**
    * Gets content of a section.
    *
@@ -81,8 +102,19 @@ public interface RenderingService {
    */
   public String updateContentOfSection(String markup, String sourceSyntax, String sectionIndex, String newSectionContent) throws Exception;
 
+  /**
+   * Gets the content of the excerpt macros of a wiki page markup.
+   *
+   * @param markup The wiki page markup.
+   * @param sourceSyntax The syntax used by the wiki page.
+   * @return The content of the excerpts, in the order of the page.
+   * @throws ConversionException
+   */
+  public List<String> getExcerpts(String markup, String sourceSyntax) throws ConversionException;
+
   /**
    * Parses a wiki page markup based on the syntax.
+   * The parsed markups are cached, each call returns a copy which can be modified.
    *
    * @param markup The markup to parse.
    * @param sourceSyntax The syntax to use.
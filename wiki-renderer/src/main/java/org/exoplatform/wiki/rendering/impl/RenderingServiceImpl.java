@@ -16,12 +16,16 @@
  */
 package org.exoplatform.wiki.rendering.impl;
 
+import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.webui.application.WebuiRequestContext;
 import org.exoplatform.wiki.rendering.RenderingService;
 import org.exoplatform.wiki.rendering.converter.BlockConverter;
+import org.exoplatform.wiki.rendering.macro.excerpt.ExcerptMacro;
 import org.picocontainer.Startable;
 import org.w3c.dom.Document;
 import org.xwiki.component.embed.EmbeddableComponentManager;
@@ -29,6 +33,7 @@ import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.manager.ComponentRepositoryException;
 import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
 import org.xwiki.rendering.block.*;
 import org.xwiki.rendering.block.Block.Axes;
 import org.xwiki.rendering.block.match.ClassBlockMatcher;
@@ -51,15 +56,62 @@ import org.xwiki.xml.html.HTMLUtils;
 import java.io.StringReader;
 import java.lang.reflect.Type;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class RenderingServiceImpl implements RenderingService, Startable {
   
   private String cssURL; 
 
   private Log LOG = ExoLogger.getExoLogger(RenderingServiceImpl.class);
+
+  private static final String EDIT_SECTION_CLASS = "EditSection pull-right";
+
+  private static final String SECTION_INDEX_ATTRIBUTE = "data-section";
+
+  private static final String SECTION_TITLE_ATTRIBUTE = "data-title";
+
+  private static final String SECTION_ANCHOR_PREFIX = "<span class=\"" + EDIT_SECTION_CLASS + "\" " + SECTION_INDEX_ATTRIBUTE + "=\"";
+
+  /** Matches the empty section anchors produced when rendering with section edition support */
+  private static final Pattern SECTION_ANCHOR_PATTERN = Pattern.compile(Pattern.quote(SECTION_ANCHOR_PREFIX) + "(\\d+)\" "
+      + SECTION_TITLE_ATTRIBUTE + "=\"([^\"]*)\"\\s*(?:/>|></span>)");
   
+  public static final String XDOM_CACHE_SIZE_PARAM = "xdom.cache.size";
+
+  /**
+   * Property of the execution context holding the objects kept for the duration of a render,
+   * including the renders it triggers, such as the excerpts of the child pages
+   */
+  public static final String RENDER_SCOPE = "wiki.renderScope";
+
+  private static final int DEFAULT_XDOM_CACHE_SIZE = 200;
+
   private EmbeddableComponentManager componentManager = null;
 
+  /**
+   * The parsed markups, by syntax and markup, in access order. The markup of a page is the
+   * key of its version, a page modified gets a new entry and its previous one is evicted.
+   */
+  private final Map<String, ParsedMarkup> parsedMarkups;
+
+  public RenderingServiceImpl(InitParams initParams) {
+    int size = DEFAULT_XDOM_CACHE_SIZE;
+    if (initParams != null) {
+      ValueParam sizeParam = initParams.getValueParam(XDOM_CACHE_SIZE_PARAM);
+      if (sizeParam != null && StringUtils.isNotBlank(sizeParam.getValue())) {
+        size = Integer.parseInt(sizeParam.getValue().trim());
+      }
+    }
+    final int maxSize = Math.max(0, size);
+    parsedMarkups = new LinkedHashMap<String, ParsedMarkup>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, ParsedMarkup> eldest) {
+        return size() > maxSize;
+      }
+    };
+  }
+
   public Execution getExecution() throws ComponentLookupException, ComponentRepositoryException{
     return componentManager.getInstance(Execution.class);
   }
@@ -79,6 +131,22 @@ public class RenderingServiceImpl implements RenderingService, Startable {
    */
   public String render(String markup, String sourceSyntax, String targetSyntax, boolean supportSectionEdit)
           throws ConversionException, ComponentLookupException {
+    ExecutionContext ec = componentManager.getInstance(Execution.class).getContext();
+    boolean scopeOwner = ec != null && ec.getProperty(RENDER_SCOPE) == null;
+    if (scopeOwner) {
+      ec.setProperty(RENDER_SCOPE, new HashMap<String, Object>());
+    }
+    try {
+      return renderInScope(markup, sourceSyntax, targetSyntax, supportSectionEdit);
+    } finally {
+      if (scopeOwner) {
+        ec.removeProperty(RENDER_SCOPE);
+      }
+    }
+  }
+
+  private String renderInScope(String markup, String sourceSyntax, String targetSyntax, boolean supportSectionEdit)
+          throws ConversionException, ComponentLookupException {
 
     XDOM xdom = parse(markup, sourceSyntax);
     Syntax sSyntax = (sourceSyntax == null) ? Syntax.XWIKI_2_0 : getSyntax(sourceSyntax);
@@ -100,21 +168,62 @@ public class RenderingServiceImpl implements RenderingService, Startable {
     return printer.toString();
   }
   
-  public String getContentOfSection(String markup, String sourceSyntax, String sectionIndex) throws Exception {
+  public boolean hasSectionAnchors(String content) {
+    return content != null && content.contains(SECTION_ANCHOR_PREFIX);
+  }
 
-    XDOM xdom = parse(markup, sourceSyntax);
-    Syntax sSyntax = (sourceSyntax == null) ? Syntax.XWIKI_2_0 : getSyntax(sourceSyntax);
+  public String addSectionEditLinks(String content) throws ConversionException {
+    if (!hasSectionAnchors(content)) {
+      return content;
+    }
 
-    List<HeaderBlock> headers = getFilteredHeaders(xdom);
+    String editSectionLabel = "Edit section: ";
+    WebuiRequestContext context = WebuiRequestContext.getCurrentInstance();
+    if (context != null) {
+      ResourceBundle bundle = context.getApplicationResourceBundle();
+      editSectionLabel = bundle.getString("UIWikiPageEditForm.label.edit-section");
+    }
+
+    Matcher matcher = SECTION_ANCHOR_PATTERN.matcher(content);
+    StringBuffer sb = new StringBuffer(content.length() + 256);
+    while (matcher.find()) {
+      String sectionIndex = matcher.group(1);
+      String sectionTitle = StringEscapeUtils.unescapeXml(matcher.group(2));
+
+      ResourceReference link = new ResourceReference("section=" + sectionIndex, ResourceType.URL);
+      List<Block> emtyList = Collections.emptyList();
+      Map<String, String> linkParameters = new LinkedHashMap<String, String>();
+      linkParameters.put("class", "uiIconEdit uiIconLightGray");
+      linkParameters.put("title", editSectionLabel + sectionTitle);
+      linkParameters.put("rel", "tooltip");
+      linkParameters.put("data-placement", "left");
+      LinkBlock linkBlock = new LinkBlock(emtyList, link, true, linkParameters);
+      Map<String, String> spanParameters = new LinkedHashMap<String, String>();
+      spanParameters.put("class", EDIT_SECTION_CLASS);
+      FormatBlock spanBlock = new FormatBlock(Collections.singletonList((Block) linkBlock), Format.NONE, spanParameters);
+
+      String editLink = renderXDOM(new XDOM(Collections.<Block> singletonList(spanBlock)), Syntax.XHTML_1_0);
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(editLink));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  public String getContentOfSection(String markup, String sourceSyntax, String sectionIndex) throws Exception {
+
+    List<String> sections = getParsedMarkup(markup, sourceSyntax).getSections();
     int index = Integer.parseInt(sectionIndex);
     String content = null;
-    if (headers.size() >= index) {
-      SectionBlock section = headers.get(index - 1).getSection();
-      content = renderXDOM(new XDOM(Collections.<Block> singletonList(section)), sSyntax);
+    if (sections.size() >= index) {
+      content = sections.get(index - 1);
     }
     return content;
   }
 
+  public List<String> getExcerpts(String markup, String sourceSyntax) throws ConversionException {
+    return getParsedMarkup(markup, sourceSyntax).getExcerpts();
+  }
+
   public String updateContentOfSection(String markup, String sourceSyntax, String sectionIndex, String newSectionContent) throws Exception {
 
     XDOM xdom = parse(markup, sourceSyntax);
@@ -225,28 +334,17 @@ public class RenderingServiceImpl implements RenderingService, Startable {
       List<HeaderBlock> filteredHeaders = getFilteredHeaders(xdom);
       int sectionIndex = 1;
       
-      String editSectionLabel = "Edit section: ";
-      WebuiRequestContext context = WebuiRequestContext.getCurrentInstance();
-      if (context != null) {
-        ResourceBundle bundle = context.getApplicationResourceBundle();
-        editSectionLabel = bundle.getString("UIWikiPageEditForm.label.edit-section");
-      }
-      
       for (HeaderBlock block : filteredHeaders) {
         SectionBlock section = block.getSection();
         Block parentBlock = section.getParent();
-        ResourceReference link = new ResourceReference( "section=" + sectionIndex, ResourceType.URL);       
-        sectionIndex++;
-        List<Block> emtyList = Collections.emptyList();
-        Map<String, String> linkParameters = new LinkedHashMap<String, String>();
-        linkParameters.put("class", "uiIconEdit uiIconLightGray");
-        linkParameters.put("title", editSectionLabel + renderXDOM(new XDOM(block.getChildren()), sourceSyntax));
-        linkParameters.put("rel", "tooltip");
-        linkParameters.put("data-placement", "left");
-        LinkBlock linkBlock = new LinkBlock(emtyList, link, true, linkParameters);
+        // Only mark the section here, the edit link depends on the user and is added by addSectionEditLinks
         Map<String, String> spanParameters = new LinkedHashMap<String, String>();
-        spanParameters.put("class", "EditSection pull-right");
-        FormatBlock spanBlock = new FormatBlock(Collections.singletonList((Block) linkBlock), Format.NONE, spanParameters);
+        spanParameters.put("class", EDIT_SECTION_CLASS);
+        spanParameters.put(SECTION_INDEX_ATTRIBUTE, String.valueOf(sectionIndex));
+        spanParameters.put(SECTION_TITLE_ATTRIBUTE, renderXDOM(new XDOM(block.getChildren()), sourceSyntax));
+        sectionIndex++;
+        List<Block> emptyList = Collections.emptyList();
+        FormatBlock spanBlock = new FormatBlock(emptyList, Format.NONE, spanParameters);
         
         Map<String, String> params = new HashMap<String, String>();
         params.put("class", "header-container clearfix");
@@ -278,8 +376,43 @@ public class RenderingServiceImpl implements RenderingService, Startable {
   }
 
   public XDOM parse(String markup, String sourceSyntax) throws ConversionException {
-    XDOM xdom;
     Syntax sSyntax = (sourceSyntax == null) ? Syntax.XWIKI_2_0 : getSyntax(sourceSyntax);
+    if (!isCacheable(markup, sSyntax)) {
+      return parse(markup, sSyntax);
+    }
+    // the cached tree is shared, the callers get their own copy to transform
+    return (XDOM) getParsedMarkup(markup, sourceSyntax).xdom.clone();
+  }
+
+  private boolean isCacheable(String markup, Syntax sSyntax) {
+    // the HTML of the editors is converted once, it is not worth caching
+    return markup != null && sSyntax != Syntax.XHTML_1_0 && sSyntax != Syntax.ANNOTATED_XHTML_1_0;
+  }
+
+  /**
+   * @return the parsed markup, from the cache for the wiki syntaxes
+   */
+  private ParsedMarkup getParsedMarkup(String markup, String sourceSyntax) throws ConversionException {
+    Syntax sSyntax = (sourceSyntax == null) ? Syntax.XWIKI_2_0 : getSyntax(sourceSyntax);
+    if (!isCacheable(markup, sSyntax)) {
+      return new ParsedMarkup(parse(markup, sSyntax), sSyntax);
+    }
+    String key = sSyntax.toIdString() + '\u0000' + markup;
+    ParsedMarkup parsedMarkup;
+    synchronized (parsedMarkups) {
+      parsedMarkup = parsedMarkups.get(key);
+    }
+    if (parsedMarkup == null) {
+      parsedMarkup = new ParsedMarkup(parse(markup, sSyntax), sSyntax);
+      synchronized (parsedMarkups) {
+        parsedMarkups.put(key, parsedMarkup);
+      }
+    }
+    return parsedMarkup;
+  }
+
+  private XDOM parse(String markup, Syntax sSyntax) throws ConversionException {
+    XDOM xdom;
     if (sSyntax == Syntax.XHTML_1_0 || sSyntax == Syntax.ANNOTATED_XHTML_1_0) {
       markup = clean(markup);
     }
@@ -356,6 +489,62 @@ public class RenderingServiceImpl implements RenderingService, Startable {
     return syntax;
   }
 
+  /**
+   * A parsed markup, with its sections and excerpts computed on first use. Its tree is never
+   * modified, it is cloned to be transformed.
+   */
+  private class ParsedMarkup {
+
+    private final XDOM           xdom;
+
+    private final Syntax         syntax;
+
+    private volatile List<String> sections;
+
+    private volatile List<String> excerpts;
+
+    private ParsedMarkup(XDOM xdom, Syntax syntax) {
+      this.xdom = xdom;
+      this.syntax = syntax;
+    }
+
+    /**
+     * @return the markup of the sections which can be edited, in the order of their index
+     */
+    private List<String> getSections() throws ConversionException {
+      List<String> result = sections;
+      if (result == null) {
+        result = new ArrayList<String>();
+        for (HeaderBlock header : getFilteredHeaders(xdom)) {
+          Block section = header.getSection().clone();
+          result.add(renderXDOM(new XDOM(Collections.<Block> singletonList(section)), syntax));
+        }
+        result = Collections.unmodifiableList(result);
+        sections = result;
+      }
+      return result;
+    }
+
+    /**
+     * @return the content of the excerpt macros
+     */
+    private List<String> getExcerpts() {
+      List<String> result = excerpts;
+      if (result == null) {
+        result = new ArrayList<String>();
+        List<MacroBlock> macroBlocks = xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
+        for (MacroBlock block : macroBlocks) {
+          if (ExcerptMacro.MACRO_ID.equals(block.getId())) {
+            result.add(block.getContent());
+          }
+        }
+        result = Collections.unmodifiableList(result);
+        excerpts = result;
+      }
+      return result;
+    }
+  }
+
   public String getCssURL() {
     return cssURL;
   }
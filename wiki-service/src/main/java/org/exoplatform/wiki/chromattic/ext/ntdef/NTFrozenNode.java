@@ -97,6 +97,20 @@ public abstract class NTFrozenNode {
     }
   }
 
+  /**
+   * @return the size in bytes of the content of the version, read without loading the content
+   */
+  public long getContentSize() throws RepositoryException {
+    StringBuilder st = new StringBuilder(WikiNodeType.Definition.ATTACHMENT_CONTENT);
+    st.append("/").append(WikiNodeType.Definition.DATA);
+    Node pageNode = getJCRNode();
+    if (pageNode.hasProperty(st.toString())) {
+      return pageNode.getProperty(st.toString()).getLength();
+    } else {
+      return 0;
+    }
+  }
+
   public void setMOWService(MOWService mowService) {
     this.mowService = mowService;
   }
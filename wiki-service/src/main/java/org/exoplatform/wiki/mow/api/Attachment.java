@@ -59,7 +59,8 @@ public class Attachment {
   private String fullTitle;
 
   /**
-   * Content of the attachment
+   * Content of the attachment, null when only its metadata have been loaded.
+   * The content of a stored attachment can be streamed with WikiService#writeAttachmentContent.
    */
   private byte[] content;
 
@@ -0,0 +1,113 @@
+package org.exoplatform.wiki.mow.api;
+
+import java.util.List;
+
+/**
+ * Lightweight description of a page in a page tree: only the data needed to
+ * display the page, without its content, metadata or permission entries.
+ */
+public class PageTreeItem {
+  private String name;
+
+  private String title;
+
+  private String wikiType;
+
+  private String wikiOwner;
+
+  private boolean hasChildren;
+
+  private boolean canView;
+
+  private boolean canEdit;
+
+  private List<PageTreeItem> children;
+
+  public String getName() {
+    return name;
+  }
+
+  public void setName(String name) {
+    this.name = name;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public void setTitle(String title) {
+    this.title = title;
+  }
+
+  public String getWikiType() {
+    return wikiType;
+  }
+
+  public void setWikiType(String wikiType) {
+    this.wikiType = wikiType;
+  }
+
+  public String getWikiOwner() {
+    return wikiOwner;
+  }
+
+  public void setWikiOwner(String wikiOwner) {
+    this.wikiOwner = wikiOwner;
+  }
+
+  /**
+   * @return true if the page has at least one child page in the tree
+   */
+  public boolean isHasChildren() {
+    return hasChildren;
+  }
+
+  public void setHasChildren(boolean hasChildren) {
+    this.hasChildren = hasChildren;
+  }
+
+  /**
+   * @return true if the user has the view permission on the page, false for
+   *         a restricted page kept in the path of the selected page
+   */
+  public boolean isCanView() {
+    return canView;
+  }
+
+  public void setCanView(boolean canView) {
+    this.canView = canView;
+  }
+
+  /**
+   * @return true if the user has the edit permission on the page
+   */
+  public boolean isCanEdit() {
+    return canEdit;
+  }
+
+  public void setCanEdit(boolean canEdit) {
+    this.canEdit = canEdit;
+  }
+
+  /**
+   * @return the children pages in the tree, sorted by name, or null if they have not been loaded
+   */
+  public List<PageTreeItem> getChildren() {
+    return children;
+  }
+
+  public void setChildren(List<PageTreeItem> children) {
+    this.children = children;
+  }
+
+  /**
+   * @return a page holding the name, title and wiki of the item, to be used
+   *         to fetch the page or to build its URL
+   */
+  public Page toPage() {
+    Page page = new Page(name, title);
+    page.setWikiType(wikiType);
+    page.setWikiOwner(wikiOwner);
+    return page;
+  }
+}
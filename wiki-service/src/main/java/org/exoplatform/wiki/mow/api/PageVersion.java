@@ -15,6 +15,8 @@ public class PageVersion {
 
   private String comment;
 
+  private long size;
+
   private String[] predecessors;
 
   private String[] successors;
@@ -59,6 +61,17 @@ public class PageVersion {
     this.content = content;
   }
 
+  /**
+   * @return the size in bytes of the content of the version
+   */
+  public long getSize() {
+    return size;
+  }
+
+  public void setSize(long size) {
+    this.size = size;
+  }
+
   public String getComment() {
     return comment;
   }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.mow.core.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.wiki.mow.core.api.wiki.DraftPageImpl;
+import org.exoplatform.wiki.mow.core.api.wiki.PageImpl;
+
+/**
+ * Index of the drafts of the users, by name and by target page.
+ *
+ * The summaries of the drafts of a user, without their content, are read once
+ * from the drafts container of the user and kept in the {@value #CACHE_NAME}
+ * cache, one entry per draft, along with an entry listing the names of the
+ * drafts, the draft of each target page and the latest draft. They are updated
+ * when a draft is created, saved or removed, so that the lookups do not walk
+ * all the drafts of the user, and saving a draft again only replaces its own
+ * summary. The drafts found through the index must still be fetched by name
+ * and checked, since the index may miss the changes made on another cluster
+ * node at the same time.
+ */
+public class DraftIndex {
+
+  public static final String                CACHE_NAME = "wiki.DraftIndex";
+
+  /** The drafts of the users by path of their drafts container, and the draft summaries by path of the draft */
+  private final ExoCache<String, Serializable> index;
+
+  /** Serializes the updates of the drafts of a user */
+  private final Object[]                    locks      = new Object[64];
+
+  public DraftIndex(CacheService cacheService) {
+    this.index = cacheService.getCacheInstance(CACHE_NAME);
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * @param draftsContainer the drafts container of a user
+   * @return the drafts of the user
+   * @throws RepositoryException
+   */
+  public UserDrafts getDrafts(PageImpl draftsContainer) throws RepositoryException {
+    String path = draftsContainer.getPath();
+    UserDrafts drafts = getUserDrafts(path);
+    if (drafts == null) {
+      synchronized (getLock(path)) {
+        drafts = getUserDrafts(path);
+        if (drafts == null) {
+          drafts = load(draftsContainer);
+        }
+      }
+    }
+    return drafts;
+  }
+
+  /**
+   * @param draftsContainer the drafts container of a user
+   * @return the summaries of the drafts of the user, sorted by name
+   * @throws RepositoryException
+   */
+  public List<DraftSummary> getDraftSummaries(PageImpl draftsContainer) throws RepositoryException {
+    String path = draftsContainer.getPath();
+    List<DraftSummary> summaries = getSummaries(path, getDrafts(draftsContainer).names);
+    if (summaries == null) {
+      // a summary has been evicted, read the drafts again
+      synchronized (getLock(path)) {
+        summaries = readSummaries(draftsContainer);
+        store(path, summaries);
+      }
+    }
+    return Collections.unmodifiableList(summaries);
+  }
+
+  /**
+   * Updates the summary of a draft once it has been created or saved. The
+   * entry listing the drafts of the user is only replaced when the draft is
+   * new or becomes the latest one.
+   *
+   * @param draftsContainer the drafts container of the user
+   * @param draft the draft
+   * @throws RepositoryException
+   */
+  public void update(PageImpl draftsContainer, DraftPageImpl draft) throws RepositoryException {
+    String path = draftsContainer.getPath();
+    DraftSummary summary = new DraftSummary(draft);
+    synchronized (getLock(path)) {
+      UserDrafts drafts = getUserDrafts(path);
+      if (drafts == null) {
+        return;
+      }
+      DraftSummary previousSummary = getSummary(path, summary.getName());
+      index.put(getSummaryKey(path, summary.getName()), summary);
+      UserDrafts newDrafts;
+      if (drafts.contains(summary.getName()) && (previousSummary == null || !isSameTarget(previousSummary, summary))) {
+        // the target of the draft has changed, or its previous summary is unknown
+        newDrafts = rebuild(path, drafts.names);
+      } else {
+        newDrafts = drafts.with(summary, getSummary(path, drafts.latestDraft),
+                                getSummary(path, drafts.getLatestDraftOfTarget(summary.getTargetPageId())));
+      }
+      putUserDrafts(path, drafts, newDrafts);
+    }
+  }
+
+  /**
+   * Removes a draft from the index once it has been removed
+   *
+   * @param draftsContainer the drafts container of the user
+   * @param draftName the name of the draft
+   */
+  public void remove(PageImpl draftsContainer, String draftName) {
+    String path = draftsContainer.getPath();
+    synchronized (getLock(path)) {
+      index.remove(getSummaryKey(path, draftName));
+      UserDrafts drafts = getUserDrafts(path);
+      if (drafts == null || !drafts.contains(draftName)) {
+        return;
+      }
+      TreeSet<String> names = new TreeSet<String>(drafts.names);
+      names.remove(draftName);
+      UserDrafts newDrafts;
+      if (drafts.isIndexed(draftName)) {
+        // the draft of a target page or the latest draft has to be found again
+        newDrafts = rebuild(path, names);
+      } else {
+        newDrafts = new UserDrafts(names, drafts);
+      }
+      putUserDrafts(path, drafts, newDrafts);
+    }
+  }
+
+  /**
+   * Discards the drafts of a user, they will be read again on the next lookup
+   *
+   * @param draftsContainer the drafts container of the user
+   */
+  public void invalidate(PageImpl draftsContainer) {
+    index.remove(draftsContainer.getPath());
+  }
+
+  private UserDrafts load(PageImpl draftsContainer) throws RepositoryException {
+    return store(draftsContainer.getPath(), readSummaries(draftsContainer));
+  }
+
+  /**
+   * @return the summaries of the drafts read from the drafts container, sorted by name
+   */
+  private List<DraftSummary> readSummaries(PageImpl draftsContainer) throws RepositoryException {
+    TreeMap<String, DraftSummary> summaries = new TreeMap<String, DraftSummary>();
+    for (PageImpl page : draftsContainer.getChildPages().values()) {
+      if (page instanceof DraftPageImpl) {
+        summaries.put(page.getName(), new DraftSummary((DraftPageImpl) page));
+      }
+    }
+    return new ArrayList<DraftSummary>(summaries.values());
+  }
+
+  private UserDrafts store(String path, List<DraftSummary> summaries) {
+    for (DraftSummary summary : summaries) {
+      index.put(getSummaryKey(path, summary.getName()), summary);
+    }
+    UserDrafts drafts = new UserDrafts(summaries);
+    index.put(path, drafts);
+    return drafts;
+  }
+
+  /**
+   * Builds the drafts of a user from the cached summaries of the drafts
+   *
+   * @return the drafts, or null if a summary has been evicted
+   */
+  private UserDrafts rebuild(String path, Set<String> names) {
+    List<DraftSummary> summaries = getSummaries(path, names);
+    return summaries != null ? new UserDrafts(summaries) : null;
+  }
+
+  /**
+   * Replaces the drafts of a user, or discards them if they could not be updated
+   */
+  private void putUserDrafts(String path, UserDrafts drafts, UserDrafts newDrafts) {
+    if (newDrafts == null) {
+      index.remove(path);
+    } else if (newDrafts != drafts) {
+      index.put(path, newDrafts);
+    }
+  }
+
+  private UserDrafts getUserDrafts(String path) {
+    Serializable drafts = index.get(path);
+    return drafts instanceof UserDrafts ? (UserDrafts) drafts : null;
+  }
+
+  private List<DraftSummary> getSummaries(String path, Set<String> names) {
+    List<DraftSummary> summaries = new ArrayList<DraftSummary>(names.size());
+    for (String name : names) {
+      DraftSummary summary = getSummary(path, name);
+      if (summary == null) {
+        return null;
+      }
+      summaries.add(summary);
+    }
+    return summaries;
+  }
+
+  private DraftSummary getSummary(String path, String name) {
+    if (name == null) {
+      return null;
+    }
+    Serializable summary = index.get(getSummaryKey(path, name));
+    return summary instanceof DraftSummary ? (DraftSummary) summary : null;
+  }
+
+  private static String getSummaryKey(String path, String name) {
+    return path + "/" + name;
+  }
+
+  private static boolean isSameTarget(DraftSummary draft, DraftSummary other) {
+    return StringUtils.equals(draft.getTargetPageId(), other.getTargetPageId()) && draft.isNewPage() == other.isNewPage();
+  }
+
+  private Object getLock(String path) {
+    return locks[(path.hashCode() & Integer.MAX_VALUE) % locks.length];
+  }
+
+  /**
+   * The drafts of a user, immutable. Their summaries are kept in their own
+   * entries of the index.
+   */
+  public static class UserDrafts implements Serializable {
+
+    private static final long                   serialVersionUID = 2L;
+
+    /** The names of the drafts, sorted */
+    private final TreeSet<String>               names;
+
+    /** The name of the first draft of each target page */
+    private final Map<String, String>           draftOfTarget;
+
+    /** The name of the latest draft of each existing target page, the drafts of new pages excluded */
+    private final Map<String, String>           latestDraftOfTarget;
+
+    private String                              latestDraft;
+
+    private UserDrafts(List<DraftSummary> drafts) {
+      this.names = new TreeSet<String>();
+      this.draftOfTarget = new HashMap<String, String>();
+      this.latestDraftOfTarget = new HashMap<String, String>();
+      DraftSummary latest = null;
+      Map<String, DraftSummary> latestOfTarget = new HashMap<String, DraftSummary>();
+      for (DraftSummary draft : drafts) {
+        names.add(draft.getName());
+        if (isMoreRecent(draft, latest)) {
+          latest = draft;
+        }
+        if (draft.getTargetPageId() != null) {
+          String firstDraft = draftOfTarget.get(draft.getTargetPageId());
+          if (firstDraft == null || draft.getName().compareTo(firstDraft) < 0) {
+            draftOfTarget.put(draft.getTargetPageId(), draft.getName());
+          }
+          if (!draft.isNewPage() && isMoreRecent(draft, latestOfTarget.get(draft.getTargetPageId()))) {
+            latestOfTarget.put(draft.getTargetPageId(), draft);
+          }
+        }
+      }
+      this.latestDraft = latest != null ? latest.getName() : null;
+      for (DraftSummary draft : latestOfTarget.values()) {
+        latestDraftOfTarget.put(draft.getTargetPageId(), draft.getName());
+      }
+    }
+
+    private UserDrafts(TreeSet<String> names, UserDrafts drafts) {
+      this.names = names;
+      this.draftOfTarget = new HashMap<String, String>(drafts.draftOfTarget);
+      this.latestDraftOfTarget = new HashMap<String, String>(drafts.latestDraftOfTarget);
+      this.latestDraft = drafts.latestDraft;
+    }
+
+    /**
+     * @return the names of the drafts, sorted
+     */
+    public Set<String> getDraftNames() {
+      return Collections.unmodifiableSet(names);
+    }
+
+    public boolean contains(String name) {
+      return names.contains(name);
+    }
+
+    /**
+     * @param targetPageId the UUID of the target page
+     * @return the name of the first draft, by name, targeting the page, or null
+     */
+    public String getDraftOfTarget(String targetPageId) {
+      return draftOfTarget.get(targetPageId);
+    }
+
+    /**
+     * @param targetPageId the UUID of the target page
+     * @return the name of the latest draft of the existing page, or null
+     */
+    public String getLatestDraftOfTarget(String targetPageId) {
+      return latestDraftOfTarget.get(targetPageId);
+    }
+
+    /**
+     * @return the name of the latest updated draft, or null
+     */
+    public String getLatestDraft() {
+      return latestDraft;
+    }
+
+    /**
+     * @return true if the draft is the draft of a target page or the latest draft
+     */
+    private boolean isIndexed(String name) {
+      return name.equals(latestDraft) || draftOfTarget.containsValue(name) || latestDraftOfTarget.containsValue(name);
+    }
+
+    /**
+     * Adds or updates a draft whose target is unchanged
+     *
+     * @param draft the summary of the draft
+     * @param latest the summary of the latest draft, or null
+     * @param latestOfTarget the summary of the latest draft of the target page, or null
+     * @return the updated drafts, this instance if nothing changed, or null if the latest drafts are unknown
+     */
+    private UserDrafts with(DraftSummary draft, DraftSummary latest, DraftSummary latestOfTarget) {
+      String name = draft.getName();
+      String targetPageId = draft.getTargetPageId();
+      boolean newDraft = !names.contains(name);
+      boolean firstOfTarget = targetPageId != null
+          && (draftOfTarget.get(targetPageId) == null || name.compareTo(draftOfTarget.get(targetPageId)) < 0);
+      String currentLatestOfTarget = latestDraftOfTarget.get(targetPageId);
+      boolean latestOfTargetChanged = targetPageId != null && !draft.isNewPage() && !name.equals(currentLatestOfTarget);
+      boolean latestChanged = !name.equals(latestDraft);
+      if ((latestOfTargetChanged && currentLatestOfTarget != null && latestOfTarget == null)
+          || (latestChanged && latestDraft != null && latest == null)) {
+        return null;
+      }
+      latestOfTargetChanged = latestOfTargetChanged && isMoreRecent(draft, latestOfTarget);
+      latestChanged = latestChanged && isMoreRecent(draft, latest);
+      if (!newDraft && !firstOfTarget && !latestOfTargetChanged && !latestChanged) {
+        return this;
+      }
+
+      TreeSet<String> newNames = names;
+      if (newDraft) {
+        newNames = new TreeSet<String>(names);
+        newNames.add(name);
+      }
+      UserDrafts drafts = new UserDrafts(newNames, this);
+      if (firstOfTarget) {
+        drafts.draftOfTarget.put(targetPageId, name);
+      }
+      if (latestOfTargetChanged) {
+        drafts.latestDraftOfTarget.put(targetPageId, name);
+      }
+      if (latestChanged) {
+        drafts.latestDraft = name;
+      }
+      return drafts;
+    }
+
+    private static boolean isMoreRecent(DraftSummary draft, DraftSummary other) {
+      if (other == null) {
+        return true;
+      }
+      long updated = draft.getUpdatedDate() != null ? draft.getUpdatedDate().getTime() : 0;
+      long otherUpdated = other.getUpdatedDate() != null ? other.getUpdatedDate().getTime() : 0;
+      return updated > otherUpdated;
+    }
+  }
+
+  /**
+   * The data of a draft, without its content
+   */
+  public static class DraftSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String      id;
+
+    private final String      name;
+
+    private final String      title;
+
+    private final String      owner;
+
+    private final String      author;
+
+    private final String      syntax;
+
+    private final String      targetPageId;
+
+    private final String      targetPageRevision;
+
+    private final boolean     newPage;
+
+    private final Date        createdDate;
+
+    private final Date        updatedDate;
+
+    private DraftSummary(DraftPageImpl draft) throws RepositoryException {
+      this.id = draft.getID();
+      this.name = draft.getName();
+      this.title = draft.getTitle();
+      this.owner = draft.getOwner();
+      this.author = draft.getAuthor();
+      this.syntax = draft.getSyntax();
+      this.targetPageId = draft.getTargetPage();
+      this.targetPageRevision = draft.getTargetRevision();
+      this.newPage = draft.isNewPage();
+      this.createdDate = draft.getCreatedDate();
+      this.updatedDate = draft.getUpdatedDate();
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public String getOwner() {
+      return owner;
+    }
+
+    public String getAuthor() {
+      return author;
+    }
+
+    public String getSyntax() {
+      return syntax;
+    }
+
+    public String getTargetPageId() {
+      return targetPageId;
+    }
+
+    public String getTargetPageRevision() {
+      return targetPageRevision;
+    }
+
+    public boolean isNewPage() {
+      return newPage;
+    }
+
+    public Date getCreatedDate() {
+      return createdDate;
+    }
+
+    public Date getUpdatedDate() {
+      return updatedDate;
+    }
+  }
+}
@@ -34,14 +34,21 @@ public class MOWService {
 
   private WikiChromatticLifeCycle chromatticLifeCycle;
 
-  public MOWService(ChromatticManager chromatticManager) {
+  private PermissionCache permissionCache;
+
+  public MOWService(ChromatticManager chromatticManager, PermissionCache permissionCache) {
     this.chromatticLifeCycle = (WikiChromatticLifeCycle) chromatticManager.getLifeCycle(WikiChromatticLifeCycle.WIKI_LIFECYCLE_NAME);
+    this.permissionCache = permissionCache;
   }
 
   public ChromatticSession getSession() {
     return chromatticLifeCycle.getSession();
   }
 
+  public PermissionCache getPermissionCache() {
+    return permissionCache;
+  }
+
   public boolean startSynchronization() {
     if (chromatticLifeCycle.getManager().getSynchronization() == null) {
       chromatticLifeCycle.getManager().beginRequest();
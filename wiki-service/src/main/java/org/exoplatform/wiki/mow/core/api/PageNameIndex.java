@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.mow.core.api;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.mow.core.api.wiki.WikiNodeType;
+
+/**
+ * Index of the wiki pages by wiki and name, giving the UUID of the page node.
+ *
+ * The index is kept in the {@value #CACHE_NAME} cache, so that it is shared
+ * by the cluster nodes, and it is maintained when the pages are created,
+ * renamed, moved and deleted. Since the index may miss changes made outside
+ * of the wiki service, or entries evicted from the cache, the pages found
+ * through the index must be checked by the caller, and a page missing from
+ * the index must be searched in the repository. The pages of a wiki are all
+ * indexed by walking its page nodes, once per wiki and cluster node, and the
+ * entries of the walk are not replicated since every node walks its wikis.
+ *
+ * The names searched in the repository without success are also kept, for
+ * {@value #MISSING_PAGE_TTL_PARAM} seconds, so that the links to missing pages
+ * do not query the repository on every render. These entries are replaced when
+ * a page is created, renamed or moved to that name.
+ */
+public class PageNameIndex {
+
+  private static final Log          log        = ExoLogger.getLogger(PageNameIndex.class);
+
+  public static final String        CACHE_NAME = "wiki.PageNameIndex";
+
+  public static final String        MISSING_PAGE_TTL_PARAM = "missingPage.timeToLive";
+
+  private static final long         DEFAULT_MISSING_PAGE_TTL = 300;
+
+  /** The value of the names known to have no page, followed by the time they were searched */
+  private static final String       MISSING_PAGE_PREFIX = "\u0000missing:";
+
+  private final ExoCache<String, String> index;
+
+  private final long                missingPageTimeToLive;
+
+  /** The wikis whose pages have been walked since the start */
+  private final Set<String>         indexedWikis = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /** The locks of the wikis being walked, so that a wiki is walked by one request at a time */
+  private final ConcurrentMap<String, Object> rebuildLocks = new ConcurrentHashMap<>();
+
+  public PageNameIndex(CacheService cacheService, InitParams initParams) {
+    this.index = cacheService.getCacheInstance(CACHE_NAME);
+    long missingPageTTL = DEFAULT_MISSING_PAGE_TTL;
+    if (initParams != null) {
+      ValueParam missingPageTTLParam = initParams.getValueParam(MISSING_PAGE_TTL_PARAM);
+      if (missingPageTTLParam != null && StringUtils.isNotBlank(missingPageTTLParam.getValue())) {
+        missingPageTTL = Long.parseLong(missingPageTTLParam.getValue().trim());
+      }
+    }
+    this.missingPageTimeToLive = missingPageTTL * 1000;
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param pageName the page name
+   * @return the UUID of the indexed page node, or null
+   */
+  public String getPageUUID(String wikiType, String wikiOwner, String pageName) {
+    String uuid = index.get(getKey(wikiType, wikiOwner, pageName));
+    return (uuid == null || uuid.startsWith(MISSING_PAGE_PREFIX)) ? null : uuid;
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param pageName the page name
+   * @return true if the page was searched in the repository without success recently
+   */
+  public boolean isMissingPage(String wikiType, String wikiOwner, String pageName) {
+    String value = index.get(getKey(wikiType, wikiOwner, pageName));
+    if (value == null || !value.startsWith(MISSING_PAGE_PREFIX)) {
+      return false;
+    }
+    long searchTime = Long.parseLong(value.substring(MISSING_PAGE_PREFIX.length()));
+    return System.currentTimeMillis() - searchTime < missingPageTimeToLive;
+  }
+
+  /**
+   * Keeps a name searched in the repository without success. The entry is
+   * not replicated, the page created with this name replaces it on all the
+   * nodes.
+   */
+  public void putMissingPage(String wikiType, String wikiOwner, String pageName) {
+    if (missingPageTimeToLive > 0) {
+      index.putLocal(getKey(wikiType, wikiOwner, pageName), MISSING_PAGE_PREFIX + System.currentTimeMillis());
+    }
+  }
+
+  public void put(String wikiType, String wikiOwner, String pageName, String uuid) {
+    index.put(getKey(wikiType, wikiOwner, pageName), uuid);
+  }
+
+  public void remove(String wikiType, String wikiOwner, String pageName) {
+    index.remove(getKey(wikiType, wikiOwner, pageName));
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return true if the pages of the wiki have been walked since the start
+   */
+  public boolean isIndexed(String wikiType, String wikiOwner) {
+    return indexedWikis.contains(getWikiKey(wikiType, wikiOwner));
+  }
+
+  /**
+   * Indexes all the pages of a wiki from the repository
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param wikiHomeNode the node of the home page of the wiki
+   * @throws RepositoryException
+   */
+  public void rebuild(String wikiType, String wikiOwner, Node wikiHomeNode) throws RepositoryException {
+    String wikiKey = getWikiKey(wikiType, wikiOwner);
+    Object lock = new Object();
+    Object existingLock = rebuildLocks.putIfAbsent(wikiKey, lock);
+    if (existingLock != null) {
+      lock = existingLock;
+    }
+    synchronized (lock) {
+      try {
+        // the wiki may have been walked by the request which held the lock
+        if (indexedWikis.contains(wikiKey)) {
+          return;
+        }
+        int count = indexChildPages(wikiType, wikiOwner, wikiHomeNode);
+        indexedWikis.add(wikiKey);
+        if (log.isDebugEnabled()) {
+          log.debug(count + " pages of wiki " + wikiKey + " indexed");
+        }
+      } finally {
+        rebuildLocks.remove(wikiKey, lock);
+      }
+    }
+  }
+
+  /**
+   * Clears the index, the pages of the wikis will be walked again
+   */
+  public void clear() {
+    indexedWikis.clear();
+    index.clearCache();
+  }
+
+  private int indexChildPages(String wikiType, String wikiOwner, Node pageNode) throws RepositoryException {
+    int count = 0;
+    NodeIterator nodeIterator = pageNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node childNode = nodeIterator.nextNode();
+      if (childNode.isNodeType(WikiNodeType.WIKI_PAGE) && !childNode.isNodeType(WikiNodeType.WIKI_REMOVED)) {
+        index.putLocal(getKey(wikiType, wikiOwner, childNode.getName()), childNode.getUUID());
+        count += 1 + indexChildPages(wikiType, wikiOwner, childNode);
+      }
+    }
+    return count;
+  }
+
+  private static String getWikiKey(String wikiType, String wikiOwner) {
+    return wikiType + ":" + wikiOwner;
+  }
+
+  private static String getKey(String wikiType, String wikiOwner, String pageName) {
+    return wikiType + ":" + wikiOwner + ":" + pageName;
+  }
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.mow.core.api;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.mow.core.api.wiki.WikiNodeType;
+import org.picocontainer.Startable;
+
+/**
+ * Index of the titles of the wiki pages, by wiki.
+ *
+ * The titles of the pages of a wiki are read once by walking its page nodes,
+ * and kept sorted in memory, along with each word of the titles, so that the
+ * pages whose title has a word starting with a prefix, or the most recently
+ * updated pages, are iterated in order without querying the repository. The
+ * index is updated by the page listeners of the wiki service. Since it is
+ * local to the cluster node, the titles of a wiki are walked again once they
+ * are older than the configured maximum age, and the pages found through the
+ * index must be checked by the caller.
+ *
+ * The titles of a wiki are walked by the first request which needs them, the
+ * concurrent requests waiting for this walk. Once they are too old, they are
+ * walked again in background while the requests keep using them. The pages
+ * changed during a walk are recorded and applied again to the walked titles
+ * before they replace the current ones, so that no change is lost. The titles
+ * of the least recently used wikis are discarded when the configured number
+ * of wikis is indexed.
+ */
+public class PageTitleIndex implements Startable {
+
+  private static final Log          log                = ExoLogger.getLogger(PageTitleIndex.class);
+
+  public static final String        MAX_AGE_PARAM      = "title.index.maxAgeInSeconds";
+
+  public static final String        MAX_WIKIS_PARAM    = "title.index.maxWikis";
+
+  private static final long         DEFAULT_MAX_AGE    = 300;
+
+  private static final int          DEFAULT_MAX_WIKIS  = 200;
+
+  private static final char         SEPARATOR          = '\u0000';
+
+  private final long                maxAge;
+
+  private final MOWService          mowService;
+
+  private final ExoContainer        container;
+
+  /** The titles of the indexed wikis, by wiki, the least recently used first */
+  private final Map<String, WikiTitles> wikis;
+
+  /** The wiki of each indexed page, by UUID */
+  private final Map<String, String> wikiOfPage         = new ConcurrentHashMap<String, String>();
+
+  /** The locks of the wikis being walked, so that a wiki is walked by one request at a time */
+  private final ConcurrentMap<String, Object> rebuildLocks = new ConcurrentHashMap<String, Object>();
+
+  /** The changes of the pages of the wikis being walked, by wiki */
+  private final ConcurrentMap<String, WalkChanges> walkChanges = new ConcurrentHashMap<String, WalkChanges>();
+
+  /** The wikis whose titles are being walked again in background */
+  private final Set<String>         refreshedWikis     = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private ExecutorService           executor;
+
+  public PageTitleIndex(MOWService mowService, InitParams initParams) {
+    this.mowService = mowService;
+    this.container = ExoContainerContext.getCurrentContainer();
+    long age = DEFAULT_MAX_AGE;
+    int maxWikiCount = DEFAULT_MAX_WIKIS;
+    if (initParams != null) {
+      ValueParam maxAgeParam = initParams.getValueParam(MAX_AGE_PARAM);
+      if (maxAgeParam != null && StringUtils.isNotBlank(maxAgeParam.getValue())) {
+        age = Long.parseLong(maxAgeParam.getValue().trim());
+      }
+      ValueParam maxWikisParam = initParams.getValueParam(MAX_WIKIS_PARAM);
+      if (maxWikisParam != null && StringUtils.isNotBlank(maxWikisParam.getValue())) {
+        maxWikiCount = Integer.parseInt(maxWikisParam.getValue().trim());
+      }
+    }
+    this.maxAge = age * 1000;
+    final int maxWikis = Math.max(1, maxWikiCount);
+    this.wikis = Collections.synchronizedMap(new LinkedHashMap<String, WikiTitles>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, WikiTitles> eldest) {
+        if (size() > maxWikis) {
+          removePagesOfWiki(eldest.getKey(), eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    });
+  }
+
+  @Override
+  public void start() {
+    executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "wiki-page-title-index");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return true if the titles of the wiki have been walked and are not older than the maximum age
+   */
+  public boolean isIndexed(String wikiType, String wikiOwner) {
+    WikiTitles titles = wikis.get(getWikiKey(wikiType, wikiOwner));
+    return titles != null && !isOutdated(titles);
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return true if the titles of the wiki have been walked, even if they are older than the maximum age
+   */
+  public boolean hasTitles(String wikiType, String wikiOwner) {
+    return wikis.get(getWikiKey(wikiType, wikiOwner)) != null;
+  }
+
+  /**
+   * Indexes the titles of all the pages of a wiki from the repository. The
+   * concurrent calls for the same wiki wait for the first one, and the wiki
+   * is not walked again if its titles are up to date.
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param wikiHomeNode the node of the home page of the wiki
+   * @throws RepositoryException
+   */
+  public void rebuild(String wikiType, String wikiOwner, Node wikiHomeNode) throws RepositoryException {
+    String wikiKey = getWikiKey(wikiType, wikiOwner);
+    Object lock = new Object();
+    Object existingLock = rebuildLocks.putIfAbsent(wikiKey, lock);
+    if (existingLock != null) {
+      lock = existingLock;
+    }
+    synchronized (lock) {
+      try {
+        WikiTitles currentTitles = wikis.get(wikiKey);
+        if (currentTitles == null || isOutdated(currentTitles)) {
+          walk(wikiKey, wikiHomeNode);
+        }
+      } finally {
+        rebuildLocks.remove(wikiKey, lock);
+      }
+    }
+  }
+
+  /**
+   * Walks the titles of a wiki again in background, the current titles being
+   * used until the walk is over
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param wikiHomePath the path of the home page node of the wiki
+   */
+  public void refresh(final String wikiType, final String wikiOwner, final String wikiHomePath) {
+    final String wikiKey = getWikiKey(wikiType, wikiOwner);
+    if (!refreshedWikis.add(wikiKey)) {
+      return;
+    }
+    Runnable refresh = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          refreshTitles(wikiType, wikiOwner, wikiHomePath);
+        } finally {
+          refreshedWikis.remove(wikiKey);
+        }
+      }
+    };
+    ExecutorService currentExecutor = executor;
+    if (currentExecutor != null) {
+      currentExecutor.execute(refresh);
+    } else {
+      refresh.run();
+    }
+  }
+
+  private void refreshTitles(String wikiType, String wikiOwner, String wikiHomePath) {
+    ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    boolean created = mowService.startSynchronization();
+    try {
+      Node wikiHomeNode = (Node) mowService.getSession().getJCRSession().getItem(wikiHomePath);
+      rebuild(wikiType, wikiOwner, wikiHomeNode);
+    } catch (Exception e) {
+      log.warn("Cannot index the page titles of wiki " + getWikiKey(wikiType, wikiOwner) + " - Cause : " + e.getMessage(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+      RequestLifeCycle.end();
+      ExoContainerContext.setCurrentContainer(previousContainer);
+    }
+  }
+
+  /**
+   * Walks the titles of a wiki. The pages changed during the walk are applied
+   * again once it is over, as the walk may have read them before the change,
+   * and the walked titles replace the current ones at once.
+   */
+  private void walk(String wikiKey, Node wikiHomeNode) throws RepositoryException {
+    WalkChanges changes = new WalkChanges();
+    walkChanges.put(wikiKey, changes);
+    try {
+      WikiTitles titles = new WikiTitles();
+      titles.put(readPageTitle(wikiHomeNode));
+      indexChildPages(titles, wikiHomeNode);
+      synchronized (changes) {
+        changes.closed = true;
+        if (changes.invalidated) {
+          // the wiki has been invalidated during the walk, it will be walked again
+          return;
+        }
+        for (Map.Entry<String, PageTitle> change : changes.pages.entrySet()) {
+          if (change.getValue() != null) {
+            titles.put(change.getValue());
+          } else {
+            titles.remove(change.getKey());
+          }
+        }
+        WikiTitles oldTitles = wikis.put(wikiKey, titles);
+        if (oldTitles != null) {
+          removePagesOfWiki(wikiKey, oldTitles);
+        }
+        for (String uuid : titles.byId.keySet()) {
+          wikiOfPage.put(uuid, wikiKey);
+        }
+      }
+      if (log.isDebugEnabled()) {
+        log.debug(titles.byId.size() + " page titles of wiki " + wikiKey + " indexed");
+      }
+    } finally {
+      synchronized (changes) {
+        changes.closed = true;
+      }
+      walkChanges.remove(wikiKey, changes);
+    }
+  }
+
+  /**
+   * Indexes the title of a page once it has been created or updated, if its
+   * wiki is indexed
+   *
+   * @param wikiType the wiki type of the page
+   * @param wikiOwner the wiki owner of the page
+   * @param uuid the UUID of the page node
+   * @param name the name of the page
+   * @param title the title of the page
+   * @param updatedDate the last update date of the page
+   */
+  public void put(String wikiType, String wikiOwner, String uuid, String name, String title, Date updatedDate) {
+    String wikiKey = getWikiKey(wikiType, wikiOwner);
+    String oldWikiKey = wikiOfPage.get(uuid);
+    if (oldWikiKey != null && !oldWikiKey.equals(wikiKey)) {
+      // the page and its children have been moved from another wiki
+      invalidate(oldWikiKey);
+      invalidate(wikiKey);
+      return;
+    }
+    PageTitle pageTitle = new PageTitle(uuid, name, title, updatedDate);
+    WalkChanges changes = walkChanges.get(wikiKey);
+    if (changes == null) {
+      putTitle(wikiKey, pageTitle);
+      return;
+    }
+    synchronized (changes) {
+      putTitle(wikiKey, pageTitle);
+      if (!changes.closed) {
+        changes.pages.put(uuid, pageTitle);
+        wikiOfPage.put(uuid, wikiKey);
+      }
+    }
+  }
+
+  private void putTitle(String wikiKey, PageTitle pageTitle) {
+    WikiTitles titles = wikis.get(wikiKey);
+    if (titles != null) {
+      titles.put(pageTitle);
+      wikiOfPage.put(pageTitle.getId(), wikiKey);
+    }
+  }
+
+  /**
+   * Removes the title of a page once it has been deleted
+   *
+   * @param uuid the UUID of the page node
+   */
+  public void remove(String uuid) {
+    String wikiKey = wikiOfPage.remove(uuid);
+    if (wikiKey == null) {
+      return;
+    }
+    WalkChanges changes = walkChanges.get(wikiKey);
+    if (changes == null) {
+      removeTitle(wikiKey, uuid);
+      return;
+    }
+    synchronized (changes) {
+      removeTitle(wikiKey, uuid);
+      if (!changes.closed) {
+        changes.pages.put(uuid, null);
+      }
+    }
+  }
+
+  private void removeTitle(String wikiKey, String uuid) {
+    WikiTitles titles = wikis.get(wikiKey);
+    if (titles != null) {
+      titles.remove(uuid);
+    }
+  }
+
+  /**
+   * Discards the titles of a wiki, they will be walked again on the next lookup
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   */
+  public void invalidate(String wikiType, String wikiOwner) {
+    invalidate(getWikiKey(wikiType, wikiOwner));
+  }
+
+  /**
+   * Clears the index, the titles of the wikis will be walked again
+   */
+  public void clear() {
+    for (WalkChanges changes : walkChanges.values()) {
+      synchronized (changes) {
+        changes.invalidated = true;
+      }
+    }
+    wikis.clear();
+    wikiOfPage.clear();
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param titlePrefix the prefix of a word of the titles, case insensitive, or an empty prefix for all the pages
+   * @return the indexed pages of the wiki having a word of their title starting with the prefix, sorted by the
+   *         matching part of their title, each page being returned once
+   */
+  public Iterator<PageTitle> getPagesByTitlePrefix(String wikiType, String wikiOwner, String titlePrefix) {
+    WikiTitles titles = wikis.get(getWikiKey(wikiType, wikiOwner));
+    if (titles == null) {
+      return Collections.<PageTitle>emptyIterator();
+    }
+    if (StringUtils.isEmpty(titlePrefix)) {
+      return titles.byTitle.values().iterator();
+    }
+    String prefix = titlePrefix.toLowerCase();
+    NavigableMap<String, PageTitle> words = titles.byWord.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    return new DistinctPageIterator(words.values().iterator());
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return the indexed pages of the wiki, the most recently updated first
+   */
+  public Iterator<PageTitle> getRecentlyUpdatedPages(String wikiType, String wikiOwner) {
+    WikiTitles titles = wikis.get(getWikiKey(wikiType, wikiOwner));
+    if (titles == null) {
+      return Collections.<PageTitle>emptyIterator();
+    }
+    return titles.byUpdate.values().iterator();
+  }
+
+  private void invalidate(String wikiKey) {
+    WalkChanges changes = walkChanges.get(wikiKey);
+    if (changes != null) {
+      synchronized (changes) {
+        changes.invalidated = true;
+      }
+    }
+    WikiTitles titles = wikis.remove(wikiKey);
+    if (titles != null) {
+      removePagesOfWiki(wikiKey, titles);
+    }
+  }
+
+  private void removePagesOfWiki(String wikiKey, WikiTitles titles) {
+    for (String uuid : titles.byId.keySet()) {
+      wikiOfPage.remove(uuid, wikiKey);
+    }
+  }
+
+  private boolean isOutdated(WikiTitles titles) {
+    return maxAge >= 0 && System.currentTimeMillis() - titles.indexedTime > maxAge;
+  }
+
+  private void indexChildPages(WikiTitles titles, Node pageNode) throws RepositoryException {
+    NodeIterator nodeIterator = pageNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node childNode = nodeIterator.nextNode();
+      if (childNode.isNodeType(WikiNodeType.WIKI_PAGE) && !childNode.isNodeType(WikiNodeType.WIKI_REMOVED)) {
+        titles.put(readPageTitle(childNode));
+        indexChildPages(titles, childNode);
+      }
+    }
+  }
+
+  private static PageTitle readPageTitle(Node pageNode) throws RepositoryException {
+    String title = pageNode.hasProperty(WikiNodeType.Definition.TITLE)
+        ? pageNode.getProperty(WikiNodeType.Definition.TITLE).getString() : pageNode.getName();
+    Date updatedDate = pageNode.hasProperty(WikiNodeType.Definition.UPDATED_DATE)
+        ? pageNode.getProperty(WikiNodeType.Definition.UPDATED_DATE).getDate().getTime() : null;
+    return new PageTitle(pageNode.getUUID(), pageNode.getName(), title, updatedDate);
+  }
+
+  private static String getWikiKey(String wikiType, String wikiOwner) {
+    return wikiType + ":" + wikiOwner;
+  }
+
+  /**
+   * The titles of the pages of a wiki. The maps are iterated without lock
+   * while the updates of a page are serialized.
+   */
+  private static class WikiTitles {
+
+    private final long                                         indexedTime = System.currentTimeMillis();
+
+    private final Map<String, PageTitle>                       byId        = new ConcurrentHashMap<String, PageTitle>();
+
+    /** The pages by lower case title */
+    private final ConcurrentSkipListMap<String, PageTitle>     byTitle     = new ConcurrentSkipListMap<String, PageTitle>();
+
+    /** The pages by lower case end of their title, from the start of each word */
+    private final ConcurrentSkipListMap<String, PageTitle>     byWord      = new ConcurrentSkipListMap<String, PageTitle>();
+
+    /** The pages by descending update date */
+    private final ConcurrentSkipListMap<String, PageTitle>     byUpdate    = new ConcurrentSkipListMap<String, PageTitle>();
+
+    private synchronized void put(PageTitle pageTitle) {
+      remove(pageTitle.getId());
+      byId.put(pageTitle.getId(), pageTitle);
+      byTitle.put(getTitleKey(pageTitle), pageTitle);
+      for (String wordKey : getWordKeys(pageTitle)) {
+        byWord.put(wordKey, pageTitle);
+      }
+      byUpdate.put(getUpdateKey(pageTitle), pageTitle);
+    }
+
+    private synchronized void remove(String uuid) {
+      PageTitle pageTitle = byId.remove(uuid);
+      if (pageTitle != null) {
+        byTitle.remove(getTitleKey(pageTitle));
+        for (String wordKey : getWordKeys(pageTitle)) {
+          byWord.remove(wordKey);
+        }
+        byUpdate.remove(getUpdateKey(pageTitle));
+      }
+    }
+
+    private static String getTitleKey(PageTitle pageTitle) {
+      return pageTitle.getTitle().toLowerCase() + SEPARATOR + pageTitle.getId();
+    }
+
+    private static Set<String> getWordKeys(PageTitle pageTitle) {
+      String title = pageTitle.getTitle().toLowerCase();
+      Set<String> keys = new HashSet<String>();
+      for (int i = 0; i < title.length(); i++) {
+        if (Character.isLetterOrDigit(title.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(title.charAt(i - 1)))) {
+          keys.add(title.substring(i) + SEPARATOR + pageTitle.getId());
+        }
+      }
+      keys.add(title + SEPARATOR + pageTitle.getId());
+      return keys;
+    }
+
+    private static String getUpdateKey(PageTitle pageTitle) {
+      long updated = pageTitle.getUpdatedDate() != null ? pageTitle.getUpdatedDate().getTime() : 0;
+      return String.format("%019d", Long.MAX_VALUE - updated) + SEPARATOR + pageTitle.getId();
+    }
+  }
+
+  /**
+   * The pages of a wiki changed while its titles are walked, guarded by the
+   * instance lock
+   */
+  private static class WalkChanges {
+
+    /** The changed pages by UUID, null for the removed pages, in the order of the changes */
+    private final Map<String, PageTitle> pages = new LinkedHashMap<String, PageTitle>();
+
+    /** true once the walked titles have replaced the current ones, or the walk has failed */
+    private boolean                      closed;
+
+    /** true if the wiki has been invalidated during the walk */
+    private boolean                      invalidated;
+  }
+
+  /**
+   * Skips the pages already returned, a page being indexed once per word of its title
+   */
+  private static class DistinctPageIterator implements Iterator<PageTitle> {
+
+    private final Iterator<PageTitle> iterator;
+
+    private final Set<String>         returned = new HashSet<String>();
+
+    private PageTitle                 next;
+
+    private DistinctPageIterator(Iterator<PageTitle> iterator) {
+      this.iterator = iterator;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (next == null && iterator.hasNext()) {
+        PageTitle pageTitle = iterator.next();
+        if (returned.add(pageTitle.getId())) {
+          next = pageTitle;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public PageTitle next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      PageTitle pageTitle = next;
+      next = null;
+      return pageTitle;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * The title of a page, immutable
+   */
+  public static class PageTitle {
+
+    private final String id;
+
+    private final String name;
+
+    private final String title;
+
+    private final Date   updatedDate;
+
+    private PageTitle(String id, String name, String title, Date updatedDate) {
+      this.id = id;
+      this.name = name;
+      this.title = title != null ? title : name;
+      this.updatedDate = updatedDate;
+    }
+
+    public String getId() {
+      return id;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getTitle() {
+      return title;
+    }
+
+    public Date getUpdatedDate() {
+      return updatedDate;
+    }
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.mow.core.api;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.cache.CacheService;
+import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.jcr.core.ExtendedNode;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.wiki.mow.api.PermissionType;
+import org.exoplatform.wiki.mow.core.api.wiki.PermissionImpl;
+import org.exoplatform.wiki.utils.AccessControlMatcher;
+
+/**
+ * Cache of the permission checks on the wiki nodes.
+ *
+ * The access control list of a node is compiled once into an
+ * {@link AccessControlMatcher}, and the decisions are memoized per user, node
+ * and permission until the end of the request (when the wiki session is
+ * closed). The compiled access control lists can also be kept between
+ * requests, in the {@value #CACHE_NAME} cache, whose time to live should be
+ * short since only the permission changes made through the wiki invalidate it.
+ */
+public class PermissionCache {
+
+  public static final String                   CACHE_NAME                   = "wiki.PermissionCache";
+
+  public static final String                   CROSS_REQUEST_CACHE_PARAM    = "permission.crossRequestCache";
+
+  /** Bounds the memory used by the requests which check many permissions */
+  private static final int                     MAX_REQUEST_DECISIONS        = 10000;
+
+  private static final ThreadLocal<RequestCache> requestCache               = new ThreadLocal<RequestCache>();
+
+  private final ExoCache<String, AccessControlMatcher> accessControlCache;
+
+  public PermissionCache(CacheService cacheService, InitParams initParams) {
+    boolean crossRequestCache = false;
+    if (initParams != null) {
+      ValueParam crossRequestCacheParam = initParams.getValueParam(CROSS_REQUEST_CACHE_PARAM);
+      if (crossRequestCacheParam != null && StringUtils.isNotBlank(crossRequestCacheParam.getValue())) {
+        crossRequestCache = Boolean.parseBoolean(crossRequestCacheParam.getValue().trim());
+      }
+    }
+    this.accessControlCache = crossRequestCache ? cacheService.<String, AccessControlMatcher>getCacheInstance(CACHE_NAME) : null;
+  }
+
+  /**
+   * Checks a permission of a user on a node. The node is only fetched if its
+   * access control list is not cached yet.
+   *
+   * @param session the JCR session used to fetch the node
+   * @param path the path of the node
+   * @param permissionType the permission to check
+   * @param user the user identity
+   * @return true if the user has the permission on the node
+   * @throws RepositoryException
+   */
+  public boolean hasPermission(Session session, String path, PermissionType permissionType, Identity user) throws RepositoryException {
+    RequestCache cache = getRequestCache();
+    String decisionKey = user.getUserId() + "|" + permissionType + "|" + path;
+    Boolean decision = cache.decisions.get(decisionKey);
+    if (decision == null) {
+      AccessControlMatcher matcher = getAccessControlMatcher(cache, session, path);
+      decision = matcher.hasPermission(PermissionImpl.getJCRPermissions(permissionType), user);
+      if (cache.decisions.size() >= MAX_REQUEST_DECISIONS) {
+        cache.decisions.clear();
+      }
+      cache.decisions.put(decisionKey, decision);
+    }
+    return decision;
+  }
+
+  /**
+   * Checks a permission of a user on a node already fetched.
+   *
+   * @param node the node
+   * @param permissionType the permission to check
+   * @param user the user identity
+   * @return true if the user has the permission on the node
+   * @throws RepositoryException
+   */
+  public boolean hasPermission(Node node, PermissionType permissionType, Identity user) throws RepositoryException {
+    return hasPermission(node.getSession(), node.getPath(), permissionType, user);
+  }
+
+  /**
+   * Invalidates the cached permissions, to be called when the permissions of
+   * a node change. The whole cache is cleared since the nodes without their
+   * own access control list inherit the one of their parent.
+   */
+  public void invalidate() {
+    requestCache.remove();
+    if (accessControlCache != null) {
+      accessControlCache.clearCache();
+    }
+  }
+
+  /**
+   * Ends the request of the current thread, the decisions memoized during
+   * the request are discarded.
+   */
+  public static void endRequest() {
+    requestCache.remove();
+  }
+
+  private AccessControlMatcher getAccessControlMatcher(RequestCache cache, Session session, String path) throws RepositoryException {
+    AccessControlMatcher matcher = cache.matchers.get(path);
+    if (matcher == null && accessControlCache != null) {
+      matcher = accessControlCache.get(path);
+    }
+    if (matcher == null) {
+      matcher = new AccessControlMatcher(((ExtendedNode) session.getItem(path)).getACL());
+      if (accessControlCache != null) {
+        accessControlCache.put(path, matcher);
+      }
+    }
+    if (cache.matchers.size() >= MAX_REQUEST_DECISIONS) {
+      cache.matchers.clear();
+    }
+    cache.matchers.put(path, matcher);
+    return matcher;
+  }
+
+  private RequestCache getRequestCache() {
+    RequestCache cache = requestCache.get();
+    if (cache == null) {
+      cache = new RequestCache();
+      requestCache.set(cache);
+    }
+    return cache;
+  }
+
+  private static class RequestCache {
+    private final Map<String, AccessControlMatcher> matchers  = new HashMap<String, AccessControlMatcher>();
+
+    private final Map<String, Boolean>              decisions = new HashMap<String, Boolean>();
+  }
+}
@@ -18,6 +18,7 @@ package org.exoplatform.wiki.mow.core.api.wiki;
 
 import org.chromattic.api.ChromatticSession;
 import org.chromattic.api.RelationshipType;
+import org.chromattic.api.UndeclaredRepositoryException;
 import org.chromattic.api.annotations.*;
 import org.chromattic.ext.ntdef.NTFile;
 import org.chromattic.ext.ntdef.Resource;
@@ -32,6 +33,7 @@ import org.exoplatform.wiki.utils.Utils;
 import javax.jcr.Node;
 import javax.jcr.RepositoryException;
 import javax.jcr.version.Version;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.util.Calendar;
@@ -80,6 +82,47 @@ public abstract class AttachmentImpl extends NTFile implements Comparable<Attach
     return getContentResource().getData().length;
   }
   
+  /**
+   * @return the size of the binary content, read from the JCR property without loading the data
+   */
+  public long getContentLength() {
+    try {
+      return getJCRContentNode().getProperty(WikiNodeType.Definition.DATA).getLength();
+    } catch (RepositoryException e) {
+      throw new UndeclaredRepositoryException(e);
+    }
+  }
+
+  /**
+   * @return the mime type of the binary content, read without loading the data
+   */
+  public String getContentMimeType() {
+    try {
+      Node contentNode = getJCRContentNode();
+      if (contentNode.hasProperty(WikiNodeType.Definition.MIMETYPE)) {
+        return contentNode.getProperty(WikiNodeType.Definition.MIMETYPE).getString();
+      }
+      return null;
+    } catch (RepositoryException e) {
+      throw new UndeclaredRepositoryException(e);
+    }
+  }
+
+  /**
+   * Opens a stream on the binary content. The stream must be consumed and
+   * closed before the current session is closed.
+   *
+   * @return the stream of the binary content
+   * @throws RepositoryException
+   */
+  public InputStream getContentStream() throws RepositoryException {
+    return getJCRContentNode().getProperty(WikiNodeType.Definition.DATA).getStream();
+  }
+
+  private Node getJCRContentNode() throws RepositoryException {
+    return (Node) getChromatticSession().getJCRSession().getItem(getJCRContentPath());
+  }
+
   public Calendar getUpdatedDate() {
     Calendar calendar = GregorianCalendar.getInstance();
     calendar.setTime(getLastModified());
@@ -88,7 +131,7 @@ public abstract class AttachmentImpl extends NTFile implements Comparable<Attach
   
   public String getDownloadURL() {
     StringBuilder sb = new StringBuilder();
-    String mimeType = getContentResource().getMimeType();
+    String mimeType = getContentMimeType();
     PageImpl page = this.getParentPage();
     WikiImpl wiki = page.getWiki();
     if (mimeType != null && mimeType.startsWith("image/") && wiki != null) {
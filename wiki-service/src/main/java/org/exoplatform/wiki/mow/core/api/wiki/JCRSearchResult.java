@@ -9,6 +9,8 @@ public class JCRSearchResult extends SearchResult {
 
   protected String path;
 
+  protected String pagePath;
+
   public void setPath(String path) {
     this.path = path;
   }
@@ -16,4 +18,14 @@ public class JCRSearchResult extends SearchResult {
     return path;
   }
 
+  /**
+   * @param pagePath the path of the page found, or of the page of the attachment found
+   */
+  public void setPagePath(String pagePath) {
+    this.pagePath = pagePath;
+  }
+  public String getPagePath() {
+    return pagePath;
+  }
+
 }
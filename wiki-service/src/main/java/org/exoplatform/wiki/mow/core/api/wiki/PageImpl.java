@@ -124,13 +124,6 @@ public abstract class PageImpl extends NTFolder {
       content = createContent();
       setContentByChromattic(content);
       content.setText("");
-    } else {
-      String syntax = getSyntax();
-      if (Syntax.CONFLUENCE_1_0.toIdString().equals(syntax)) {
-        content.setText(ConfluenceToXWiki2Transformer.transformContent(content.getText(), componentManager));
-        setSyntax(Syntax.XWIKI_2_0.toIdString());
-        setContentByChromattic(content);
-      }
     }
     return content;
   }
@@ -349,23 +342,43 @@ public abstract class PageImpl extends NTFolder {
   }
   
   public AttachmentImpl getAttachment(String attachmentId) {
-    for (AttachmentImpl attachment : getAttachments()) {
-      if (attachment.getName().equals(attachmentId)
-          && (attachment.hasPermission(PermissionType.VIEW_ATTACHMENT)
-          || attachment.hasPermission(PermissionType.EDIT_ATTACHMENT))) {
-        return attachment;
-      }
+    AttachmentImpl attachment = findAttachment(attachmentId);
+    if (attachment != null
+        && (attachment.hasPermission(PermissionType.VIEW_ATTACHMENT)
+        || attachment.hasPermission(PermissionType.EDIT_ATTACHMENT))) {
+      return attachment;
     }
     return null;
   }
   
   public AttachmentImpl getAttachmentByRootPermisison(String attachmentId) throws Exception {
-    for (AttachmentImpl attachment : getAttachments()) {
-      if (attachment.getName().equals(attachmentId)) {
-        return attachment;
+    return findAttachment(attachmentId);
+  }
+
+  /**
+   * Gets an attachment by its name, without loading the other attachments
+   * @param attachmentId the name of the attachment
+   * @return the attachment, or null if it does not exist
+   */
+  private AttachmentImpl findAttachment(String attachmentId) {
+    try {
+      Node pageNode = getJCRPageNode();
+      if (pageNode.hasNode(attachmentId)) {
+        Node node = pageNode.getNode(attachmentId);
+        if (node.isNodeType(WikiNodeType.WIKI_ATTACHMENT) && node.getParent().isSame(pageNode)) {
+          return getChromatticSession().findByNode(AttachmentImpl.class, node);
+        }
       }
+      return null;
+    } catch (RepositoryException e) {
+      // the name is not a valid relative path, look for it among the attachments
+      for (AttachmentImpl attachment : getAttachments()) {
+        if (attachment.getName().equals(attachmentId)) {
+          return attachment;
+        }
+      }
+      return null;
     }
-    return null;
   }
   
   public void addAttachment(AttachmentImpl attachment) throws DuplicateNameException {
@@ -407,7 +420,20 @@ public abstract class PageImpl extends NTFolder {
     }
     return result;
   }
-  
+
+  /**
+   * Gets a child page by its name, without loading the other child pages
+   * @param name the name of the child page
+   * @return the child page, or null if it does not exist or is not viewable
+   */
+  public PageImpl getChildPage(String name) {
+    PageImpl page = getChildrenContainer().get(name);
+    if (page != null && page.hasPermission(PermissionType.VIEWPAGE)) {
+      return page;
+    }
+    return null;
+  }
+
   public Map<String, PageImpl> getChildrenByRootPermission() {
     TreeMap<String, PageImpl> result = new TreeMap<String, PageImpl>(new Comparator<String>() {
       @Override
@@ -425,6 +451,15 @@ public abstract class PageImpl extends NTFolder {
     }
     return result;
   }
+
+  /**
+   * Gets a child page by its name, whatever the permissions of the current user
+   * @param name the name of the child page
+   * @return the child page, or null if it does not exist
+   */
+  public PageImpl getChildByRootPermission(String name) {
+    return getChildrenContainer().get(name);
+  }
   
   @Property(name = WikiNodeType.Definition.OVERRIDEPERMISSION)
   public abstract boolean getOverridePermission();
@@ -644,7 +679,12 @@ public abstract class PageImpl extends NTFolder {
    * based on the history of page node, 2.remove the mix:versionable from page node. 
    * @throws RepositoryException
    */
-  public void migrateLegacyData() throws RepositoryException {
+  /**
+   * Moves the history of a legacy page to its content node. The mix:versionable
+   * of the page is removed afterwards, in a separate thread.
+   * @return true if the history has been moved
+   */
+  public boolean migrateLegacyData() throws RepositoryException {
     //migrate only when the current Page Node is mix:versionable
     if (this.getJCRPageNode().isNodeType(WikiNodeType.MIX_VERSIONABLE) && 
         (this.getContent().getVersionableMixinByChromattic() == null)) {
@@ -701,7 +741,9 @@ public abstract class PageImpl extends NTFolder {
       pageNode.save();
       //remove mix:versionable of the page itself
       removeMixVersionable(pageNode);
+      return true;
     }
+    return false;
   }
   
   @OneToOne(type = RelationshipType.EMBEDDED)
@@ -713,8 +755,11 @@ public abstract class PageImpl extends NTFolder {
   @Create
   public abstract UpdateAttachmentMixin createUpdateAttachmentMixin();
 
-  /* Grant read permission for any for all attachments */
-  public void migrateAttachmentPermission() throws WikiException {
+  /**
+   * Grant read permission for any for all attachments
+   * @return true if the permissions of the attachments have been migrated
+   */
+  public boolean migrateAttachmentPermission() throws WikiException {
 
     boolean isGroupWiki = PortalConfig.GROUP_TYPE.equals(this.getWiki().getType());
     UpdateAttachmentMixin updateAttachment = this.getUpdateAttachmentMixin();
@@ -744,9 +789,25 @@ public abstract class PageImpl extends NTFolder {
       }
       updateAttachment = this.createUpdateAttachmentMixin();
       this.setUpdateAttachmentMixin(updateAttachment);
+      return true;
     }
+    return false;
   }
   
+  /**
+   * Converts the content of a page written in the Confluence syntax to the XWiki 2.0 syntax.
+   * @return true if the content has been converted
+   */
+  public boolean migrateConfluenceContent() {
+    if (!Syntax.CONFLUENCE_1_0.toIdString().equals(getSyntax())) {
+      return false;
+    }
+    AttachmentImpl content = getContent();
+    content.setText(ConfluenceToXWiki2Transformer.transformContent(content.getText(), componentManager));
+    setSyntax(Syntax.XWIKI_2_0.toIdString());
+    return true;
+  }
+
   private void removeMixVersionable(Node node) {
     (new Thread(new RemoveMixVersionable(node))).start();    
   }
@@ -28,6 +28,7 @@ import org.exoplatform.services.security.IdentityConstants;
 import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.PermissionType;
 import org.exoplatform.wiki.mow.core.api.MOWService;
+import org.exoplatform.wiki.mow.core.api.PermissionCache;
 import org.exoplatform.wiki.utils.JCRUtils;
 
 import javax.jcr.Node;
@@ -35,11 +36,16 @@ import javax.jcr.RepositoryException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class PermissionImpl {
   private static final Log log = ExoLogger.getLogger(PermissionImpl.class);
 
+  private static final String PRIVILEGEABLE_MIXIN = "exo:privilegeable";
+
   protected MOWService mowService;
 
   public void setMOWService(MOWService mowService) {
@@ -85,18 +91,32 @@ public class PermissionImpl {
     return hasPermission(permissionType, jcrPath, user);
   }
 
-  public boolean hasPermission(PermissionType permissionType, String jcrPath, Identity user) {
-    // Convert permissionType to JCR permission
-    String[] permission = new String[] {};
+  /**
+   * Converts a wiki permission type to the JCR actions it requires
+   * @param permissionType the wiki permission type
+   * @return the JCR actions
+   */
+  public static String[] getJCRPermissions(PermissionType permissionType) {
     if (PermissionType.VIEWPAGE.equals(permissionType) || PermissionType.VIEW_ATTACHMENT.equals(permissionType)) {
-      permission = new String[] { org.exoplatform.services.jcr.access.PermissionType.READ };
+      return new String[] { org.exoplatform.services.jcr.access.PermissionType.READ };
     } else if (PermissionType.EDITPAGE.equals(permissionType) || PermissionType.EDIT_ATTACHMENT.equals(permissionType)) {
-      permission = new String[] { org.exoplatform.services.jcr.access.PermissionType.ADD_NODE,
+      return new String[] { org.exoplatform.services.jcr.access.PermissionType.ADD_NODE,
           org.exoplatform.services.jcr.access.PermissionType.REMOVE,
           org.exoplatform.services.jcr.access.PermissionType.SET_PROPERTY };
     }
+    return new String[] {};
+  }
 
+  public boolean hasPermission(PermissionType permissionType, String jcrPath, Identity user) {
     try {
+      PermissionCache permissionCache = (mowService != null) ? mowService.getPermissionCache() : null;
+      if (permissionCache != null) {
+        return permissionCache.hasPermission(getChromatticSession().getJCRSession(), jcrPath, permissionType, user);
+      }
+
+      // Convert permissionType to JCR permission
+      String[] permission = getJCRPermissions(permissionType);
+
       // Get ACL
       ExtendedNode extendedNode = (ExtendedNode) getJCRNode(jcrPath);
       AccessControlList acl = extendedNode.getACL();
@@ -113,21 +133,70 @@ public class PermissionImpl {
     getChromatticSession().save();
     try {
       ExtendedNode extendedNode = (ExtendedNode) getJCRNode(jcrPath);
-      if (extendedNode.canAddMixin("exo:privilegeable")) {
-        extendedNode.addMixin("exo:privilegeable");
-      }
-
-      if (permissions != null && permissions.size() > 0) {
-        extendedNode.setPermissions(permissions);
-      } else {
-        extendedNode.clearACL();
-        extendedNode.setPermission(IdentityConstants.ANY, org.exoplatform.services.jcr.access.PermissionType.ALL);
+      applyPermissions(extendedNode, permissions);
+      if (mowService.getPermissionCache() != null) {
+        mowService.getPermissionCache().invalidate();
       }
     } catch(RepositoryException e) {
       throw new WikiException("Cannot set permissions on node " + jcrPath, e);
     }
   }
 
+  /**
+   * Sets the access control list of a node, without saving it. The node is
+   * open to anyone when no permission is given.
+   * @param node the node
+   * @param permissions the JCR actions by identity
+   * @throws RepositoryException
+   */
+  public static void applyPermissions(ExtendedNode node, HashMap<String, String[]> permissions) throws RepositoryException {
+    if (node.canAddMixin(PRIVILEGEABLE_MIXIN)) {
+      node.addMixin(PRIVILEGEABLE_MIXIN);
+    }
+
+    if (permissions != null && permissions.size() > 0) {
+      node.setPermissions(permissions);
+    } else {
+      node.clearACL();
+      node.setPermission(IdentityConstants.ANY, org.exoplatform.services.jcr.access.PermissionType.ALL);
+    }
+  }
+
+  /**
+   * Checks if a node has its own access control list, made of the given
+   * permissions
+   * @param node the node
+   * @param permissions the JCR actions by identity, the node is expected to be
+   *          open to anyone when no permission is given
+   * @return true if applying the permissions would not change the node
+   * @throws RepositoryException
+   */
+  public static boolean hasPermissions(ExtendedNode node, HashMap<String, String[]> permissions) throws RepositoryException {
+    if (!node.isNodeType(PRIVILEGEABLE_MIXIN)) {
+      return false;
+    }
+    Map<String, Set<String>> expected = new HashMap<>();
+    if (permissions != null && permissions.size() > 0) {
+      for (Map.Entry<String, String[]> permission : permissions.entrySet()) {
+        if (permission.getValue().length > 0) {
+          expected.put(permission.getKey(), new HashSet<>(Arrays.asList(permission.getValue())));
+        }
+      }
+    } else {
+      expected.put(IdentityConstants.ANY, new HashSet<>(Arrays.asList(org.exoplatform.services.jcr.access.PermissionType.ALL)));
+    }
+    Map<String, Set<String>> actual = new HashMap<>();
+    for (AccessControlEntry ace : node.getACL().getPermissionEntries()) {
+      Set<String> actions = actual.get(ace.getIdentity());
+      if (actions == null) {
+        actions = new HashSet<>();
+        actual.put(ace.getIdentity(), actions);
+      }
+      actions.add(ace.getPermission());
+    }
+    return expected.equals(actual);
+  }
+
   protected ChromatticSession getChromatticSession() {
     return mowService.getSession();
   }
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.rendering.cache;
+
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
+import org.exoplatform.services.cache.ExoCache;
+
+/**
+ * Collects the statistics of a wiki cache so that it can be sized under load.
+ *
+ * Hits, misses and size are read from the underlying {@link ExoCache}, the
+ * evictions and explicit invalidations are counted by listening to the cache.
+ */
+public class CacheStatistics<K extends Serializable, V> implements CacheListener<K, V> {
+
+  private final ExoCache<K, V> cache;
+
+  private final AtomicLong     evictions     = new AtomicLong();
+
+  private final AtomicLong     invalidations = new AtomicLong();
+
+  public CacheStatistics(ExoCache<K, V> cache) {
+    this.cache = cache;
+    cache.addCacheListener(this);
+  }
+
+  public String getName() {
+    return cache.getName();
+  }
+
+  public int getSize() {
+    return cache.getCacheSize();
+  }
+
+  public int getMaxSize() {
+    return cache.getMaxSize();
+  }
+
+  public int getHits() {
+    return cache.getCacheHit();
+  }
+
+  public int getMisses() {
+    return cache.getCacheMiss();
+  }
+
+  /**
+   * @return the ratio of hits over all the get requests, 0 if the cache has not been requested yet
+   */
+  public double getHitRatio() {
+    long hits = getHits();
+    long total = hits + getMisses();
+    return total == 0 ? 0 : (double) hits / total;
+  }
+
+  /**
+   * @return the number of entries dropped by the cache itself (capacity or live time)
+   */
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  /**
+   * @return the number of entries removed by the wiki on content change
+   */
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  @Override
+  public void onExpire(CacheListenerContext context, K key, V obj) throws Exception {
+    evictions.incrementAndGet();
+  }
+
+  @Override
+  public void onRemove(CacheListenerContext context, K key, V obj) throws Exception {
+    if (obj != null) {
+      invalidations.incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onPut(CacheListenerContext context, K key, V obj) throws Exception {
+  }
+
+  @Override
+  public void onGet(CacheListenerContext context, K key, V obj) throws Exception {
+  }
+
+  @Override
+  public void onClearCache(CacheListenerContext context) throws Exception {
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s[size=%d/%d, hits=%d, misses=%d, evictions=%d, invalidations=%d]",
+                         getName(), getSize(), getMaxSize(), getHits(), getMisses(), getEvictions(), getInvalidations());
+  }
+}
@@ -18,59 +18,105 @@ package org.exoplatform.wiki.rendering.cache;
 
 import java.io.Serializable;
 
-import org.exoplatform.container.ExoContainerContext;
-import org.exoplatform.services.jcr.RepositoryService;
 import org.exoplatform.wiki.service.WikiPageParams;
 
+/**
+ * Key of the wiki caches (rendering, attachment count and page uuid).
+ * 
+ * The key is immutable: the page identity is copied at construction time
+ * and the hash code is computed once, so lookups do not re-hash the key
+ * and a mutated {@link WikiPageParams} can not corrupt the cache.
+ */
 public class MarkupKey implements Serializable {
 
-  private WikiPageParams pageParams;
+  private static final long serialVersionUID = -4313626468946381620L;
+
+  private final String  repoName;
+
+  private final String  wikiType;
+
+  private final String  wikiOwner;
 
-  private String         sourceSyntax;
+  private final String  pageName;
 
-  private String         targetSyntax;
+  private final String  sourceSyntax;
 
-  private boolean        supportSectionEdit;
-  
-  private String         repoName;
+  private final String  targetSyntax;
+
+  private final boolean supportSectionEdit;
+
+  private final int     hash;
 
   /**
    * Instance new markup key
    *
+   * @param repoName the name of the repository the page belongs to
    * @param pageParams the identity params of page
    * @param sourceSyntax the source syntax
    * @param targetSyntax the target syntax
    * @param supportSectionEdit the content supports section editing or not
    */
-  public MarkupKey(WikiPageParams pageParams, String sourceSyntax, String targetSyntax, boolean supportSectionEdit) {
-    this.pageParams = pageParams;
+  public MarkupKey(String repoName, WikiPageParams pageParams, String sourceSyntax, String targetSyntax, boolean supportSectionEdit) {
+    this(repoName,
+         pageParams == null ? null : pageParams.getType(),
+         pageParams == null ? null : pageParams.getOwner(),
+         pageParams == null ? null : pageParams.getPageName(),
+         sourceSyntax,
+         targetSyntax,
+         supportSectionEdit);
+  }
+
+  private MarkupKey(String repoName,
+                    String wikiType,
+                    String wikiOwner,
+                    String pageName,
+                    String sourceSyntax,
+                    String targetSyntax,
+                    boolean supportSectionEdit) {
+    this.repoName = (repoName == null) ? "" : repoName.intern();
+    this.wikiType = wikiType;
+    this.wikiOwner = wikiOwner;
+    this.pageName = pageName;
     this.sourceSyntax = sourceSyntax;
     this.targetSyntax = targetSyntax;
     this.supportSectionEdit = supportSectionEdit;
-    
-    RepositoryService repositoryService = (RepositoryService) ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(RepositoryService.class);
-    try {
-      repoName = repositoryService.getCurrentRepository().getConfiguration().getName();
-    } catch (Exception e) {
-      repoName = "";
-    }
+    this.hash = computeHashCode();
   }
 
-  /* (non-Javadoc)
-   * @see java.lang.Object#hashCode()
+  /**
+   * Creates a key for the same page and syntaxes with another section editing flag
+   *
+   * @param supportSectionEdit the content supports section editing or not
+   * @return the new key
    */
-  @Override
-  public int hashCode() {
+  public MarkupKey withSupportSectionEdit(boolean supportSectionEdit) {
+    if (this.supportSectionEdit == supportSectionEdit) {
+      return this;
+    }
+    return new MarkupKey(repoName, wikiType, wikiOwner, pageName, sourceSyntax, targetSyntax, supportSectionEdit);
+  }
+
+  private int computeHashCode() {
     final int prime = 31;
     int result = 1;
     result = prime * result + repoName.hashCode();
-    result = prime * result + ((pageParams == null) ? 0 : pageParams.hashCode());
+    result = prime * result + ((wikiType == null) ? 0 : wikiType.hashCode());
+    result = prime * result + ((wikiOwner == null) ? 0 : wikiOwner.hashCode());
+    result = prime * result + ((pageName == null) ? 0 : pageName.hashCode());
     result = prime * result + ((sourceSyntax == null) ? 0 : sourceSyntax.hashCode());
     result = prime * result + (supportSectionEdit ? 1231 : 1237);
     result = prime * result + ((targetSyntax == null) ? 0 : targetSyntax.hashCode());
     return result;
   }
 
+  /* (non-Javadoc)
+   * @see java.lang.Object#hashCode()
+   */
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
   /* (non-Javadoc)
    * @see java.lang.Object#equals(java.lang.Object)
    */
@@ -83,27 +129,57 @@ public class MarkupKey implements Serializable {
     if (getClass() != obj.getClass())
       return false;
     MarkupKey other = (MarkupKey) obj;
-    if (pageParams == null) {
-      if (other.pageParams != null)
-        return false;
-    } else if (!pageParams.equals(other.pageParams))
-      return false;
-    if (sourceSyntax == null) {
-      if (other.sourceSyntax != null)
-        return false;
-    } else if (!sourceSyntax.equals(other.sourceSyntax))
+    if (hash != other.hash)
       return false;
     if (supportSectionEdit != other.supportSectionEdit)
       return false;
-    if (targetSyntax == null) {
-      if (other.targetSyntax != null)
-        return false;
-    } else if (!targetSyntax.equals(other.targetSyntax))
+    if (!repoName.equals(other.repoName))
+      return false;
+    if (!equals(pageName, other.pageName))
+      return false;
+    if (!equals(wikiOwner, other.wikiOwner))
+      return false;
+    if (!equals(wikiType, other.wikiType))
+      return false;
+    if (!equals(sourceSyntax, other.sourceSyntax))
+      return false;
+    if (!equals(targetSyntax, other.targetSyntax))
       return false;
-    if (!repoName.equals(other.repoName)) return false;
     return true;
   }
 
+  private static boolean equals(String a, String b) {
+    return (a == null) ? b == null : a.equals(b);
+  }
+
+  /**
+   * @return the page params identified by this key
+   */
+  public WikiPageParams getPageParams() {
+    return new WikiPageParams(wikiType, wikiOwner, pageName);
+  }
+
+  /**
+   * @return the repository name
+   */
+  public String getRepoName() {
+    return repoName;
+  }
+
+  /**
+   * @return the source syntax
+   */
+  public String getSourceSyntax() {
+    return sourceSyntax;
+  }
+
+  /**
+   * @return the target syntax
+   */
+  public String getTargetSyntax() {
+    return targetSyntax;
+  }
+
   /**
    * @return the supportSectionEdit
    */
@@ -111,10 +187,9 @@ public class MarkupKey implements Serializable {
     return supportSectionEdit;
   }
 
-  /**
-   * @param supportSectionEdit the supportSectionEdit to set
-   */
-  public void setSupportSectionEdit(boolean supportSectionEdit) {
-    this.supportSectionEdit = supportSectionEdit;
+  @Override
+  public String toString() {
+    return "MarkupKey[" + repoName + ":" + wikiType + ":" + wikiOwner + ":" + pageName + ", " + sourceSyntax + " -> "
+        + targetSyntax + (supportSectionEdit ? ", sectionEdit" : "") + "]";
   }
 }
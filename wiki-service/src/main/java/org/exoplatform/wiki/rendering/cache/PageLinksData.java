@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.rendering.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Entry of the reverse dependency index of the rendering cache.
+ *
+ * For a page, it stores the keys of its own cached renders and the pages
+ * whose rendered content embeds it (included pages, children or page tree
+ * macros, links, images...). Instances are immutable, updates create a copy.
+ */
+public class PageLinksData implements CacheData<Set<MarkupKey>> {
+
+  private static final long serialVersionUID = 2967206153093960744L;
+
+  private final LinkedHashSet<MarkupKey> renderKeys;
+
+  private final LinkedHashSet<MarkupKey> dependents;
+
+  public PageLinksData() {
+    this(new LinkedHashSet<MarkupKey>(), new LinkedHashSet<MarkupKey>());
+  }
+
+  private PageLinksData(LinkedHashSet<MarkupKey> renderKeys, LinkedHashSet<MarkupKey> dependents) {
+    this.renderKeys = renderKeys;
+    this.dependents = dependents;
+  }
+
+  /**
+   * @return the keys of the pages whose rendered content depends on this page
+   */
+  @Override
+  public Set<MarkupKey> build() {
+    return getDependents();
+  }
+
+  public Set<MarkupKey> getDependents() {
+    return Collections.unmodifiableSet(dependents);
+  }
+
+  public Set<MarkupKey> getRenderKeys() {
+    return Collections.unmodifiableSet(renderKeys);
+  }
+
+  public boolean hasDependent(MarkupKey pageKey) {
+    return dependents.contains(pageKey);
+  }
+
+  public boolean hasRenderKey(MarkupKey renderKey) {
+    return renderKeys.contains(renderKey);
+  }
+
+  /**
+   * Creates a copy of this entry with one more dependent page.
+   * If the number of dependents exceeds the given bound, the oldest one is dropped.
+   *
+   * @param pageKey the key of the dependent page
+   * @param maxDependents the maximum number of dependents to keep
+   * @return the new entry
+   */
+  public PageLinksData withDependent(MarkupKey pageKey, int maxDependents) {
+    LinkedHashSet<MarkupKey> newDependents = new LinkedHashSet<MarkupKey>(dependents);
+    newDependents.add(pageKey);
+    while (newDependents.size() > maxDependents) {
+      newDependents.remove(newDependents.iterator().next());
+    }
+    return new PageLinksData(renderKeys, newDependents);
+  }
+
+  /**
+   * Creates a copy of this entry with one more cached render of the page
+   *
+   * @param renderKey the key of the rendering cache entry
+   * @return the new entry
+   */
+  public PageLinksData withRenderKey(MarkupKey renderKey) {
+    LinkedHashSet<MarkupKey> newRenderKeys = new LinkedHashSet<MarkupKey>(renderKeys);
+    newRenderKeys.add(renderKey);
+    return new PageLinksData(newRenderKeys, dependents);
+  }
+}
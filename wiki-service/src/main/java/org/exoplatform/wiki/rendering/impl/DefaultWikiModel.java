@@ -20,7 +20,6 @@ import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
-import org.exoplatform.wiki.mow.api.Attachment;
 import org.exoplatform.wiki.mow.api.EmotionIcon;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
@@ -106,8 +105,7 @@ public class DefaultWikiModel implements WikiModel {
     String imageName = imageReference.getReference();
     StringBuilder sb = new StringBuilder();
     try {
-      WikiService wikiService = ExoContainerContext.getCurrentContainer()
-              .getComponentInstanceOfType(WikiService.class);
+      RenderResourceResolver resolver = getResourceResolver();
 
       ResourceType resourceType = ResourceType.ICON.equals(imageReference.getType()) ? ResourceType.ICON : ResourceType.ATTACHMENT;
       WikiContext wikiMarkupContext = markupContextManager.getMarkupContext(imageName, resourceType);
@@ -116,25 +114,27 @@ public class DefaultWikiModel implements WikiModel {
       String domainURL = portalURL.substring(0, portalURL.indexOf("/"+portalContainerName));
       sb.append(domainURL);
       WikiContext context = getWikiContext();
-      wikiService.addPageLink(new WikiPageParams(context.getType(), context.getOwner(), context.getPageName()),
+      resolver.addPageLink(new WikiPageParams(context.getType(), context.getOwner(), context.getPageName()),
                                         new WikiPageParams(wikiMarkupContext.getType(),
                                                            wikiMarkupContext.getOwner(),
                                                            wikiMarkupContext.getPageName()));
-      wikiService.addPageLink(new WikiPageParams(context.getType(), context.getOwner(), context.getPageName()),
+      resolver.addPageLink(new WikiPageParams(context.getType(), context.getOwner(), context.getPageName()),
                                         new WikiPageParams(wikiMarkupContext.getType(),
                                                            wikiMarkupContext.getOwner(),
                                                            wikiMarkupContext.getPageName(),
                                                            wikiMarkupContext.getAttachmentName()));
-      Page page;
       String attachmentName = TitleResolver.getId(wikiMarkupContext.getAttachmentName(), false);
       if (ResourceType.ATTACHMENT.equals(resourceType)) {
-        page = wikiService.getExsitedOrNewDraftPageById(wikiMarkupContext.getType(), wikiMarkupContext.getOwner(), wikiMarkupContext.getPageName());
-
-        Attachment att = wikiService.getAttachmentOfPageByName(attachmentName, page);
-        if (att != null) {
-          sb.append(att.getDownloadURL());
+        // the page being created has no page yet, its attachments are on the draft of the user
+        String downloadURL = resolver.getAttachmentURL(wikiMarkupContext.getType(),
+                                                       wikiMarkupContext.getOwner(),
+                                                       wikiMarkupContext.getPageName(),
+                                                       attachmentName);
+        if (downloadURL != null) {
+          sb.append(downloadURL);
         }
       } else {
+        WikiService wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
         EmotionIcon emotionIcon = wikiService.getEmotionIconByName(attachmentName);
         if(emotionIcon != null) {
           sb.append("/rest/wiki/emoticons/" + emotionIcon.getName());
@@ -157,15 +157,14 @@ public class DefaultWikiModel implements WikiModel {
   public boolean isDocumentAvailable(ResourceReference documentReference) {
     // Should look for pages in the model with the given title
     // (Page.findPageByTitle())
-    WikiService wikiService = ExoContainerContext.getCurrentContainer()
-                                                               .getComponentInstanceOfType(WikiService.class);
+    RenderResourceResolver resolver = getResourceResolver();
     Page page = null;
     String documentName = documentReference.getReference();
     ResourceType type = documentReference.getType();
     WikiContext wikiMarkupContext = markupContextManager.getMarkupContext(documentName, type);
     WikiContext wikiContext = getWikiContext();
     try {
-      wikiService.addPageLink(new WikiPageParams(wikiContext.getType(), wikiContext.getOwner(), wikiContext.getPageName()),
+      resolver.addPageLink(new WikiPageParams(wikiContext.getType(), wikiContext.getOwner(), wikiContext.getPageName()),
                                         new WikiPageParams(wikiMarkupContext.getType(),
                                                            wikiMarkupContext.getOwner(),
                                                            wikiMarkupContext.getPageName()));
@@ -173,16 +172,16 @@ public class DefaultWikiModel implements WikiModel {
       LOG.warn(String.format("Failed to link incoming pages for page %s", documentReference.toString()), e);
     }
     try {
-      if (wikiService.getWikiByTypeAndOwner(wikiMarkupContext.getType(), wikiMarkupContext.getOwner()) == null) {
+      if (resolver.getWiki(wikiMarkupContext.getType(), wikiMarkupContext.getOwner()) == null) {
         return false;
       } else {
-        page = wikiService.getPageOfWikiByName(wikiMarkupContext.getType(),
+        page = resolver.getPage(wikiMarkupContext.getType(),
                 wikiMarkupContext.getOwner(),
                 wikiMarkupContext.getPageName());
         if (page == null) {
-          page = wikiService.getRelatedPage(wikiMarkupContext.getType(), wikiMarkupContext.getOwner(), wikiMarkupContext.getPageName());
+          page = resolver.getRelatedPage(wikiMarkupContext.getType(), wikiMarkupContext.getOwner(), wikiMarkupContext.getPageName());
           if (page != null) {
-            wikiService.addPageLink(new WikiPageParams(wikiContext.getType(),
+            resolver.addPageLink(new WikiPageParams(wikiContext.getType(),
                                                                  wikiContext.getOwner(),
                                                                  wikiContext.getPageName()),
                                               new WikiPageParams(wikiMarkupContext.getType(),
@@ -205,13 +204,13 @@ public class DefaultWikiModel implements WikiModel {
 
   private String getDocumentViewURL(WikiContext context) {
     try {
-      WikiService wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
-      Page page = wikiService.getPageOfWikiByName(context.getType(), context.getOwner(), context.getPageName());
+      RenderResourceResolver resolver = getResourceResolver();
+      Page page = resolver.getPage(context.getType(), context.getOwner(), context.getPageName());
       if (page == null) {
-        page = wikiService.getRelatedPage(context.getType(), context.getOwner(), context.getPageName());
+        page = resolver.getRelatedPage(context.getType(), context.getOwner(), context.getPageName());
       }
       if (page != null) {
-        Wiki wiki = wikiService.getWikiByTypeAndOwner(page.getWikiType(), page.getWikiOwner());
+        Wiki wiki = resolver.getWiki(page.getWikiType(), page.getWikiOwner());
         context.setType(wiki.getType());
         context.setOwner(wiki.getOwner());
         context.setPageName(page.getName());
@@ -225,16 +224,39 @@ public class DefaultWikiModel implements WikiModel {
   }
   
   private WikiContext getWikiContext() {
+    ExecutionContext ec = getExecutionContext();
+    if (ec != null) {
+      WikiContext wikiContext = (WikiContext) ec.getProperty(WikiContext.WIKICONTEXT);
+      return wikiContext;
+    }
+    return null;
+  }
+
+  /**
+   * Gets the resolver shared by the current render, so that the references of
+   * the markup are resolved once per render
+   */
+  @SuppressWarnings("unchecked")
+  private RenderResourceResolver getResourceResolver() {
+    WikiService wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
+    ExecutionContext ec = getExecutionContext();
+    Map<String, Object> renderScope = ec != null ? (Map<String, Object>) ec.getProperty(RenderingServiceImpl.RENDER_SCOPE) : null;
+    if (renderScope == null) {
+      return new RenderResourceResolver(wikiService);
+    }
+    RenderResourceResolver resolver = (RenderResourceResolver) renderScope.get(RenderResourceResolver.class.getName());
+    if (resolver == null) {
+      resolver = new RenderResourceResolver(wikiService);
+      renderScope.put(RenderResourceResolver.class.getName(), resolver);
+    }
+    return resolver;
+  }
+
+  private ExecutionContext getExecutionContext() {
     try {
       RenderingService renderingService = (RenderingService) ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(RenderingService.class);
       Execution execution = ((RenderingServiceImpl) renderingService).getExecution();
-      ExecutionContext ec = execution.getContext();
-      
-      if (ec != null) {
-        WikiContext wikiContext = (WikiContext) ec.getProperty(WikiContext.WIKICONTEXT);
-        return wikiContext;
-      }
-      return null;
+      return execution.getContext();
     } catch (Exception e) {
       return null;
     }
@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.rendering.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Attachment;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.api.Wiki;
+import org.exoplatform.wiki.service.WikiPageParams;
+import org.exoplatform.wiki.service.WikiService;
+
+/**
+ * Resolves the wikis, pages and attachments referenced by the markup being
+ * rendered. A render resolves the same references many times (a page linked
+ * from every row of a table, the images of a gallery), so the resolutions are
+ * kept for the whole render: each referenced page is fetched once and the
+ * metadata of its attachments are listed once, without reading their content.
+ * Nothing is created while resolving, a missing page or draft is just reported
+ * as missing.
+ */
+class RenderResourceResolver {
+
+  private final WikiService wikiService;
+
+  private final Map<String, Wiki> wikis = new HashMap<>();
+
+  private final Map<String, Page> pages = new HashMap<>();
+
+  private final Map<String, Page> relatedPages = new HashMap<>();
+
+  private final Map<String, Page> pagesOrDrafts = new HashMap<>();
+
+  private final Map<String, Map<String, String>> attachmentURLs = new HashMap<>();
+
+  private final Set<List<WikiPageParams>> pageLinks = new HashSet<>();
+
+  RenderResourceResolver(WikiService wikiService) {
+    this.wikiService = wikiService;
+  }
+
+  Wiki getWiki(String wikiType, String wikiOwner) throws WikiException {
+    String key = getKey(wikiType, wikiOwner);
+    if (!wikis.containsKey(key)) {
+      wikis.put(key, wikiService.getWikiByTypeAndOwner(wikiType, wikiOwner));
+    }
+    return wikis.get(key);
+  }
+
+  Page getPage(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    String key = getKey(wikiType, wikiOwner, pageName);
+    if (!pages.containsKey(key)) {
+      pages.put(key, wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageName));
+    }
+    return pages.get(key);
+  }
+
+  /**
+   * Gets the page which had the given name before being renamed or moved
+   *
+   * @return The page, null if no page had this name
+   * @throws WikiException
+   */
+  Page getRelatedPage(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    String key = getKey(wikiType, wikiOwner, pageName);
+    if (!relatedPages.containsKey(key)) {
+      relatedPages.put(key, wikiService.getRelatedPage(wikiType, wikiOwner, pageName));
+    }
+    return relatedPages.get(key);
+  }
+
+  /**
+   * Gets the download URL of an attachment of a page, or of the draft of the
+   * current user when the page is being created
+   *
+   * @return The download URL, null if the page or the attachment does not exist
+   * @throws WikiException
+   */
+  String getAttachmentURL(String wikiType, String wikiOwner, String pageName, String attachmentName) throws WikiException {
+    String key = getKey(wikiType, wikiOwner, pageName);
+    Map<String, String> urls = attachmentURLs.get(key);
+    if (urls == null) {
+      urls = new HashMap<>();
+      Page page = getPageOrDraft(wikiType, wikiOwner, pageName);
+      if (page != null) {
+        for (Attachment attachment : wikiService.getAttachmentsOfPage(page, false)) {
+          urls.put(attachment.getName(), attachment.getDownloadURL());
+        }
+      }
+      attachmentURLs.put(key, urls);
+    }
+    return urls.get(attachmentName);
+  }
+
+  /**
+   * Registers the link between two pages, once per render
+   */
+  void addPageLink(WikiPageParams param, WikiPageParams entity) {
+    if (pageLinks.add(Arrays.asList(param, entity))) {
+      wikiService.addPageLink(param, entity);
+    }
+  }
+
+  private Page getPageOrDraft(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    String key = getKey(wikiType, wikiOwner, pageName);
+    if (!pagesOrDrafts.containsKey(key)) {
+      pagesOrDrafts.put(key, wikiService.getExistedPageOrDraftById(wikiType, wikiOwner, pageName));
+    }
+    return pagesOrDrafts.get(key);
+  }
+
+  private String getKey(String... parts) {
+    StringBuilder key = new StringBuilder();
+    for (String part : parts) {
+      key.append(part).append('\u0000');
+    }
+    return key.toString();
+  }
+}
@@ -19,17 +19,10 @@ package org.exoplatform.wiki.rendering.macro;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.rendering.RenderingService;
-import org.exoplatform.wiki.rendering.macro.excerpt.ExcerptMacro;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
-import org.xwiki.rendering.block.Block.Axes;
-import org.xwiki.rendering.block.MacroBlock;
-import org.xwiki.rendering.block.XDOM;
-import org.xwiki.rendering.block.match.ClassBlockMatcher;
 import org.xwiki.rendering.syntax.Syntax;
 
-import java.util.List;
-
 public class ExcerptUtils {
   
   public static String getExcerpts(WikiPageParams params) throws Exception {
@@ -47,18 +40,13 @@ public class ExcerptUtils {
                                                                               .getComponentInstanceOfType(RenderingService.class);
     StringBuilder sb = new StringBuilder();
     if (markup != null) {
-      XDOM xdom = renderingService.parse(markup, sourceSyntax);
-      List<MacroBlock> mBlocks = xdom.getBlocks(new ClassBlockMatcher(MacroBlock.class), Axes.DESCENDANT);
-      for (MacroBlock block : mBlocks) {
-
-        if (block.getId().equals(ExcerptMacro.MACRO_ID)) {
-          sb.append("<span class=\"Excerpt\">");
-          sb.append(renderingService.render(" (" + block.getContent() + ")",
-                                            sourceSyntax,
-                                            Syntax.XHTML_1_0.toIdString(),
-                                            false));
-          sb.append("</span>");
-        }
+      for (String excerpt : renderingService.getExcerpts(markup, sourceSyntax)) {
+        sb.append("<span class=\"Excerpt\">");
+        sb.append(renderingService.render(" (" + excerpt + ")",
+                                          sourceSyntax,
+                                          Syntax.XHTML_1_0.toIdString(),
+                                          false));
+        sb.append("</span>");
       }
     }
     return sb.toString();
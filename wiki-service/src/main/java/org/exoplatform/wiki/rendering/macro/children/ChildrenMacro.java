@@ -137,14 +137,13 @@ public class ChildrenMacro extends AbstractMacro<ChildrenMacroParameters> {
   }
 
   public ListItemBlock trankformToBlock(TreeNode node, MacroTransformationContext context) throws Exception {
-    WikiService wikiService = (WikiService) ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
     List<Block> blocks = new ArrayList<Block>();
     
     WikiPageParams params = TreeUtils.getPageParamsFromPath(node.getPath());
-    Page page = wikiService.getPageOfWikiByName(params.getType(), params.getOwner(), params.getPageName());
     DocumentResourceReference link = new DocumentResourceReference(getReferenceBuilder(context).build(params));
     List<Block> content = new ArrayList<Block>();
-    content.add(new WordBlock(page.getTitle()));
+    // the name of a page node is the title of the page
+    content.add(new WordBlock(node.getName()));
 
     LinkBlock linkBlock = new LinkBlock(content, link, true);
     blocks.add(linkBlock);
@@ -8,6 +8,8 @@ import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.*;
 import org.exoplatform.wiki.service.search.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -45,6 +47,48 @@ public interface DataStorage {
 
   public List<Page> getChildrenPageOf(Page page) throws WikiException;
 
+  /**
+   * Gets the children pages of a page viewable by a user, with only the data needed to display them in a page tree.
+   * The pages and their permissions are read in a single pass, without loading the pages.
+   * The pages in the path of the selected page are kept even if the user can not view them.
+   * @param page the parent page
+   * @param selectedPage the page selected in the tree, or null
+   * @param user the user whose permissions are checked
+   * @param depth the number of levels of descendants to load, 1 for the children only
+   * @param offset the index of the first child to return, the children being sorted by name
+   * @param limit the maximum number of children to return, -1 for no limit. Paging only applies to the first level.
+   * @return the children pages
+   * @throws WikiException
+   */
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Page selectedPage, Identity user, int depth, int offset, int limit) throws WikiException;
+
+  /**
+   * Gets the pages of a wiki viewable by a user, having a word of their title starting with a prefix, through the
+   * page title index. Only the id, name, title and update date of the pages are set.
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param titlePrefix the prefix of a word of the titles, case insensitive, or an empty prefix for all the pages
+   * @param user the user whose permissions are checked
+   * @param offset the index of the first page to return, the pages being sorted by the matching part of their title
+   * @param limit the maximum number of pages to return, -1 for no limit
+   * @return the pages
+   * @throws WikiException
+   */
+  public List<Page> getPagesByTitlePrefix(String wikiType, String wikiOwner, String titlePrefix, Identity user, int offset, int limit) throws WikiException;
+
+  /**
+   * Gets the pages of a wiki viewable by a user, the most recently updated first, through the page title index.
+   * Only the id, name, title and update date of the pages are set.
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param user the user whose permissions are checked
+   * @param offset the index of the first page to return
+   * @param limit the maximum number of pages to return, -1 for no limit
+   * @return the pages
+   * @throws WikiException
+   */
+  public List<Page> getRecentlyUpdatedPages(String wikiType, String wikiOwner, Identity user, int offset, int limit) throws WikiException;
+
   public void createTemplatePage(Wiki wiki, Template template) throws WikiException;
 
   public void updateTemplatePage(Template template) throws WikiException;
@@ -79,6 +123,8 @@ public interface DataStorage {
 
   public Page getExsitedOrNewDraftPageById(String wikiType, String wikiOwner, String pageId, String username) throws WikiException;
 
+  public Page getExistedDraftPageById(String wikiType, String wikiOwner, String pageId, String username) throws WikiException;
+
   public DraftPage getDraft(WikiPageParams param, String username) throws WikiException;
 
   public DraftPage getLastestDraft(String username) throws WikiException;
@@ -87,14 +133,28 @@ public interface DataStorage {
 
   public List<DraftPage> getDraftPagesOfUser(String username) throws WikiException;
 
+  public List<DraftPage> getDraftSummariesOfUser(String username) throws WikiException;
+
+  public DraftPage getDraftOfPage(Page page, String username) throws WikiException;
+
   public void createDraftPageForUser(DraftPage draftPage, String username) throws WikiException;
 
+  public boolean updateDraftPageForUser(DraftPage draftPage, String username) throws WikiException;
+
   public PageList<SearchResult> search(WikiSearchData data) throws WikiException;
 
+  public long countSearchResults(WikiSearchData data) throws WikiException;
+
   public List<TemplateSearchResult> searchTemplate(TemplateSearchData data) throws WikiException;
 
   public List<Attachment> getAttachmentsOfPage(Page page) throws WikiException;
 
+  public List<Attachment> getAttachmentsOfPage(Page page, boolean loadContent) throws WikiException;
+
+  public Attachment getAttachmentOfPageByName(String attachmentName, Page page, boolean loadContent) throws WikiException;
+
+  public void writeAttachmentContent(String attachmentName, Page page, long offset, long length, OutputStream output) throws WikiException, IOException;
+
   public void addAttachmentToPage(Attachment attachment, Page page) throws WikiException;
 
   public void deleteAttachmentOfPage(String attachmentId, Page page) throws WikiException;
@@ -115,6 +175,12 @@ public interface DataStorage {
 
   public List<PageVersion> getVersionsOfPage(Page page) throws WikiException;
 
+  public List<PageVersion> getVersionSummariesOfPage(Page page) throws WikiException;
+
+  public PageVersion getVersionOfPageByName(String versionName, Page page) throws WikiException;
+
+  public PageVersion getLatestVersionOfPage(Page page) throws WikiException;
+
   public void addPageVersion(Page page) throws WikiException;
 
   public void restoreVersionOfPage(String versionName, Page page) throws WikiException;
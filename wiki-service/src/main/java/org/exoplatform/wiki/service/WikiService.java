@@ -32,6 +32,8 @@ import org.exoplatform.wiki.service.search.TemplateSearchData;
 import org.exoplatform.wiki.service.search.TemplateSearchResult;
 import org.exoplatform.wiki.service.search.WikiSearchData;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -170,6 +172,17 @@ public interface WikiService {
    */
   public Page getExsitedOrNewDraftPageById(String wikiType, String wikiOwner, String pageId) throws WikiException;
 
+  /**
+   * Gets a wiki page or its existing draft by its Id, without creating any draft.
+   *
+   * @param wikiType It can be Portal, Group, or User.
+   * @param wikiOwner The Wiki owner.
+   * @param pageId Id of the wiki page.
+   * @return The wiki page or its draft, null if none of them exists.
+   * @throws WikiException
+   */
+  public Page getExistedPageOrDraftById(String wikiType, String wikiOwner, String pageId) throws WikiException;
+
   /**
    * Gets a wiki page based on its unique id.
    *
@@ -217,6 +230,59 @@ public interface WikiService {
    */
   public List<Page> getChildrenPageOf(Page page) throws WikiException;
 
+  /**
+   * Get the children pages of a wiki page which are viewable by a user, with only the data needed
+   * to display them in a page tree. The pages and their permissions are loaded in a single pass.
+   * @param page Wiki page.
+   * @param user The user whose permissions are checked.
+   * @param depth The number of levels of descendants to load, 1 for the children only.
+   * @param offset The index of the first child to return, children being sorted by name.
+   * @param limit The maximum number of children to return, -1 for no limit. Paging only applies to the first level.
+   * @return The list of children pages
+   */
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Identity user, int depth, int offset, int limit) throws WikiException;
+
+  /**
+   * Get the children pages of a wiki page which are viewable by a user, with only the data needed
+   * to display them in a page tree. The pages in the path of the selected page are also returned,
+   * so that the selected page stays reachable, and are marked as not viewable.
+   * @param page Wiki page.
+   * @param selectedPage The page selected in the tree, or null.
+   * @param user The user whose permissions are checked.
+   * @param depth The number of levels of descendants to load, 1 for the children only.
+   * @param offset The index of the first child to return, children being sorted by name.
+   * @param limit The maximum number of children to return, -1 for no limit. Paging only applies to the first level.
+   * @return The list of children pages
+   */
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Page selectedPage, Identity user, int depth, int offset, int limit) throws WikiException;
+
+  /**
+   * Gets the pages of a wiki viewable by a user, having a word of their title starting with a given prefix.
+   * Only the id, name, title and update date of the pages are set.
+   * @param wikiType It can be Portal, Group, or User.
+   * @param wikiOwner The Wiki owner.
+   * @param titlePrefix The prefix of a word of the titles, case insensitive. An empty prefix returns all the pages.
+   * @param user The user whose permissions are checked.
+   * @param offset The index of the first page to return, pages being sorted by the matching part of their title.
+   * @param limit The maximum number of pages to return, -1 for no limit.
+   * @return The list of pages
+   * @throws WikiException
+   */
+  public List<Page> getPagesByTitlePrefix(String wikiType, String wikiOwner, String titlePrefix, Identity user, int offset, int limit) throws WikiException;
+
+  /**
+   * Gets the pages of a wiki viewable by a user, the most recently updated first.
+   * Only the id, name, title and update date of the pages are set.
+   * @param wikiType It can be Portal, Group, or User.
+   * @param wikiOwner The Wiki owner.
+   * @param user The user whose permissions are checked.
+   * @param offset The index of the first page to return.
+   * @param limit The maximum number of pages to return, -1 for no limit.
+   * @return The list of pages
+   * @throws WikiException
+   */
+  public List<Page> getRecentlyUpdatedPages(String wikiType, String wikiOwner, Identity user, int offset, int limit) throws WikiException;
+
   /**
    * Gets a Wiki template.
    * @param params The params object which is used for creating the Wiki template.
@@ -255,6 +321,15 @@ public interface WikiService {
    */
   public PageList<SearchResult> search(WikiSearchData data) throws WikiException;
 
+  /**
+   * Counts the results of a search in all wiki pages, without loading them.
+   *
+   * @param data The data to search.
+   * @return The number of results that {@link #search(WikiSearchData)} can return for all the offsets.
+   * @throws WikiException
+   */
+  public long countSearchResults(WikiSearchData data) throws WikiException;
+
   /**
    * Searches in all templates.
    *
@@ -305,6 +380,15 @@ public interface WikiService {
    */
   public List<Attachment> getAttachmentsOfPage(Page page) throws WikiException;
 
+  /**
+   * Gets attachments of the given page
+   * @param page The wiki page
+   * @param loadContent false to only get the metadata of the attachments, without their content
+   * @return The attachments of the page
+   * @throws WikiException
+   */
+  public List<Attachment> getAttachmentsOfPage(Page page, boolean loadContent) throws WikiException;
+
   /**
    * Get the number of attachment of the given page
    * @param page The wiki page
@@ -314,14 +398,36 @@ public interface WikiService {
   public int getNbOfAttachmentsOfPage(Page page) throws WikiException;
 
   /**
-   * Get a attachment of a ther given page by name
+   * Get a attachment of a ther given page by name, with its content
    * @param attachmentName The name of the attachment
    * @param page The wiki page
-   * @return
+   * @return The attachment, null if it does not exist
    * @throws WikiException
    */
   public Attachment getAttachmentOfPageByName(String attachmentName, Page page) throws WikiException;
 
+  /**
+   * Get a attachment of the given page by name, without listing the other attachments
+   * @param attachmentName The name of the attachment
+   * @param page The wiki page
+   * @param loadContent false to only get the metadata of the attachment, without its content
+   * @return The attachment, null if it does not exist
+   * @throws WikiException
+   */
+  public Attachment getAttachmentOfPageByName(String attachmentName, Page page, boolean loadContent) throws WikiException;
+
+  /**
+   * Write a range of the content of an attachment to the given stream, without loading the whole content in memory
+   * @param attachmentName The name of the attachment
+   * @param page The wiki page
+   * @param offset The index of the first byte to write
+   * @param length The number of bytes to write
+   * @param output The stream to write to
+   * @throws WikiException
+   * @throws IOException if the content cannot be written to the stream
+   */
+  public void writeAttachmentContent(String attachmentName, Page page, long offset, long length, OutputStream output) throws WikiException, IOException;
+
   /**
    * Add the given attachment to the given page
    * @param attachment The attachment to add
@@ -463,6 +569,16 @@ public interface WikiService {
    * @throws WikiException if the draft page cannot be created.
    */
   public DraftPage createDraftForNewPage(DraftPage draftPage, Page parentPage, long clientTime) throws WikiException;
+
+  /**
+   * Updates the title, the content, the syntax and the updated date of a draft page of the current user.
+   * The caches of the target page are not invalidated.
+   * 
+   * @param draftPage The draft page, identified by its name.
+   * @return "false" if the draft page does not exist or does not target the target page of the given draft.
+   * @throws WikiException
+   */
+  public boolean updateDraft(DraftPage draftPage) throws WikiException;
   
   /**
    * Gets a draft page of a wiki page which is specified by a given param object.
@@ -507,6 +623,16 @@ public interface WikiService {
    */
   public List<DraftPage> getDraftsOfUser(String username) throws WikiException;
 
+  /**
+   * Gets the metadata (name, title, target page, dates) of the draft pages belonging
+   * to a given user, without their content.
+   * 
+   * @param username Name of the user.
+   * @return The list of draft pages, sorted by name.
+   * @throws WikiException
+   */
+  public List<DraftPage> getDraftSummariesOfUser(String username) throws WikiException;
+
   /**
    * Check if a draft page is outdated
    * @param draftPage
@@ -670,7 +796,9 @@ public interface WikiService {
   public boolean canPublicAndRetrictPage(Page currentPage, String currentUser) throws WikiException;
 
   /**
-   * Gets all the versions of the given page
+   * Gets all the versions of the given page, with their content.
+   * The content of every version is loaded, use {@link #getVersionSummariesOfPage(Page)}
+   * when only the metadata are needed.
    * @param page The wiki page
    * @return All the versions of the page
    * @throws WikiException
@@ -678,7 +806,16 @@ public interface WikiService {
   public List<PageVersion> getVersionsOfPage(Page page) throws WikiException;
 
   /**
-   * Gets a specific version by name of the given page
+   * Gets the metadata (name, author, dates, comment, size) of all the versions of the given page,
+   * without their content
+   * @param page The wiki page
+   * @return All the versions of the page, from the latest to the oldest
+   * @throws WikiException
+   */
+  public List<PageVersion> getVersionSummariesOfPage(Page page) throws WikiException;
+
+  /**
+   * Gets a specific version by name of the given page, with its content
    * @param versionName The name of the version
    * @param page The wiki page
    * @return The version of the wiki page
@@ -686,6 +823,25 @@ public interface WikiService {
    */
   public PageVersion getVersionOfPageByName(String versionName, Page page) throws WikiException;
 
+  /**
+   * Gets the metadata of the latest version of the given page, without its content
+   * @param page The wiki page
+   * @return The latest version of the wiki page
+   * @throws WikiException
+   */
+  public PageVersion getLatestVersionOfPage(Page page) throws WikiException;
+
+  /**
+   * Gets the differences between two versions of the given page, in the HTML format.
+   * The versions being immutable, the differences are cached.
+   * @param page The wiki page
+   * @param fromVersionName The name of the original version
+   * @param toVersionName The name of the revised version
+   * @return The differences between the versions
+   * @throws WikiException
+   */
+  public DiffResult getDifferencesBetweenVersionsOfPage(Page page, String fromVersionName, String toVersionName) throws WikiException;
+
   /**
    * Creates a version of a page. This method only tag the current page data as a new version,
    * it does not update the page data
@@ -16,7 +16,12 @@
  */
 package org.exoplatform.wiki.service.diff;
 
-public class DiffResult {
+import java.io.Serializable;
+
+public class DiffResult implements Serializable {
+
+  private static final long serialVersionUID = -6153541286374183726L;
+
   private String diffHTML;
 
   private int    changes;
@@ -25,9 +25,6 @@ import org.apache.ecs.filter.CharacterFilter;
 import org.suigeneris.jrcs.diff.Diff;
 import org.suigeneris.jrcs.diff.DifferentiationFailedException;
 import org.suigeneris.jrcs.diff.Revision;
-import org.suigeneris.jrcs.diff.delta.ChangeDelta;
-import org.suigeneris.jrcs.diff.delta.Chunk;
-import org.suigeneris.jrcs.diff.delta.Delta;
 import org.suigeneris.jrcs.util.ToString;
 
 /**
@@ -37,6 +34,15 @@ import org.suigeneris.jrcs.util.ToString;
  */
 public class DiffService {
 
+  /** Maximum cost of the line comparison of two contents, see {@link MyersDiff} */
+  private static final long LINE_DIFF_MAX_COST          = 20000000;
+
+  /** Maximum cost of the word comparison of two lines */
+  private static final long WORD_DIFF_MAX_COST          = 200000;
+
+  /** Maximum cost of the word comparisons of all the modified lines of two contents */
+  private static final long DOCUMENT_WORD_DIFF_MAX_COST = 5000000;
+
   /**
    * Gets a list of Delta objects representing line differences between text1 and text2.
    * @param text1 The original content.
@@ -73,79 +79,15 @@ public class DiffService {
    * @throws DifferentiationFailedException 
    */
   public DiffResult getWordDifferencesAsHTML(String text1, String text2) throws DifferentiationFailedException {
-    int changes = 0;
-    text1 = "~~PLACEHOLDER~~" + text1 + "~~PLACEHOLDER~~";
-    text2 = "~~PLACEHOLDER~~" + text2 + "~~PLACEHOLDER~~";
-
-    StringBuffer html = new StringBuffer("<div class=\"diffmodifiedline\">");
-    List list = getWordDifferencesAsList(text1, text2);
-    String[] words = StringUtils.splitPreserveAllTokens(text1, ' ');
-    int cursor = 0;
-    boolean addSpace = false;
-
-    for (int i = 0; i < list.size(); i++) {
-      if (addSpace) {
-        html.append(" ");
-        addSpace = false;
-      }
-
-      Delta delta = (Delta) list.get(i);
-      boolean isChangeDelta = (delta instanceof ChangeDelta);
-      int position = delta.getOriginal().anchor();
-      // First we fill in all text that has not been changed
-      while (cursor < position) {
-        html.append(escape(words[cursor]));
-        html.append(" ");
-        cursor++;
-      }
-      // Then we fill in what has been removed
-      Chunk orig = delta.getOriginal();
-      if (orig.size() > 0) {
-        html.append("<span class=\"diffremoveword\">");
-        List chunks = orig.chunk();
-        for (int j = 0; j < chunks.size(); j++) {
-          if (j > 0)
-            html.append(" ");
-          html.append(escape((String) chunks.get(j)));
-          cursor++;         
-        }
-        changes++;
-        html.append("</span>");
-        addSpace = true;
-      }
-
-      // Then we fill in what has been added
-      Chunk rev = delta.getRevised();
-      if (rev.size() > 0) {
-        html.append("<span class=\"diffaddword\">");
-        List chunks = rev.chunk();
-        for (int j = 0; j < chunks.size(); j++) {
-          if (j > 0)
-            html.append(" ");
-          html.append(escape((String) chunks.get(j)));          
-        }
-        // If is changeDelta, only add change 1 times
-        if (!isChangeDelta) changes++;
-        html.append("</span>");
-        addSpace = true;
-      }
-    }
-
-    // First we fill in all text that has not been changed
-    while (cursor < words.length) {
-      if (addSpace)
-        html.append(" ");
-      html.append(escape(words[cursor]));
-      addSpace = true;
-      cursor++;
-    }
-
-    html.append("</div>");
-    return new DiffResult(html.toString().replaceAll("~~PLACEHOLDER~~", ""), changes);
+    String[] words1 = StringUtils.splitPreserveAllTokens(text1 == null ? "" : text1, ' ');
+    String[] words2 = StringUtils.splitPreserveAllTokens(text2 == null ? "" : text2, ' ');
+    return getWordDifferencesAsHTML(words1, words2, new MyersDiff(words1, words2, WORD_DIFF_MAX_COST));
   }
-  
+
   /**
    * Gets a Delta object containing line differences in the HTML format between text1 and text2.
+   * The modified lines are compared word by word, as long as the cost of the comparison
+   * stays under a budget, the following ones are shown as removed and added lines.
    * @param text1 The original content.
    * @param text2 The revised content.
    * @param allDoc Shows the whole content.
@@ -154,110 +96,102 @@ public class DiffService {
    */
   public DiffResult getDifferencesAsHTML(String text1, String text2, boolean allDoc) throws DifferentiationFailedException {
     
-    StringBuffer html = new StringBuffer("<div class=\"diff\">");
+    StringBuilder html = new StringBuilder("<div class=\"diff\">");
     int changes = 0;
 
     if (text1 == null)
       text1 = "";
     if (text2 == null)
       text2 = "";
-    List list = getDifferencesAsList(text1, text2);
     String[] lines = ToString.stringToArray(text1);
+    String[] revisedLines = ToString.stringToArray(text2);
+    MyersDiff diff = new MyersDiff(lines, revisedLines, LINE_DIFF_MAX_COST);
+    long wordDiffCost = DOCUMENT_WORD_DIFF_MAX_COST;
     int cursor = 0;
-    boolean addBR = false;
 
-    for (int i = 0; i < list.size(); i++) {
-      if (addBR) {
-        addBR = false;
-      }
-
-      Delta delta = (Delta) list.get(i);
-     
-      int position = delta.getOriginal().anchor();
+    for (MyersDiff.Edit edit : diff.getEdits()) {
       // First we fill in all text that has not been changed
-      while (cursor < position) {
+      while (cursor < edit.getOriginalStart()) {
         if (allDoc) {
-          html.append("<div class=\"diffunmodifiedline\">");
-          String text = escape(lines[cursor]);
-          if (text.equals(""))
-            text = "&nbsp;";
-          html.append(text);
-          html.append("</div>");
+          appendUnmodifiedLine(html, lines[cursor]);
         }
         cursor++;
       }
 
-      // Then we fill in what has been removed
-      Chunk orig = delta.getOriginal();
-      Chunk rev = delta.getRevised();     
-
-      if (orig.size() > 0) {
-        List chunks = orig.chunk();
-        int j2 = 0;
-        for (int j = 0; j < chunks.size(); j++) {
-          String origline = (String) chunks.get(j);
-          // if (j>0)
-          // html.append("<br/>");
-          List revchunks = rev.chunk();
-          String revline = "";
-          while ("".equals(revline)) {
-            revline = (j2 >= revchunks.size()) ? null : (String) revchunks.get(j2);
-            j2++;           
+      // Then we fill in what has been modified or removed, the original lines are compared
+      // to the non empty revised lines, in order
+      boolean[] comparedLines = new boolean[edit.getRevisedEnd() - edit.getRevisedStart()];
+      int revisedCursor = edit.getRevisedStart();
+      for (; cursor < edit.getOriginalEnd(); cursor++) {
+        String origline = lines[cursor];
+        while (revisedCursor < edit.getRevisedEnd() && revisedLines[revisedCursor].isEmpty()) {
+          revisedCursor++;
+        }
+        if (revisedCursor < edit.getRevisedEnd()) {
+          String revline = revisedLines[revisedCursor];
+          comparedLines[revisedCursor - edit.getRevisedStart()] = true;
+          revisedCursor++;
+          DiffResult diffLine = null;
+          if (wordDiffCost > 0) {
+            String[] words1 = StringUtils.splitPreserveAllTokens(origline, ' ');
+            String[] words2 = StringUtils.splitPreserveAllTokens(revline, ' ');
+            MyersDiff wordDiff = new MyersDiff(words1, words2, Math.min(wordDiffCost, WORD_DIFF_MAX_COST));
+            wordDiffCost -= wordDiff.getCost();
+            if (!wordDiff.isBudgetExceeded()) {
+              diffLine = getWordDifferencesAsHTML(words1, words2, wordDiff);
+            }
           }
-          if (revline != null) {
-            DiffResult diffLine = getWordDifferencesAsHTML(origline, revline);
+          if (diffLine != null) {
             html.append(diffLine.getDiffHTML());
-            rev.chunk().remove(revline);
             changes += diffLine.getChanges();
           } else {
+            // too costly to compare word by word, the whole line is shown as modified
             html.append("<div class=\"diffmodifiedline\">");
-            if (origline.equals("")) {
-              html.append("<pre class=\"diffremoveword\">");
-              html.append("&nbsp;");
-              html.append("</pre>");
-            } else {
-              html.append("<span class=\"diffremoveword\">");
-              html.append(escape(origline));
-              html.append("</span>");
-            }
+            html.append("<span class=\"diffremoveword\">").append(escape(origline)).append("</span>");
+            html.append("<span class=\"diffaddword\">").append(escape(revline)).append("</span>");
             html.append("</div>");
             changes++;
           }
-          addBR = true;
-          cursor++;
-        }
-      }
-
-      // Then we fill in what has been added
-      if (rev.size() > 0 ) {
-        List chunks = rev.chunk();
-        for (int j = 0; j < chunks.size(); j++) {
-          String revline = (String) chunks.get(j);
+        } else {
           html.append("<div class=\"diffmodifiedline\">");
-          if (revline.equals("")) {
-            html.append("<pre class=\"diffaddword\">");
+          if (origline.equals("")) {
+            html.append("<pre class=\"diffremoveword\">");
+            html.append("&nbsp;");
             html.append("</pre>");
           } else {
-            html.append("<span class=\"diffaddword\">");
-            html.append(escape(revline));
+            html.append("<span class=\"diffremoveword\">");
+            html.append(escape(origline));
             html.append("</span>");
           }
           html.append("</div>");
           changes++;
         }
-        addBR = true;
+      }
+
+      // Then we fill in what has been added
+      for (int j = edit.getRevisedStart(); j < edit.getRevisedEnd(); j++) {
+        if (comparedLines[j - edit.getRevisedStart()]) {
+          continue;
+        }
+        String revline = revisedLines[j];
+        html.append("<div class=\"diffmodifiedline\">");
+        if (revline.equals("")) {
+          html.append("<pre class=\"diffaddword\">");
+          html.append("</pre>");
+        } else {
+          html.append("<span class=\"diffaddword\">");
+          html.append(escape(revline));
+          html.append("</span>");
+        }
+        html.append("</div>");
+        changes++;
       }
     }
 
     // First we fill in all text that has not been changed
     if (allDoc) {
       while (cursor < lines.length) {
-        html.append("<div class=\"diffunmodifiedline\">");
-        String text = escape(lines[cursor]);
-        if (text.equals(""))
-          text = "&nbsp;";
-        html.append(text);
-        html.append("</div>");
+        appendUnmodifiedLine(html, lines[cursor]);
         cursor++;
       }
     }
@@ -265,6 +199,74 @@ public class DiffService {
     return new DiffResult(html.toString(), changes);
   }
 
+  private DiffResult getWordDifferencesAsHTML(String[] words, String[] revisedWords, MyersDiff diff) {
+    int changes = 0;
+    StringBuilder html = new StringBuilder("<div class=\"diffmodifiedline\">");
+    int cursor = 0;
+    boolean addSpace = false;
+
+    for (MyersDiff.Edit edit : diff.getEdits()) {
+      if (addSpace) {
+        html.append(" ");
+        addSpace = false;
+      }
+
+      // First we fill in all text that has not been changed
+      while (cursor < edit.getOriginalStart()) {
+        html.append(escape(words[cursor]));
+        html.append(" ");
+        cursor++;
+      }
+      // Then we fill in what has been removed
+      if (edit.getOriginalEnd() > edit.getOriginalStart()) {
+        html.append("<span class=\"diffremoveword\">");
+        for (; cursor < edit.getOriginalEnd(); cursor++) {
+          if (cursor > edit.getOriginalStart())
+            html.append(" ");
+          html.append(escape(words[cursor]));
+        }
+        changes++;
+        html.append("</span>");
+        addSpace = true;
+      }
+
+      // Then we fill in what has been added
+      if (edit.getRevisedEnd() > edit.getRevisedStart()) {
+        html.append("<span class=\"diffaddword\">");
+        for (int j = edit.getRevisedStart(); j < edit.getRevisedEnd(); j++) {
+          if (j > edit.getRevisedStart())
+            html.append(" ");
+          html.append(escape(revisedWords[j]));
+        }
+        // If the words are replaced, only add change 1 times
+        if (edit.getOriginalEnd() == edit.getOriginalStart()) changes++;
+        html.append("</span>");
+        addSpace = true;
+      }
+    }
+
+    // First we fill in all text that has not been changed
+    while (cursor < words.length) {
+      if (addSpace)
+        html.append(" ");
+      html.append(escape(words[cursor]));
+      addSpace = true;
+      cursor++;
+    }
+
+    html.append("</div>");
+    return new DiffResult(html.toString(), changes);
+  }
+
+  private void appendUnmodifiedLine(StringBuilder html, String line) {
+    html.append("<div class=\"diffunmodifiedline\">");
+    String text = escape(line);
+    if (text.equals(""))
+      text = "&nbsp;";
+    html.append(text);
+    html.append("</div>");
+  }
+
   /**
    * Gets a list of Delta objects by a wiki page revision.
    * @param rev The wiki page revision.
@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.diff;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Differences between two sequences of tokens (lines or words), computed
+ * with the linear space version of the Myers' O(ND) algorithm.
+ *
+ * The tokens are converted to integers once, the common prefix and suffix of
+ * each compared range are skipped, and the work is bounded by a cost (the
+ * number of compared diagonals and tokens). When the cost is exceeded, the
+ * ranges which are not compared yet are reported as changed as a whole.
+ */
+public class MyersDiff {
+
+  private final int[]      original;
+
+  private final int[]      revised;
+
+  private final int[]      forward;
+
+  private final int[]      backward;
+
+  private final List<Edit> edits = new ArrayList<Edit>();
+
+  private final long       maxCost;
+
+  private long             cost;
+
+  private boolean          budgetExceeded;
+
+  /**
+   * @param original the tokens of the original content
+   * @param revised the tokens of the revised content
+   * @param maxCost the maximum cost of the comparison, see {@link #isBudgetExceeded()}
+   */
+  public MyersDiff(String[] original, String[] revised, long maxCost) {
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    this.original = toIds(original, ids);
+    this.revised = toIds(revised, ids);
+    this.maxCost = maxCost;
+    int length = 2 * ((original.length + revised.length + 1) / 2) + 2;
+    this.forward = new int[length];
+    this.backward = new int[length];
+    compare(0, this.original.length, 0, this.revised.length);
+  }
+
+  /**
+   * @return the changed ranges, in the order of the content
+   */
+  public List<Edit> getEdits() {
+    return Collections.unmodifiableList(edits);
+  }
+
+  /**
+   * @return the cost spent to compare the contents
+   */
+  public long getCost() {
+    return cost;
+  }
+
+  /**
+   * @return true if the cost of the comparison has exceeded the maximum cost,
+   *         in which case some ranges are reported as changed as a whole
+   *         although parts of them are identical
+   */
+  public boolean isBudgetExceeded() {
+    return budgetExceeded;
+  }
+
+  private static int[] toIds(String[] tokens, Map<String, Integer> ids) {
+    int[] result = new int[tokens.length];
+    for (int i = 0; i < tokens.length; i++) {
+      Integer id = ids.get(tokens[i]);
+      if (id == null) {
+        id = ids.size();
+        ids.put(tokens[i], id);
+      }
+      result[i] = id;
+    }
+    return result;
+  }
+
+  private void compare(int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    // skip the common prefix and suffix
+    while (originalStart < originalEnd && revisedStart < revisedEnd && original[originalStart] == revised[revisedStart]) {
+      originalStart++;
+      revisedStart++;
+    }
+    while (originalStart < originalEnd && revisedStart < revisedEnd && original[originalEnd - 1] == revised[revisedEnd - 1]) {
+      originalEnd--;
+      revisedEnd--;
+    }
+    if (originalStart == originalEnd && revisedStart == revisedEnd) {
+      return;
+    }
+    if (originalStart == originalEnd || revisedStart == revisedEnd || budgetExceeded) {
+      addEdit(originalStart, originalEnd, revisedStart, revisedEnd);
+      return;
+    }
+
+    long split = findMiddle(originalStart, originalEnd, revisedStart, revisedEnd);
+    int x = (int) (split >>> 32);
+    int y = (int) split;
+    if (split < 0 || (x == originalStart && y == revisedStart) || (x == originalEnd && y == revisedEnd)) {
+      // budget exceeded, or no progress: the whole range is reported as changed
+      addEdit(originalStart, originalEnd, revisedStart, revisedEnd);
+      return;
+    }
+    compare(originalStart, x, revisedStart, y);
+    compare(x, originalEnd, y, revisedEnd);
+  }
+
+  /**
+   * Looks for the point where the forward and backward searches of the
+   * shortest edit script overlap, which splits the ranges in two parts
+   * that can be compared independently.
+   *
+   * @return the split point, original index in the high bits and revised index in the low bits,
+   *         or -1 if the maximum cost is exceeded
+   */
+  private long findMiddle(int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    int originalLength = originalEnd - originalStart;
+    int revisedLength = revisedEnd - revisedStart;
+    int maxD = (originalLength + revisedLength + 1) / 2;
+    int offset = maxD;
+    int length = 2 * maxD + 2;
+    Arrays.fill(forward, 0, length, -1);
+    Arrays.fill(backward, 0, length, -1);
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+    int delta = originalLength - revisedLength;
+    // if the delta is odd, the paths overlap during the forward search, otherwise during the backward one
+    boolean front = (delta % 2 != 0);
+    int forwardStart = 0;
+    int forwardEnd = 0;
+    int backwardStart = 0;
+    int backwardEnd = 0;
+
+    for (int d = 0; d < maxD; d++) {
+      cost += 2 * d + 2;
+      if (cost > maxCost) {
+        budgetExceeded = true;
+        return -1;
+      }
+
+      for (int k = -d + forwardStart; k <= d - forwardEnd; k += 2) {
+        int index = offset + k;
+        int x;
+        if (k == -d || (k != d && forward[index - 1] < forward[index + 1])) {
+          x = forward[index + 1];
+        } else {
+          x = forward[index - 1] + 1;
+        }
+        int y = x - k;
+        int snakeStart = x;
+        while (x < originalLength && y < revisedLength
+            && original[originalStart + x] == revised[revisedStart + y]) {
+          x++;
+          y++;
+        }
+        cost += x - snakeStart;
+        forward[index] = x;
+        if (x > originalLength) {
+          forwardEnd += 2;
+        } else if (y > revisedLength) {
+          forwardStart += 2;
+        } else if (front) {
+          int backwardIndex = offset + delta - k;
+          if (backwardIndex >= 0 && backwardIndex < length && backward[backwardIndex] != -1) {
+            if (x >= originalLength - backward[backwardIndex]) {
+              return split(originalStart + x, revisedStart + y);
+            }
+          }
+        }
+      }
+
+      for (int k = -d + backwardStart; k <= d - backwardEnd; k += 2) {
+        int index = offset + k;
+        int x;
+        if (k == -d || (k != d && backward[index - 1] < backward[index + 1])) {
+          x = backward[index + 1];
+        } else {
+          x = backward[index - 1] + 1;
+        }
+        int y = x - k;
+        int snakeStart = x;
+        while (x < originalLength && y < revisedLength
+            && original[originalEnd - x - 1] == revised[revisedEnd - y - 1]) {
+          x++;
+          y++;
+        }
+        cost += x - snakeStart;
+        backward[index] = x;
+        if (x > originalLength) {
+          backwardEnd += 2;
+        } else if (y > revisedLength) {
+          backwardStart += 2;
+        } else if (!front) {
+          int forwardIndex = offset + delta - k;
+          if (forwardIndex >= 0 && forwardIndex < length && forward[forwardIndex] != -1) {
+            int forwardX = forward[forwardIndex];
+            int forwardY = offset + forwardX - forwardIndex;
+            if (forwardX >= originalLength - x) {
+              return split(originalStart + forwardX, revisedStart + forwardY);
+            }
+          }
+        }
+      }
+    }
+    // only reached when the contents have nothing in common
+    return split(originalEnd, revisedStart);
+  }
+
+  private static long split(int x, int y) {
+    return ((long) x << 32) | (y & 0xFFFFFFFFL);
+  }
+
+  private void addEdit(int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+    if (!edits.isEmpty()) {
+      Edit last = edits.get(edits.size() - 1);
+      if (last.originalEnd == originalStart && last.revisedEnd == revisedStart) {
+        edits.set(edits.size() - 1, new Edit(last.originalStart, originalEnd, last.revisedStart, revisedEnd));
+        return;
+      }
+    }
+    edits.add(new Edit(originalStart, originalEnd, revisedStart, revisedEnd));
+  }
+
+  /**
+   * A range of the original tokens replaced by a range of the revised tokens.
+   * One of the ranges is empty for a deletion or an insertion.
+   */
+  public static class Edit {
+
+    private final int originalStart;
+
+    private final int originalEnd;
+
+    private final int revisedStart;
+
+    private final int revisedEnd;
+
+    public Edit(int originalStart, int originalEnd, int revisedStart, int revisedEnd) {
+      this.originalStart = originalStart;
+      this.originalEnd = originalEnd;
+      this.revisedStart = revisedStart;
+      this.revisedEnd = revisedEnd;
+    }
+
+    public int getOriginalStart() {
+      return originalStart;
+    }
+
+    public int getOriginalEnd() {
+      return originalEnd;
+    }
+
+    public int getRevisedStart() {
+      return revisedStart;
+    }
+
+    public int getRevisedEnd() {
+      return revisedEnd;
+    }
+
+    @Override
+    public String toString() {
+      return "Edit[" + originalStart + "-" + originalEnd + " -> " + revisedStart + "-" + revisedEnd + "]";
+    }
+  }
+}
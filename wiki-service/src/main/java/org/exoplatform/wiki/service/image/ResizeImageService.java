@@ -16,6 +16,7 @@
  */
 package org.exoplatform.wiki.service.image;
 
+import java.io.File;
 import java.io.InputStream;
 
 /**
@@ -42,6 +43,57 @@ public interface ResizeImageService {
                                  int requestHeight,
                                  boolean keepAspectRatio);
 
+  /**
+   * Resizes a given image to the specified dimensions and returns the file
+   * of the resized image. The file is shared by all the requests of the same
+   * image and size, it must not be modified.
+   * 
+   * @param imageName Identity of the image to be resized, for example the path of the attachment.
+   * @param is The input stream of the image.
+   * @param requestWidth The new width.
+   * @param requestHeight The new height.
+   * @param keepAspectRatio Keeps the aspect ratio or not.
+   * @return The file of the resized image, null if the image cannot be resized.
+   */
+  public File resizeImageToFile(String imageName,
+                                InputStream is,
+                                int requestWidth,
+                                int requestHeight,
+                                boolean keepAspectRatio);
+
+  /**
+   * Gets the file of a version of an image already resized to the specified
+   * dimensions, without reading the image.
+   * 
+   * @param imageVersionId Identity of the version of the image, for example the path, update date and size of the attachment.
+   * @param requestWidth The new width.
+   * @param requestHeight The new height.
+   * @param keepAspectRatio Keeps the aspect ratio or not.
+   * @return The file of the resized image, null if the image has not been resized yet.
+   */
+  public File getResizedImageVersionFile(String imageVersionId,
+                                         int requestWidth,
+                                         int requestHeight,
+                                         boolean keepAspectRatio);
+
+  /**
+   * Resizes a version of an image to the specified dimensions and returns the
+   * file of the resized image. Unlike {@link #resizeImageToFile(String, InputStream, int, int, boolean)},
+   * the content is not hashed: the identity must change with the content of the image.
+   * 
+   * @param imageVersionId Identity of the version of the image, for example the path, update date and size of the attachment.
+   * @param is The input stream of the image.
+   * @param requestWidth The new width.
+   * @param requestHeight The new height.
+   * @param keepAspectRatio Keeps the aspect ratio or not.
+   * @return The file of the resized image, null if the image cannot be resized.
+   */
+  public File resizeImageVersionToFile(String imageVersionId,
+                                       InputStream is,
+                                       int requestWidth,
+                                       int requestHeight,
+                                       boolean keepAspectRatio);
+
   /**
    * Resizes a given image to adapt with the desired width and keep
    * the aspect ratio.
@@ -17,37 +17,129 @@
 package org.exoplatform.wiki.service.image.impl;
 
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.Serializable;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
 
-import org.exoplatform.services.cache.CacheService;
-import org.exoplatform.services.cache.ExoCache;
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.wiki.service.image.ResizeImageService;
+import org.picocontainer.Startable;
 
 /**
  * {@inheritDoc}
+ *
+ * The resized images are kept in a {@link ThumbnailStore}, keyed by the
+ * identity of the image, the hash of its content and the requested size, so
+ * that an updated image never serves a stale thumbnail. The versions of
+ * images are keyed by their identity only, so that their stored thumbnails
+ * are found without reading the images.
  */
-public class ResizeImageServiceImpl implements ResizeImageService {
+public class ResizeImageServiceImpl implements ResizeImageService, Startable {
 
   private static final Log               log = ExoLogger.getLogger(ResizeImageServiceImpl.class);
 
-  private ExoCache<Serializable, Object> imageCaches;
+  public static final String             THUMBNAILS_DIRECTORY_PARAM = "thumbnails.directory";
+
+  public static final String             THUMBNAILS_MAX_SIZE_PARAM  = "thumbnails.maxSizeInMB";
+
+  private static final long              DEFAULT_MAX_SIZE_IN_MB     = 100;
+
+  public static final String             MAX_CONCURRENT_RESIZES_PARAM = "thumbnails.maxConcurrentResizes";
+
+  private static final String            PNG_FORMAT                 = "png";
+
+  private static final String            JPEG_FORMAT                = "jpeg";
+
+  private static final float             JPEG_QUALITY               = 0.85f;
+
+  /** The image is decoded to at least this factor of the requested size before being scaled */
+  private static final int               SUBSAMPLING_MARGIN         = 2;
+
+  private static final int               RESIZE_QUEUE_SIZE          = 100;
+
+  private static final int               BUFFER_SIZE                = 8192;
+
+  private final ThumbnailStore           thumbnailStore;
+
+  private final ExecutorService          resizeExecutor;
 
-  public ResizeImageServiceImpl(CacheService caService) {
-    imageCaches = caService.getCacheInstance(ResizeImageServiceImpl.class.getName());
+  /** Locks of the thumbnails being created, so that an image is resized only once at a time */
+  private final ConcurrentMap<String, Object> resizingLocks = new ConcurrentHashMap<String, Object>();
+
+  public ResizeImageServiceImpl(InitParams initParams) {
+    String directory = getValueParam(initParams, THUMBNAILS_DIRECTORY_PARAM);
+    File thumbnailsDirectory;
+    if (StringUtils.isBlank(directory)) {
+      String dataDirectory = System.getProperty("exo.data.dir", System.getProperty("java.io.tmpdir"));
+      thumbnailsDirectory = new File(dataDirectory, "wiki" + File.separator + "thumbnails");
+    } else {
+      thumbnailsDirectory = new File(directory);
+    }
+    long maxSizeInMB = DEFAULT_MAX_SIZE_IN_MB;
+    String maxSize = getValueParam(initParams, THUMBNAILS_MAX_SIZE_PARAM);
+    if (StringUtils.isNotBlank(maxSize)) {
+      maxSizeInMB = Long.parseLong(maxSize.trim());
+    }
+    thumbnailStore = new ThumbnailStore(thumbnailsDirectory, maxSizeInMB * 1024 * 1024);
+
+    int maxConcurrentResizes = Runtime.getRuntime().availableProcessors();
+    String maxResizes = getValueParam(initParams, MAX_CONCURRENT_RESIZES_PARAM);
+    if (StringUtils.isNotBlank(maxResizes)) {
+      maxConcurrentResizes = Integer.parseInt(maxResizes.trim());
+    }
+    resizeExecutor = new ThreadPoolExecutor(maxConcurrentResizes,
+                                            maxConcurrentResizes,
+                                            60L,
+                                            TimeUnit.SECONDS,
+                                            new LinkedBlockingQueue<Runnable>(RESIZE_QUEUE_SIZE),
+                                            new ThreadFactory() {
+                                              private final AtomicInteger count = new AtomicInteger();
+
+                                              @Override
+                                              public Thread newThread(Runnable runnable) {
+                                                Thread thread = new Thread(runnable, "wiki-image-resize-" + count.incrementAndGet());
+                                                thread.setDaemon(true);
+                                                return thread;
+                                              }
+                                            });
+    ((ThreadPoolExecutor) resizeExecutor).allowCoreThreadTimeOut(true);
   }
 
   /**
@@ -60,48 +152,245 @@ public class ResizeImageServiceImpl implements ResizeImageService {
                                  int requestWidth,
                                  int requestHeight,
                                  boolean keepAspectRatio) {
-    File file = null;
-    Image image = null;
-    InputStream result = null;
-    String cacheFileName = imageName + requestWidth + requestHeight;
-    File cacheFile = (File) imageCaches.get(cacheFileName);
-    if (cacheFile != null) {
+    File thumbnail = resizeImageToFile(imageName, is, requestWidth, requestHeight, keepAspectRatio);
+    if (thumbnail == null) {
+      return null;
+    }
+    try {
+      return new BufferedInputStream(new FileInputStream(thumbnail));
+    } catch (FileNotFoundException e) {
+      if (log.isDebugEnabled())
+        log.debug("Cached image is not found", e);
+      return null;
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see ResizeImageService#resizeImageToFile(String, InputStream, int, int, boolean)
+   */
+  public File resizeImageToFile(String imageName,
+                                InputStream is,
+                                int requestWidth,
+                                int requestHeight,
+                                boolean keepAspectRatio) {
+    File spoolFile = null;
+    try {
+      // The content is hashed before decoding, images which are not already in memory
+      // are spooled to the disk so that they are read only once
+      String contentHash;
+      if (is instanceof ByteArrayInputStream) {
+        is.mark(Integer.MAX_VALUE);
+        contentHash = digest(is, null);
+        is.reset();
+      } else {
+        spoolFile = thumbnailStore.createTempFile();
+        OutputStream spool = new FileOutputStream(spoolFile);
+        try {
+          contentHash = digest(is, spool);
+        } finally {
+          spool.close();
+        }
+      }
+      String key = getThumbnailKey(imageName, contentHash, requestWidth, requestHeight, keepAspectRatio);
+      Object source = (spoolFile != null) ? spoolFile : is;
+      return getOrCreateThumbnail(key, source, requestWidth, requestHeight, keepAspectRatio);
+    } catch (IOException e) {
+      if (log.isDebugEnabled())
+        log.debug("Can't not get image " + imageName, e);
+      return null;
+    } finally {
+      if (spoolFile != null && spoolFile.exists() && !spoolFile.delete() && log.isDebugEnabled()) {
+        log.debug("Cannot delete temporary file " + spoolFile.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see ResizeImageService#getResizedImageVersionFile(String, int, int, boolean)
+   */
+  public File getResizedImageVersionFile(String imageVersionId,
+                                         int requestWidth,
+                                         int requestHeight,
+                                         boolean keepAspectRatio) {
+    return thumbnailStore.get(getThumbnailKey(imageVersionId, null, requestWidth, requestHeight, keepAspectRatio));
+  }
+
+  /**
+   * {@inheritDoc}
+   *
+   * @see ResizeImageService#resizeImageVersionToFile(String, InputStream, int, int, boolean)
+   */
+  public File resizeImageVersionToFile(String imageVersionId,
+                                       InputStream is,
+                                       int requestWidth,
+                                       int requestHeight,
+                                       boolean keepAspectRatio) {
+    try {
+      String key = getThumbnailKey(imageVersionId, null, requestWidth, requestHeight, keepAspectRatio);
+      return getOrCreateThumbnail(key, is, requestWidth, requestHeight, keepAspectRatio);
+    } catch (IOException e) {
+      if (log.isDebugEnabled())
+        log.debug("Can't not get image " + imageVersionId, e);
+      return null;
+    }
+  }
+
+  /**
+   * Gets a thumbnail from the store, or creates it if it is not stored. An
+   * image is resized only once at a time, the concurrent requests of the same
+   * thumbnail wait for it.
+   */
+  private File getOrCreateThumbnail(String key,
+                                    Object source,
+                                    int requestWidth,
+                                    int requestHeight,
+                                    boolean keepAspectRatio) throws IOException {
+    File thumbnail = thumbnailStore.get(key);
+    if (thumbnail != null) {
+      return thumbnail;
+    }
+    Object lock = new Object();
+    Object currentLock = resizingLocks.putIfAbsent(key, lock);
+    if (currentLock != null) {
+      lock = currentLock;
+    }
+    synchronized (lock) {
       try {
-        result = new BufferedInputStream(new FileInputStream(cacheFile));
-      } catch (FileNotFoundException e) {
-        if (log.isDebugEnabled())
-          log.debug("Cached image is not found", e);
+        thumbnail = thumbnailStore.get(key);
+        if (thumbnail == null) {
+          thumbnail = createThumbnail(key, source, requestWidth, requestHeight, keepAspectRatio);
+        }
+      } finally {
+        resizingLocks.remove(key, lock);
       }
-    } else {
+    }
+    return thumbnail;
+  }
+
+  /**
+   * Decodes and scales the image in the bounded pool, so that the number of
+   * images decoded at the same time, and so the memory they use, is capped.
+   */
+  private File createThumbnail(final String key,
+                               final Object source,
+                               final int requestWidth,
+                               final int requestHeight,
+                               final boolean keepAspectRatio) throws IOException {
+    Future<File> future;
+    try {
+      future = resizeExecutor.submit(new Callable<File>() {
+        @Override
+        public File call() throws IOException {
+          return doCreateThumbnail(key, source, requestWidth, requestHeight, keepAspectRatio);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw new IOException("Too many images are being resized", e);
+    }
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while resizing image", e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+      throw new IOException("Cannot resize image", e.getCause());
+    }
+  }
+
+  private File doCreateThumbnail(String key,
+                                 Object source,
+                                 int requestWidth,
+                                 int requestHeight,
+                                 boolean keepAspectRatio) throws IOException {
+    ImageInputStream input = ImageIO.createImageInputStream(source);
+    if (input == null) {
+      throw new IOException("Cannot read image");
+    }
+    try {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format");
+      }
+      ImageReader reader = readers.next();
+      BufferedImage image = null;
       try {
-        image = ImageIO.read(is);
-        int currentWidth = image.getWidth(null);
-        int currentHeight = image.getHeight(null);
-        int[] dimensions = reduceImageDimensions(currentWidth,
-                                                 currentHeight,
+        reader.setInput(input, true, true);
+        int[] dimensions = reduceImageDimensions(reader.getWidth(0),
+                                                 reader.getHeight(0),
                                                  requestWidth,
                                                  requestHeight,
                                                  keepAspectRatio);
-        RenderedImage renderedImage = scaleImage(image, dimensions[0], dimensions[1]);
-
-        file = File.createTempFile(imageName, ".png");
-        file.deleteOnExit();
-        ImageIO.write(renderedImage, "png", file);
-      } catch (IOException e) {
-        if (log.isDebugEnabled())
-          log.debug("Can't not get image", e);
+        // Large downscales skip source pixels while decoding, the image is only
+        // decoded to about twice the requested size
+        ImageReadParam readParam = reader.getDefaultReadParam();
+        int subsampling = Math.min(reader.getWidth(0) / (dimensions[0] * SUBSAMPLING_MARGIN),
+                                   reader.getHeight(0) / (dimensions[1] * SUBSAMPLING_MARGIN));
+        if (subsampling > 1) {
+          readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+        image = reader.read(0, readParam);
+
+        boolean photographic = isJPEG(reader.getFormatName()) && !image.getColorModel().hasAlpha();
+        String format = photographic ? JPEG_FORMAT : PNG_FORMAT;
+        BufferedImage thumbnail = scaleImage(image, dimensions[0], dimensions[1], photographic);
+        File tempFile = thumbnailStore.createTempFile();
+        try {
+          writeImage(thumbnail, format, tempFile);
+          return thumbnailStore.put(key, format, tempFile);
+        } finally {
+          thumbnail.flush();
+          if (tempFile.exists() && !tempFile.delete() && log.isDebugEnabled()) {
+            log.debug("Cannot delete temporary file " + tempFile.getAbsolutePath());
+          }
+        }
       } finally {
-        image.flush();
+        if (image != null) {
+          image.flush();
+        }
+        reader.dispose();
       }
+    } finally {
+      input.close();
+    }
+  }
 
-      try {
-        imageCaches.put(cacheFileName, file);
-        result = new BufferedInputStream(new FileInputStream(file));
-      } catch (FileNotFoundException e) {
-        log.debug("Image is not created", e);
-      }
+  private void writeImage(BufferedImage image, String format, File file) throws IOException {
+    ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+    ImageWriteParam writeParam = writer.getDefaultWriteParam();
+    if (JPEG_FORMAT.equals(format)) {
+      writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+      writeParam.setCompressionQuality(JPEG_QUALITY);
+    }
+    ImageOutputStream output = ImageIO.createImageOutputStream(file);
+    try {
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), writeParam);
+    } finally {
+      output.close();
+      writer.dispose();
     }
-    return result;
+  }
+
+  private boolean isJPEG(String formatName) {
+    return JPEG_FORMAT.equalsIgnoreCase(formatName) || "jpg".equalsIgnoreCase(formatName);
+  }
+
+  /**
+   * Stops the resizing threads.
+   */
+  public void stop() {
+    resizeExecutor.shutdownNow();
+  }
+
+  public void start() {
   }
 
   /**
@@ -123,38 +412,36 @@ public class ResizeImageServiceImpl implements ResizeImageService {
   }
   
   /**
-   * Scales the given image to the specified dimensions.
+   * Scales the given image to the specified dimensions. The image is halved
+   * with bilinear interpolation until it reaches the requested size, which
+   * is faster and gives better results than a single bicubic step.
    * 
    * @param image the image to be scaled
    * @param width the new image width
    * @param height the new image height
+   * @param opaque {@code true} to drop the alpha channel
    * @return the scaled image
    */
-  private RenderedImage scaleImage(Image image, int width, int height) {
-    // Draw the given image to a buffered image object and scale it to the new
-    // size on-the-fly.
-    int imageType = BufferedImage.TYPE_4BYTE_ABGR;
-    if (image instanceof BufferedImage) {
-      imageType = ((BufferedImage) image).getType();
-      if (imageType == BufferedImage.TYPE_BYTE_INDEXED
-          || imageType == BufferedImage.TYPE_BYTE_BINARY || imageType == BufferedImage.TYPE_CUSTOM) {
-        // INDEXED and BINARY: GIFs or indexed PNGs may lose their transparent
-        // bits, for safety revert to ABGR.
-        // CUSTOM: Unknown image type, fall back on ABGR.
-        imageType = BufferedImage.TYPE_4BYTE_ABGR;
+  private BufferedImage scaleImage(BufferedImage image, int width, int height, boolean opaque) {
+    int imageType = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+    BufferedImage scaledImage = image;
+    int currentWidth = image.getWidth();
+    int currentHeight = image.getHeight();
+    do {
+      currentWidth = (currentWidth / 2 > width) ? currentWidth / 2 : width;
+      currentHeight = (currentHeight / 2 > height) ? currentHeight / 2 : height;
+      BufferedImage step = new BufferedImage(currentWidth, currentHeight, imageType);
+      Graphics2D graphics2D = step.createGraphics();
+      graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                                  RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics2D.drawImage(scaledImage, 0, 0, currentWidth, currentHeight, null);
+      graphics2D.dispose();
+      if (scaledImage != image) {
+        scaledImage.flush();
       }
-    }
-    BufferedImage bufferedImage = new BufferedImage(width, height, imageType);
-    Graphics2D graphics2D = bufferedImage.createGraphics();
-    graphics2D.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
-                                RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-    // We should test the return code here because an exception can be throw but
-    // caught.
-    if (!graphics2D.drawImage(image, 0, 0, width, height, null)) {
-      // Conversion failed.
-      throw new RuntimeException("Failed to resize image.");
-    }
-    return bufferedImage;
+      scaledImage = step;
+    } while (currentWidth != width || currentHeight != height);
+    return scaledImage;
   }
 
   /**
@@ -217,6 +504,56 @@ public class ResizeImageServiceImpl implements ResizeImageService {
       height = requestedHeight;
     }
 
-    return new int[] { width, height };
+    return new int[] { Math.max(1, width), Math.max(1, height) };
+  }
+
+  private String getThumbnailKey(String imageName, String contentHash, int requestWidth, int requestHeight, boolean keepAspectRatio) {
+    StringBuilder key = new StringBuilder();
+    key.append(imageName).append('\n')
+       .append(contentHash != null ? contentHash : "").append('\n')
+       .append(requestWidth).append('x').append(requestHeight)
+       .append(keepAspectRatio ? "" : "!");
+    MessageDigest digest = createDigest();
+    return toHex(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+  }
+
+  /**
+   * Hashes the given stream, copying it to the given output stream if not null.
+   */
+  private String digest(InputStream is, OutputStream copy) throws IOException {
+    MessageDigest digest = createDigest();
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int read;
+    while ((read = is.read(buffer)) != -1) {
+      digest.update(buffer, 0, read);
+      if (copy != null) {
+        copy.write(buffer, 0, read);
+      }
+    }
+    return toHex(digest.digest());
+  }
+
+  private MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not supported", e);
+    }
+  }
+
+  private String toHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private String getValueParam(InitParams initParams, String name) {
+    if (initParams == null) {
+      return null;
+    }
+    ValueParam param = initParams.getValueParam(name);
+    return (param != null) ? param.getValue() : null;
   }
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.image.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+
+/**
+ * Disk store of the resized images.
+ *
+ * Thumbnails are stored in a directory, one file per key, so that they
+ * survive restarts. The total size of the directory is bounded, the least
+ * recently used thumbnails are deleted first. The last modification date of
+ * the files is used as access date to restore the LRU order on startup.
+ */
+public class ThumbnailStore {
+
+  private static final Log          log              = ExoLogger.getLogger(ThumbnailStore.class);
+
+  private static final String       TEMP_FILE_SUFFIX = ".tmp";
+
+  private final File                directory;
+
+  private final long                maxSize;
+
+  private final Map<String, File>   thumbnails       = new LinkedHashMap<String, File>(16, 0.75f, true);
+
+  private final Map<String, Long>   lengths          = new LinkedHashMap<String, Long>();
+
+  private long                      size;
+
+  /**
+   * @param directory the directory of the thumbnails, created if needed
+   * @param maxSize the maximum size of the store, in bytes
+   */
+  public ThumbnailStore(File directory, long maxSize) {
+    this.directory = directory;
+    this.maxSize = maxSize;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      log.warn("Cannot create the thumbnails directory " + directory.getAbsolutePath());
+    }
+    load();
+  }
+
+  /**
+   * Gets a thumbnail of the store and marks it as recently used
+   * @param key the key of the thumbnail
+   * @return the file of the thumbnail, null if it is not in the store
+   */
+  public synchronized File get(String key) {
+    File thumbnail = thumbnails.get(key);
+    if (thumbnail == null) {
+      return null;
+    }
+    if (!thumbnail.isFile()) {
+      remove(key);
+      return null;
+    }
+    thumbnail.setLastModified(System.currentTimeMillis());
+    return thumbnail;
+  }
+
+  /**
+   * Creates a temporary file in the store directory, to be filled and then
+   * added to the store with {@link #put(String, String, File)}.
+   * @return the temporary file
+   * @throws IOException
+   */
+  public File createTempFile() throws IOException {
+    return File.createTempFile("thumbnail", TEMP_FILE_SUFFIX, directory);
+  }
+
+  /**
+   * Adds a thumbnail to the store, evicting the least recently used ones if the store is full.
+   * @param key the key of the thumbnail
+   * @param format the image format of the thumbnail, used as file extension
+   * @param tempFile the file of the thumbnail, created by {@link #createTempFile()}; it is moved into the store
+   * @return the file of the thumbnail in the store
+   * @throws IOException
+   */
+  public synchronized File put(String key, String format, File tempFile) throws IOException {
+    File thumbnail = new File(directory, key + "." + format);
+    File previous = thumbnails.get(key);
+    if (previous != null && !previous.equals(thumbnail)) {
+      remove(key);
+    } else if (previous != null) {
+      size -= lengths.remove(key);
+      thumbnails.remove(key);
+    }
+    Files.move(tempFile.toPath(), thumbnail.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    add(key, thumbnail);
+    evict();
+    return thumbnail;
+  }
+
+  public synchronized long getSize() {
+    return size;
+  }
+
+  public long getMaxSize() {
+    return maxSize;
+  }
+
+  public synchronized int getCount() {
+    return thumbnails.size();
+  }
+
+  public File getDirectory() {
+    return directory;
+  }
+
+  /**
+   * Registers the thumbnails found in the directory, from the least to the
+   * most recently used, and deletes the temporary files left by a crash.
+   */
+  private synchronized void load() {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    Arrays.sort(files, new Comparator<File>() {
+      @Override
+      public int compare(File f1, File f2) {
+        return Long.compare(f1.lastModified(), f2.lastModified());
+      }
+    });
+    for (File file : files) {
+      String name = file.getName();
+      int extension = name.lastIndexOf('.');
+      if (!file.isFile()) {
+        continue;
+      }
+      if (name.endsWith(TEMP_FILE_SUFFIX) || extension <= 0) {
+        delete(file);
+      } else {
+        String key = name.substring(0, extension);
+        remove(key);
+        add(key, file);
+      }
+    }
+    evict();
+  }
+
+  private void add(String key, File thumbnail) {
+    long length = thumbnail.length();
+    thumbnails.put(key, thumbnail);
+    lengths.put(key, length);
+    size += length;
+  }
+
+  private void remove(String key) {
+    File thumbnail = thumbnails.remove(key);
+    Long length = lengths.remove(key);
+    if (length != null) {
+      size -= length;
+    }
+    if (thumbnail != null) {
+      delete(thumbnail);
+    }
+  }
+
+  private void evict() {
+    Iterator<Map.Entry<String, File>> entries = thumbnails.entrySet().iterator();
+    while (size > maxSize && entries.hasNext()) {
+      Map.Entry<String, File> eldest = entries.next();
+      entries.remove();
+      size -= lengths.remove(eldest.getKey());
+      delete(eldest.getValue());
+    }
+  }
+
+  private void delete(File file) {
+    if (file.exists() && !file.delete() && log.isDebugEnabled()) {
+      log.debug("Cannot delete thumbnail " + file.getAbsolutePath());
+    }
+  }
+}
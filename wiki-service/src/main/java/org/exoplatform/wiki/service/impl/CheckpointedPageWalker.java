@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.core.api.wiki.WikiNodeType;
+
+/**
+ * A batch of a walk through page trees, resumed from a checkpoint.
+ *
+ * The pages are walked depth first, in the order of their paths: a page
+ * precedes its descendants, and the sibling pages are sorted by name. A batch
+ * visits the pages which follow its checkpoint, the path of the last page
+ * visited by the previous batches, up to the size of the batch. The batches
+ * are committed one after the other, so that a failed walk can be resumed
+ * from the last committed page.
+ */
+abstract class CheckpointedPageWalker {
+
+  private final String checkpoint;
+
+  private final int    batchSize;
+
+  private String       lastPath;
+
+  private int          visitedPages;
+
+  private boolean      finished;
+
+  /**
+   * @param checkpoint the path of the last page visited by the previous
+   *          batches, or null to start the walk
+   * @param batchSize the maximum number of pages visited by the batch
+   */
+  CheckpointedPageWalker(String checkpoint, int batchSize) {
+    this.checkpoint = checkpoint;
+    this.batchSize = batchSize;
+  }
+
+  /**
+   * Visits the pages of the trees which follow the checkpoint, up to the size
+   * of the batch
+   *
+   * @param rootNodes the root pages of the trees
+   * @return true if the walk is over, false if the batch is full
+   */
+  boolean walk(List<Node> rootNodes) throws RepositoryException, WikiException {
+    List<Node> sortedRootNodes = new ArrayList<Node>(rootNodes);
+    Collections.sort(sortedRootNodes, new Comparator<Node>() {
+      @Override
+      public int compare(Node node1, Node node2) {
+        try {
+          return comparePaths(node1.getPath(), node2.getPath());
+        } catch (RepositoryException e) {
+          return 0;
+        }
+      }
+    });
+    finished = true;
+    for (Node rootNode : sortedRootNodes) {
+      if (!visit(rootNode)) {
+        finished = false;
+        break;
+      }
+    }
+    return finished;
+  }
+
+  /**
+   * Visits a page of the batch. The changes are saved with the batch.
+   *
+   * @param pageNode the page
+   */
+  protected abstract void visitPage(Node pageNode) throws RepositoryException, WikiException;
+
+  /**
+   * @return the path of the last page visited by the previous batches, or null
+   */
+  String getCheckpoint() {
+    return checkpoint;
+  }
+
+  /**
+   * @return the path of the last page visited by this batch, or null
+   */
+  String getLastPath() {
+    return lastPath;
+  }
+
+  int getVisitedPages() {
+    return visitedPages;
+  }
+
+  /**
+   * @return true if the batch has reached the end of the walk
+   */
+  boolean isFinished() {
+    return finished;
+  }
+
+  /**
+   * Visits a page and its descendants which follow the checkpoint
+   * @return false if the batch is full
+   */
+  private boolean visit(Node pageNode) throws RepositoryException, WikiException {
+    String path = pageNode.getPath();
+    if (checkpoint == null || comparePaths(path, checkpoint) > 0) {
+      if (visitedPages >= batchSize) {
+        return false;
+      }
+      visitedPages++;
+      visitPage(pageNode);
+      lastPath = path;
+    } else if (!isAncestorOrSelf(path, checkpoint)) {
+      // the page and its descendants precede the checkpoint, they are already done
+      return true;
+    }
+    for (Node childNode : getChildPageNodes(pageNode)) {
+      if (!visit(childNode)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static List<Node> getChildPageNodes(Node pageNode) throws RepositoryException {
+    List<Node> childNodes = new ArrayList<Node>();
+    NodeIterator nodeIterator = pageNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node childNode = nodeIterator.nextNode();
+      if (childNode.isNodeType(WikiNodeType.WIKI_PAGE)) {
+        childNodes.add(childNode);
+      }
+    }
+    Collections.sort(childNodes, new Comparator<Node>() {
+      @Override
+      public int compare(Node node1, Node node2) {
+        try {
+          return node1.getName().compareTo(node2.getName());
+        } catch (RepositoryException e) {
+          return 0;
+        }
+      }
+    });
+    return childNodes;
+  }
+
+  /**
+   * Compares two paths in the order of the walk
+   */
+  private static int comparePaths(String path1, String path2) {
+    String[] names1 = StringUtils.split(path1, '/');
+    String[] names2 = StringUtils.split(path2, '/');
+    for (int i = 0; i < Math.min(names1.length, names2.length); i++) {
+      int comparison = names1[i].compareTo(names2[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return names1.length - names2.length;
+  }
+
+  private static boolean isAncestorOrSelf(String path, String descendantPath) {
+    return descendantPath.equals(path) || descendantPath.startsWith(path + "/");
+  }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Calendar;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.DraftPage;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.service.WikiService;
+
+/**
+ * Saves the drafts sent by the editors while a page is edited.
+ *
+ * The autosaves of a user on a page are serialized by a striped lock, and an
+ * autosave superseded by a more recent one of the same user on the same page,
+ * while it was waiting for the lock, is not written. The content of a draft is
+ * only written when it differs from the last content saved on this node, and
+ * it is written as sent by the editor: the conversion of the WYSIWYG content
+ * to the wiki syntax is done when the draft is read. A draft is updated
+ * without touching the caches of its target page.
+ *
+ * The target page is resolved once per editing session. It is resolved again
+ * when the draft cannot be updated anymore, and when a page is deleted or
+ * created with its name, see {@link DraftAutoSaverListener}.
+ */
+public class DraftAutoSaver {
+
+  /** Bounds the memory used by the autosave states, they are all discarded when reached */
+  private static final int             MAX_STATES = 10000;
+
+  private final WikiService            wikiService;
+
+  /** The last autosave of each user and page, by user and page */
+  private final Map<String, AutoSave>  states     = new ConcurrentHashMap<String, AutoSave>();
+
+  /** The autosaves waiting for the lock, by user and page */
+  private final Map<String, Long>      pending    = new ConcurrentHashMap<String, Long>();
+
+  private final Object[]               locks      = new Object[64];
+
+  private long                         sequence;
+
+  public DraftAutoSaver(WikiService wikiService) {
+    this.wikiService = wikiService;
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
+  }
+
+  /**
+   * Saves a draft of a page for a user
+   *
+   * @param username the user
+   * @param wikiType the wiki type of the page
+   * @param wikiOwner the wiki owner of the page
+   * @param pageName the name of the edited page, or of the parent page for a new page
+   * @param pageRevision the revision of the page being edited
+   * @param lastDraftName the name of the draft returned by the previous autosave, if any
+   * @param isNewPage true if a new page is edited
+   * @param clientTime the time of the client, used to name a new draft
+   * @param title the title of the draft
+   * @param content the content of the draft
+   * @param syntax the syntax of the content
+   * @return the name of the draft, or the name of the last saved draft if the autosave has been superseded
+   * @throws WikiException
+   */
+  public String saveDraft(String username, String wikiType, String wikiOwner, String pageName, String pageRevision,
+                          String lastDraftName, boolean isNewPage, long clientTime,
+                          String title, String content, String syntax) throws WikiException {
+    String key = username + ":" + isNewPage + ":" + wikiType + ":" + wikiOwner + ":" + pageName;
+    Long ticket = nextSequence();
+    pending.put(key, ticket);
+
+    synchronized (getLock(key)) {
+      AutoSave state = states.get(key);
+      if (!ticket.equals(pending.get(key))) {
+        // a more recent autosave is waiting and will write its content instead
+        return state != null ? state.draftName : lastDraftName;
+      }
+      pending.remove(key, ticket);
+
+      String hash = hash(title, syntax, content);
+      if (state != null && state.draftName.equals(lastDraftName) && state.hash.equals(hash)) {
+        return state.draftName;
+      }
+
+      // the target page is only resolved once per editing session
+      Page page = null;
+      String targetPageId = state != null ? state.targetPageId : null;
+      if (targetPageId == null) {
+        page = getTargetPage(wikiType, wikiOwner, pageName);
+        targetPageId = page.getId();
+      }
+
+      String draftName = null;
+      if (StringUtils.isNotEmpty(lastDraftName)) {
+        DraftPage draftPage = new DraftPage();
+        draftPage.setName(lastDraftName);
+        draftPage.setTitle(StringUtils.isEmpty(title) ? lastDraftName : title);
+        draftPage.setContent(content);
+        draftPage.setSyntax(syntax);
+        draftPage.setTargetPageId(targetPageId);
+        draftPage.setUpdatedDate(Calendar.getInstance().getTime());
+        if (wikiService.updateDraft(draftPage)) {
+          draftName = lastDraftName;
+        }
+      }
+
+      if (draftName == null) {
+        // the draft does not exist anymore or targets another page, resolve the target page again
+        if (page == null) {
+          page = getTargetPage(wikiType, wikiOwner, pageName);
+          targetPageId = page.getId();
+        }
+        DraftPage newDraftPage = new DraftPage();
+        newDraftPage.setTitle(title);
+        newDraftPage.setContent(content);
+        newDraftPage.setSyntax(syntax);
+        if (isNewPage) {
+          draftName = wikiService.createDraftForNewPage(newDraftPage, page, clientTime).getName();
+        } else {
+          draftName = wikiService.createDraftForExistPage(newDraftPage, page, pageRevision, clientTime).getName();
+        }
+      }
+
+      if (states.size() >= MAX_STATES) {
+        states.clear();
+      }
+      states.put(key, new AutoSave(draftName, targetPageId, hash));
+      return draftName;
+    }
+  }
+
+  /**
+   * Forgets the target page resolved by the autosaves of a page, so that the
+   * next autosaves do not update a draft of a deleted page
+   *
+   * @param wikiType the wiki type of the page
+   * @param wikiOwner the wiki owner of the page
+   * @param pageName the name of the page
+   * @param pageId the UUID of the page, or null if unknown
+   */
+  public void discardTargetPage(String wikiType, String wikiOwner, String pageName, String pageId) {
+    String pageKey = ":" + wikiType + ":" + wikiOwner + ":" + pageName;
+    Iterator<Map.Entry<String, AutoSave>> iterator = states.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, AutoSave> state = iterator.next();
+      if (state.getKey().endsWith(pageKey) || (pageId != null && pageId.equals(state.getValue().targetPageId))) {
+        iterator.remove();
+      }
+    }
+  }
+
+  private Page getTargetPage(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    Page page = wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageName);
+    if (page == null) {
+      throw new IllegalArgumentException("Can not find the target page");
+    }
+    return page;
+  }
+
+  private synchronized Long nextSequence() {
+    return ++sequence;
+  }
+
+  private Object getLock(String key) {
+    return locks[(key.hashCode() & Integer.MAX_VALUE) % locks.length];
+  }
+
+  private static String hash(String title, String syntax, String content) throws WikiException {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-1");
+      for (String value : new String[] { title, syntax, content }) {
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+      }
+      StringBuilder hash = new StringBuilder();
+      for (byte b : digest.digest()) {
+        hash.append(String.format("%02x", b));
+      }
+      return hash.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new WikiException("Cannot compute the hash of a draft", e);
+    }
+  }
+
+  private static class AutoSave {
+    private final String draftName;
+
+    private final String targetPageId;
+
+    private final String hash;
+
+    private AutoSave(String draftName, String targetPageId, String hash) {
+      this.draftName = draftName;
+      this.targetPageId = targetPageId;
+      this.hash = hash;
+    }
+  }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.service.PageUpdateType;
+import org.exoplatform.wiki.service.listener.PageWikiListener;
+
+/**
+ * Makes the draft autosaver resolve the target page again when a page is
+ * deleted, or created with the name of a deleted page. The autosaver is
+ * fetched when needed since it depends on the wiki service.
+ */
+public class DraftAutoSaverListener extends PageWikiListener {
+
+  @Override
+  public void postAddPage(String wikiType, String wikiOwner, String pageId, Page page) throws WikiException {
+    discardTargetPage(wikiType, wikiOwner, pageId, null);
+  }
+
+  @Override
+  public void postUpdatePage(String wikiType, String wikiOwner, String pageId, Page page, PageUpdateType wikiUpdateType) throws WikiException {
+    // the UUID of an updated or moved page does not change
+  }
+
+  @Override
+  public void postDeletePage(String wikiType, String wikiOwner, String pageId, Page page) throws WikiException {
+    discardTargetPage(wikiType, wikiOwner, pageId, page != null ? page.getId() : null);
+  }
+
+  private void discardTargetPage(String wikiType, String wikiOwner, String pageName, String uuid) {
+    DraftAutoSaver draftAutoSaver = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(DraftAutoSaver.class);
+    if (draftAutoSaver != null) {
+      draftAutoSaver.discardTargetPage(wikiType, wikiOwner, pageName, uuid);
+    }
+  }
+}
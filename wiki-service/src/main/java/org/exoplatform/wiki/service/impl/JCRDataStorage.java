@@ -3,6 +3,7 @@ package org.exoplatform.wiki.service.impl;
 import org.apache.commons.collections.CollectionUtils;
 import org.apache.commons.lang.StringUtils;
 import org.chromattic.api.ChromatticSession;
+import org.chromattic.api.UndeclaredRepositoryException;
 import org.chromattic.common.IO;
 import org.chromattic.core.api.ChromatticSessionImpl;
 import org.chromattic.ext.ntdef.Resource;
@@ -18,13 +19,19 @@ import org.exoplatform.services.jcr.impl.core.query.QueryImpl;
 import org.exoplatform.services.jcr.util.Text;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.services.security.Identity;
 import org.exoplatform.services.security.IdentityConstants;
 import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.chromattic.ext.ntdef.NTFrozenNode;
 import org.exoplatform.wiki.chromattic.ext.ntdef.NTVersion;
 import org.exoplatform.wiki.chromattic.ext.ntdef.VersionableMixin;
 import org.exoplatform.wiki.mow.api.*;
+import org.exoplatform.wiki.mow.core.api.DraftIndex;
 import org.exoplatform.wiki.mow.core.api.MOWService;
+import org.exoplatform.wiki.mow.core.api.PageNameIndex;
+import org.exoplatform.wiki.mow.core.api.PageTitleIndex;
+import org.exoplatform.wiki.mow.core.api.PermissionCache;
 import org.exoplatform.wiki.mow.core.api.WikiStoreImpl;
 import org.exoplatform.wiki.mow.core.api.wiki.*;
 import org.exoplatform.wiki.resolver.TitleResolver;
@@ -54,17 +61,42 @@ public class JCRDataStorage implements DataStorage {
 
   private static final int CIRCULAR_RENAME_FLAG = 1000;
 
+  private static final int ATTACHMENT_BUFFER_SIZE = 8192;
+
   private MOWService mowService;
 
+  private PagePermissionPropagator permissionPropagator;
+
+  private PageNameIndex pageNameIndex;
+
+  private DraftIndex draftIndex;
+
+  private PageTitleIndex pageTitleIndex;
+
+  private LegacyPageMigrator legacyPageMigrator;
+
   /**
    * Constructor
    * Inject NodeHierarchyCreator to be sure JCRDataStorage is loaded after NodeHierarchyCreator,
    * so JCR wiki root folders are created before wiki data initialization
    * @param mowService
    * @param nodeHierarchyCreator
+   * @param permissionPropagator
+   * @param pageNameIndex
+   * @param draftIndex
+   * @param pageTitleIndex
+   * @param legacyPageMigrator
    */
-  public JCRDataStorage(MOWService mowService, NodeHierarchyCreator nodeHierarchyCreator) {
+  public JCRDataStorage(MOWService mowService, NodeHierarchyCreator nodeHierarchyCreator,
+                        PagePermissionPropagator permissionPropagator, PageNameIndex pageNameIndex,
+                        DraftIndex draftIndex, PageTitleIndex pageTitleIndex,
+                        LegacyPageMigrator legacyPageMigrator) {
     this.mowService = mowService;
+    this.permissionPropagator = permissionPropagator;
+    this.pageNameIndex = pageNameIndex;
+    this.draftIndex = draftIndex;
+    this.pageTitleIndex = pageTitleIndex;
+    this.legacyPageMigrator = legacyPageMigrator;
   }
 
   @Override
@@ -187,6 +219,7 @@ public class JCRDataStorage implements DataStorage {
       newEntry.setNewLink(newEntry);
 
       mowService.persist();
+      indexPage(wiki.getType(), wiki.getOwner(), pageImpl);
 
       Page createdPage = convertPageImplToPage(pageImpl);
       return createdPage;
@@ -223,13 +256,6 @@ public class JCRDataStorage implements DataStorage {
 
       Page page = null;
       if(pageImpl != null) {
-        try {
-          pageImpl.migrateLegacyData();
-          pageImpl.migrateAttachmentPermission();
-        } catch(WikiException | RepositoryException e) {
-          log.error("Cannot migrate page " + wikiType + ":" + wikiOwner + ":"
-                  + pageName + " - Cause : " + e.getMessage(), e);
-        }
         page = convertPageImplToPage(pageImpl);
         page.setWikiId(wiki.getName());
         page.setWikiType(wiki.getType());
@@ -321,6 +347,223 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  @Override
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Page selectedPage, Identity user, int depth, int offset, int limit) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      PageImpl pageImpl = fetchPageImpl(page);
+      if(pageImpl == null) {
+        throw new WikiException("Page " + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName() + " does not exist, cannot get its children.");
+      }
+
+      String selectedPagePath = null;
+      if (selectedPage != null) {
+        PageImpl selectedPageImpl = fetchPageImpl(selectedPage);
+        if (selectedPageImpl != null) {
+          selectedPagePath = selectedPageImpl.getJCRPageNode().getPath();
+        }
+      }
+
+      return getChildrenTreeItems(pageImpl.getJCRPageNode(), page, selectedPagePath, user, depth, offset, limit);
+    } catch(RepositoryException e) {
+      throw new WikiException("Cannot get children pages tree of page " + page.getWikiType() + ":" + page.getWikiOwner() + ":"
+              + page.getName(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  /**
+   * Builds the tree items of the children pages of a page node. The JCR nodes are read directly and the permissions
+   * are checked against their compiled ACL, which avoids converting the pages and fetching them again to check the permissions.
+   * The pages the user can not view are skipped, except the ones in the path of the selected page, so that the path to
+   * the selected page stays open.
+   */
+  private List<PageTreeItem> getChildrenTreeItems(Node pageNode, Page page, String selectedPagePath, Identity user, int depth,
+                                                  int offset, int limit) throws RepositoryException {
+    PermissionCache permissionCache = mowService.getPermissionCache();
+
+    List<Node> childNodes = new ArrayList<>();
+    NodeIterator nodeIterator = pageNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      Node childNode = nodeIterator.nextNode();
+      if (isTreeItem(childNode, selectedPagePath, permissionCache, user)) {
+        childNodes.add(childNode);
+      }
+    }
+    Collections.sort(childNodes, new Comparator<Node>() {
+      @Override
+      public int compare(Node node1, Node node2) {
+        try {
+          return node1.getName().compareTo(node2.getName());
+        } catch (RepositoryException e) {
+          return 0;
+        }
+      }
+    });
+
+    int fromIndex = Math.min(Math.max(offset, 0), childNodes.size());
+    int toIndex = (limit < 0) ? childNodes.size() : Math.min(fromIndex + limit, childNodes.size());
+    List<PageTreeItem> items = new ArrayList<>(toIndex - fromIndex);
+    for (Node childNode : childNodes.subList(fromIndex, toIndex)) {
+      PageTreeItem item = new PageTreeItem();
+      item.setName(childNode.getName());
+      if (childNode.hasProperty(WikiNodeType.Definition.TITLE)) {
+        item.setTitle(childNode.getProperty(WikiNodeType.Definition.TITLE).getString());
+      } else {
+        item.setTitle(childNode.getName());
+      }
+      item.setWikiType(page.getWikiType());
+      item.setWikiOwner(page.getWikiOwner());
+      item.setCanView(permissionCache.hasPermission(childNode, PermissionType.VIEWPAGE, user));
+      item.setCanEdit(permissionCache.hasPermission(childNode, PermissionType.EDITPAGE, user));
+      if (depth > 1) {
+        List<PageTreeItem> children = getChildrenTreeItems(childNode, page, selectedPagePath, user, depth - 1, 0, -1);
+        item.setChildren(children);
+        item.setHasChildren(!children.isEmpty());
+      } else {
+        item.setHasChildren(hasChildTreeItem(childNode, selectedPagePath, permissionCache, user));
+      }
+      items.add(item);
+    }
+    return items;
+  }
+
+  private boolean hasChildTreeItem(Node pageNode, String selectedPagePath, PermissionCache permissionCache, Identity user)
+          throws RepositoryException {
+    NodeIterator nodeIterator = pageNode.getNodes();
+    while (nodeIterator.hasNext()) {
+      if (isTreeItem(nodeIterator.nextNode(), selectedPagePath, permissionCache, user)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the node is a page viewable by the user, or a page in the path of the selected page
+   */
+  private boolean isTreeItem(Node node, String selectedPagePath, PermissionCache permissionCache, Identity user)
+          throws RepositoryException {
+    if (!node.isNodeType(WikiNodeType.WIKI_PAGE)) {
+      return false;
+    }
+    if (selectedPagePath != null) {
+      String path = node.getPath();
+      if (selectedPagePath.equals(path) || selectedPagePath.startsWith(path + "/")) {
+        return true;
+      }
+    }
+    return permissionCache.hasPermission(node, PermissionType.VIEWPAGE, user);
+  }
+
+  @Override
+  public List<Page> getPagesByTitlePrefix(String wikiType, String wikiOwner, String titlePrefix, Identity user, int offset, int limit)
+          throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      if (!indexPageTitles(wikiType, wikiOwner)) {
+        return new ArrayList<>();
+      }
+      Iterator<PageTitleIndex.PageTitle> pageTitles = pageTitleIndex.getPagesByTitlePrefix(wikiType, wikiOwner, titlePrefix);
+      return getViewableIndexedPages(wikiType, wikiOwner, pageTitles, user, offset, limit);
+    } catch(RepositoryException e) {
+      throw new WikiException("Cannot get the pages of wiki " + wikiType + ":" + wikiOwner + " by title", e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  @Override
+  public List<Page> getRecentlyUpdatedPages(String wikiType, String wikiOwner, Identity user, int offset, int limit) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      if (!indexPageTitles(wikiType, wikiOwner)) {
+        return new ArrayList<>();
+      }
+      Iterator<PageTitleIndex.PageTitle> pageTitles = pageTitleIndex.getRecentlyUpdatedPages(wikiType, wikiOwner);
+      return getViewableIndexedPages(wikiType, wikiOwner, pageTitles, user, offset, limit);
+    } catch(RepositoryException e) {
+      throw new WikiException("Cannot get the recently updated pages of wiki " + wikiType + ":" + wikiOwner, e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  /**
+   * Indexes the titles of the pages of a wiki if they are not indexed yet. The titles too old are used while they
+   * are indexed again in background.
+   * @return false if the wiki does not exist
+   */
+  private boolean indexPageTitles(String wikiType, String wikiOwner) throws WikiException, RepositoryException {
+    if (!pageTitleIndex.isIndexed(wikiType, wikiOwner)) {
+      WikiImpl wikiImpl = fetchWikiImpl(wikiType, wikiOwner);
+      if (wikiImpl == null) {
+        return false;
+      }
+      Node wikiHomeNode = wikiImpl.getWikiHome().getJCRPageNode();
+      if (pageTitleIndex.hasTitles(wikiType, wikiOwner)) {
+        pageTitleIndex.refresh(wikiType, wikiOwner, wikiHomeNode.getPath());
+      } else {
+        pageTitleIndex.rebuild(wikiType, wikiOwner, wikiHomeNode);
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Builds the pages found through the page title index which are viewable by the user, until the limit is reached.
+   * The page nodes are fetched by UUID to check the permissions against their compiled ACL. The pages removed or
+   * whose title changed since they were indexed, on another cluster node for instance, are re-indexed and skipped.
+   */
+  private List<Page> getViewableIndexedPages(String wikiType, String wikiOwner, Iterator<PageTitleIndex.PageTitle> pageTitles,
+                                             Identity user, int offset, int limit) throws RepositoryException {
+    PermissionCache permissionCache = mowService.getPermissionCache();
+    Session session = mowService.getSession().getJCRSession();
+
+    List<Page> pages = new ArrayList<>();
+    int skipped = 0;
+    while (pageTitles.hasNext() && (limit < 0 || pages.size() < limit)) {
+      PageTitleIndex.PageTitle pageTitle = pageTitles.next();
+      Node pageNode;
+      try {
+        pageNode = session.getNodeByUUID(pageTitle.getId());
+      } catch (ItemNotFoundException e) {
+        pageTitleIndex.remove(pageTitle.getId());
+        continue;
+      }
+      if (pageNode.isNodeType(WikiNodeType.WIKI_REMOVED)) {
+        pageTitleIndex.remove(pageTitle.getId());
+        continue;
+      }
+      String title = pageNode.hasProperty(WikiNodeType.Definition.TITLE)
+          ? pageNode.getProperty(WikiNodeType.Definition.TITLE).getString() : pageNode.getName();
+      if (!title.equals(pageTitle.getTitle()) || !pageNode.getName().equals(pageTitle.getName())) {
+        Date updatedDate = pageNode.hasProperty(WikiNodeType.Definition.UPDATED_DATE)
+            ? pageNode.getProperty(WikiNodeType.Definition.UPDATED_DATE).getDate().getTime() : null;
+        pageTitleIndex.put(wikiType, wikiOwner, pageTitle.getId(), pageNode.getName(), title, updatedDate);
+        continue;
+      }
+      if (!permissionCache.hasPermission(pageNode, PermissionType.VIEWPAGE, user)) {
+        continue;
+      }
+      if (skipped < offset) {
+        skipped++;
+        continue;
+      }
+      Page page = new Page(pageTitle.getName(), pageTitle.getTitle());
+      page.setId(pageTitle.getId());
+      page.setWikiType(wikiType);
+      page.setWikiOwner(wikiOwner);
+      page.setUpdatedDate(pageTitle.getUpdatedDate());
+      pages.add(page);
+    }
+    return pages;
+  }
+
   @Override
   public void createTemplatePage(Wiki wiki, Template template) throws WikiException {
     boolean created = mowService.startSynchronization();
@@ -410,6 +653,7 @@ public class JCRDataStorage implements DataStorage {
       }
 
       session.save();
+      pageNameIndex.remove(wikiType, wikiOwner, pageId);
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -477,13 +721,12 @@ public class JCRDataStorage implements DataStorage {
       if(userWiki != null) {
         PageImpl draftPagesContainer = userWiki.getDraftPagesContainer();
         try {
-          Map<String, PageImpl> childPages = draftPagesContainer.getChildPages();
-          for (PageImpl childPage : childPages.values()) {
-            String targetPageId = ((DraftPageImpl) childPage).getTargetPage();
-            if (targetPageId != null && targetPageId.equals(page.getId())) {
-              childPage.remove();
-              return;
-            }
+          DraftPageImpl draftPage = fetchDraftOfTarget(draftPagesContainer, page.getId(), false);
+          if (draftPage != null) {
+            String draftName = draftPage.getName();
+            draftPage.remove();
+            draftIndex.remove(draftPagesContainer, draftName);
+            return;
           }
         } catch(Exception e) {
           log.error("Cannot get drafts of page " + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName()
@@ -520,12 +763,11 @@ public class JCRDataStorage implements DataStorage {
 
     PageImpl draftPagesContainer = userWiki.getDraftPagesContainer();
     try {
-      Map<String, PageImpl> childPages = draftPagesContainer.getChildPages();
-      for (PageImpl childPage : childPages.values()) {
-        if (newDraftPageName.equals(childPage.getName())) {
-          childPage.remove();
-          return;
-        }
+      PageImpl draftPage = draftPagesContainer.getChildPage(newDraftPageName);
+      if (draftPage != null) {
+        draftPage.remove();
+        draftIndex.remove(draftPagesContainer, newDraftPageName);
+        return;
       }
     } catch(Exception e) {
       throw new WikiException("Cannot delete draft page of with name " + newDraftPageName + " of user " + username, e);
@@ -561,6 +803,8 @@ public class JCRDataStorage implements DataStorage {
       mix.setOldPageIds(ids.toArray(new String[]{}));
       currentPage.setName(newName);
       mowService.persist();
+      pageNameIndex.remove(wikiType, wikiOwner, pageName);
+      indexPage(wikiType, wikiOwner, currentPage);
       currentPage.setTitle(newTitle);
       mowService.persist();
 
@@ -696,6 +940,8 @@ public class JCRDataStorage implements DataStorage {
         }
       }
       session.save();
+      pageNameIndex.remove(currentLocationParams.getType(), currentLocationParams.getOwner(), currentLocationParams.getPageName());
+      indexPage(newLocationParams.getType(), newLocationParams.getOwner(), movePageImpl);
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -764,9 +1010,10 @@ public class JCRDataStorage implements DataStorage {
         }
       }
       wiki.setWikiPermissions(permissions);
-      // TODO: study performance
-      updateAllPagesPermissions(wikiType, wikiOwner, permMap);
+      String wikiHomePath = wiki.getWikiHome().getPath();
       mowService.persist();
+      // the pages are updated in background, by batches
+      permissionPropagator.propagate(wikiType, wikiOwner, wikiHomePath, permMap);
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -903,13 +1150,9 @@ public class JCRDataStorage implements DataStorage {
         username = texts[0];
         WikiContainer<UserWiki> userWikiContainer = wStore.getWikiContainer(WikiType.USER);
         userWiki = userWikiContainer.getWiki(username);
-        Collection<PageImpl> childPages = userWiki.getDraftPagesContainer().getChildrenByRootPermission().values();
-
-        // Change collection to List
-        for (PageImpl pageImpl : childPages) {
-          if (pageImpl.getName().equals(pageId)) {
-            return convertPageImplToPage(pageImpl);
-          }
+        PageImpl draftPage = userWiki.getDraftPagesContainer().getChildByRootPermission(pageId);
+        if (draftPage != null) {
+          return convertPageImplToPage(draftPage);
         }
       } else {
         userWiki = (UserWiki) fetchWikiImpl(PortalConfig.USER_TYPE, username);
@@ -938,9 +1181,40 @@ public class JCRDataStorage implements DataStorage {
       HashMap<String, String[]> permissions = draftPageImpl.getPermission();
       permissions.put(IdentityConstants.ANY, new String[]{org.exoplatform.services.jcr.access.PermissionType.READ});
       draftPageImpl.setPermission(permissions);
+      draftIndex.update(draftPagesContainer, draftPageImpl);
       Page draftPage = convertPageImplToPage(draftPageImpl);
 
       return draftPage;
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot get draft page " + pageId + " of user " + username, e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  @Override
+  public Page getExistedDraftPageById(String wikiType, String wikiOwner, String pageId, String username) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      WikiStore wStore = mowService.getWikiStore();
+      if (IdentityConstants.ANONIM.equals(username)) {
+        PageImpl draftPage = wStore.getDraftNewPagesContainer().getChildPages().get(pageId);
+        return draftPage != null ? convertPageImplToPage(draftPage) : null;
+      }
+
+      // Check if in the case that access to wiki page by rest service of xwiki
+      if ((username == null) && (pageId.contains(Utils.SPLIT_TEXT_OF_DRAFT_FOR_NEW_PAGE))) {
+        username = pageId.split(Utils.SPLIT_TEXT_OF_DRAFT_FOR_NEW_PAGE)[0];
+        UserWiki userWiki = (UserWiki) wStore.getWiki(WikiType.USER, username);
+        if (userWiki == null) {
+          return null;
+        }
+        PageImpl draftPage = userWiki.getDraftPagesContainer().getChildByRootPermission(pageId);
+        return draftPage != null ? convertPageImplToPage(draftPage) : null;
+      }
+
+      return username != null ? getDraft(pageId, username) : null;
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -967,26 +1241,14 @@ public class JCRDataStorage implements DataStorage {
     boolean created = mowService.startSynchronization();
 
     try {
-      // Get all draft pages
+      // Get the lastest draft of target page
       UserWiki userWiki = (UserWiki) fetchWikiImpl(PortalConfig.USER_TYPE, username);
-      Collection<PageImpl> childPages = userWiki.getDraftPagesContainer().getChildPages().values();
-
-      // Find the lastest draft of target page
       DraftPageImpl lastestDraft = null;
-      for (PageImpl draft : childPages) {
-        DraftPageImpl draftPage = (DraftPageImpl) draft;
-        // If this draft is use for target page
-        try {
-          if (draftPage.getTargetPage() != null && !draftPage.isNewPage() && draftPage.getTargetPage().equals(targetPage.getJCRPageNode().getUUID())) {
-            // Compare and get the lastest draft
-            if ((lastestDraft == null) || (lastestDraft.getUpdatedDate().getTime() < draftPage.getUpdatedDate().getTime())) {
-              lastestDraft = draftPage;
-            }
-          }
-        } catch(RepositoryException e) {
-          log.error("Cannot get JCR node of page " + param.getType() + ":" + param.getOwner() + ":" + param.getPageName()
-            + " for user " + username + " - Cause : " + e.getMessage(), e);
-        }
+      try {
+        lastestDraft = fetchDraftOfTarget(userWiki.getDraftPagesContainer(), targetPage.getJCRPageNode().getUUID(), true);
+      } catch(RepositoryException e) {
+        log.error("Cannot get JCR node of page " + param.getType() + ":" + param.getOwner() + ":" + param.getPageName()
+          + " for user " + username + " - Cause : " + e.getMessage(), e);
       }
 
       DraftPage draftPage = convertDraftPageImplToDraftPage(lastestDraft);
@@ -1003,22 +1265,26 @@ public class JCRDataStorage implements DataStorage {
     boolean created = mowService.startSynchronization();
 
     try {
-      // Get all draft pages
+      // Get the lastest draft
       UserWiki userWiki = (UserWiki) fetchWikiImpl(PortalConfig.USER_TYPE, username);
-      Collection<PageImpl> childPages = userWiki.getDraftPagesContainer().getChildPages().values();
-
-      // Find the lastest draft
+      PageImpl draftPagesContainer = userWiki.getDraftPagesContainer();
       DraftPageImpl lastestDraft = null;
-      for (PageImpl draft : childPages) {
-        DraftPageImpl draftPage = (DraftPageImpl) draft;
-        // Compare and get the lastest draft
-        if ((lastestDraft == null) || (lastestDraft.getUpdatedDate().getTime() < draftPage.getUpdatedDate().getTime())) {
-          lastestDraft = draftPage;
+      for (int attempt = 0; attempt < 2 && lastestDraft == null; attempt++) {
+        String draftName = draftIndex.getDrafts(draftPagesContainer).getLatestDraft();
+        if (draftName == null) {
+          break;
+        }
+        lastestDraft = fetchDraftByName(draftPagesContainer, draftName);
+        if (lastestDraft == null) {
+          // the index is stale, read the drafts again
+          draftIndex.invalidate(draftPagesContainer);
         }
       }
       DraftPage draftPage = convertDraftPageImplToDraftPage(lastestDraft);
 
       return draftPage;
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot get lastest draft of user " + username, e);
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -1029,13 +1295,15 @@ public class JCRDataStorage implements DataStorage {
     boolean created = mowService.startSynchronization();
 
     try {
-      DraftPage page = null;
-      List<DraftPage> drafts = getDraftPagesOfUser(username);
-      for (DraftPage draftPage : drafts) {
-        if (draftPage.getName().equals(draftName)) {
-          page = draftPage;
-          break;
-        }
+      UserWiki userWiki = (UserWiki) mowService.getWikiStore().getWiki(WikiType.USER, username);
+      if (userWiki == null) {
+        return null;
+      }
+
+      DraftPage page = convertDraftPageImplToDraftPage(fetchDraftByName(userWiki.getDraftPagesContainer(), draftName));
+      if (page != null) {
+        page.setWikiType(userWiki.getType());
+        page.setWikiOwner(userWiki.getOwner());
       }
 
       return page;
@@ -1071,6 +1339,67 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  @Override
+  public List<DraftPage> getDraftSummariesOfUser(String username) throws WikiException {
+    List<DraftPage> draftPages = new ArrayList<>();
+
+    boolean created = mowService.startSynchronization();
+
+    try {
+      UserWiki userWiki = (UserWiki) mowService.getWikiStore().getWiki(WikiType.USER, username);
+      if(userWiki != null) {
+        for (DraftIndex.DraftSummary summary : draftIndex.getDraftSummaries(userWiki.getDraftPagesContainer())) {
+          DraftPage draftPage = new DraftPage();
+          draftPage.setId(summary.getId());
+          draftPage.setName(summary.getName());
+          draftPage.setTitle(summary.getTitle());
+          draftPage.setOwner(summary.getOwner());
+          draftPage.setAuthor(summary.getAuthor());
+          draftPage.setSyntax(summary.getSyntax());
+          draftPage.setCreatedDate(summary.getCreatedDate());
+          draftPage.setUpdatedDate(summary.getUpdatedDate());
+          draftPage.setTargetPageId(summary.getTargetPageId());
+          draftPage.setTargetPageRevision(summary.getTargetPageRevision());
+          draftPage.setNewPage(summary.isNewPage());
+          draftPage.setWikiType(userWiki.getType());
+          draftPage.setWikiOwner(userWiki.getOwner());
+          draftPages.add(draftPage);
+        }
+      }
+
+      return draftPages;
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot get drafts of user " + username, e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  @Override
+  public DraftPage getDraftOfPage(Page page, String username) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      UserWiki userWiki = (UserWiki) mowService.getWikiStore().getWiki(WikiType.USER, username);
+      if (userWiki == null || page.getId() == null) {
+        return null;
+      }
+
+      DraftPage draftPage = convertDraftPageImplToDraftPage(fetchDraftOfTarget(userWiki.getDraftPagesContainer(), page.getId(), false));
+      if (draftPage != null) {
+        draftPage.setWikiType(userWiki.getType());
+        draftPage.setWikiOwner(userWiki.getOwner());
+      }
+
+      return draftPage;
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot get draft of page " + page.getWikiType() + ":" + page.getWikiOwner() + ":"
+              + page.getName() + " for user " + username, e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
   @Override
   public void createDraftPageForUser(DraftPage draftPage, String username) throws WikiException {
     boolean created = mowService.startSynchronization();
@@ -1093,83 +1422,62 @@ public class JCRDataStorage implements DataStorage {
       draftPageImpl.getContent().setText(draftPage.getContent());
       draftPageImpl.setTargetPage(draftPage.getTargetPageId());
       draftPageImpl.setTargetRevision(draftPage.getTargetPageRevision());
+      if (draftPage.getSyntax() != null) {
+        draftPageImpl.setSyntax(draftPage.getSyntax());
+      }
       draftPageImpl.setCreatedDate(draftPage.getCreatedDate());
       draftPageImpl.setUpdatedDate(draftPage.getUpdatedDate());
 
       mowService.persist();
+      draftIndex.update(draftPagesContainer, draftPageImpl);
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot index draft " + draftPage.getName() + " of user " + username, e);
     } finally {
       mowService.stopSynchronization(created);
     }
   }
 
   @Override
-  public PageList<SearchResult> search(WikiSearchData data) throws WikiException {
-    List<SearchResult> resultList = new ArrayList<>();
-    List<JCRSearchResult> jcrResultList = new ArrayList<>();
-    long numberOfSearchForTitleResult = 0;
-
+  public boolean updateDraftPageForUser(DraftPage draftPage, String username) throws WikiException {
     boolean created = mowService.startSynchronization();
 
-
     try {
-      ChromatticSession session = mowService.getSession();
-      if (!StringUtils.isEmpty(data.getTitle())) {
-        // Search for title
-        String statement = new JCRWikiSearchQueryBuilder(data).getStatementForSearchingTitle();
-        QueryImpl q = (QueryImpl) ((ChromatticSessionImpl) session).getDomainSession().getSessionWrapper().createQuery(statement);
-        if (data.getOffset() > 0) {
-          q.setOffset(data.getOffset());
-        }
-        if (data.getLimit() > 0) {
-          q.setLimit(data.getLimit());
-        }
-        QueryResult result = q.execute();
-        RowIterator iter = result.getRows();
-        numberOfSearchForTitleResult = iter.getSize();
-        if (numberOfSearchForTitleResult > 0) {
-          while (iter.hasNext()) {
-            JCRSearchResult tempResult = getResult(iter.nextRow(), data);
-            // If contains, merges with the exist
-            if (tempResult != null && !isContains(jcrResultList, tempResult)) {
-              jcrResultList.add(tempResult);
-            }
-          }
-        }
+      UserWiki userWiki = (UserWiki) mowService.getWikiStore().getWiki(WikiType.USER, username);
+      if (userWiki == null) {
+        return false;
+      }
+      PageImpl draftPagesContainer = userWiki.getDraftPagesContainer();
+      DraftPageImpl draftPageImpl = fetchDraftByName(draftPagesContainer, draftPage.getName());
+      if (draftPageImpl == null
+              || (draftPage.getTargetPageId() != null && !draftPage.getTargetPageId().equals(draftPageImpl.getTargetPage()))) {
+        return false;
       }
 
-      // if we don't have enough result, search in wiki pages content
-      if (!((jcrResultList.size() >= data.getLimit()) || StringUtils.isEmpty(data.getContent()))) {
-        // Search for wiki content
-        long searchForContentOffset = data.getOffset();
-        long searchForContentLimit = data.getLimit() - numberOfSearchForTitleResult;
-        if (data.getLimit() == Integer.MAX_VALUE) {
-          searchForContentLimit = Integer.MAX_VALUE;
-        }
+      draftPageImpl.setTitle(draftPage.getTitle());
+      draftPageImpl.setSyntax(draftPage.getSyntax());
+      draftPageImpl.getContent().setText(draftPage.getContent());
+      draftPageImpl.setUpdatedDate(draftPage.getUpdatedDate());
 
-        if (searchForContentOffset >= 0 && searchForContentLimit > 0) {
-          JCRWikiSearchQueryBuilder queryBuilder = new JCRWikiSearchQueryBuilder(data);
-          String statement = queryBuilder.getStatementForSearchingContent();
-          QueryImpl q = (QueryImpl) ((ChromatticSessionImpl) session).getDomainSession().getSessionWrapper().createQuery(statement);
-          q.setOffset(searchForContentOffset);
-          q.setLimit(searchForContentLimit);
-          QueryResult result = q.execute();
-          RowIterator iter = result.getRows();
-          while (iter.hasNext()) {
-            JCRSearchResult tempResult = getResult(iter.nextRow(), data);
-            // If contains, merges with the exist
-            if (tempResult != null && !isContains(jcrResultList, tempResult) && !isDuplicateTitle(jcrResultList, tempResult)) {
-              jcrResultList.add(tempResult);
-            }
-          }
-        }
-      }
+      mowService.persist();
+      draftIndex.update(draftPagesContainer, draftPageImpl);
+      return true;
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot update draft " + draftPage.getName() + " of user " + username, e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
 
-      // convert list of JCRSearchResult to list of SearchResult
-      for(SearchResult searchResult : jcrResultList) {
-        resultList.add(searchResult);
-      }
+  @Override
+  public PageList<SearchResult> search(WikiSearchData data) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      SearchResultWindow window = new SearchResultWindow(data.getOffset(), data.getLimit());
+      searchRows(data, window);
 
-      // Return all the result
+      // Return the results of the window
+      List<SearchResult> resultList = new ArrayList<SearchResult>(window.getResults());
       return new ObjectPageList<>(resultList, resultList.size());
     } catch (RepositoryException e) {
       throw new WikiException("Cannot search in wiki " + data.getWikiType() + ":" + data.getWikiOwner(), e);
@@ -1178,8 +1486,80 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  @Override
+  public long countSearchResults(WikiSearchData data) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      SearchResultWindow window = new SearchResultWindow(0, 0);
+      window.setKeepResults(false);
+      searchRows(data, window);
+      return window.getCount();
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot count the search results in wiki " + data.getWikiType() + ":" + data.getWikiOwner(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  /**
+   * Reads the rows of the title search, then of the content search, until the window is filled. The rows are read
+   * lazily and the offset is applied to the results the user can view, so that a window is only short at the end of
+   * the results. The wiki home, which the queries do not match by title, follows the found results when its title
+   * matches, unless it has been found by its content.
+   */
+  private void searchRows(WikiSearchData data, SearchResultWindow window) throws RepositoryException, WikiException {
+    ChromatticSession session = mowService.getSession();
+    SearchRowReader rowReader = new SearchRowReader(session.getJCRSession());
+    JCRWikiSearchQueryBuilder queryBuilder = new JCRWikiSearchQueryBuilder(data);
+    if (!StringUtils.isEmpty(data.getTitle())) {
+      // Search for title
+      readRows(session, queryBuilder.getStatementForSearchingTitle(), rowReader, window, false);
+    }
+
+    // if we don't have enough result, search in wiki pages content
+    if (!window.isFull() && !StringUtils.isEmpty(data.getContent())) {
+      readRows(session, queryBuilder.getStatementForSearchingContent(), rowReader, window, true);
+    }
+
+    if (!window.isFull() && window.getCount() > 0 && data.getTitle() != null && data.getWikiType() != null
+        && data.getWikiOwner() != null) {
+      WikiImpl wiki = fetchWikiImpl(data.getWikiType(), data.getWikiOwner());
+      PageImpl wikiHome = wiki != null ? wiki.getWikiHome() : null;
+      if (wikiHome != null && (data.getTitle().isEmpty()
+          || (wikiHome.getTitle() != null && wikiHome.getTitle().contains(data.getTitle())))) {
+        JCRSearchResult wikiHomeResult = rowReader.readPage(wikiHome.getPath());
+        if (wikiHomeResult != null) {
+          window.add(wikiHomeResult, false);
+        }
+      }
+    }
+  }
+
+  private void readRows(ChromatticSession session, String statement, SearchRowReader rowReader, SearchResultWindow window,
+                        boolean contentRows) throws RepositoryException {
+    QueryImpl q = (QueryImpl) ((ChromatticSessionImpl) session).getDomainSession().getSessionWrapper().createQuery(statement);
+    RowIterator iter = q.execute().getRows();
+    while (iter.hasNext() && !window.isFull()) {
+      Row row = iter.nextRow();
+      JCRSearchResult result = rowReader.read(row);
+      if (result != null) {
+        JCRSearchResult keptResult = window.add(result, contentRows);
+        // the excerpt is only computed for the results returned
+        if (keptResult != null && StringUtils.isEmpty(keptResult.getExcerpt())) {
+          keptResult.setExcerpt(getExcerpt(row, row.getValue(WikiNodeType.Definition.PRIMARY_TYPE).getString()));
+        }
+      }
+    }
+  }
+
   @Override
   public List<Attachment> getAttachmentsOfPage(Page page) throws WikiException {
+    return getAttachmentsOfPage(page, true);
+  }
+
+  @Override
+  public List<Attachment> getAttachmentsOfPage(Page page, boolean loadContent) throws WikiException {
     List<Attachment> attachments = new ArrayList<>();
 
     boolean created = mowService.startSynchronization();
@@ -1191,7 +1571,7 @@ public class JCRDataStorage implements DataStorage {
           Collection<AttachmentImpl> attachmentsExcludeContent = pageImpl.getAttachmentsExcludeContent();
           if(attachmentsExcludeContent != null) {
             for (AttachmentImpl attachmentImpl : attachmentsExcludeContent) {
-              attachments.add(convertAttachmentImplToAttachment(attachmentImpl));
+              attachments.add(convertAttachmentImplToAttachment(attachmentImpl, loadContent));
             }
           }
         } catch (RepositoryException e) {
@@ -1209,6 +1589,86 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  @Override
+  public Attachment getAttachmentOfPageByName(String attachmentName, Page page, boolean loadContent) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      AttachmentImpl attachmentImpl = fetchAttachmentImpl(attachmentName, page);
+      return convertAttachmentImplToAttachment(attachmentImpl, loadContent);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  @Override
+  public void writeAttachmentContent(String attachmentName, Page page, long offset, long length, OutputStream output) throws WikiException, IOException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      AttachmentImpl attachmentImpl = fetchAttachmentImpl(attachmentName, page);
+      if (attachmentImpl == null) {
+        throw new WikiException("Cannot read attachment " + attachmentName + " of page "
+                + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName() + " because it does not exist.");
+      }
+      InputStream input = null;
+      try {
+        input = attachmentImpl.getContentStream();
+        copyRange(input, output, offset, length);
+      } catch (RepositoryException e) {
+        throw new WikiException("Cannot read attachment " + attachmentName + " of page "
+                + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName(), e);
+      } finally {
+        if (input != null) {
+          input.close();
+        }
+      }
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  /**
+   * Copies the given range of the input stream to the output stream through
+   * a fixed size buffer, so that memory does not depend on the content size.
+   */
+  private void copyRange(InputStream input, OutputStream output, long offset, long length) throws IOException {
+    long skipped = 0;
+    while (skipped < offset) {
+      long n = input.skip(offset - skipped);
+      if (n <= 0) {
+        if (input.read() == -1) {
+          return;
+        }
+        n = 1;
+      }
+      skipped += n;
+    }
+    byte[] buffer = new byte[ATTACHMENT_BUFFER_SIZE];
+    long remaining = length;
+    while (remaining > 0) {
+      int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+      if (read == -1) {
+        break;
+      }
+      output.write(buffer, 0, read);
+      remaining -= read;
+    }
+    output.flush();
+  }
+
+  private AttachmentImpl fetchAttachmentImpl(String attachmentName, Page page) throws WikiException {
+    PageImpl pageImpl = fetchPageImpl(page);
+    if (pageImpl == null) {
+      throw new WikiException("Cannot get attachment " + attachmentName + " of page "
+              + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName() + " because the page does not exist.");
+    }
+    if (WikiNodeType.Definition.CONTENT.equals(attachmentName)) {
+      return null;
+    }
+    return pageImpl.getAttachment(attachmentName);
+  }
+
   @Override
   public void addAttachmentToPage(Attachment attachment, Page page) throws WikiException {
     boolean created = mowService.startSynchronization();
@@ -1482,6 +1942,15 @@ public class JCRDataStorage implements DataStorage {
 
   @Override
   public List<PageVersion> getVersionsOfPage(Page page) throws WikiException {
+    return getVersionsOfPage(page, true);
+  }
+
+  @Override
+  public List<PageVersion> getVersionSummariesOfPage(Page page) throws WikiException {
+    return getVersionsOfPage(page, false);
+  }
+
+  private List<PageVersion> getVersionsOfPage(Page page, boolean loadContent) throws WikiException {
     boolean created = mowService.startSynchronization();
 
     try {
@@ -1493,16 +1962,7 @@ public class JCRDataStorage implements DataStorage {
         for (NTVersion version : versionableMixin.getVersionHistory()) {
           if (!(WikiNodeType.Definition.ROOT_VERSION.equals(version.getName()))) {
             try {
-              PageVersion pageVersion = new PageVersion();
-              pageVersion.setName(version.getName());
-              pageVersion.setAuthor(version.getNTFrozenNode().getAuthor());
-              pageVersion.setCreatedDate(version.getCreated());
-              pageVersion.setUpdatedDate(version.getNTFrozenNode().getUpdatedDate());
-              //pageVersion.setPredecessors(version.getPredecessors());
-              //pageVersion.setSuccessors(version.getSuccessors());
-              pageVersion.setContent(version.getNTFrozenNode().getContentString());
-              pageVersion.setComment(version.getNTFrozenNode().getComment());
-              versions.add(pageVersion);
+              versions.add(convertNTVersionToPageVersion(version, loadContent));
             } catch(RepositoryException e) {
               log.error("Cannot get version " + version.getName() + " of page "
                       + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName()
@@ -1519,6 +1979,77 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  @Override
+  public PageVersion getVersionOfPageByName(String versionName, Page page) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      PageImpl pageImpl = fetchPageImpl(page);
+      VersionableMixin versionableMixin = pageImpl.getVersionableMixin();
+      if (versionableMixin == null || WikiNodeType.Definition.ROOT_VERSION.equals(versionName)) {
+        return null;
+      }
+      NTVersion version = versionableMixin.getVersionHistory().getVersion(versionName);
+      if (version == null) {
+        return null;
+      }
+      return convertNTVersionToPageVersion(version, true);
+    } catch(RepositoryException e) {
+      throw new WikiException("Cannot get version " + versionName + " of page "
+              + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  @Override
+  public PageVersion getLatestVersionOfPage(Page page) throws WikiException {
+    boolean created = mowService.startSynchronization();
+
+    try {
+      PageImpl pageImpl = fetchPageImpl(page);
+      VersionableMixin versionableMixin = pageImpl.getVersionableMixin();
+      if (versionableMixin == null) {
+        return null;
+      }
+      // Only the names are compared, the frozen nodes are read for the latest version only
+      VersionNameComparatorDesc comparator = new VersionNameComparatorDesc();
+      NTVersion latestVersion = null;
+      PageVersion latestVersionName = null;
+      for (NTVersion version : versionableMixin.getVersionHistory()) {
+        if (!(WikiNodeType.Definition.ROOT_VERSION.equals(version.getName()))) {
+          PageVersion versionName = new PageVersion();
+          versionName.setName(version.getName());
+          if (latestVersionName == null || comparator.compare(versionName, latestVersionName) < 0) {
+            latestVersion = version;
+            latestVersionName = versionName;
+          }
+        }
+      }
+      return (latestVersion != null) ? convertNTVersionToPageVersion(latestVersion, false) : null;
+    } catch(RepositoryException e) {
+      throw new WikiException("Cannot get latest version of page "
+              + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  private PageVersion convertNTVersionToPageVersion(NTVersion version, boolean loadContent) throws RepositoryException {
+    NTFrozenNode frozenNode = version.getNTFrozenNode();
+    PageVersion pageVersion = new PageVersion();
+    pageVersion.setName(version.getName());
+    pageVersion.setAuthor(frozenNode.getAuthor());
+    pageVersion.setCreatedDate(version.getCreated());
+    pageVersion.setUpdatedDate(frozenNode.getUpdatedDate());
+    pageVersion.setComment(frozenNode.getComment());
+    pageVersion.setSize(frozenNode.getContentSize());
+    if (loadContent) {
+      pageVersion.setContent(frozenNode.getContentString());
+    }
+    return pageVersion;
+  }
+
   @Override
   public void addPageVersion(Page page) throws WikiException {
     boolean created = mowService.startSynchronization();
@@ -1575,6 +2106,11 @@ public class JCRDataStorage implements DataStorage {
       }
 
       mowService.persist();
+      if (pageImpl instanceof DraftPageImpl) {
+        draftIndex.update(pageImpl.getParentPage(), (DraftPageImpl) pageImpl);
+      }
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot index draft " + page.getName(), e);
     } finally {
       mowService.stopSynchronization(created);
     }
@@ -1728,38 +2264,6 @@ public class JCRDataStorage implements DataStorage {
 
   }
 
-  private boolean isDuplicateTitle(List<JCRSearchResult> list, JCRSearchResult result) {
-    for (JCRSearchResult searchResult : list) {
-      if (result.getTitle().equals(searchResult.getTitle())) {
-        return true;
-      }
-    } 
-    return false;
-  }
-
-  private void updateAllPagesPermissions(String wikiType, String wikiOwner, HashMap<String, String[]> permMap) throws WikiException {
-    boolean created = mowService.startSynchronization();
-
-    try {
-      PageImpl page = fetchWikiImpl(wikiType, wikiOwner).getWikiHome();
-      Queue<PageImpl> queue = new LinkedList<>();
-      queue.add(page);
-      while (queue.peek() != null) {
-        PageImpl p = queue.poll();
-        if (!p.getOverridePermission()) {
-          p.setPermission(permMap);
-          p.setUpdateAttachmentMixin(null);
-        }
-        Iterator<PageImpl> iter = p.getChildPages().values().iterator();
-        while (iter.hasNext()) {
-          queue.add(iter.next());
-        }
-      }
-    } finally {
-      mowService.stopSynchronization(created);
-    }
-  }
-
   private Page getPageWithLinkEntry(LinkEntry entry) throws WikiException {
     boolean created = mowService.startSynchronization();
 
@@ -1812,68 +2316,258 @@ public class JCRDataStorage implements DataStorage {
     }
   }
   
-  private JCRSearchResult getResult(Row row, WikiSearchData data) throws WikiException {
-    boolean created = mowService.startSynchronization();
+  private String getResultKey(JCRSearchResult result) {
+    return result.getPagePath() + "/" + (result.getAttachmentName() != null ? result.getAttachmentName() : "");
+  }
 
-    try {
+  /**
+   * The window of the search results returned to the user. The results are identified by the path of their page and
+   * the name of their attachment, the results of the same page or attachment are merged, and the content results of
+   * the pages whose title was already found are skipped.
+   */
+  private class SearchResultWindow {
+
+    private final long                         offset;
+
+    private final long                         limit;
+
+    private boolean                            keepResults = true;
+
+    private final Set<String>                  keys        = new HashSet<>();
+
+    private final Set<String>                  titles      = new HashSet<>();
+
+    private final Map<String, JCRSearchResult> results     = new LinkedHashMap<>();
+
+    private long                               count;
+
+    SearchResultWindow(long offset, int limit) {
+      this.offset = Math.max(offset, 0);
+      this.limit = (limit > 0) ? limit : Long.MAX_VALUE;
+    }
+
+    void setKeepResults(boolean keepResults) {
+      this.keepResults = keepResults;
+    }
+
+    /**
+     * Adds a result found by the search
+     *
+     * @param result the result
+     * @param contentResult true if the result was found by the content search
+     * @return the result kept in the window for this page or attachment, null if the result is out of the window
+     */
+    JCRSearchResult add(JCRSearchResult result, boolean contentResult) {
+      String key = getResultKey(result);
+      if (keys.contains(key)) {
+        return results.get(key);
+      }
+      if (contentResult && titles.contains(result.getTitle())) {
+        return null;
+      }
+      keys.add(key);
+      titles.add(result.getTitle());
+      count++;
+      if (keepResults && count > offset) {
+        results.put(key, result);
+        return result;
+      }
+      return null;
+    }
+
+    boolean isFull() {
+      return keepResults && count - offset >= limit;
+    }
+
+    long getCount() {
+      return count;
+    }
+
+    Collection<JCRSearchResult> getResults() {
+      return results.values();
+    }
+  }
+
+  /**
+   * Converts the rows of a search into results. The columns of the pages are projected from the rows, or read once per
+   * page for the rows of their attachments, the wikis are read once per search and the permissions are checked against
+   * the compiled ACL of the pages, so that no wiki object is loaded for each row.
+   */
+  private class SearchRowReader {
+
+    private final Session                      session;
+
+    private final Identity                     user;
+
+    private final PermissionCache              permissionCache = mowService.getPermissionCache();
+
+    /** The columns of the pages by path, null when the page can not be viewed */
+    private final Map<String, JCRSearchResult> pages           = new HashMap<>();
+
+    /** The type and owner of the wikis by path */
+    private final Map<String, String[]>        wikis           = new HashMap<>();
+
+    SearchRowReader(Session session) {
+      this.session = session;
+      ConversationState conversationState = ConversationState.getCurrent();
+      this.user = conversationState != null ? conversationState.getIdentity() : new Identity(IdentityConstants.ANONIM);
+    }
+
+    /**
+     * Converts a page into a result, as if the page was found by the title search
+     *
+     * @return the result, null if the page can not be viewed by the user
+     */
+    JCRSearchResult readPage(String pagePath) throws RepositoryException {
+      JCRSearchResult page = getPage(pagePath, null);
+      if (page == null) {
+        return null;
+      }
+      JCRSearchResult result = new JCRSearchResult();
+      result.setType(SearchResultType.PAGE);
+      result.setWikiType(page.getWikiType());
+      result.setWikiOwner(page.getWikiOwner());
+      result.setPageName(page.getPageName());
+      result.setTitle(page.getTitle());
+      result.setPath(pagePath);
+      result.setPagePath(pagePath);
+      result.setCreatedDate(page.getCreatedDate());
+      result.setUpdatedDate(page.getUpdatedDate());
+      result.setUrl(page.getUrl());
+      return result;
+    }
+
+    JCRSearchResult read(Row row) throws RepositoryException {
       String type = row.getValue(WikiNodeType.Definition.PRIMARY_TYPE).getString();
       String path = row.getValue(WikiNodeType.Definition.PATH).getString();
 
       JCRSearchResult result = new JCRSearchResult();
-
-      long score = row.getValue("jcr:score").getLong();
-      Calendar createdDate = GregorianCalendar.getInstance();
-      Calendar updatedDate = GregorianCalendar.getInstance();
-      PageImpl page;
+      JCRSearchResult page;
+      Calendar updatedDate;
       if (WikiNodeType.WIKI_ATTACHMENT.equals(type) || WikiNodeType.WIKI_ATTACHMENT_CONTENT.equals(type)) {
-        // Transform to Attachment result
-        result.setType(SearchResultType.ATTACHMENT);
-        if (!path.endsWith(WikiNodeType.Definition.CONTENT)) {
-          result.setType(SearchResultType.PAGE_CONTENT);
-          AttachmentImpl searchAtt = (AttachmentImpl) findByPath(path, WikiNodeType.WIKI_ATTACHMENT);
-          updatedDate = searchAtt.getUpdatedDate();
-          page = searchAtt.getParentPage();
-          createdDate.setTime(page.getCreatedDate());
-          result.setAttachmentName(searchAtt.getName());
+        if (WikiNodeType.WIKI_ATTACHMENT_CONTENT.equals(type)) {
+          path = getParentPath(path);
+        }
+        result.setType(SearchResultType.PAGE_CONTENT);
+        String parentPath = getParentPath(path);
+        if (!path.endsWith("/" + WikiNodeType.Definition.CONTENT)) {
+          page = getPage(parentPath, null);
+          if (page == null) {
+            return null;
+          }
+          updatedDate = getDate(path + "/" + WikiNodeType.Definition.ATTACHMENT_CONTENT + "/jcr:lastModified");
+          result.setAttachmentName(path.substring(parentPath.length() + 1));
         } else {
-          result.setType(SearchResultType.ATTACHMENT);
-          String pagePath = path.substring(0, path.lastIndexOf("/" + WikiNodeType.Definition.CONTENT));
-          result.setType(SearchResultType.PAGE_CONTENT);
-          page = (PageImpl) findByPath(pagePath, WikiNodeType.WIKI_PAGE);
-          updatedDate.setTime(page.getUpdatedDate());
-          createdDate.setTime(page.getCreatedDate());
+          page = getPage(parentPath, null);
+          if (page == null) {
+            return null;
+          }
+          updatedDate = page.getUpdatedDate();
         }
       } else if (WikiNodeType.WIKI_PAGE.equals(type)) {
         result.setType(SearchResultType.PAGE);
-        page = (PageImpl) findByPath(path, type);
-        updatedDate.setTime(page.getUpdatedDate());
-        createdDate.setTime(page.getCreatedDate());
+        page = getPage(path, row);
+        if (page == null) {
+          return null;
+        }
+        updatedDate = page.getUpdatedDate();
       } else {
         return null;
       }
 
-      if (page == null || !page.hasPermission(PermissionType.VIEWPAGE)) {
-        return null;
-      }
-
-      result.setWikiType(page.getWiki().getType());
-      result.setWikiOwner(page.getWiki().getOwner());
-      result.setPageName(page.getName());
+      result.setWikiType(page.getWikiType());
+      result.setWikiOwner(page.getWikiOwner());
+      result.setPageName(page.getPageName());
       result.setTitle(page.getTitle());
       result.setPath(path);
-      result.setCreatedDate(createdDate);
+      result.setPagePath(page.getPagePath());
+      result.setCreatedDate(page.getCreatedDate());
       result.setUpdatedDate(updatedDate);
-      result.setUrl(page.getURL());
-      result.setScore(score);
-
-      //get the excerpt from row result
-      result.setExcerpt(getExcerpt(row, type));
+      result.setUrl(page.getUrl());
+      result.setScore(row.getValue("jcr:score").getLong());
 
       return result;
-    } catch(RepositoryException e) {
-      throw new WikiException("Cannot get search result", e);
-    } finally {
-      mowService.stopSynchronization(created);
+    }
+
+    /**
+     * Gets the columns of a page, from the row of the page when there is one
+     *
+     * @return the columns of the page, null if the page is not in a wiki or can not be viewed by the user
+     */
+    private JCRSearchResult getPage(String pagePath, Row row) throws RepositoryException {
+      if (pages.containsKey(pagePath)) {
+        return pages.get(pagePath);
+      }
+      JCRSearchResult page = null;
+      String[] wiki = getWiki(pagePath);
+      if (wiki != null && permissionCache.hasPermission(session, pagePath, PermissionType.VIEWPAGE, user)) {
+        page = new JCRSearchResult();
+        page.setWikiType(wiki[0]);
+        page.setWikiOwner(wiki[1]);
+        page.setPageName(pagePath.substring(pagePath.lastIndexOf('/') + 1));
+        page.setPagePath(pagePath);
+        if (row != null) {
+          page.setTitle(getString(row.getValue(WikiNodeType.Definition.TITLE)));
+          page.setCreatedDate(getDate(row.getValue(WikiNodeType.Definition.CREATED_DATE)));
+          page.setUpdatedDate(getDate(row.getValue(WikiNodeType.Definition.UPDATED_DATE)));
+          page.setUrl(getString(row.getValue(WikiNodeType.Definition.URL)));
+        } else {
+          Node pageNode = (Node) session.getItem(pagePath);
+          page.setTitle(getString(pageNode, WikiNodeType.Definition.TITLE));
+          page.setCreatedDate(getDate(pagePath + "/" + WikiNodeType.Definition.CREATED_DATE));
+          page.setUpdatedDate(getDate(pagePath + "/" + WikiNodeType.Definition.UPDATED_DATE));
+          page.setUrl(getString(pageNode, WikiNodeType.Definition.URL));
+        }
+        if (page.getTitle() == null) {
+          page.setTitle(page.getPageName());
+        }
+      }
+      pages.put(pagePath, page);
+      return page;
+    }
+
+    /**
+     * Gets the type and owner of the wiki of a page, from the wiki node which is the parent of the wiki home
+     */
+    private String[] getWiki(String pagePath) throws RepositoryException {
+      int wikiHomeIndex = (pagePath + "/").lastIndexOf("/" + WikiConstants.WIKI_HOME_NAME + "/");
+      if (wikiHomeIndex <= 0) {
+        return null;
+      }
+      String wikiPath = pagePath.substring(0, wikiHomeIndex);
+      if (!wikis.containsKey(wikiPath)) {
+        String[] wiki = null;
+        Node wikiNode = (Node) session.getItem(wikiPath);
+        String wikiNodeType = wikiNode.getPrimaryNodeType().getName();
+        String wikiType = WikiNodeType.PORTAL_WIKI.equals(wikiNodeType) ? PortalConfig.PORTAL_TYPE
+            : WikiNodeType.GROUP_WIKI.equals(wikiNodeType) ? PortalConfig.GROUP_TYPE
+            : WikiNodeType.USER_WIKI.equals(wikiNodeType) ? PortalConfig.USER_TYPE : null;
+        if (wikiType != null) {
+          wiki = new String[] { wikiType, getString(wikiNode, WikiNodeType.Definition.OWNER) };
+        }
+        wikis.put(wikiPath, wiki);
+      }
+      return wikis.get(wikiPath);
+    }
+
+    private String getParentPath(String path) {
+      return path.substring(0, path.lastIndexOf('/'));
+    }
+
+    private String getString(Value value) throws RepositoryException {
+      return value != null ? value.getString() : null;
+    }
+
+    private String getString(Node node, String propertyName) throws RepositoryException {
+      return node.hasProperty(propertyName) ? node.getProperty(propertyName).getString() : null;
+    }
+
+    private Calendar getDate(Value value) throws RepositoryException {
+      return value != null ? value.getDate() : GregorianCalendar.getInstance();
+    }
+
+    private Calendar getDate(String propertyPath) throws RepositoryException {
+      return session.itemExists(propertyPath) ? ((Property) session.getItem(propertyPath)).getDate() : GregorianCalendar.getInstance();
     }
   }
 
@@ -1966,55 +2660,6 @@ public class JCRDataStorage implements DataStorage {
     }
   }
   
-  private boolean isContains(List<JCRSearchResult> list, JCRSearchResult result) throws WikiException {
-    boolean created = mowService.startSynchronization();
-
-    try {
-      boolean contains = false;
-      AttachmentImpl att = null;
-      PageImpl page = null;
-      if (WikiNodeType.WIKI_ATTACHMENT.equals(result.getType())) {
-        att = (AttachmentImpl) findByPath(result.getPath(), WikiNodeType.WIKI_ATTACHMENT);
-      } else if (WikiNodeType.WIKI_ATTACHMENT_CONTENT.equals(result.getType())) {
-        String attPath = result.getPath().substring(0, result.getPath().lastIndexOf("/"));
-        att = (AttachmentImpl) findByPath(attPath, WikiNodeType.WIKI_ATTACHMENT);
-      } else if(WikiNodeType.WIKI_PAGE.equals(result.getType()) || WikiNodeType.WIKI_HOME.equals(result.getType())){
-        page = (PageImpl) findByPath(result.getPath(), WikiNodeType.WIKI_PAGE);
-      } else if (WikiNodeType.WIKI_PAGE_CONTENT.equals(result.getType())) {
-        att = (AttachmentImpl) findByPath(result.getPath(), WikiNodeType.WIKI_ATTACHMENT);
-        page = att.getParentPage();
-      }
-      if (att != null || page != null) {
-        Iterator<JCRSearchResult> iter = list.iterator();
-        while (iter.hasNext()) {
-          JCRSearchResult child = iter.next();
-          if (WikiNodeType.WIKI_ATTACHMENT.equals(child.getType()) || WikiNodeType.WIKI_PAGE_CONTENT.equals(child.getType())) {
-            AttachmentImpl tempAtt = (AttachmentImpl) findByPath(child.getPath(), WikiNodeType.WIKI_ATTACHMENT);
-            if (att != null && att.equals(tempAtt)) {
-              // Merge data
-              if (child.getExcerpt()==null && result.getExcerpt()!=null ){
-                child.setExcerpt(result.getExcerpt());
-              }
-              contains = true;
-            }
-            if (page != null && page.getName().equals(tempAtt.getParentPage())) {
-              contains = true;
-            }
-          } else if (WikiNodeType.WIKI_PAGE.equals(child.getType())) {
-            if (page != null && page.getPath().equals(child.getPath())) {
-              iter.remove();
-              contains = false;
-            }
-          }
-        }
-      }
-
-      return contains;
-    } finally {
-      mowService.stopSynchronization(created);
-    }
-  }
-
   @Override
   public List<TemplateSearchResult> searchTemplate(TemplateSearchData data) throws WikiException {
     boolean created = mowService.startSynchronization();
@@ -2111,30 +2756,10 @@ public class JCRDataStorage implements DataStorage {
         if (WikiConstants.WIKI_HOME_NAME.equals(page.getName())) {
           WikiImpl wikiImpl = fetchWikiImpl(page.getWikiType(), page.getWikiOwner());
           wikiPage = wikiImpl.getWikiHome();
+        } else if (page.getWikiType() != null && page.getWikiOwner() != null) {
+          wikiPage = fetchPageImplByName(page.getWikiType(), page.getWikiOwner(), page.getName());
         } else {
-          WikiSearchData searchData = new WikiSearchData(page.getWikiType(), page.getWikiOwner(), Text.escapeIllegalJcrChars(page.getName()));
-          JCRWikiSearchQueryBuilder queryBuilder = new JCRWikiSearchQueryBuilder(searchData);
-          String statement = queryBuilder.getPageConstraint();
-
-          if (statement != null) {
-            Iterator<PageImpl> result = session.createQueryBuilder(PageImpl.class)
-                    .where(statement)
-                    .get()
-                    .objects();
-            if (result.hasNext()) {
-              wikiPage = result.next();
-            }
-          }
-          // TODO: still don't know reason but following code is necessary.
-          if (wikiPage != null) {
-            String path = wikiPage.getPath();
-            if (path.startsWith("/")) {
-              path = path.substring(1, path.length());
-            }
-            wikiPage = session.findByPath(PageImpl.class, path);
-          }
-          if (wikiPage != null) {
-          }
+          wikiPage = queryPageImplByName(page.getWikiType(), page.getWikiOwner(), page.getName());
         }
       }
 
@@ -2144,6 +2769,100 @@ public class JCRDataStorage implements DataStorage {
     }
   }
 
+  /**
+   * Fetch a page by its name through the page name index. The pages of the wiki
+   * are indexed on the first fetch, and the pages missing from the index are
+   * searched in the repository, unless they were searched recently.
+   */
+  private PageImpl fetchPageImplByName(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    WikiImpl wikiImpl = fetchWikiImpl(wikiType, wikiOwner);
+    if (wikiImpl == null) {
+      return queryPageImplByName(wikiType, wikiOwner, pageName);
+    }
+    WikiHome wikiHome = wikiImpl.getWikiHome();
+    if (!pageNameIndex.isIndexed(wikiType, wikiOwner)) {
+      try {
+        pageNameIndex.rebuild(wikiType, wikiOwner, wikiHome.getJCRPageNode());
+      } catch (RepositoryException e) {
+        log.warn("Cannot index the pages of wiki " + wikiType + ":" + wikiOwner + " - Cause : " + e.getMessage(), e);
+      }
+    }
+
+    String uuid = pageNameIndex.getPageUUID(wikiType, wikiOwner, pageName);
+    if (uuid != null) {
+      PageImpl wikiPage;
+      try {
+        wikiPage = mowService.getSession().findById(PageImpl.class, uuid);
+      } catch (UndeclaredRepositoryException e) {
+        wikiPage = null;
+      }
+      if (isPageOfWiki(wikiPage, wikiHome, pageName)) {
+        return wikiPage;
+      }
+      // the page has been changed without updating the index
+      pageNameIndex.remove(wikiType, wikiOwner, pageName);
+    } else if (pageNameIndex.isMissingPage(wikiType, wikiOwner, pageName)) {
+      // the page has been searched recently, for instance by a link to a missing page
+      return null;
+    }
+
+    PageImpl wikiPage = queryPageImplByName(wikiType, wikiOwner, pageName);
+    if (isPageOfWiki(wikiPage, wikiHome, pageName)) {
+      indexPage(wikiType, wikiOwner, wikiPage);
+    } else if (wikiPage == null) {
+      pageNameIndex.putMissingPage(wikiType, wikiOwner, pageName);
+    }
+    return wikiPage;
+  }
+
+  /**
+   * Search a page by its name in the repository
+   */
+  private PageImpl queryPageImplByName(String wikiType, String wikiOwner, String pageName) throws WikiException {
+    ChromatticSession session = mowService.getSession();
+    PageImpl wikiPage = null;
+    WikiSearchData searchData = new WikiSearchData(wikiType, wikiOwner, Text.escapeIllegalJcrChars(pageName));
+    JCRWikiSearchQueryBuilder queryBuilder = new JCRWikiSearchQueryBuilder(searchData);
+    String statement = queryBuilder.getPageConstraint();
+
+    if (statement != null) {
+      Iterator<PageImpl> result = session.createQueryBuilder(PageImpl.class)
+              .where(statement)
+              .get()
+              .objects();
+      if (result.hasNext()) {
+        wikiPage = result.next();
+      }
+    }
+    // TODO: still don't know reason but following code is necessary.
+    if (wikiPage != null) {
+      String path = wikiPage.getPath();
+      if (path.startsWith("/")) {
+        path = path.substring(1, path.length());
+      }
+      wikiPage = session.findByPath(PageImpl.class, path);
+    }
+    return wikiPage;
+  }
+
+  /**
+   * Check that a page found through the page name index is still the
+   * expected one: it has the same name and it is a descendant of the wiki home
+   * page, so not in the trash nor in another wiki
+   */
+  private boolean isPageOfWiki(PageImpl wikiPage, WikiHome wikiHome, String pageName) {
+    return wikiPage != null && pageName.equals(wikiPage.getName())
+            && wikiPage.getPath().startsWith(wikiHome.getPath() + "/");
+  }
+
+  private void indexPage(String wikiType, String wikiOwner, PageImpl pageImpl) {
+    try {
+      pageNameIndex.put(wikiType, wikiOwner, pageImpl.getName(), pageImpl.getID());
+    } catch (RepositoryException e) {
+      log.warn("Cannot index page " + wikiType + ":" + wikiOwner + ":" + pageImpl.getName() + " - Cause : " + e.getMessage(), e);
+    }
+  }
+
   private Wiki convertWikiImplToWiki(WikiImpl wikiImpl) throws WikiException {
     Wiki wiki = null;
     if(wikiImpl != null) {
@@ -2187,12 +2906,29 @@ public class JCRDataStorage implements DataStorage {
    * @return
    * @throws WikiException
    */
+  /**
+   * Migrates a legacy page which has not been reached by the background migration yet, so that the pages are never
+   * read in their legacy form. All the pages returned by the service are converted by
+   * {@link #convertPageImplToPage(PageImpl)}, which calls this method.
+   */
+  private void migrateLegacyPage(PageImpl pageImpl) {
+    try {
+      if (legacyPageMigrator.migrate(pageImpl)) {
+        mowService.persist();
+      }
+    } catch(WikiException e) {
+      log.error("Cannot migrate page " + pageImpl.getPath() + " - Cause : " + e.getMessage(), e);
+    }
+  }
+
   private Page convertPageImplToPage(PageImpl pageImpl) throws WikiException {
     Page page = null;
     if(pageImpl != null) {
       boolean created = mowService.startSynchronization();
 
       try {
+        migrateLegacyPage(pageImpl);
+
         page = new Page();
         try {
           page.setId(pageImpl.getID());
@@ -2224,6 +2960,43 @@ public class JCRDataStorage implements DataStorage {
     return page;
   }
 
+  /**
+   * Fetches a draft of a user by its name
+   * @param draftPagesContainer The drafts container of the user
+   * @param draftName The name of the draft
+   * @return The draft, or null if it does not exist
+   */
+  private DraftPageImpl fetchDraftByName(PageImpl draftPagesContainer, String draftName) {
+    PageImpl draftPage = draftPagesContainer.getChildPage(draftName);
+    return draftPage instanceof DraftPageImpl ? (DraftPageImpl) draftPage : null;
+  }
+
+  /**
+   * Fetches the draft of a page through the draft index. The drafts of the user are read
+   * again from the repository if the indexed draft does not exist anymore or does not
+   * target the page anymore.
+   * @param draftPagesContainer The drafts container of the user
+   * @param targetPageId The UUID of the target page
+   * @param latest true to get the latest draft of the existing page, false to get the first one by name
+   * @return The draft, or null if the user has no draft of the page
+   * @throws RepositoryException
+   */
+  private DraftPageImpl fetchDraftOfTarget(PageImpl draftPagesContainer, String targetPageId, boolean latest) throws RepositoryException {
+    for (int attempt = 0; attempt < 2; attempt++) {
+      DraftIndex.UserDrafts drafts = draftIndex.getDrafts(draftPagesContainer);
+      String draftName = latest ? drafts.getLatestDraftOfTarget(targetPageId) : drafts.getDraftOfTarget(targetPageId);
+      if (draftName == null) {
+        return null;
+      }
+      DraftPageImpl draftPage = fetchDraftByName(draftPagesContainer, draftName);
+      if (draftPage != null && targetPageId.equals(draftPage.getTargetPage()) && !(latest && draftPage.isNewPage())) {
+        return draftPage;
+      }
+      draftIndex.invalidate(draftPagesContainer);
+    }
+    return null;
+  }
+
   /**
    * Utility method to convert DraftPageImpl object to DraftPage object
    * @param draftPageImpl DraftPageImpl object to convert
@@ -2264,7 +3037,7 @@ public class JCRDataStorage implements DataStorage {
     return draftPage;
   }
 
-  private Attachment convertAttachmentImplToAttachment(AttachmentImpl attachmentImpl) throws WikiException {
+  private Attachment convertAttachmentImplToAttachment(AttachmentImpl attachmentImpl, boolean loadContent) throws WikiException {
     Attachment attachment = null;
     if(attachmentImpl != null) {
       boolean created = mowService.startSynchronization();
@@ -2277,11 +3050,16 @@ public class JCRDataStorage implements DataStorage {
         attachment.setCreator(attachmentImpl.getCreator());
         attachment.setCreatedDate(attachmentImpl.getCreatedDate());
         attachment.setUpdatedDate(attachmentImpl.getUpdatedDate());
-        attachment.setContent(attachmentImpl.getContentResource().getData());
-        attachment.setMimeType(attachmentImpl.getContentResource().getMimeType());
+        if (loadContent) {
+          attachment.setContent(attachmentImpl.getContentResource().getData());
+          attachment.setMimeType(attachmentImpl.getContentResource().getMimeType());
+          attachment.setWeightInBytes(attachmentImpl.getWeightInBytes());
+        } else {
+          attachment.setMimeType(attachmentImpl.getContentMimeType());
+          attachment.setWeightInBytes(attachmentImpl.getContentLength());
+        }
         attachment.setPermissions(JCRUtils.convertToPermissionEntryList(attachmentImpl.getPermission()));
         attachment.setDownloadURL(attachmentImpl.getDownloadURL());
-        attachment.setWeightInBytes(attachmentImpl.getWeightInBytes());
       } finally {
         mowService.stopSynchronization(created);
       }
@@ -0,0 +1,503 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+import javax.jcr.query.Query;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.core.api.MOWService;
+import org.exoplatform.wiki.mow.core.api.wiki.PageImpl;
+import org.exoplatform.wiki.mow.core.api.wiki.WikiNodeType;
+import org.exoplatform.wiki.rendering.RenderingService;
+import org.picocontainer.Startable;
+import org.xwiki.rendering.syntax.Syntax;
+
+/**
+ * Migrates the pages stored by the previous versions of the wiki, in background.
+ *
+ * A legacy page has its history on the page node instead of its content node,
+ * attachments whose permissions have not been aligned on the page, or a
+ * content in the Confluence syntax. Each of these migrations leaves a mark on
+ * the page node, so a migrated page is only checked again by reading its node
+ * types and its syntax.
+ *
+ * The pages of all the wikis are walked depth first, in the order of their
+ * paths, and migrated by batches: the session is saved after each batch,
+ * along with the progress of the migration, so that a failed migration is
+ * retried from the page following the last committed one, and a migration
+ * interrupted by a restart is resumed from there. The progress is kept on a
+ * node of the wiki application. The pages which are read before the migration
+ * reaches them are migrated on the fly.
+ */
+public class LegacyPageMigrator implements Startable {
+
+  private static final Log           log                 = ExoLogger.getLogger(LegacyPageMigrator.class);
+
+  public static final String         BATCH_SIZE_PARAM    = "legacy.migration.batchSize";
+
+  public static final String         RETRY_DELAY_PARAM   = "legacy.migration.retryDelayInSeconds";
+
+  private static final int           DEFAULT_BATCH_SIZE  = 50;
+
+  private static final long          DEFAULT_RETRY_DELAY = 60;
+
+  private static final int           MAX_RETRIES         = 3;
+
+  private static final String        WIKI_APPLICATION_PATH = "/exo:applications/" + WikiNodeType.Definition.WIKI_APPLICATION;
+
+  private static final String        PROGRESS_NODE_NAME  = "legacyPageMigration";
+
+  private static final String        PROGRESS_NODE_PATH  = WIKI_APPLICATION_PATH + "/" + PROGRESS_NODE_NAME;
+
+  private static final String        STATE               = "state";
+
+  private static final String        LAST_COMMITTED_PATH = "lastCommittedPath";
+
+  private static final String        VISITED_PAGES       = "visitedPages";
+
+  private static final String        MIGRATED_PAGES      = "migratedPages";
+
+  public enum State {
+    IDLE, PENDING, RUNNING, DONE, FAILED
+  }
+
+  private final MOWService           mowService;
+
+  private final RenderingService     renderingService;
+
+  private final ExoContainer         container;
+
+  private final int                  batchSize;
+
+  private final long                 retryDelay;
+
+  private ScheduledExecutorService   executor;
+
+  /** The progress of the last migration, guarded by this */
+  private State                      state               = State.IDLE;
+
+  private String                     lastCommittedPath;
+
+  private int                        visitedPages;
+
+  private int                        migratedPages;
+
+  private int                        retries;
+
+  private String                     failure;
+
+  public LegacyPageMigrator(MOWService mowService, RenderingService renderingService, InitParams initParams) {
+    this.mowService = mowService;
+    this.renderingService = renderingService;
+    this.container = ExoContainerContext.getCurrentContainer();
+
+    int size = DEFAULT_BATCH_SIZE;
+    long delay = DEFAULT_RETRY_DELAY;
+    if (initParams != null) {
+      ValueParam batchSizeParam = initParams.getValueParam(BATCH_SIZE_PARAM);
+      if (batchSizeParam != null && StringUtils.isNotBlank(batchSizeParam.getValue())) {
+        size = Integer.parseInt(batchSizeParam.getValue().trim());
+      }
+      ValueParam retryDelayParam = initParams.getValueParam(RETRY_DELAY_PARAM);
+      if (retryDelayParam != null && StringUtils.isNotBlank(retryDelayParam.getValue())) {
+        delay = Long.parseLong(retryDelayParam.getValue().trim());
+      }
+    }
+    this.batchSize = Math.max(1, size);
+    this.retryDelay = Math.max(0, delay);
+  }
+
+  @Override
+  public void start() {
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "wiki-legacy-page-migrator");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    executor = scheduledExecutor;
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        if (restoreProgress()) {
+          runMigration();
+        }
+      }
+    });
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Queues the migration of the legacy pages of all the wikis
+   *
+   * @return false if a migration is already pending or running
+   */
+  public boolean migratePages() {
+    synchronized (this) {
+      if (state == State.PENDING || state == State.RUNNING) {
+        return false;
+      }
+      state = State.PENDING;
+      lastCommittedPath = null;
+      visitedPages = 0;
+      migratedPages = 0;
+      retries = 0;
+      failure = null;
+    }
+    saveProgress();
+    schedule(0);
+    return true;
+  }
+
+  /**
+   * Resumes a failed migration, from the last committed page
+   *
+   * @return false if the last migration has not failed
+   */
+  public boolean resume() {
+    synchronized (this) {
+      if (state != State.FAILED) {
+        return false;
+      }
+      state = State.PENDING;
+      retries = 0;
+    }
+    saveProgress();
+    schedule(0);
+    return true;
+  }
+
+  /**
+   * Migrates a page if it is a legacy page. The changes are not saved.
+   *
+   * @param page the page
+   * @return true if the page has been changed
+   * @throws WikiException
+   */
+  public boolean migrate(PageImpl page) throws WikiException {
+    try {
+      return isLegacyPage(page.getJCRPageNode()) && migratePage(page);
+    } catch (RepositoryException e) {
+      throw new WikiException("Cannot migrate page " + page.getPath(), e);
+    }
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * @return the path of the last page whose batch has been committed
+   */
+  public synchronized String getLastCommittedPath() {
+    return lastCommittedPath;
+  }
+
+  public synchronized int getVisitedPages() {
+    return visitedPages;
+  }
+
+  public synchronized int getMigratedPages() {
+    return migratedPages;
+  }
+
+  /**
+   * @return the cause of the last failure, or null
+   */
+  public synchronized String getFailure() {
+    return failure;
+  }
+
+  /**
+   * A page node is a legacy page when it still has its history, when the
+   * permissions of its attachments have not been migrated or when its content
+   * is in the Confluence syntax
+   */
+  static boolean isLegacyPage(Node pageNode) throws RepositoryException {
+    if (pageNode.isNodeType(WikiNodeType.MIX_VERSIONABLE) || !pageNode.isNodeType(WikiNodeType.WIKI_PERMISSION_MIGRATION)) {
+      return true;
+    }
+    return pageNode.hasProperty(WikiNodeType.Definition.SYNTAX)
+        && Syntax.CONFLUENCE_1_0.toIdString().equals(pageNode.getProperty(WikiNodeType.Definition.SYNTAX).getString());
+  }
+
+  /**
+   * @return true if the page has been changed. A page whose history has been
+   *         moved is still a legacy page until its mix:versionable is removed,
+   *         but it is not changed again.
+   */
+  private boolean migratePage(PageImpl page) throws RepositoryException, WikiException {
+    page.setComponentManager(renderingService.getComponentManager());
+    boolean migrated = page.migrateLegacyData();
+    migrated |= page.migrateAttachmentPermission();
+    migrated |= page.migrateConfluenceContent();
+    return migrated;
+  }
+
+  private void schedule(long delay) {
+    ScheduledExecutorService currentExecutor = executor;
+    if (currentExecutor != null) {
+      currentExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          runMigration();
+        }
+      }, delay, TimeUnit.SECONDS);
+    } else {
+      runMigration();
+    }
+  }
+
+  private void runMigration() {
+    ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+    ExoContainerContext.setCurrentContainer(container);
+    try {
+      Batch batch = nextBatch();
+      while (batch != null) {
+        try {
+          runBatch(batch);
+        } catch (Exception e) {
+          log.error("Cannot migrate the legacy pages after page " + batch.getCheckpoint() + " - Cause : " + e.getMessage(), e);
+          if (fail(e)) {
+            schedule(retryDelay);
+          } else {
+            saveProgress();
+          }
+          return;
+        }
+        batch = commit(batch);
+      }
+      if (log.isInfoEnabled()) {
+        log.info("Legacy pages migrated: " + getVisitedPages() + " pages visited, " + getMigratedPages() + " pages migrated");
+      }
+    } finally {
+      ExoContainerContext.setCurrentContainer(previousContainer);
+    }
+  }
+
+  /**
+   * Migrates the pages following the checkpoint of the batch, up to the size
+   * of the batch, and saves them at once
+   */
+  private void runBatch(Batch batch) throws RepositoryException, WikiException {
+    RequestLifeCycle.begin(container);
+    boolean created = mowService.startSynchronization();
+    Session session = null;
+    boolean saved = false;
+    try {
+      session = mowService.getSession().getJCRSession();
+      batch.walk(getWikiHomeNodes(session));
+      synchronized (this) {
+        // the progress is committed with the pages of the batch
+        storeProgress(session,
+                      batch.isFinished() ? State.DONE : State.RUNNING,
+                      batch.getLastPath() != null ? batch.getLastPath() : batch.getCheckpoint(),
+                      visitedPages + batch.getVisitedPages(),
+                      migratedPages + batch.migratedPages);
+      }
+      session.save();
+      saved = true;
+    } finally {
+      if (!saved && session != null && session.isLive()) {
+        session.refresh(false);
+      }
+      mowService.stopSynchronization(created);
+      RequestLifeCycle.end();
+    }
+  }
+
+  /**
+   * @return the home page nodes of all the wikis
+   */
+  private List<Node> getWikiHomeNodes(Session session) throws RepositoryException {
+    List<Node> wikiHomes = new ArrayList<Node>();
+    Query query = session.getWorkspace().getQueryManager().createQuery("SELECT * FROM " + WikiNodeType.WIKI_HOME, Query.SQL);
+    NodeIterator nodeIterator = query.execute().getNodes();
+    while (nodeIterator.hasNext()) {
+      wikiHomes.add(nodeIterator.nextNode());
+    }
+    return wikiHomes;
+  }
+
+  /**
+   * Restores the progress of the last migration, unless a migration has been
+   * queued meanwhile
+   *
+   * @return true if the migration was pending or running, and should be resumed
+   */
+  private boolean restoreProgress() {
+    ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    boolean created = mowService.startSynchronization();
+    try {
+      Session session = mowService.getSession().getJCRSession();
+      if (!session.itemExists(PROGRESS_NODE_PATH)) {
+        return false;
+      }
+      Node progressNode = (Node) session.getItem(PROGRESS_NODE_PATH);
+      synchronized (this) {
+        if (state != State.IDLE) {
+          return false;
+        }
+        State storedState = State.valueOf(progressNode.getProperty(STATE).getString());
+        lastCommittedPath = progressNode.hasProperty(LAST_COMMITTED_PATH) ? progressNode.getProperty(LAST_COMMITTED_PATH).getString() : null;
+        visitedPages = (int) progressNode.getProperty(VISITED_PAGES).getLong();
+        migratedPages = (int) progressNode.getProperty(MIGRATED_PAGES).getLong();
+        state = storedState == State.RUNNING ? State.PENDING : storedState;
+        if (state == State.PENDING && log.isInfoEnabled()) {
+          log.info("Resuming the migration of the legacy pages after page " + lastCommittedPath);
+        }
+        return state == State.PENDING;
+      }
+    } catch (Exception e) {
+      log.warn("Cannot restore the progress of the migration of the legacy pages - Cause : " + e.getMessage(), e);
+      return false;
+    } finally {
+      mowService.stopSynchronization(created);
+      RequestLifeCycle.end();
+      ExoContainerContext.setCurrentContainer(previousContainer);
+    }
+  }
+
+  /**
+   * Saves the current progress of the migration
+   */
+  private void saveProgress() {
+    RequestLifeCycle.begin(container);
+    boolean created = mowService.startSynchronization();
+    try {
+      Session session = mowService.getSession().getJCRSession();
+      boolean stored;
+      synchronized (this) {
+        stored = storeProgress(session, state, lastCommittedPath, visitedPages, migratedPages);
+      }
+      if (stored) {
+        session.save();
+      }
+    } catch (RepositoryException e) {
+      log.warn("Cannot save the progress of the migration of the legacy pages - Cause : " + e.getMessage(), e);
+    } finally {
+      mowService.stopSynchronization(created);
+      RequestLifeCycle.end();
+    }
+  }
+
+  /**
+   * Sets the progress of the migration on its node, without saving it
+   *
+   * @return false if there is no wiki application node yet, hence no page to migrate
+   */
+  private boolean storeProgress(Session session, State progressState, String path, int visited, int migrated) throws RepositoryException {
+    Node progressNode;
+    if (session.itemExists(PROGRESS_NODE_PATH)) {
+      progressNode = (Node) session.getItem(PROGRESS_NODE_PATH);
+    } else if (session.itemExists(WIKI_APPLICATION_PATH)) {
+      progressNode = ((Node) session.getItem(WIKI_APPLICATION_PATH)).addNode(PROGRESS_NODE_NAME);
+    } else {
+      return false;
+    }
+    progressNode.setProperty(STATE, progressState.name());
+    progressNode.setProperty(LAST_COMMITTED_PATH, path);
+    progressNode.setProperty(VISITED_PAGES, (long) visited);
+    progressNode.setProperty(MIGRATED_PAGES, (long) migrated);
+    return true;
+  }
+
+  private synchronized Batch nextBatch() {
+    if (state != State.PENDING && state != State.RUNNING) {
+      return null;
+    }
+    state = State.RUNNING;
+    return new Batch(lastCommittedPath, batchSize);
+  }
+
+  private synchronized Batch commit(Batch batch) {
+    visitedPages += batch.getVisitedPages();
+    migratedPages += batch.migratedPages;
+    if (batch.getLastPath() != null) {
+      lastCommittedPath = batch.getLastPath();
+    }
+    retries = 0;
+    if (batch.isFinished()) {
+      state = State.DONE;
+      return null;
+    }
+    return new Batch(lastCommittedPath, batchSize);
+  }
+
+  /**
+   * @return true if the migration should be retried
+   */
+  private synchronized boolean fail(Exception e) {
+    failure = e.getMessage();
+    if (++retries > MAX_RETRIES) {
+      state = State.FAILED;
+      return false;
+    }
+    state = State.PENDING;
+    return true;
+  }
+
+  /**
+   * The pages migrated together
+   */
+  private class Batch extends CheckpointedPageWalker {
+
+    private int migratedPages;
+
+    private Batch(String checkpoint, int batchSize) {
+      super(checkpoint, batchSize);
+    }
+
+    @Override
+    protected void visitPage(Node pageNode) throws RepositoryException, WikiException {
+      if (isLegacyPage(pageNode) && migratePage(mowService.getSession().findById(PageImpl.class, pageNode.getUUID()))) {
+        migratedPages++;
+      }
+    }
+  }
+}
@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.commons.utils.CommonsUtils;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.services.mail.MailService;
+import org.exoplatform.services.mail.Message;
+import org.exoplatform.services.organization.OrganizationService;
+import org.exoplatform.services.organization.User;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.api.PageVersion;
+import org.exoplatform.wiki.rendering.RenderingService;
+import org.exoplatform.wiki.service.DataStorage;
+import org.exoplatform.wiki.service.diff.DiffResult;
+import org.exoplatform.wiki.service.diff.DiffService;
+import org.picocontainer.Startable;
+import org.xwiki.rendering.syntax.Syntax;
+
+/**
+ * Sends the notification emails to the watchers of the modified pages.
+ *
+ * The changes are queued by the save request and processed by a background
+ * thread. The successive changes of a page made during the notification delay
+ * are coalesced, so that each watcher receives one email per page, with the
+ * differences between the version preceding the first change and the content
+ * of the last change. The differences and the content are rendered once per
+ * page and the email addresses of the watchers are looked up once per batch.
+ */
+public class PageChangeNotifier implements Startable {
+
+  private static final Log           log                     = ExoLogger.getLogger(PageChangeNotifier.class);
+
+  public static final String         NOTIFICATION_DELAY_PARAM = "notification.delayInSeconds";
+
+  private static final long          DEFAULT_NOTIFICATION_DELAY = 30;
+
+  private static final String        MIMETYPE_TEXTHTML       = "text/html";
+
+  private final DataStorage          dataStorage;
+
+  private final DiffService          diffService;
+
+  private final RenderingService     renderingService;
+
+  private final OrganizationService  organizationService;
+
+  private final ExoContainer         container;
+
+  private final long                 notificationDelay;
+
+  /** Pending changes by page, in the order of their first change. Guarded by itself. */
+  private final Map<String, PageChange> pendingChanges = new LinkedHashMap<String, PageChange>();
+
+  private ScheduledExecutorService   executor;
+
+  public PageChangeNotifier(DataStorage dataStorage,
+                            DiffService diffService,
+                            RenderingService renderingService,
+                            OrganizationService organizationService,
+                            InitParams initParams) {
+    this.dataStorage = dataStorage;
+    this.diffService = diffService;
+    this.renderingService = renderingService;
+    this.organizationService = organizationService;
+    this.container = ExoContainerContext.getCurrentContainer();
+
+    long delay = DEFAULT_NOTIFICATION_DELAY;
+    if (initParams != null) {
+      ValueParam delayParam = initParams.getValueParam(NOTIFICATION_DELAY_PARAM);
+      if (delayParam != null && StringUtils.isNotBlank(delayParam.getValue())) {
+        delay = Long.parseLong(delayParam.getValue().trim());
+      }
+    }
+    this.notificationDelay = Math.max(0, delay);
+  }
+
+  @Override
+  public void start() {
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "wiki-page-change-notifier");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    executor = scheduledExecutor;
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Queues the notification of a content change of a page.
+   * This method must be called by the request which saved the page, before
+   * a new version of the page is created: the author, the current domain and
+   * the latest version of the page are read from the request.
+   *
+   * @param page the modified page
+   * @throws WikiException if the latest version of the page cannot be read
+   */
+  public void notifyChange(Page page) throws WikiException {
+    String key = getKey(page);
+    ConversationState conversationState = ConversationState.getCurrent();
+    String author = conversationState != null ? conversationState.getIdentity().getUserId() : page.getAuthor();
+
+    PageChange pageChange;
+    synchronized (pendingChanges) {
+      pageChange = pendingChanges.get(key);
+      if (pageChange != null) {
+        pageChange.update(page, author, conversationState);
+        return;
+      }
+    }
+
+    // first change of the page since the last notification, its previous content is the latest version
+    PageVersion latestVersion = dataStorage.getLatestVersionOfPage(page);
+    pageChange = new PageChange(page, latestVersion != null ? latestVersion.getName() : null, CommonsUtils.getCurrentDomain());
+    pageChange.update(page, author, conversationState);
+
+    ScheduledExecutorService currentExecutor = executor;
+    synchronized (pendingChanges) {
+      PageChange concurrentChange = pendingChanges.get(key);
+      if (concurrentChange != null) {
+        concurrentChange.update(page, author, conversationState);
+        return;
+      }
+      pendingChanges.put(key, pageChange);
+    }
+    if (currentExecutor != null) {
+      final String pageKey = key;
+      currentExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          sendPendingNotifications(pageKey);
+        }
+      }, notificationDelay, TimeUnit.SECONDS);
+    } else {
+      sendPendingNotifications(key);
+    }
+  }
+
+  /**
+   * @param page the page
+   * @return true if changes of the page are waiting to be notified
+   */
+  public boolean hasPendingChange(Page page) {
+    synchronized (pendingChanges) {
+      return pendingChanges.containsKey(getKey(page));
+    }
+  }
+
+  /**
+   * @return the number of pages with changes waiting to be notified
+   */
+  public int getPendingCount() {
+    synchronized (pendingChanges) {
+      return pendingChanges.size();
+    }
+  }
+
+  /**
+   * Sends the notification of the changes of a page, along with the ones of
+   * the other pages which have waited for the notification delay.
+   * @param key the key of the page whose notification delay is over
+   */
+  private void sendPendingNotifications(String key) {
+    List<PageChange> dueChanges = new ArrayList<PageChange>();
+    long now = System.currentTimeMillis();
+    synchronized (pendingChanges) {
+      Iterator<Map.Entry<String, PageChange>> changes = pendingChanges.entrySet().iterator();
+      while (changes.hasNext()) {
+        Map.Entry<String, PageChange> change = changes.next();
+        PageChange pageChange = change.getValue();
+        if (change.getKey().equals(key) || now - pageChange.firstChangeTime >= TimeUnit.SECONDS.toMillis(notificationDelay)) {
+          dueChanges.add(pageChange);
+          changes.remove();
+        }
+      }
+    }
+    if (dueChanges.isEmpty()) {
+      return;
+    }
+
+    ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+    ConversationState previousConversationState = ConversationState.getCurrent();
+    ExoContainerContext.setCurrentContainer(container);
+    RequestLifeCycle.begin(container);
+    try {
+      // email addresses of the watchers, shared by all the pages of the batch
+      Map<String, String> emails = new HashMap<String, String>();
+      for (PageChange pageChange : dueChanges) {
+        try {
+          sendNotification(pageChange, emails);
+        } catch (Exception e) {
+          log.error("Cannot send notification email on change of page " + pageChange.page.getWikiType() + ":"
+              + pageChange.page.getWikiOwner() + ":" + pageChange.page.getName() + " - Cause : " + e.getMessage(), e);
+        }
+      }
+    } finally {
+      RequestLifeCycle.end();
+      ConversationState.setCurrent(previousConversationState);
+      ExoContainerContext.setCurrentContainer(previousContainer);
+    }
+  }
+
+  private void sendNotification(PageChange pageChange, Map<String, String> emails) throws Exception {
+    Page page = pageChange.page;
+    List<String> addresses = new ArrayList<String>();
+    for (String watcher : dataStorage.getWatchersOfPage(page)) {
+      String email = getEmail(watcher, emails);
+      if (StringUtils.isNotEmpty(email)) {
+        addresses.add(email);
+      }
+    }
+    if (addresses.isEmpty()) {
+      return;
+    }
+
+    String previousContent = StringUtils.EMPTY;
+    if (pageChange.previousVersionName != null) {
+      PageVersion previousVersion = dataStorage.getVersionOfPageByName(pageChange.previousVersionName, page);
+      if (previousVersion != null && previousVersion.getContent() != null) {
+        previousContent = previousVersion.getContent();
+      }
+    }
+    String currentContent = page.getContent() != null ? page.getContent() : StringUtils.EMPTY;
+    DiffResult diffResult = diffService.getDifferencesAsHTML(previousContent, currentContent, false);
+    if (diffResult.getChanges() == 0) {
+      diffResult.setDiffHTML("No changes, new revision is created.");
+    }
+    // the content is rendered with the rights of the last author, as it would have been in the save request
+    ConversationState.setCurrent(pageChange.conversationState);
+    String fullContent = renderingService.render(currentContent, page.getSyntax(), Syntax.XHTML_1_0.toIdString(), false);
+
+    StringBuilder sbt = new StringBuilder();
+    sbt.append("<html>")
+       .append("  <head>")
+       .append("     <link rel=\"stylesheet\" href=\"")
+       .append(renderingService.getCssURL())
+       .append("\" type=\"text/css\">")
+       .append("  </head>")
+       .append("  <body>")
+       .append("    Page <a href=\"")
+       .append(pageChange.domain)
+       .append(page.getUrl())
+       .append("\">")
+       .append(page.getTitle())
+       .append("</a> is modified by ")
+       .append(StringUtils.join(pageChange.authors, ", "))
+       .append("    <br/><br/>")
+       .append("    Changes(")
+       .append(diffResult.getChanges())
+       .append(")")
+       .append("    <br/><br/>")
+       .append(insertStyle(diffResult.getDiffHTML()))
+       .append("    Full content: ")
+       .append("    <br/><br/>")
+       .append(fullContent)
+       .append("  </body>")
+       .append("</html>");
+
+    Message message = new Message();
+    message.setFrom(makeNotificationSender(pageChange.lastAuthor));
+    message.setSubject("\"" + page.getTitle() + "\" page was modified");
+    message.setMimeType(MIMETYPE_TEXTHTML);
+    message.setBody(sbt.toString());
+    MailService mailService = container.getComponentInstanceOfType(MailService.class);
+    for (String address : addresses) {
+      message.setTo(address);
+      try {
+        mailService.sendMessage(message);
+      } catch (Exception e) {
+        log.error(String.format("Failed to send notification email to user: %s", address), e);
+      }
+    }
+  }
+
+  /**
+   * Gets the email address of a watcher, looking up the organization service once per batch
+   * @return the email of the user, or an empty string if the user does not exist anymore
+   */
+  private String getEmail(String userName, Map<String, String> emails) {
+    String email = emails.get(userName);
+    if (email == null) {
+      email = StringUtils.EMPTY;
+      try {
+        User user = organizationService.getUserHandler().findUserByName(userName);
+        if (user != null && user.getEmail() != null) {
+          email = user.getEmail();
+        }
+      } catch (Exception e) {
+        log.error("Cannot get email address of user " + userName + " - Cause : " + e.getMessage(), e);
+      }
+      emails.put(userName, email);
+    }
+    return email;
+  }
+
+  private static String getKey(Page page) {
+    return page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName();
+  }
+
+  private static String makeNotificationSender(String from) {
+    InternetAddress addr = null;
+    if (from == null) return null;
+    try {
+      addr = new InternetAddress(from);
+    } catch (AddressException e) {
+      if (log.isDebugEnabled()) { log.debug("value of 'from' field in message made by forum notification feature is not in format of mail address", e); }
+      return null;
+    }
+    Properties props = new Properties(System.getProperties());
+    String mailAddr = props.getProperty("gatein.email.smtp.from");
+    if (mailAddr == null || mailAddr.length() == 0) mailAddr = props.getProperty("mail.from");
+    if (mailAddr != null) {
+      try {
+        InternetAddress serMailAddr = new InternetAddress(mailAddr);
+        addr.setAddress(serMailAddr.getAddress());
+        return addr.toUnicodeString();
+      } catch (AddressException e) {
+        if (log.isDebugEnabled()) { log.debug("value of 'gatein.email.smtp.from' or 'mail.from' in configuration file is not in format of mail address", e); }
+        return null;
+      }
+    } else {
+      return null;
+    }
+  }
+
+  private static String insertStyle(String rawHTML) {
+    String result = rawHTML;
+    result = result.replaceAll("class=\"diffaddword\"", "style=\"background: #b5ffbf;\"");
+    result = result.replaceAll("<span class=\"diffremoveword\">",
+                               "<span style=\" background: #ffd8da;text-decoration: line-through;\">");
+    result = result.replaceAll("<pre class=\"diffremoveword\">",
+                               "<pre style=\" background: #ffd8da;\">");
+    return result;
+  }
+
+  /**
+   * The changes of a page waiting to be notified
+   */
+  private static class PageChange {
+
+    private final String            previousVersionName;
+
+    private final String            domain;
+
+    private final long              firstChangeTime = System.currentTimeMillis();
+
+    private final Set<String>       authors         = new LinkedHashSet<String>();
+
+    private Page                    page;
+
+    private String                  lastAuthor;
+
+    private ConversationState       conversationState;
+
+    private PageChange(Page page, String previousVersionName, String domain) {
+      this.page = copyOf(page);
+      this.previousVersionName = previousVersionName;
+      this.domain = domain;
+    }
+
+    private void update(Page page, String author, ConversationState conversationState) {
+      this.page = copyOf(page);
+      this.conversationState = conversationState;
+      this.lastAuthor = author;
+      if (author != null) {
+        authors.add(author);
+      }
+    }
+
+    /**
+     * Copies the fields used by the notification, the page object of the request may be modified after the save.
+     */
+    private static Page copyOf(Page page) {
+      Page copy = new Page(page.getName(), page.getTitle());
+      copy.setId(page.getId());
+      copy.setWikiId(page.getWikiId());
+      copy.setWikiType(page.getWikiType());
+      copy.setWikiOwner(page.getWikiOwner());
+      copy.setContent(page.getContent());
+      copy.setSyntax(page.getSyntax());
+      copy.setUrl(page.getUrl());
+      copy.setAuthor(page.getAuthor());
+      return copy;
+    }
+  }
+}
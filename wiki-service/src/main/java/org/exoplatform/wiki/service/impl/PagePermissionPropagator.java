@@ -0,0 +1,426 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.jcr.Node;
+import javax.jcr.RepositoryException;
+import javax.jcr.Session;
+
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.ExoContainer;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.container.component.RequestLifeCycle;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.jcr.core.ExtendedNode;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.core.api.MOWService;
+import org.exoplatform.wiki.mow.core.api.wiki.PermissionImpl;
+import org.exoplatform.wiki.mow.core.api.wiki.WikiNodeType;
+import org.picocontainer.Startable;
+
+/**
+ * Applies the permissions of a wiki to its pages, in background.
+ *
+ * The pages are walked depth first, in the order of their names, and updated
+ * by batches: the session is saved and closed after each batch, so that its
+ * size does not depend on the size of the wiki, and the readers keep using the
+ * previous permissions of the pages until their batch is committed. The pages
+ * which override the wiki permissions and the pages which already have them
+ * are not modified. The path of the last committed page is kept, a failed
+ * propagation is retried from the following page, and a new change of the
+ * permissions of the wiki restarts its running propagation.
+ */
+public class PagePermissionPropagator implements Startable {
+
+  private static final Log           log                      = ExoLogger.getLogger(PagePermissionPropagator.class);
+
+  public static final String         BATCH_SIZE_PARAM         = "permission.propagation.batchSize";
+
+  public static final String         RETRY_DELAY_PARAM        = "permission.propagation.retryDelayInSeconds";
+
+  private static final int           DEFAULT_BATCH_SIZE       = 100;
+
+  private static final long          DEFAULT_RETRY_DELAY      = 60;
+
+  private static final int           MAX_RETRIES              = 3;
+
+  public enum State {
+    PENDING, RUNNING, DONE, FAILED
+  }
+
+  private final MOWService           mowService;
+
+  private final ExoContainer         container;
+
+  private final int                  batchSize;
+
+  private final long                 retryDelay;
+
+  /** Propagations by wiki. Guarded by itself. */
+  private final Map<String, Propagation> propagations     = new HashMap<String, Propagation>();
+
+  private ScheduledExecutorService   executor;
+
+  public PagePermissionPropagator(MOWService mowService, InitParams initParams) {
+    this.mowService = mowService;
+    this.container = ExoContainerContext.getCurrentContainer();
+
+    int size = DEFAULT_BATCH_SIZE;
+    long delay = DEFAULT_RETRY_DELAY;
+    if (initParams != null) {
+      ValueParam batchSizeParam = initParams.getValueParam(BATCH_SIZE_PARAM);
+      if (batchSizeParam != null && StringUtils.isNotBlank(batchSizeParam.getValue())) {
+        size = Integer.parseInt(batchSizeParam.getValue().trim());
+      }
+      ValueParam retryDelayParam = initParams.getValueParam(RETRY_DELAY_PARAM);
+      if (retryDelayParam != null && StringUtils.isNotBlank(retryDelayParam.getValue())) {
+        delay = Long.parseLong(retryDelayParam.getValue().trim());
+      }
+    }
+    this.batchSize = Math.max(1, size);
+    this.retryDelay = Math.max(0, delay);
+  }
+
+  @Override
+  public void start() {
+    ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "wiki-permission-propagator");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduledExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    executor = scheduledExecutor;
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+      executor = null;
+    }
+  }
+
+  /**
+   * Queues the propagation of the permissions of a wiki to its pages.
+   * If the permissions of the wiki are being propagated, the propagation
+   * restarts with the new permissions.
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @param wikiHomePath the path of the home page of the wiki
+   * @param permissions the JCR actions by identity, the pages are open to
+   *          anyone when no permission is given
+   */
+  public void propagate(String wikiType, String wikiOwner, String wikiHomePath, HashMap<String, String[]> permissions) {
+    String key = getKey(wikiType, wikiOwner);
+    Propagation propagation;
+    synchronized (propagations) {
+      propagation = propagations.get(key);
+      if (propagation != null && propagation.restart(wikiHomePath, permissions)) {
+        return;
+      }
+      propagation = new Propagation(key, wikiHomePath, permissions, batchSize);
+      propagations.put(key, propagation);
+    }
+    schedule(propagation, 0);
+  }
+
+  /**
+   * Resumes a failed propagation, from the last committed page
+   *
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return false if there is no failed propagation for the wiki
+   */
+  public boolean resume(String wikiType, String wikiOwner) {
+    Propagation propagation;
+    synchronized (propagations) {
+      propagation = propagations.get(getKey(wikiType, wikiOwner));
+    }
+    if (propagation == null || !propagation.retry(true)) {
+      return false;
+    }
+    schedule(propagation, 0);
+    return true;
+  }
+
+  /**
+   * @param wikiType the wiki type
+   * @param wikiOwner the wiki owner
+   * @return the progress of the last propagation of the permissions of the
+   *         wiki, or null if they have not been changed since the start
+   */
+  public Propagation getPropagation(String wikiType, String wikiOwner) {
+    synchronized (propagations) {
+      return propagations.get(getKey(wikiType, wikiOwner));
+    }
+  }
+
+  private void schedule(final Propagation propagation, long delay) {
+    ScheduledExecutorService currentExecutor = executor;
+    if (currentExecutor != null) {
+      currentExecutor.schedule(new Runnable() {
+        @Override
+        public void run() {
+          runPropagation(propagation);
+        }
+      }, delay, TimeUnit.SECONDS);
+    } else {
+      runPropagation(propagation);
+    }
+  }
+
+  private void runPropagation(Propagation propagation) {
+    ExoContainer previousContainer = ExoContainerContext.getCurrentContainerIfPresent();
+    ExoContainerContext.setCurrentContainer(container);
+    try {
+      Batch batch = propagation.nextBatch();
+      while (batch != null) {
+        try {
+          runBatch(batch);
+        } catch (Exception e) {
+          log.error("Cannot apply the permissions of wiki " + propagation.key + " to its pages after page "
+              + batch.getCheckpoint() + " - Cause : " + e.getMessage(), e);
+          if (propagation.fail(e)) {
+            schedule(propagation, retryDelay);
+          }
+          return;
+        }
+        batch = propagation.commit(batch);
+      }
+      if (log.isInfoEnabled()) {
+        log.info("Permissions of wiki " + propagation.key + " applied to its pages: " + propagation.getVisitedPages()
+            + " pages visited, " + propagation.getUpdatedPages() + " pages updated");
+      }
+    } finally {
+      ExoContainerContext.setCurrentContainer(previousContainer);
+    }
+  }
+
+  /**
+   * Updates the pages following the checkpoint of the batch, up to the size
+   * of the batch, and saves them at once
+   */
+  private void runBatch(Batch batch) throws RepositoryException, WikiException {
+    RequestLifeCycle.begin(container);
+    boolean created = mowService.startSynchronization();
+    Session session = null;
+    boolean saved = false;
+    try {
+      session = mowService.getSession().getJCRSession();
+      Node wikiHome = (Node) session.getItem(batch.wikiHomePath);
+      batch.walk(Collections.singletonList(wikiHome));
+      session.save();
+      saved = true;
+      if (batch.updatedPages > 0 && mowService.getPermissionCache() != null) {
+        mowService.getPermissionCache().invalidate();
+      }
+    } finally {
+      if (!saved && session != null && session.isLive()) {
+        // the pages of the failed batch keep their previous permissions
+        session.refresh(false);
+      }
+      mowService.stopSynchronization(created);
+      RequestLifeCycle.end();
+    }
+  }
+
+  private static String getKey(String wikiType, String wikiOwner) {
+    return wikiType + ":" + wikiOwner;
+  }
+
+  /**
+   * The propagation of the permissions of a wiki to its pages
+   */
+  public static class Propagation {
+
+    private final String              key;
+
+    private final int                 batchSize;
+
+    private String                    wikiHomePath;
+
+    private HashMap<String, String[]> permissions;
+
+    /** Incremented on restart, the batches of the previous generations are not committed */
+    private int                       generation;
+
+    private State                     state       = State.PENDING;
+
+    private String                    lastCommittedPath;
+
+    private int                       visitedPages;
+
+    private int                       updatedPages;
+
+    private int                       retries;
+
+    private String                    failure;
+
+    private Propagation(String key, String wikiHomePath, HashMap<String, String[]> permissions, int batchSize) {
+      this.key = key;
+      this.batchSize = batchSize;
+      this.wikiHomePath = wikiHomePath;
+      this.permissions = permissions;
+    }
+
+    public synchronized State getState() {
+      return state;
+    }
+
+    /**
+     * @return the path of the last page whose batch has been committed
+     */
+    public synchronized String getLastCommittedPath() {
+      return lastCommittedPath;
+    }
+
+    public synchronized int getVisitedPages() {
+      return visitedPages;
+    }
+
+    public synchronized int getUpdatedPages() {
+      return updatedPages;
+    }
+
+    /**
+     * @return the cause of the last failure, or null
+     */
+    public synchronized String getFailure() {
+      return failure;
+    }
+
+    /**
+     * Restarts the propagation with new permissions, if it is not over
+     * @return false if the propagation is over and a new one is needed
+     */
+    private synchronized boolean restart(String wikiHomePath, HashMap<String, String[]> permissions) {
+      if (state == State.DONE || state == State.FAILED) {
+        return false;
+      }
+      this.wikiHomePath = wikiHomePath;
+      this.permissions = permissions;
+      generation++;
+      lastCommittedPath = null;
+      visitedPages = 0;
+      updatedPages = 0;
+      retries = 0;
+      return true;
+    }
+
+    private synchronized Batch nextBatch() {
+      state = State.RUNNING;
+      return new Batch(generation, wikiHomePath, permissions, lastCommittedPath, batchSize);
+    }
+
+    /**
+     * Records the pages of a batch once saved
+     * @return the next batch, or null if the propagation is over
+     */
+    private synchronized Batch commit(Batch batch) {
+      if (batch.generation == generation) {
+        visitedPages += batch.getVisitedPages();
+        updatedPages += batch.updatedPages;
+        if (batch.getLastPath() != null) {
+          lastCommittedPath = batch.getLastPath();
+        }
+        retries = 0;
+        failure = null;
+        if (batch.isFinished()) {
+          state = State.DONE;
+          return null;
+        }
+      }
+      return nextBatch();
+    }
+
+    /**
+     * @return true if the propagation should be retried
+     */
+    private synchronized boolean fail(Exception e) {
+      failure = e.getMessage();
+      return retry(false);
+    }
+
+    private synchronized boolean retry(boolean resume) {
+      if (state == State.DONE || (resume && state != State.FAILED)) {
+        return false;
+      }
+      if (resume) {
+        retries = 0;
+      } else if (++retries > MAX_RETRIES) {
+        state = State.FAILED;
+        return false;
+      }
+      state = State.PENDING;
+      return true;
+    }
+  }
+
+  /**
+   * A batch of pages to update in the same session
+   */
+  private static class Batch extends CheckpointedPageWalker {
+
+    private final int                       generation;
+
+    private final String                    wikiHomePath;
+
+    private final HashMap<String, String[]> permissions;
+
+    private int                             updatedPages;
+
+    private Batch(int generation, String wikiHomePath, HashMap<String, String[]> permissions, String checkpoint, int batchSize) {
+      super(checkpoint, batchSize);
+      this.generation = generation;
+      this.wikiHomePath = wikiHomePath;
+      this.permissions = permissions;
+    }
+
+    @Override
+    protected void visitPage(Node pageNode) throws RepositoryException {
+      if (pageNode.hasProperty(WikiNodeType.Definition.OVERRIDEPERMISSION)
+          && pageNode.getProperty(WikiNodeType.Definition.OVERRIDEPERMISSION).getBoolean()) {
+        return;
+      }
+      ExtendedNode extendedNode = (ExtendedNode) pageNode;
+      if (PermissionImpl.hasPermissions(extendedNode, permissions)) {
+        return;
+      }
+      PermissionImpl.applyPermissions(extendedNode, permissions);
+      // the permissions of the attachments will be migrated again
+      if (pageNode.isNodeType(WikiNodeType.WIKI_PERMISSION_MIGRATION)) {
+        pageNode.removeMixin(WikiNodeType.WIKI_PERMISSION_MIGRATION);
+      }
+      updatedPages++;
+    }
+  }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.service.impl;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.core.api.PageTitleIndex;
+import org.exoplatform.wiki.service.PageUpdateType;
+import org.exoplatform.wiki.service.listener.PageWikiListener;
+
+/**
+ * Keeps the page title index up to date when the pages are created, updated,
+ * moved and deleted.
+ */
+public class PageTitleIndexListener extends PageWikiListener {
+
+  private final PageTitleIndex pageTitleIndex;
+
+  public PageTitleIndexListener(PageTitleIndex pageTitleIndex) {
+    this.pageTitleIndex = pageTitleIndex;
+  }
+
+  @Override
+  public void postAddPage(String wikiType, String wikiOwner, String pageId, Page page) throws WikiException {
+    Date updatedDate = page.getUpdatedDate() != null ? page.getUpdatedDate() : Calendar.getInstance().getTime();
+    indexPage(wikiType, wikiOwner, pageId, page, updatedDate);
+  }
+
+  @Override
+  public void postUpdatePage(String wikiType, String wikiOwner, String pageId, Page page, PageUpdateType wikiUpdateType) throws WikiException {
+    // the page object may be older than the update
+    indexPage(wikiType, wikiOwner, pageId, page, Calendar.getInstance().getTime());
+  }
+
+  @Override
+  public void postDeletePage(String wikiType, String wikiOwner, String pageId, Page page) throws WikiException {
+    if (page != null && page.getId() != null) {
+      pageTitleIndex.remove(page.getId());
+    } else {
+      pageTitleIndex.invalidate(wikiType, wikiOwner);
+    }
+  }
+
+  private void indexPage(String wikiType, String wikiOwner, String pageId, Page page, Date updatedDate) {
+    if (page != null && page.getId() != null) {
+      pageTitleIndex.put(wikiType, wikiOwner, page.getId(), pageId, page.getTitle(), updatedDate);
+    } else {
+      pageTitleIndex.invalidate(wikiType, wikiOwner);
+    }
+  }
+}
@@ -21,6 +21,7 @@ import org.exoplatform.commons.chromattic.ChromatticLifeCycle;
 import org.exoplatform.commons.chromattic.SessionContext;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.wiki.mow.core.api.PermissionCache;
 
 public class WikiChromatticLifeCycle extends ChromatticLifeCycle {
 
@@ -69,6 +70,8 @@ public class WikiChromatticLifeCycle extends ChromatticLifeCycle {
   @Override
   protected void onCloseSession(final SessionContext context) {
     super.onCloseSession(context);
+    // the permission decisions are kept for the duration of the session
+    PermissionCache.endRequest();
     if (session.get() != null) {
       session.get().close();
     }
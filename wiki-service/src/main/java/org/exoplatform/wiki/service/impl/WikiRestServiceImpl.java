@@ -16,13 +16,25 @@
  */
 package org.exoplatform.wiki.service.impl;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.Class;
 import java.lang.Object;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.*;
 
 import javax.annotation.security.RolesAllowed;
@@ -30,6 +42,7 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
 import org.apache.commons.fileupload.DiskFileUpload;
@@ -53,7 +66,6 @@ import org.exoplatform.services.rest.impl.EnvironmentContext;
 import org.exoplatform.services.rest.resource.ResourceContainer;
 import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.wiki.WikiException;
-import org.exoplatform.wiki.mow.api.DraftPage;
 import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.mow.api.WikiType;
 import org.exoplatform.wiki.rendering.RenderingService;
@@ -88,20 +100,39 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
 
   private final RenderingService renderingService;
 
+  private final DraftAutoSaver   draftAutoSaver;
+
   private static Log             log = ExoLogger.getLogger("wiki:WikiRestService");
 
   private static final String DASH = "-";
 
+  private static final String BYTES_UNIT = "bytes";
+
+  private static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+
+  private static final String CONTENT_RANGE_HEADER = "Content-Range";
+
+  private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz";
+
   private final CacheControl     cc;
+
+  private final CacheControl     attachmentCacheControl;
   
   private ObjectFactory objectFactory = new ObjectFactory();
   
-  public WikiRestServiceImpl(WikiService wikiService, RenderingService renderingService) {
+  public WikiRestServiceImpl(WikiService wikiService, RenderingService renderingService, DraftAutoSaver draftAutoSaver) {
     this.wikiService = wikiService;
     this.renderingService = renderingService;
+    this.draftAutoSaver = draftAutoSaver;
     cc = new CacheControl();
     cc.setNoCache(true);
     cc.setNoStore(true);
+    // attachments can be replaced under the same name and are permission protected:
+    // only private caches may keep them and they must revalidate with the ETag
+    attachmentCacheControl = new CacheControl();
+    attachmentCacheControl.setPrivate(true);
+    attachmentCacheControl.setMaxAge(0);
+    attachmentCacheControl.setMustRevalidate(true);
   }
 
   /**
@@ -230,6 +261,8 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
    * @param currentPath Contains the path of the current wiki page
    * @param showExcerpt Boolean to display or not the excerpt
    * @param depth Defined the depth of the children we want to display
+   * @param offset Index of the first child to display, for the children type only
+   * @param limit Maximum number of children to display, for the children type only
    * @return List of descendants including the page itself.
    */
   @GET
@@ -240,7 +273,9 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
                               @QueryParam(TreeNode.CURRENT_PATH) String currentPath,
                               @QueryParam(TreeNode.CAN_EDIT) Boolean canEdit,
                               @QueryParam(TreeNode.SHOW_EXCERPT) Boolean showExcerpt,
-                              @QueryParam(TreeNode.DEPTH) String depth) {
+                              @QueryParam(TreeNode.DEPTH) String depth,
+                              @QueryParam(TreeNode.OFFSET) String offset,
+                              @QueryParam(TreeNode.LIMIT) String limit) {
     try {
       List<JsonNodeData> responseData = new ArrayList<JsonNodeData>();
       HashMap<String, Object> context = new HashMap<String, Object>();
@@ -276,6 +311,8 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
         if (depth == null)
           depth = "1";
         context.put(TreeNode.DEPTH, depth);
+        context.put(TreeNode.OFFSET, offset);
+        context.put(TreeNode.LIMIT, limit);
         responseData = getJsonDescendants(pageParam, context);
       }
       return Response.ok(new BeanToJsons(responseData), MediaType.APPLICATION_JSON).cacheControl(cc).build();
@@ -524,7 +561,7 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
     org.exoplatform.wiki.mow.api.Page page;
     try {
       page = wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageId);
-      List<org.exoplatform.wiki.mow.api.Attachment> pageAttachments = wikiService.getAttachmentsOfPage(page);
+      List<org.exoplatform.wiki.mow.api.Attachment> pageAttachments = wikiService.getAttachmentsOfPage(page, false);
       for (org.exoplatform.wiki.mow.api.Attachment pageAttachment : pageAttachments) {
         attachments.getAttachments().add(createAttachment(objectFactory, uriInfo.getBaseUri(), pageAttachment, page, "attachment", "attachment"));
       }
@@ -559,7 +596,7 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
         org.exoplatform.wiki.mow.api.Page page = wikiService.getPageOfWikiByName(searchResult.getWikiType(), searchResult.getWikiOwner(), searchResult.getPageName());
         if(page != null) {
           if (SearchResultType.ATTACHMENT.equals(searchResult.getType())) {
-            org.exoplatform.wiki.mow.api.Attachment attachment = wikiService.getAttachmentOfPageByName(searchResult.getAttachmentName(), page);
+            org.exoplatform.wiki.mow.api.Attachment attachment = wikiService.getAttachmentOfPageByName(searchResult.getAttachmentName(), page, false);
             titleSearchResults.add(new TitleSearchResult(attachment.getName(), searchResult.getType(), attachment.getDownloadURL()));
           } else {
             titleSearchResults.add(new TitleSearchResult(searchResult.getTitle(), searchResult.getType(), page.getUrl()));
@@ -588,18 +625,26 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
   @GET
   @Path("/images/{wikiType}/space/{wikiOwner:.+}/page/{pageId}/{imageId}")
   public Response getImage(@Context UriInfo uriInfo,
+                           @Context Request request,
+                           @HeaderParam("Range") String range,
+                           @HeaderParam("If-Range") String ifRange,
                            @PathParam("wikiType") String wikiType,
                            @PathParam("wikiOwner") String wikiOwner,
                            @PathParam("pageId") String pageId,
                            @PathParam("imageId") String imageId,
                            @QueryParam("width") Integer width) {
-    return getAttachment(uriInfo, wikiType, wikiOwner, pageId, imageId, width);
+    return getAttachment(uriInfo, request, range, ifRange, wikiType, wikiOwner, pageId, imageId, width);
   }
 
   /**
    * Return an attchment attached to the wiki page.
    * In case of an image, the width can be specified (the size ratio is kept).
+   * The content is streamed from the repository, a single byte range can be requested
+   * and the ETag and Last-Modified headers allow clients to revalidate their copy.
    * @param uriInfo Uri of the wiki
+   * @param request The request, used to evaluate the conditional headers
+   * @param range The value of the Range header, if any
+   * @param ifRange The value of the If-Range header, if any
    * @param wikiType It can be a Portal, Group, User type of wiki
    * @param wikiOwner Is the owner of the wiki
    * @param pageId Id of the wiki page
@@ -610,31 +655,113 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
   @GET
   @Path("/attachments/{wikiType}/space/{wikiOwner:.+}/page/{pageId}/{attachmentId}")
   public Response getAttachment(@Context UriInfo uriInfo,
+                           @Context Request request,
+                           @HeaderParam("Range") String range,
+                           @HeaderParam("If-Range") String ifRange,
                            @PathParam("wikiType") String wikiType,
                            @PathParam("wikiOwner") String wikiOwner,
                            @PathParam("pageId") String pageId,
-                           @PathParam("attachmentId") String attachmentId,
+                           @PathParam("attachmentId") final String attachmentId,
                            @QueryParam("width") Integer width) {
-    InputStream result;
     try {
-      org.exoplatform.wiki.mow.api.Page page = wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageId);
+      final org.exoplatform.wiki.mow.api.Page page = wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageId);
       if (page == null) {
         return Response.status(HTTPStatus.NOT_FOUND).entity("There is no resource matching to request path " + uriInfo.getPath()).type(MediaType.TEXT_PLAIN).build();
       }
-      org.exoplatform.wiki.mow.api.Attachment attachment = wikiService.getAttachmentOfPageByName(attachmentId, page);
+      org.exoplatform.wiki.mow.api.Attachment attachment = wikiService.getAttachmentOfPageByName(attachmentId, page, false);
 
       if (attachment == null) {
         return Response.status(HTTPStatus.NOT_FOUND).entity("There is no resource matching to request path " + uriInfo.getPath()).type(MediaType.TEXT_PLAIN).build();
       }
 
-      ByteArrayInputStream bis = new ByteArrayInputStream(attachment.getContent());
+      Date lastModified = getLastModified(attachment);
+      EntityTag entityTag = getEntityTag(attachment, width);
+      ResponseBuilder notModified = (lastModified != null) ? request.evaluatePreconditions(lastModified, entityTag)
+                                                           : request.evaluatePreconditions(entityTag);
+      if (notModified != null) {
+        return notModified.tag(entityTag).cacheControl(attachmentCacheControl).build();
+      }
+
       if (width != null) {
         ResizeImageService resizeImgService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(ResizeImageService.class);
-        result = resizeImgService.resizeImageByWidth(attachmentId, bis, width);
-      } else {
-        result = bis;
+        // the version of the image is identified by the update date and size of the attachment, so that a stored
+        // thumbnail is found without reading the image
+        String imageVersionId = wikiType + "/" + wikiOwner + "/" + pageId + "/" + attachmentId + "/"
+            + getEntityTag(attachment, null).getValue();
+        File thumbnail = resizeImgService.getResizedImageVersionFile(imageVersionId, width, 0, true);
+        // the file is opened right away as the store may evict it before the response is written
+        FileChannel openedChannel = openThumbnail(thumbnail);
+        if (openedChannel == null) {
+          // the thumbnail is not stored, or has just been evicted
+          thumbnail = resizeImageVersion(resizeImgService, imageVersionId, attachmentId, page, width);
+          openedChannel = openThumbnail(thumbnail);
+        }
+        if (openedChannel == null) {
+          return Response.status(HTTPStatus.INTERNAL_ERROR).cacheControl(cc).build();
+        }
+        final FileChannel thumbnailChannel = openedChannel;
+        StreamingOutput thumbnailContent = new StreamingOutput() {
+          @Override
+          public void write(OutputStream output) throws IOException {
+            try {
+              long position = 0;
+              long size = thumbnailChannel.size();
+              WritableByteChannel outputChannel = Channels.newChannel(output);
+              while (position < size) {
+                position += thumbnailChannel.transferTo(position, size - position, outputChannel);
+              }
+            } finally {
+              thumbnailChannel.close();
+            }
+          }
+        };
+        return Response.ok(thumbnailContent)
+                       .type("image/" + FilenameUtils.getExtension(thumbnail.getName()))
+                       .header(HttpHeaders.CONTENT_LENGTH, thumbnailChannel.size())
+                       .tag(entityTag)
+                       .lastModified(lastModified)
+                       .cacheControl(attachmentCacheControl)
+                       .build();
+      }
+
+      long size = attachment.getWeightInBytes();
+      long[] bytesRange = null;
+      if (range != null && isRangeApplicable(ifRange, entityTag, lastModified)) {
+        bytesRange = parseRange(range, size);
+        if (bytesRange != null && bytesRange.length == 0) {
+          return Response.status(HTTPStatus.REQUESTED_RANGE_NOT_SATISFIABLE)
+                         .header(CONTENT_RANGE_HEADER, BYTES_UNIT + " */" + size)
+                         .cacheControl(attachmentCacheControl)
+                         .build();
+        }
       }
-      return Response.ok(result).cacheControl(cc).build();
+
+      final long offset = (bytesRange != null) ? bytesRange[0] : 0;
+      final long length = (bytesRange != null) ? bytesRange[1] - bytesRange[0] + 1 : size;
+      StreamingOutput content = new StreamingOutput() {
+        @Override
+        public void write(OutputStream output) throws IOException {
+          try {
+            wikiService.writeAttachmentContent(attachmentId, page, offset, length, output);
+          } catch (WikiException e) {
+            throw new IOException("Cannot read attachment " + attachmentId, e);
+          }
+        }
+      };
+
+      ResponseBuilder response = (bytesRange != null) ? Response.status(HTTPStatus.PARTIAL)
+                                                          .header(CONTENT_RANGE_HEADER, BYTES_UNIT + " " + bytesRange[0] + DASH + bytesRange[1] + "/" + size)
+                                                      : Response.ok();
+      if (attachment.getMimeType() != null) {
+        response.type(attachment.getMimeType());
+      }
+      return response.entity(content)
+                     .header(HttpHeaders.CONTENT_LENGTH, length)
+                     .header(ACCEPT_RANGES_HEADER, BYTES_UNIT)
+                     .tag(entityTag)
+                     .lastModified(lastModified)
+                     .cacheControl(attachmentCacheControl)
+                     .build();
     } catch (Exception e) {
       if (log.isDebugEnabled()) {
         log.debug(String.format("Can't get attachment name: %s of page %s", attachmentId, pageId), e);
@@ -643,6 +770,146 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
     }
   }
 
+  /**
+   * @return the channel of the thumbnail file, null if there is no file or if it has been evicted from the store
+   */
+  private FileChannel openThumbnail(File thumbnail) {
+    if (thumbnail == null) {
+      return null;
+    }
+    try {
+      return new FileInputStream(thumbnail).getChannel();
+    } catch (FileNotFoundException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Resizes an image attachment. The attachment is streamed to a temporary
+   * file, so that the image is never fully loaded in memory.
+   */
+  private File resizeImageVersion(ResizeImageService resizeImgService,
+                                  String imageVersionId,
+                                  String attachmentId,
+                                  org.exoplatform.wiki.mow.api.Page page,
+                                  int width) throws WikiException, IOException {
+    File imageFile = File.createTempFile("wiki-image", ".tmp");
+    try {
+      OutputStream imageOutput = new FileOutputStream(imageFile);
+      try {
+        wikiService.writeAttachmentContent(attachmentId, page, 0, Long.MAX_VALUE, imageOutput);
+      } finally {
+        imageOutput.close();
+      }
+      InputStream imageInput = new BufferedInputStream(new FileInputStream(imageFile));
+      try {
+        return resizeImgService.resizeImageVersionToFile(imageVersionId, imageInput, width, 0, true);
+      } finally {
+        imageInput.close();
+      }
+    } finally {
+      if (!imageFile.delete() && log.isDebugEnabled()) {
+        log.debug("Cannot delete temporary file " + imageFile.getAbsolutePath());
+      }
+    }
+  }
+
+  /**
+   * HTTP dates have a precision of one second, so the milliseconds are dropped
+   * to let the If-Modified-Since header match the Last-Modified one.
+   */
+  private Date getLastModified(org.exoplatform.wiki.mow.api.Attachment attachment) {
+    Calendar updatedDate = attachment.getUpdatedDate();
+    if (updatedDate == null) {
+      return null;
+    }
+    return new Date(updatedDate.getTimeInMillis() / 1000 * 1000);
+  }
+
+  private EntityTag getEntityTag(org.exoplatform.wiki.mow.api.Attachment attachment, Integer width) {
+    Calendar updatedDate = attachment.getUpdatedDate();
+    StringBuilder tag = new StringBuilder();
+    tag.append(Long.toHexString(updatedDate != null ? updatedDate.getTimeInMillis() : 0))
+       .append(DASH)
+       .append(Long.toHexString(attachment.getWeightInBytes()));
+    if (width != null) {
+      tag.append(DASH).append(width);
+    }
+    return new EntityTag(tag.toString());
+  }
+
+  /**
+   * A range is only served if the If-Range header, when present, still matches
+   * the current version of the attachment, otherwise the whole content is sent.
+   */
+  private boolean isRangeApplicable(String ifRange, EntityTag entityTag, Date lastModified) {
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+      return ifRange.equals(entityTag.toString());
+    }
+    if (lastModified == null) {
+      return false;
+    }
+    SimpleDateFormat httpDateFormat = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+    httpDateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+    try {
+      return httpDateFormat.parse(ifRange).getTime() == lastModified.getTime();
+    } catch (ParseException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Parses a single byte range, as defined by RFC 7233.
+   * @param range The value of the Range header
+   * @param size The size of the content
+   * @return the first and last positions of the range, an empty array if the range cannot be satisfied,
+   *         null if the header is not supported (multiple ranges, other units...) and must be ignored
+   */
+  private static long[] parseRange(String range, long size) {
+    String prefix = BYTES_UNIT + "=";
+    if (!range.startsWith(prefix) || range.indexOf(',') >= 0) {
+      return null;
+    }
+    String spec = range.substring(prefix.length()).trim();
+    int dash = spec.indexOf(DASH);
+    if (dash < 0) {
+      return null;
+    }
+    String first = spec.substring(0, dash).trim();
+    String last = spec.substring(dash + 1).trim();
+    try {
+      long start;
+      long end;
+      if (first.isEmpty()) {
+        if (last.isEmpty()) {
+          return null;
+        }
+        long suffixLength = Long.parseLong(last);
+        start = Math.max(0, size - suffixLength);
+        end = size - 1;
+        if (suffixLength == 0) {
+          return new long[0];
+        }
+      } else {
+        start = Long.parseLong(first);
+        end = last.isEmpty() ? size - 1 : Long.parseLong(last);
+        if (end < start) {
+          return null;
+        }
+        end = Math.min(end, size - 1);
+      }
+      if (start >= size) {
+        return new long[0];
+      }
+      return new long[] { start, end };
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
   public Space createSpace(ObjectFactory objectFactory,
                            URI baseUri,
                            String wikiName,
@@ -836,7 +1103,7 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
       pageSummary.getLinks().add(pageChildrenLink);
     }
 
-    List<org.exoplatform.wiki.mow.api.Attachment> attachments = wikiService.getAttachmentsOfPage(page);
+    List<org.exoplatform.wiki.mow.api.Attachment> attachments = wikiService.getAttachmentsOfPage(page, false);
     if (!attachments.isEmpty()) {
       String attachmentsUri;
       attachmentsUri = UriBuilder.fromUri(baseUri)
@@ -1020,61 +1287,29 @@ public class WikiRestServiceImpl implements WikiRestService, ResourceContainer {
         return Response.status(HTTPStatus.BAD_REQUEST).cacheControl(cc).build();
       } 
       pageId = URLDecoder.decode(rawPageId,"utf-8");
-      WikiPageParams param = new WikiPageParams(wikiType, wikiOwner, pageId);
-      org.exoplatform.wiki.mow.api.Page page = wikiService.getPageOfWikiByName(wikiType, wikiOwner, pageId);
-      if (StringUtils.isEmpty(pageId) || (page == null)) {
+      if (StringUtils.isEmpty(pageId)) {
         throw new IllegalArgumentException("Can not find the target page");
       }
+      WikiPageParams param = new WikiPageParams(wikiType, wikiOwner, pageId);
 
       title = replaceSpecialCharacter(title);
 
-      // Convert conent to markup if need
+      // The content of the WYSIWYG editor is kept as is, it is converted to markup when the draft is read
+      String syntax = wikiService.getDefaultWikiSyntaxId();
       if (StringUtils.isEmpty(isMarkup) || !isMarkup.toLowerCase().equals("true")) {
-        content = renderingService.render(content, Syntax.XHTML_1_0.toIdString(), wikiService.getDefaultWikiSyntaxId(), false);
+        syntax = Syntax.XHTML_1_0.toIdString();
       }
 
-      DraftPage draftPage = null;
-      if (!isNewPage) {
-        draftPage = wikiService.getDraftOfPage(page);
-        if ((draftPage != null) && !draftPage.getName().equals(lastDraftName)) {
-          draftPage = null;
-        }
-      } else {
-        if (!StringUtils.isEmpty(lastDraftName)) {
-          draftPage = wikiService.getDraft(lastDraftName);
-        }
-      }
-      
-      // If draft page is not exist then create draft page
-      if (draftPage == null) {
-        DraftPage newDraftPage = new DraftPage();
-        newDraftPage.setTitle(title);
-        newDraftPage.setContent(content);
-        // if create draft for exist page, we need synchronized when create draft 
-        if (!isNewPage) {
-          synchronized (page.getId()) {
-            draftPage = wikiService.createDraftForExistPage(newDraftPage, page, pageRevision, clientTime);
-          }
-        } else {
-          draftPage = wikiService.createDraftForNewPage(newDraftPage, page, clientTime);
-        }
-      } else {
-        // Store page content and page title in draft
-        if ("".equals(title)) {
-          draftPage.setTitle(draftPage.getName());
-        } else {
-          draftPage.setTitle(title);
-        }
-        draftPage.setContent(content);
-        wikiService.updatePage(draftPage, null);
-
+      String currentUser = Utils.getCurrentUser();
+      String draftName = draftAutoSaver.saveDraft(currentUser, wikiType, wikiOwner, pageId, pageRevision, lastDraftName,
+                                                  isNewPage, clientTime, title, content, syntax);
+      if (draftName != null && draftName.equals(lastDraftName)) {
         // Log the editting time for current user
-        Utils.logEditPageTime(param, Utils.getCurrentUser(), System.currentTimeMillis(), draftPage.getName(), isNewPage);
-
+        Utils.logEditPageTime(param, currentUser, System.currentTimeMillis(), draftName, isNewPage);
       }
-      
+
       // Notify to client that saved draft success
-      return Response.ok(new DraftData(draftPage.getName()), MediaType.APPLICATION_JSON).cacheControl(cc).build();
+      return Response.ok(new DraftData(draftName), MediaType.APPLICATION_JSON).cacheControl(cc).build();
     } catch (UnsupportedEncodingException uee) {
         log.warn("Cannot decode page name");
         return Response.status(HTTPStatus.INTERNAL_ERROR).cacheControl(cc).build();
@@ -7,6 +7,7 @@ import org.exoplatform.commons.api.search.data.SearchResult;
 import org.exoplatform.commons.utils.PageList;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
 import org.exoplatform.portal.config.model.PortalConfig;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
@@ -40,9 +41,16 @@ public class WikiSearchServiceConnector extends SearchServiceConnector {
    * Date and time format used in the unified search.
    */
   public static String  DATE_TIME_FORMAT = "EEEEE, MMMMMMMM d, yyyy K:mm a";
-  
+
+  /**
+   * Default maximum number of results returned when the unified search asks for all the results.
+   */
+  public static final int DEFAULT_MAX_RESULTS = 200;
+
   private WikiService wikiService;
 
+  private int maxResults = DEFAULT_MAX_RESULTS;
+
   /**
    * Initializes the Wiki search service.
    *
@@ -51,6 +59,12 @@ public class WikiSearchServiceConnector extends SearchServiceConnector {
   public WikiSearchServiceConnector(InitParams initParams) {
     super(initParams);
     wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
+    if (initParams != null) {
+      ValueParam maxResultsParam = initParams.getValueParam("search.maxResults");
+      if (maxResultsParam != null && StringUtils.isNotBlank(maxResultsParam.getValue())) {
+        maxResults = Integer.parseInt(maxResultsParam.getValue().trim());
+      }
+    }
   }
 
     /**
@@ -67,15 +81,30 @@ public class WikiSearchServiceConnector extends SearchServiceConnector {
      */
   @Override
   public Collection<SearchResult> search(SearchContext context, String query, Collection<String> sites, int offset, int limit, String sort, String order) {
-    // When limit is 0 then return all search result
-    if (limit == 0) {
-      limit = Integer.MAX_VALUE;
+    // When limit is 0 then return all search result, up to the maximum number of results
+    if (limit <= 0 || limit > maxResults) {
+      limit = maxResults;
     }
+    offset = Math.max(offset, 0);
+    // The window is applied by the query only when the results keep the order of the query
+    boolean queryWindow = StringUtils.isEmpty(sort) || "relevancy".equalsIgnoreCase(sort);
 
     // Prepare search data
     WikiSearchData searchData = new WikiSearchData(query, query, null, null);
-    searchData.setOffset(offset);
-    searchData.setLimit(limit);
+    if (queryWindow) {
+      searchData.setOffset(offset);
+      searchData.setLimit(limit);
+    } else {
+      // The title and date sorts are applied to the results up to the end of the window, at most the maximum number
+      // of results, then the window is cut from the sorted results
+      searchData.setOffset(0);
+      searchData.setLimit((int) Math.min((long) offset + limit, maxResults));
+    }
+    // Sort by relevancy in the query, so that the results of each offset are the most relevant ones
+    if ("relevancy".equalsIgnoreCase(sort)) {
+      searchData.setSort("jcr:score");
+      searchData.setOrder("DESC".equalsIgnoreCase(order) ? "DESC" : "ASC");
+    }
     
     // Execute the search
     List<SearchResult> searchResults = new ArrayList<SearchResult>();
@@ -96,6 +125,13 @@ public class WikiSearchServiceConnector extends SearchServiceConnector {
     
     // Sort search result
     sortSearchResult(searchResults, sort, order);
+
+    // Apply the window to the sorted results
+    if (!queryWindow) {
+      int fromIndex = Math.min(offset, searchResults.size());
+      int toIndex = (int) Math.min((long) fromIndex + limit, searchResults.size());
+      searchResults = new ArrayList<SearchResult>(searchResults.subList(fromIndex, toIndex));
+    }
     
     // Return the result
     return searchResults;
@@ -18,8 +18,11 @@ import org.exoplatform.portal.config.UserACL;
 import org.exoplatform.portal.config.UserPortalConfig;
 import org.exoplatform.portal.config.UserPortalConfigService;
 import org.exoplatform.portal.config.model.PortalConfig;
+import org.exoplatform.services.cache.CacheListener;
+import org.exoplatform.services.cache.CacheListenerContext;
 import org.exoplatform.services.cache.CacheService;
 import org.exoplatform.services.cache.ExoCache;
+import org.exoplatform.services.jcr.RepositoryService;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.services.security.ConversationState;
@@ -32,8 +35,10 @@ import org.exoplatform.wiki.plugin.WikiEmotionIconsPlugin;
 import org.exoplatform.wiki.plugin.WikiTemplatePagePlugin;
 import org.exoplatform.wiki.rendering.RenderingService;
 import org.exoplatform.wiki.rendering.cache.AttachmentCountData;
+import org.exoplatform.wiki.rendering.cache.CacheStatistics;
 import org.exoplatform.wiki.rendering.cache.MarkupData;
 import org.exoplatform.wiki.rendering.cache.MarkupKey;
+import org.exoplatform.wiki.rendering.cache.PageLinksData;
 import org.exoplatform.wiki.resolver.TitleResolver;
 import org.exoplatform.wiki.service.*;
 import org.exoplatform.wiki.service.diff.DiffResult;
@@ -45,17 +50,16 @@ import org.exoplatform.wiki.utils.Utils;
 import org.exoplatform.wiki.utils.WikiConstants;
 import org.picocontainer.Startable;
 import org.suigeneris.jrcs.diff.DifferentiationFailedException;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.rendering.converter.ConversionException;
 import org.xwiki.rendering.syntax.Syntax;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 public class WikiServiceImpl implements WikiService, Startable {
 
@@ -81,6 +85,14 @@ public class WikiServiceImpl implements WikiService, Startable {
 
   public static final String UUID_CACHE_NAME = "wiki.PageUuidCache";
 
+  public static final String LINKS_CACHE_NAME = "wiki.PageLinksCache";
+
+  public static final String VERSIONS_DIFF_CACHE_NAME = "wiki.VersionsDifferenceCache";
+
+  private static final int MAX_DEPENDENTS_PER_PAGE = 1000;
+
+  private static final int PAGE_LINKS_LOCKS = 64;
+
   private ConfigurationManager configManager;
 
   private UserACL userACL;
@@ -107,11 +119,21 @@ public class WikiServiceImpl implements WikiService, Startable {
 
   private String wikiWebappUri;
 
-  private ExoCache<Integer, MarkupData> renderingCache;
-  private ExoCache<Integer, AttachmentCountData> attachmentCountCache;
-  private ExoCache<Integer, String> uuidCache;
+  private RepositoryService repositoryService;
+
+  private PageChangeNotifier pageChangeNotifier;
+
+  private ExoCache<MarkupKey, MarkupData> renderingCache;
+  private ExoCache<MarkupKey, AttachmentCountData> attachmentCountCache;
+  private ExoCache<MarkupKey, String> uuidCache;
 
-  private Map<WikiPageParams, List<WikiPageParams>> pageLinksMap = new ConcurrentHashMap<>();
+  private CacheStatistics<MarkupKey, MarkupData> renderingCacheStatistics;
+
+  private ExoCache<MarkupKey, PageLinksData> pageLinksCache;
+
+  private ExoCache<String, DiffResult> versionsDifferenceCache;
+
+  private final Object[] pageLinksLocks = new Object[PAGE_LINKS_LOCKS];
 
   private Set<String> uncachedMacroes = new HashSet<>();
 
@@ -119,7 +141,9 @@ public class WikiServiceImpl implements WikiService, Startable {
                          UserACL userACL,
                          DataStorage dataStorage,
                          RenderingService renderingService,
+                         RepositoryService repositoryService,
                          CacheService cacheService,
+                         PageChangeNotifier pageChangeNotifier,
                          InitParams initParams) {
     String autoSaveIntervalProperty = System.getProperty("wiki.autosave.interval");
     if ((autoSaveIntervalProperty == null) || autoSaveIntervalProperty.isEmpty()) {
@@ -132,10 +156,19 @@ public class WikiServiceImpl implements WikiService, Startable {
     this.userACL = userACL;
     this.renderingService = renderingService;
     this.dataStorage = dataStorage;
+    this.repositoryService = repositoryService;
+    this.pageChangeNotifier = pageChangeNotifier;
 
     this.renderingCache = cacheService.getCacheInstance(CACHE_NAME);
     this.attachmentCountCache = cacheService.getCacheInstance(ATT_CACHE_NAME);
     this.uuidCache = cacheService.getCacheInstance(UUID_CACHE_NAME);
+    this.renderingCacheStatistics = new CacheStatistics<>(renderingCache);
+    this.pageLinksCache = cacheService.getCacheInstance(LINKS_CACHE_NAME);
+    this.pageLinksCache.addCacheListener(new PageLinksExpirationListener());
+    this.versionsDifferenceCache = cacheService.getCacheInstance(VERSIONS_DIFF_CACHE_NAME);
+    for (int i = 0; i < pageLinksLocks.length; i++) {
+      pageLinksLocks[i] = new Object();
+    }
 
     if (initParams != null) {
       Iterator<ValuesParam> helps = initParams.getValuesParamIterator();
@@ -163,16 +196,23 @@ public class WikiServiceImpl implements WikiService, Startable {
   public void stop() {
   }
 
-  public ExoCache<Integer, String> getUuidCache() {
+  public ExoCache<MarkupKey, String> getUuidCache() {
     return uuidCache;
   }
 
-  public ExoCache<Integer, MarkupData> getRenderingCache() {
+  public ExoCache<MarkupKey, MarkupData> getRenderingCache() {
     return renderingCache;
   }
 
-  public Map<WikiPageParams, List<WikiPageParams>> getPageLinksMap() {
-    return pageLinksMap;
+  /**
+   * @return the hit/miss/eviction statistics of the rendering cache
+   */
+  public CacheStatistics<MarkupKey, MarkupData> getRenderingCacheStatistics() {
+    return renderingCacheStatistics;
+  }
+
+  public ExoCache<MarkupKey, PageLinksData> getPageLinksCache() {
+    return pageLinksCache;
   }
 
   /******* Configuration *******/
@@ -472,8 +512,8 @@ public class WikiServiceImpl implements WikiService, Startable {
     Page page = null;
 
     // check in the cache first
-    MarkupKey key = new MarkupKey(new WikiPageParams(wikiType, wikiOwner, pageName), "", Syntax.XHTML_1_0.toIdString(), true);
-    String uuid  = uuidCache.get(new Integer(key.hashCode()));
+    MarkupKey key = createMarkupKey(new WikiPageParams(wikiType, wikiOwner, pageName), "", Syntax.XHTML_1_0.toIdString(), true);
+    String uuid  = uuidCache.get(key);
     if (uuid != null) {
       if (WIKI_TYPE_DRAFT.equals(wikiType)) {
         page = getDraftPageById(uuid);
@@ -487,7 +527,7 @@ public class WikiServiceImpl implements WikiService, Startable {
       page = dataStorage.getPageOfWikiByName(wikiType, wikiOwner, pageName);
       if (page != null) {
         uuid = page.getId();
-        uuidCache.put(new Integer(key.hashCode()), uuid);
+        uuidCache.put(key, uuid);
       }
     }
 
@@ -519,7 +559,7 @@ public class WikiServiceImpl implements WikiService, Startable {
       return null;
     }
 
-    return dataStorage.getDraftPageById(id);
+    return convertDraftContentToMarkup(dataStorage.getDraftPageById(id));
   }
 
   @Override
@@ -537,6 +577,27 @@ public class WikiServiceImpl implements WikiService, Startable {
     return dataStorage.getChildrenPageOf(page);
   }
 
+  @Override
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Identity user, int depth, int offset, int limit) throws WikiException {
+    return dataStorage.getChildrenTreeItemsOfPage(page, null, user, depth, offset, limit);
+  }
+
+  @Override
+  public List<PageTreeItem> getChildrenTreeItemsOfPage(Page page, Page selectedPage, Identity user, int depth, int offset, int limit) throws WikiException {
+    return dataStorage.getChildrenTreeItemsOfPage(page, selectedPage, user, depth, offset, limit);
+  }
+
+  @Override
+  public List<Page> getPagesByTitlePrefix(String wikiType, String wikiOwner, String titlePrefix, Identity user, int offset, int limit)
+          throws WikiException {
+    return dataStorage.getPagesByTitlePrefix(wikiType, wikiOwner, titlePrefix, user, offset, limit);
+  }
+
+  @Override
+  public List<Page> getRecentlyUpdatedPages(String wikiType, String wikiOwner, Identity user, int offset, int limit) throws WikiException {
+    return dataStorage.getRecentlyUpdatedPages(wikiType, wikiOwner, user, offset, limit);
+  }
+
   @Override
   public boolean deletePage(String wikiType, String wikiOwner, String pageName) throws WikiException {
     if (WikiConstants.WIKI_HOME_NAME.equals(pageName) || pageName == null) {
@@ -634,18 +695,29 @@ public class WikiServiceImpl implements WikiService, Startable {
   public String getPageRenderedContent(Page page, String targetSyntax) {
     String renderedContent = StringUtils.EMPTY;
     try {
-      boolean supportSectionEdit = hasPermissionOnPage(page, PermissionType.EDITPAGE, ConversationState.getCurrent().getIdentity());
-      MarkupKey key = new MarkupKey(new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName()), page.getSyntax(), targetSyntax, supportSectionEdit);
+      // the cached content only holds section anchors, so it is the same for all users
+      boolean markSections = Syntax.XHTML_1_0.toIdString().equals(targetSyntax)
+          || Syntax.ANNOTATED_XHTML_1_0.toIdString().equals(targetSyntax);
+      MarkupKey key = createMarkupKey(new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName()), page.getSyntax(), targetSyntax, markSections);
       //get content from cache only when page is not uncached mixin
       //if (page.getUncachedMixin() == null) {
-      MarkupData cachedData = renderingCache.get(new Integer(key.hashCode()));
+      MarkupData cachedData = renderingCache.get(key);
       if (cachedData != null) {
-        return cachedData.build();
+        renderedContent = cachedData.build();
+      } else {
+        String markup = page.getContent();
+        renderedContent = renderingService.render(markup, page.getSyntax(), targetSyntax, markSections);
+        renderingCache.put(key, new MarkupData(renderedContent));
+        addRenderKey(key);
       }
       //}
-      String markup = page.getContent();
-      renderedContent = renderingService.render(markup, page.getSyntax(), targetSyntax, supportSectionEdit);
-      renderingCache.put(new Integer(key.hashCode()), new MarkupData(renderedContent));
+      if (markSections && renderingService.hasSectionAnchors(renderedContent)) {
+        ConversationState conversationState = ConversationState.getCurrent();
+        if (conversationState != null
+            && hasPermissionOnPage(page, PermissionType.EDITPAGE, conversationState.getIdentity())) {
+          renderedContent = renderingService.addSectionEditLinks(renderedContent);
+        }
+      }
     } catch (Exception e) {
       LOG.error(String.format("Failed to get rendered content of page [%s:%s:%s] in syntax %s", page.getWikiType(), page.getWikiOwner(), page.getName(), targetSyntax), e);
     }
@@ -654,77 +726,120 @@ public class WikiServiceImpl implements WikiService, Startable {
 
   @Override
   public void addPageLink(WikiPageParams param, WikiPageParams entity) {
-    List<WikiPageParams> linkParams = this.pageLinksMap.get(entity);
-    if (linkParams == null) {
-      linkParams = new ArrayList<>();
-      this.pageLinksMap.put(entity, linkParams);
+    if (param == null || entity == null) {
+      return;
+    }
+    MarkupKey dependentKey = createPageKey(param);
+    MarkupKey pageKey = createPageKey(entity);
+    MarkupKey droppedDependent = null;
+    synchronized (getPageLinksLock(pageKey)) {
+      PageLinksData links = pageLinksCache.get(pageKey);
+      if (links == null) {
+        links = new PageLinksData();
+      } else if (links.hasDependent(dependentKey)) {
+        return;
+      }
+      if (links.getDependents().size() >= MAX_DEPENDENTS_PER_PAGE) {
+        droppedDependent = links.getDependents().iterator().next();
+      }
+      pageLinksCache.put(pageKey, links.withDependent(dependentKey, MAX_DEPENDENTS_PER_PAGE));
+    }
+    if (droppedDependent != null) {
+      // the dependent is no longer tracked, so its renders can not stay in the cache
+      invalidatePageKeys(Collections.singleton(droppedDependent));
+    }
+  }
+
+  /**
+   * Registers a cached render of a page so that it is removed when the page is invalidated
+   */
+  private void addRenderKey(MarkupKey renderKey) {
+    MarkupKey pageKey = createPageKey(renderKey.getPageParams());
+    synchronized (getPageLinksLock(pageKey)) {
+      PageLinksData links = pageLinksCache.get(pageKey);
+      if (links == null) {
+        links = new PageLinksData();
+      } else if (links.hasRenderKey(renderKey)) {
+        return;
+      }
+      pageLinksCache.put(pageKey, links.withRenderKey(renderKey));
     }
-    linkParams.add(param);
   }
 
   protected void invalidateCache(Page page) {
     WikiPageParams params = new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName());
-    List<WikiPageParams> linkedPages = pageLinksMap.get(params);
-    if (linkedPages == null) {
-      linkedPages = new ArrayList<>();
-    } else {
-      linkedPages = new ArrayList<>(linkedPages);
+    invalidatePageKeys(Collections.singleton(createPageKey(params)));
+  }
+
+  /**
+   * Removes the cached renders of the given pages and, transitively, of all the pages embedding them
+   * @param pageKeys keys of the pages to invalidate
+   */
+  private void invalidatePageKeys(Collection<MarkupKey> pageKeys) {
+    Set<MarkupKey> visited = new HashSet<>(pageKeys);
+    Queue<MarkupKey> queue = new LinkedList<>(pageKeys);
+    while (!queue.isEmpty()) {
+      MarkupKey pageKey = queue.poll();
+      PageLinksData links = pageLinksCache.remove(pageKey);
+      removeRenderedContent(pageKey, links);
+      if (links != null) {
+        for (MarkupKey dependent : links.getDependents()) {
+          if (visited.add(dependent)) {
+            queue.add(dependent);
+          }
+        }
+      }
     }
-    linkedPages.add(params);
+  }
 
-    for (WikiPageParams wikiPageParams : linkedPages) {
-      try {
-        MarkupKey key = new MarkupKey(wikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
-        renderingCache.remove(new Integer(key.hashCode()));
-        key.setSupportSectionEdit(true);
-        renderingCache.remove(new Integer(key.hashCode()));
-
-        key = new MarkupKey(wikiPageParams,Syntax.XHTML_1_0.toIdString(), Syntax.XWIKI_2_0.toIdString(), false);
-        renderingCache.remove(new Integer(key.hashCode()));
-        key.setSupportSectionEdit(true);
-        renderingCache.remove(new Integer(key.hashCode()));
-      } catch (Exception e) {
-        LOG.warn(String.format("Failed to invalidate cache of page [%s:%s:%s]", wikiPageParams.getType(), wikiPageParams.getOwner(), wikiPageParams.getPageName()));
+  private void removeRenderedContent(MarkupKey pageKey, PageLinksData links) {
+    WikiPageParams wikiPageParams = pageKey.getPageParams();
+    try {
+      if (links != null) {
+        for (MarkupKey renderKey : links.getRenderKeys()) {
+          renderingCache.remove(renderKey);
+        }
       }
+
+      // renders cached before the page links entry was created
+      MarkupKey key = new MarkupKey(pageKey.getRepoName(), wikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
+      renderingCache.remove(key);
+      renderingCache.remove(key.withSupportSectionEdit(true));
+
+      key = new MarkupKey(pageKey.getRepoName(), wikiPageParams, Syntax.XHTML_1_0.toIdString(), Syntax.XWIKI_2_0.toIdString(), false);
+      renderingCache.remove(key);
+      renderingCache.remove(key.withSupportSectionEdit(true));
+    } catch (Exception e) {
+      LOG.warn(String.format("Failed to invalidate cache of page [%s:%s:%s]", wikiPageParams.getType(), wikiPageParams.getOwner(), wikiPageParams.getPageName()));
     }
   }
 
+  private Object getPageLinksLock(MarkupKey pageKey) {
+    return pageLinksLocks[(pageKey.hashCode() & Integer.MAX_VALUE) % pageLinksLocks.length];
+  }
+
   protected void invalidateUUIDCache(Page page) {
-    MarkupKey key = new MarkupKey(new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName()),
+    MarkupKey key = createMarkupKey(new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName()),
             "", Syntax.XHTML_1_0.toIdString(), true);
-    uuidCache.remove(new Integer(key.hashCode()));
+    uuidCache.remove(key);
   }
 
   protected void invalidateAttachmentCache(Page page) {
     WikiPageParams wikiPageParams = new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName());
-
-    List<WikiPageParams> linkedPages = pageLinksMap.get(wikiPageParams);
-    if (linkedPages == null) {
-      linkedPages = new ArrayList<>();
-    } else {
-      linkedPages = new ArrayList<>(linkedPages);
+    try {
+      attachmentCountCache.remove(createMarkupKey(wikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false));
+    } catch (Exception e) {
+      LOG.warn(String.format("Failed to invalidate attachment cache of page [%s:%s:%s]", wikiPageParams.getType(),
+              wikiPageParams.getOwner(), wikiPageParams.getPageName()));
     }
-    linkedPages.add(wikiPageParams);
 
-    for (WikiPageParams linkedWikiPageParams : linkedPages) {
-      try {
-        MarkupKey key = new MarkupKey(linkedWikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
-        attachmentCountCache.remove(new Integer(key.hashCode()));
-        key.setSupportSectionEdit(true);
-        attachmentCountCache.remove(new Integer(key.hashCode()));
-
-        key = new MarkupKey(linkedWikiPageParams,Syntax.XHTML_1_0.toIdString(), Syntax.XWIKI_2_0.toIdString(), false);
-        attachmentCountCache.remove(new Integer(key.hashCode()));
-        key.setSupportSectionEdit(true);
-        attachmentCountCache.remove(new Integer(key.hashCode()));
-      } catch (Exception e) {
-        LOG.warn(String.format("Failed to invalidate cache of page [%s:%s:%s]", linkedWikiPageParams.getType(),
-                linkedWikiPageParams.getOwner(), linkedWikiPageParams.getPageName()));
-      }
+    // renders of the pages displaying the attachments of this page
+    PageLinksData links = pageLinksCache.get(createPageKey(wikiPageParams));
+    if (links != null) {
+      invalidatePageKeys(links.getDependents());
     }
   }
 
-
   /**
    * Invalidate all caches of a page and all its descendants
    * @param page root page
@@ -757,31 +872,18 @@ public class WikiServiceImpl implements WikiService, Startable {
   @Override
   public PageList<SearchResult> search(WikiSearchData data) throws WikiException {
     try {
-      PageList<SearchResult> result = dataStorage.search(data);
-
-      if ((data.getTitle() != null) && (data.getWikiType() != null) && (data.getWikiOwner() != null) && (result.getPageSize() > 0)) {
-        Page homePage = getWikiByTypeAndOwner(data.getWikiType(), data.getWikiOwner()).getWikiHome();
-        if (data.getTitle().equals("") || homePage != null && homePage.getTitle().contains(data.getTitle())) {
-          Calendar wikiHomeCreateDate = Calendar.getInstance();
-          wikiHomeCreateDate.setTime(homePage.getCreatedDate());
-
-          Calendar wikiHomeUpdateDate = Calendar.getInstance();
-          wikiHomeUpdateDate.setTime(homePage.getUpdatedDate());
-
-          SearchResult wikiHomeResult = new SearchResult(data.getWikiType(), data.getWikiOwner(), homePage.getName(),
-                  null, null, homePage.getTitle(), SearchResultType.PAGE, wikiHomeUpdateDate, wikiHomeCreateDate);
-          List<SearchResult> tempSearchResult = result.getAll();
-          tempSearchResult.add(wikiHomeResult);
-          result = new ObjectPageList<>(tempSearchResult, result.getPageSize());
-        }
-      }
-      return result;
+      return dataStorage.search(data);
     } catch (Exception e) {
       log.error("Cannot search on wiki " + data.getWikiType() + ":" + data.getWikiOwner() + " - Cause : " + e.getMessage(), e);
     }
     return new ObjectPageList<>(new ArrayList<SearchResult>(), 0);
   }
 
+  @Override
+  public long countSearchResults(WikiSearchData data) throws WikiException {
+    return dataStorage.countSearchResults(data);
+  }
+
   @Override
   public Page getHelpSyntaxPage(String syntaxId, boolean fullContent) throws WikiException {
     return dataStorage.getHelpSyntaxPage(syntaxId, fullContent, syntaxHelpParams, configManager);
@@ -888,19 +990,56 @@ public class WikiServiceImpl implements WikiService, Startable {
     return versions;
   }
 
+  @Override
+  public List<PageVersion> getVersionSummariesOfPage(Page page) throws WikiException {
+    List<PageVersion> versions = dataStorage.getVersionSummariesOfPage(page);
+    if(versions == null || versions.isEmpty()) {
+      dataStorage.addPageVersion(page);
+      versions = dataStorage.getVersionSummariesOfPage(page);
+    }
+    return versions;
+  }
+
   @Override
   public PageVersion getVersionOfPageByName(String versionName, Page page) throws WikiException {
-    List<PageVersion> versions = getVersionsOfPage(page);
-    PageVersion pageVersion = null;
-    if(versions != null) {
-      for(PageVersion version : versions) {
-        if(version.getName().equals(versionName)) {
-          pageVersion = version;
-          break;
-        }
-      }
+    return dataStorage.getVersionOfPageByName(versionName, page);
+  }
+
+  @Override
+  public PageVersion getLatestVersionOfPage(Page page) throws WikiException {
+    PageVersion latestVersion = dataStorage.getLatestVersionOfPage(page);
+    if(latestVersion == null) {
+      dataStorage.addPageVersion(page);
+      latestVersion = dataStorage.getLatestVersionOfPage(page);
     }
-    return pageVersion;
+    return latestVersion;
+  }
+
+  @Override
+  public DiffResult getDifferencesBetweenVersionsOfPage(Page page, String fromVersionName, String toVersionName) throws WikiException {
+    // the page id does not change when the page is renamed or moved
+    String pageKey = page.getId() != null ? page.getId() : page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName();
+    String key = pageKey + "/" + fromVersionName + "/" + toVersionName;
+    DiffResult diffResult = versionsDifferenceCache.get(key);
+    if (diffResult != null) {
+      return diffResult;
+    }
+
+    PageVersion fromVersion = dataStorage.getVersionOfPageByName(fromVersionName, page);
+    PageVersion toVersion = dataStorage.getVersionOfPageByName(toVersionName, page);
+    if (fromVersion == null || toVersion == null) {
+      throw new WikiException("Cannot compare versions " + fromVersionName + " and " + toVersionName + " of page "
+              + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName() + " because a version does not exist.");
+    }
+    DiffService diffService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(DiffService.class);
+    try {
+      diffResult = diffService.getDifferencesAsHTML(fromVersion.getContent(), toVersion.getContent(), true);
+    } catch (DifferentiationFailedException e) {
+      throw new WikiException("Cannot compare versions " + fromVersionName + " and " + toVersionName + " of page "
+              + page.getWikiType() + ":" + page.getWikiOwner() + ":" + page.getName() + " - Cause : " + e.getMessage(), e);
+    }
+    versionsDifferenceCache.put(key, diffResult);
+    return diffResult;
   }
 
   @Override
@@ -929,8 +1068,8 @@ public class WikiServiceImpl implements WikiService, Startable {
 
     if(PageUpdateType.EDIT_PAGE_CONTENT.equals(updateType) || PageUpdateType.EDIT_PAGE_CONTENT_AND_TITLE.equals(updateType)) {
       try {
-        Utils.sendMailOnChangeContent(page);
-      } catch (WikiException | DifferentiationFailedException | ComponentLookupException | ConversionException e) {
+        pageChangeNotifier.notifyChange(page);
+      } catch (WikiException e) {
         log.error("Cannot send notification email on page change - Cause : " + e.getMessage(), e);
       }
     }
@@ -1012,6 +1151,20 @@ public class WikiServiceImpl implements WikiService, Startable {
     return dataStorage.getExsitedOrNewDraftPageById(wikiType, wikiOwner, pageId, user.getUserId());
   }
 
+  @Override
+  public Page getExistedPageOrDraftById(String wikiType, String wikiOwner, String pageId) throws WikiException {
+    ConversationState conversationState = ConversationState.getCurrent();
+    Identity user = conversationState != null ? conversationState.getIdentity() : null;
+    Page existedPage = getPageByRootPermission(wikiType, wikiOwner, pageId);
+    if (existedPage != null) {
+      if (user == null || hasPermissionOnPage(existedPage, PermissionType.EDITPAGE, user) || hasPermissionOnPage(existedPage, PermissionType.VIEW_ATTACHMENT, user)) {
+        return existedPage;
+      }
+    }
+
+    return dataStorage.getExistedDraftPageById(wikiType, wikiOwner, pageId, user != null ? user.getUserId() : null);
+  }
+
   @Override
   public DraftPage createDraftForNewPage(DraftPage draftPage, Page parentPage,  long clientTime) throws WikiException {
     // Create suffix for draft name
@@ -1024,6 +1177,7 @@ public class WikiServiceImpl implements WikiService, Startable {
     newDraftPage.setTargetPageId(parentPage.getId());
     newDraftPage.setTargetPageRevision("1");
     newDraftPage.setContent(draftPage.getContent());
+    newDraftPage.setSyntax(draftPage.getSyntax());
     newDraftPage.setCreatedDate(new Date(clientTime));
     newDraftPage.setUpdatedDate(new Date(clientTime));
 
@@ -1049,12 +1203,13 @@ public class WikiServiceImpl implements WikiService, Startable {
     newDraftPage.setTitle(draftPage.getTitle());
     newDraftPage.setTargetPageId(targetPage.getId());
     newDraftPage.setContent(draftPage.getContent());
+    newDraftPage.setSyntax(draftPage.getSyntax());
     newDraftPage.setCreatedDate(new Date(clientTime));
     newDraftPage.setUpdatedDate(new Date(clientTime));
     if (StringUtils.isEmpty(revision)) {
-      List<PageVersion> versions = getVersionsOfPage(targetPage);
-      if(versions != null && !versions.isEmpty()) {
-        newDraftPage.setTargetPageRevision(versions.get(0).getName());
+      PageVersion latestVersion = getLatestVersionOfPage(targetPage);
+      if(latestVersion != null) {
+        newDraftPage.setTargetPageRevision(latestVersion.getName());
       } else {
         newDraftPage.setTargetPageRevision("1");
       }
@@ -1073,15 +1228,24 @@ public class WikiServiceImpl implements WikiService, Startable {
     return newDraftPage;
   }
 
+  @Override
+  public boolean updateDraft(DraftPage draftPage) throws WikiException {
+    String currentUser = Utils.getCurrentUser();
+    if (currentUser == null || IdentityConstants.ANONIM.equals(currentUser)) {
+      return false;
+    }
+
+    return dataStorage.updateDraftPageForUser(draftPage, currentUser);
+  }
+
   @Override
   public DraftPage getDraftOfPage(Page page) throws WikiException {
-    List<DraftPage> draftPages = getDraftsOfUser(Utils.getCurrentUser());
-    for(DraftPage draftPage : draftPages) {
-      if(draftPage.getTargetPageId() != null && draftPage.getTargetPageId().equals(page.getId())) {
-        return draftPage;
-      }
+    String currentUser = Utils.getCurrentUser();
+    if (IdentityConstants.ANONIM.equals(currentUser)) {
+      return null;
     }
-    return null;
+
+    return convertDraftContentToMarkup(dataStorage.getDraftOfPage(page, currentUser));
   }
 
   @Override
@@ -1091,7 +1255,7 @@ public class WikiServiceImpl implements WikiService, Startable {
       return null;
     }
 
-    return dataStorage.getLastestDraft(currentUser);
+    return convertDraftContentToMarkup(dataStorage.getLastestDraft(currentUser));
   }
 
   @Override
@@ -1105,7 +1269,7 @@ public class WikiServiceImpl implements WikiService, Startable {
       return null;
     }
 
-    return dataStorage.getDraft(draftName, currentUser);
+    return convertDraftContentToMarkup(dataStorage.getDraft(draftName, currentUser));
   }
 
   @Override
@@ -1124,6 +1288,18 @@ public class WikiServiceImpl implements WikiService, Startable {
     List<DraftPage> draftPages = new ArrayList<>();
     if (!IdentityConstants.ANONIM.equals(username)) {
       draftPages = dataStorage.getDraftPagesOfUser(username);
+      for (DraftPage draftPage : draftPages) {
+        convertDraftContentToMarkup(draftPage);
+      }
+    }
+    return draftPages;
+  }
+
+  @Override
+  public List<DraftPage> getDraftSummariesOfUser(String username) throws WikiException {
+    List<DraftPage> draftPages = new ArrayList<>();
+    if (!IdentityConstants.ANONIM.equals(username)) {
+      draftPages = dataStorage.getDraftSummariesOfUser(username);
     }
     return draftPages;
   }
@@ -1145,9 +1321,9 @@ public class WikiServiceImpl implements WikiService, Startable {
     }
 
     String lastestRevision = null;
-    List<PageVersion> versions = getVersionsOfPage(targetPage);
-    if(versions != null && !versions.isEmpty()) {
-      lastestRevision = versions.get(0).getName();
+    PageVersion latestVersion = getLatestVersionOfPage(targetPage);
+    if(latestVersion != null) {
+      lastestRevision = latestVersion.getName();
     }
     if (lastestRevision == null) {
       return true;
@@ -1168,9 +1344,9 @@ public class WikiServiceImpl implements WikiService, Startable {
       Wiki wiki = getWikiByTypeAndOwner(draftPage.getWikiType(), draftPage.getWikiOwner());
       Page targetPage = getPageById(draftPage.getTargetPageId());
       if (targetPage != null) {
-        List<PageVersion> versions = getVersionsOfPage(targetPage);
-        if(versions != null && !versions.isEmpty()) {
-          PageVersion lastestRevision = versions.get(0);
+        PageVersion latestVersion = getLatestVersionOfPage(targetPage);
+        if(latestVersion != null) {
+          PageVersion lastestRevision = getVersionOfPageByName(latestVersion.getName(), targetPage);
           targetContent = lastestRevision.getContent();
         }
       }
@@ -1188,6 +1364,25 @@ public class WikiServiceImpl implements WikiService, Startable {
   }
 
 
+  /**
+   * Converts the content of a draft autosaved from the WYSIWYG editor to the default wiki syntax.
+   * The conversion is done when the draft is read rather than on each autosave.
+   * @param draftPage The draft page
+   * @return The draft page, with its content in the default wiki syntax
+   * @throws WikiException
+   */
+  private DraftPage convertDraftContentToMarkup(DraftPage draftPage) throws WikiException {
+    if (draftPage != null && Syntax.XHTML_1_0.toIdString().equals(draftPage.getSyntax())) {
+      try {
+        draftPage.setContent(renderingService.render(draftPage.getContent(), Syntax.XHTML_1_0.toIdString(), getDefaultWikiSyntaxId(), false));
+      } catch (Exception e) {
+        throw new WikiException("Cannot convert content of draft " + draftPage.getName() + " - Cause : " + e.getMessage(), e);
+      }
+      draftPage.setSyntax(getDefaultWikiSyntaxId());
+    }
+    return draftPage;
+  }
+
   /******* Attachment *******/
 
   @Override
@@ -1195,19 +1390,23 @@ public class WikiServiceImpl implements WikiService, Startable {
     return dataStorage.getAttachmentsOfPage(page);
   }
 
+  @Override
+  public List<Attachment> getAttachmentsOfPage(Page page, boolean loadContent) throws WikiException {
+    return dataStorage.getAttachmentsOfPage(page, loadContent);
+  }
+
   @Override
   public int getNbOfAttachmentsOfPage(Page page) throws WikiException {
     int nbOfAttachments = 0;
 
     WikiPageParams wikiPageParams = new WikiPageParams(page.getWikiType(), page.getWikiOwner(), page.getName());
-    MarkupKey key = new MarkupKey(wikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
-    Integer cacheKey = new Integer(key.hashCode());
+    MarkupKey cacheKey = createMarkupKey(wikiPageParams, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
     AttachmentCountData cachedNbOfAttachments = attachmentCountCache.get(cacheKey);
     if(cachedNbOfAttachments != null) {
       nbOfAttachments = cachedNbOfAttachments.build();
     } else {
       try {
-        List<Attachment> attachments = getAttachmentsOfPage(page);
+        List<Attachment> attachments = getAttachmentsOfPage(page, false);
         nbOfAttachments = attachments == null ? 0 : attachments.size();
         attachmentCountCache.put(cacheKey, new AttachmentCountData(nbOfAttachments));
       } catch (WikiException e) {
@@ -1220,15 +1419,17 @@ public class WikiServiceImpl implements WikiService, Startable {
 
   @Override
   public Attachment getAttachmentOfPageByName(String attachmentName, Page page) throws WikiException {
-    Attachment attachment = null;
-    List<Attachment> attachments = dataStorage.getAttachmentsOfPage(page);
-    for(Attachment att : attachments) {
-      if(att.getName().equals(attachmentName)) {
-        attachment = att;
-        break;
-      }
-    }
-    return attachment;
+    return dataStorage.getAttachmentOfPageByName(attachmentName, page, true);
+  }
+
+  @Override
+  public Attachment getAttachmentOfPageByName(String attachmentName, Page page, boolean loadContent) throws WikiException {
+    return dataStorage.getAttachmentOfPageByName(attachmentName, page, loadContent);
+  }
+
+  @Override
+  public void writeAttachmentContent(String attachmentName, Page page, long offset, long length, OutputStream output) throws WikiException, IOException {
+    dataStorage.writeAttachmentContent(attachmentName, page, offset, length, output);
   }
 
   @Override
@@ -1525,6 +1726,28 @@ public class WikiServiceImpl implements WikiService, Startable {
 
   /******* Private methods *******/
 
+  /**
+   * Builds a cache key for a page in the current repository
+   */
+  private MarkupKey createMarkupKey(WikiPageParams params, String sourceSyntax, String targetSyntax, boolean supportSectionEdit) {
+    return new MarkupKey(getCurrentRepositoryName(), params, sourceSyntax, targetSyntax, supportSectionEdit);
+  }
+
+  /**
+   * Builds the key identifying a page in the page links cache
+   */
+  private MarkupKey createPageKey(WikiPageParams params) {
+    return createMarkupKey(new WikiPageParams(params.getType(), params.getOwner(), params.getPageName()), "", "", false);
+  }
+
+  private String getCurrentRepositoryName() {
+    try {
+      return repositoryService.getCurrentRepository().getConfiguration().getName();
+    } catch (Exception e) {
+      return "";
+    }
+  }
+
   private void checkToRemoveDomainInUrl(Page page) {
     if (page == null) {
       return;
@@ -1599,4 +1822,36 @@ public class WikiServiceImpl implements WikiService, Startable {
     }
   }
 
+  /**
+   * When the links of a page are evicted from the cache, its dependents can not be
+   * invalidated anymore on change, so their cached renders are dropped right away.
+   */
+  private class PageLinksExpirationListener implements CacheListener<MarkupKey, PageLinksData> {
+
+    @Override
+    public void onExpire(CacheListenerContext context, MarkupKey pageKey, PageLinksData links) throws Exception {
+      removeRenderedContent(pageKey, links);
+      if (links != null && !links.getDependents().isEmpty()) {
+        invalidatePageKeys(links.getDependents());
+      }
+    }
+
+    @Override
+    public void onRemove(CacheListenerContext context, MarkupKey pageKey, PageLinksData links) throws Exception {
+    }
+
+    @Override
+    public void onPut(CacheListenerContext context, MarkupKey pageKey, PageLinksData links) throws Exception {
+    }
+
+    @Override
+    public void onGet(CacheListenerContext context, MarkupKey pageKey, PageLinksData links) throws Exception {
+    }
+
+    @Override
+    public void onClearCache(CacheListenerContext context) throws Exception {
+      renderingCache.clearCache();
+    }
+  }
+
 }
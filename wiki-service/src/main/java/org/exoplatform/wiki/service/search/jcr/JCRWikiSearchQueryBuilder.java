@@ -109,7 +109,8 @@ public class JCRWikiSearchQueryBuilder {
 
   public String getStatementForSearchingTitle() {
     StringBuilder statement = new StringBuilder();
-    statement.append("SELECT title, jcr:primaryType, path, excerpt(.) FROM nt:base WHERE ");
+    // the columns of the pages are selected so that the results are built without reading the page nodes
+    statement.append("SELECT title, jcr:primaryType, path, excerpt(.), createdDate, updatedDate, url FROM nt:base WHERE ");
     statement.append(createJcrQueryPathClause());
     statement.append(searchTitleCondition());
     statement.append(createOrderClause());
@@ -16,20 +16,19 @@
  */
 package org.exoplatform.wiki.service.wysiwyg;
 
-import org.apache.commons.lang.StringUtils;
-import org.exoplatform.commons.utils.PageList;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.IdentityConstants;
 import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.mow.api.WikiType;
 import org.exoplatform.wiki.resolver.TitleResolver;
 import org.exoplatform.wiki.service.*;
-import org.exoplatform.wiki.service.search.SearchResult;
-import org.exoplatform.wiki.service.search.WikiSearchData;
 import org.exoplatform.wiki.utils.Utils;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.context.Execution;
@@ -40,7 +39,9 @@ import org.xwiki.model.reference.DocumentReference;
 import javax.inject.Inject;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 @Component
 public class DefaultWikiService implements WikiService {
@@ -120,20 +121,12 @@ public class DefaultWikiService implements WikiService {
     org.exoplatform.wiki.service.WikiService wservice = (org.exoplatform.wiki.service.WikiService) PortalContainer.getComponent(org.exoplatform.wiki.service.WikiService.class);
     try {
       WikiContext wikiContext = getWikiContext();
-      WikiSearchData data = new WikiSearchData("", null, wikiContext.getType(), wikiContext.getOwner());
-      PageList<SearchResult> results = wservice.search(data);
-      List<String> pagesNames = new ArrayList<String>();
-      if(results != null) {
-        List<DocumentReference> documentReferences = prepareDocumentReferenceList(results);
-        List<WikiPage> wikiPages = getWikiPages(documentReferences);
-        for (WikiPage page : wikiPages) {
-          String pageName = page.getTitle();
-          if (!pagesNames.contains(pageName)) {
-            pagesNames.add(pageName);
-          }
-        }
+      List<Page> pages = wservice.getPagesByTitlePrefix(wikiContext.getType(), wikiContext.getOwner(), "", getCurrentIdentity(), 0, -1);
+      Set<String> pagesNames = new LinkedHashSet<String>();
+      for (Page page : pages) {
+        pagesNames.add(page.getTitle());
       }
-      return pagesNames;
+      return new ArrayList<String>(pagesNames);
     } catch (Exception e) {
       log.error("Exception happened when list pages name", e);
       throw new RuntimeException("Failed to list Wiki pages name.", e);
@@ -150,20 +143,9 @@ public class DefaultWikiService implements WikiService {
     org.exoplatform.wiki.service.WikiService wservice =
         (org.exoplatform.wiki.service.WikiService) PortalContainer.getComponent(org.exoplatform.wiki.service.WikiService.class);
 
-    // Create search condition by current user and recently
-    WikiSearchData data = new WikiSearchData(StringUtils.EMPTY, "*", wikiContext.getType(), wikiContext.getOwner());
-    // TODO add a property in the search data to get only recent pages
-    //data.addPropertyConstraint(String.format(" AND (  ( exo:lastModifier='%s' ) )",
-    //                           ConversationState.getCurrent().getIdentity().getUserId()));
-    data.setSort("exo:lastModifiedDate");
-    data.setOrder("DESC");
-    data.setLimit(count);
-
-    // Call wiki service to execute search
     try {
-      PageList<SearchResult> results = wservice.search(data);
-      List<DocumentReference> documentReferences = prepareDocumentReferenceList(results);
-      return getWikiPages(documentReferences);
+      List<Page> pages = wservice.getRecentlyUpdatedPages(wikiContext.getType(), wikiContext.getOwner(), getCurrentIdentity(), start, count);
+      return getWikiPages(wikiContext, pages);
     } catch (Exception e) {
       log.error("Exception happened when searching pages", e);
       throw new RuntimeException("Failed to search Wiki pages.", e);
@@ -176,17 +158,12 @@ public class DefaultWikiService implements WikiService {
    * @see WikiService#getMatchingPages(String, String, int, int)
    */
   public List<WikiPage> getMatchingPages(String wikiName, String keyword, int start, int count) {
-    String quote = "'";
-    String doubleQuote = "''";
-    String escapedKeyword = keyword.replaceAll(quote, doubleQuote).toLowerCase();
     org.exoplatform.wiki.service.WikiService wservice = (org.exoplatform.wiki.service.WikiService) PortalContainer.getComponent(org.exoplatform.wiki.service.WikiService.class);
 
     try {
       WikiContext wikiContext = getWikiContext();
-      WikiSearchData data = new WikiSearchData(escapedKeyword, escapedKeyword, wikiContext.getType(), wikiContext.getOwner());
-      PageList<SearchResult> results = wservice.search(data);
-      List<DocumentReference> documentReferences = prepareDocumentReferenceList(results);
-      return getWikiPages(documentReferences);
+      List<Page> pages = wservice.getPagesByTitlePrefix(wikiContext.getType(), wikiContext.getOwner(), keyword.trim(), getCurrentIdentity(), start, count);
+      return getWikiPages(wikiContext, pages);
     } catch (Exception e) {
       log.error("Exception happened when searching pages", e);
       throw new RuntimeException("Failed to search Wiki pages.", e);
@@ -195,31 +172,33 @@ public class DefaultWikiService implements WikiService {
 
   /**
    * Helper function to create a list of {@link WikiPage}s from a list of
-   * document references.
+   * pages of the current wiki.
    *
-   * @param documentReferences a list of document references
-   * @return the list of {@link WikiPage}s corresponding to the given document
-   *         references
-   * @throws Exception if anything goes wrong while creating the list of
-   *           {@link WikiPage}s
+   * @param wikiContext the context of the current wiki
+   * @param pages a list of pages, with their name and title
+   * @return the list of {@link WikiPage}s corresponding to the given pages
    */
-  private List<WikiPage> getWikiPages(List<DocumentReference> documentReferences) throws Exception {
-    org.exoplatform.wiki.service.WikiService wservice = (org.exoplatform.wiki.service.WikiService) PortalContainer.getComponent(org.exoplatform.wiki.service.WikiService.class);
+  private List<WikiPage> getWikiPages(WikiContext wikiContext, List<Page> pages) {
     List<WikiPage> wikiPages = new ArrayList<>();
-    for (DocumentReference documentReference : documentReferences) {
+    for (Page page : pages) {
+      DocumentReference documentReference = new DocumentReference(wikiContext.getType(), wikiContext.getOwner(), page.getName());
       WikiPage wikiPage = new WikiPage();
       wikiPage.setReference(entityReferenceConverter.convert(documentReference).getEntityReference());
-      String pageId = documentReference.getName();
-      String wikiOwner = documentReference.getParent().getName();
-      String wikiType = documentReference.getParent().getParent().getName();
-      Page page = wservice.getPageByRootPermission(wikiType, wikiOwner, pageId);
       wikiPage.setTitle(page.getTitle());
-      wikiPage.setUrl(pageId);
+      wikiPage.setUrl(page.getName());
       wikiPages.add(wikiPage);
     }
     return wikiPages;
   }
 
+  private Identity getCurrentIdentity() {
+    ConversationState conversationState = ConversationState.getCurrent();
+    if (conversationState != null) {
+      return conversationState.getIdentity();
+    }
+    return new Identity(IdentityConstants.ANONIM);
+  }
+
   /**
    * {@inheritDoc}
    *
@@ -251,7 +230,7 @@ public class DefaultWikiService implements WikiService {
         return null;
       }
 
-      org.exoplatform.wiki.mow.api.Attachment attachment = wservice.getAttachmentOfPageByName(cleanedFileName, page);
+      org.exoplatform.wiki.mow.api.Attachment attachment = wservice.getAttachmentOfPageByName(cleanedFileName, page, false);
       if (attachment == null) {
         log.warn(String.format("Failed to get attachment: %s not found.", cleanedFileName));
         return null;
@@ -300,7 +279,7 @@ public class DefaultWikiService implements WikiService {
       List<Attachment> attachments = new ArrayList<Attachment>();
       org.exoplatform.wiki.service.WikiService wservice = (org.exoplatform.wiki.service.WikiService) PortalContainer.getComponent(org.exoplatform.wiki.service.WikiService.class);
       Page page = wservice.getExsitedOrNewDraftPageById(wikiName, spaceName, TitleResolver.getId(pageName, false));
-      List<org.exoplatform.wiki.mow.api.Attachment> attachs = wservice.getAttachmentsOfPage(page);
+      List<org.exoplatform.wiki.mow.api.Attachment> attachs = wservice.getAttachmentsOfPage(page, false);
       for (org.exoplatform.wiki.mow.api.Attachment attach : attachs) {
         AttachmentReference attachmentReference = new AttachmentReference(attach.getName(), documentReference);
         EntityReference entityReference = attachmentReference.getEntityReference();
@@ -341,26 +320,4 @@ public class DefaultWikiService implements WikiService {
   public ResourceReference parseLinkReference(String linkReference, org.xwiki.gwt.wysiwyg.client.wiki.EntityReference baseReference) {
     return linkService.parseLinkReference(linkReference, baseReference);
   }
-
-  /**
-   * Helper function to prepare a list of {@link WikiPage} (with full name,
-   * title, etc) from a list of search results.
-   *
-   * @param results the list of the search results
-   * @return the list of {@link WikiPage}s corresponding to the passed names
-   * @throws Exception if anything goes wrong retrieving the documents
-   */
-  private List<DocumentReference> prepareDocumentReferenceList(PageList<SearchResult> results) throws Exception {
-    List<DocumentReference> documentReferences = new ArrayList<DocumentReference>();
-    for (SearchResult result : results.getAll()) {
-      String nodeName = result.getPageName();
-      if (nodeName != null && nodeName.length() > 0 && nodeName.startsWith("/")) {
-        nodeName = nodeName.substring(1);
-      }
-      WikiContext wikiContext = getWikiContext();
-      log.info("Prepair DocumentReference : " + wikiContext.getType() + "@" + wikiContext.getOwner() + "@" + nodeName);
-      documentReferences.add(new DocumentReference(wikiContext.getType(), wikiContext.getOwner(), nodeName));
-    }
-    return documentReferences;
-  }
 }
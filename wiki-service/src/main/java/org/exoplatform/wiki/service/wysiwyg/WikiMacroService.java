@@ -19,15 +19,19 @@ package org.exoplatform.wiki.service.wysiwyg;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Inject;
 
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
 import org.exoplatform.wiki.rendering.filter.MacroFilter;
+import org.xwiki.component.descriptor.ComponentDescriptor;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDescriptor;
@@ -41,10 +45,26 @@ import org.xwiki.rendering.macro.MacroManager;
 import org.xwiki.rendering.syntax.Syntax;
 import org.xwiki.rendering.syntax.SyntaxFactory;
 
+/**
+ * Provides the descriptors of the macros to the WYSIWYG editor.
+ *
+ * The translated descriptors of the macros supported by a syntax are built
+ * once and kept in a catalog, along with the role hints of the macro
+ * components they were built from. The catalog of a syntax is rebuilt when a
+ * macro component or the macro filter of the syntax has been registered or
+ * removed since, which is checked against the component descriptors without
+ * looking up any component. The descriptors of the catalog are copied before
+ * they are handed out, since the callers are free to modify them.
+ */
 public class WikiMacroService implements MacroService {
 
   private static Log                log = ExoLogger.getLogger("wiki:WikiMacroService");
 
+  /**
+   * The catalogs of the macro descriptors, by syntax identifier.
+   */
+  private final Map<String, MacroCatalog> catalogs = new ConcurrentHashMap<String, MacroCatalog>();
+
   /**
    * The syntax factory used to create {@link Syntax} instances from string
    * syntax identifiers.
@@ -83,6 +103,11 @@ public class WikiMacroService implements MacroService {
    * @see MacroService#getMacroDescriptor(String, String)
    */
   public MacroDescriptor getMacroDescriptor(String macroId, String syntaxId) {
+    MacroDescriptor descriptor = getMacroCatalog(syntaxId).getDescriptor(macroId);
+    if (descriptor != null) {
+      return copyMacroDescriptor(descriptor);
+    }
+    // the macros not listed by the editor are still described when they are found in the content
     return macroDescriptorTranslator.translate(getUntranslatedMacroDescriptor(macroId, syntaxId));
   }
 
@@ -184,24 +209,124 @@ public class WikiMacroService implements MacroService {
    * @see MacroService#getMacroDescriptors(String)
    */
   public List<MacroDescriptor> getMacroDescriptors(String syntaxId) {
+    // GWT only serializes the standard list implementations
+    List<MacroDescriptor> descriptors = new ArrayList<MacroDescriptor>();
+    for (MacroDescriptor descriptor : getMacroCatalog(syntaxId).getDescriptors()) {
+      descriptors.add(copyMacroDescriptor(descriptor));
+    }
+    return descriptors;
+  }
+
+  /**
+   * @param descriptor a macro descriptor of a catalog
+   * @return a copy of the macro descriptor which can be modified without
+   *         altering the catalog
+   */
+  private MacroDescriptor copyMacroDescriptor(MacroDescriptor descriptor) {
+    MacroDescriptor result = new MacroDescriptor();
+    result.setId(descriptor.getId());
+    result.setName(descriptor.getName());
+    result.setDescription(descriptor.getDescription());
+    result.setCategory(descriptor.getCategory());
+    result.setSupportingInlineMode(descriptor.isSupportingInlineMode());
+    if (descriptor.getContentDescriptor() != null) {
+      result.setContentDescriptor(copyParameterDescriptor(descriptor.getContentDescriptor()));
+    }
+    Map<String, ParameterDescriptor> parameterDescriptorMap = new LinkedHashMap<String, ParameterDescriptor>();
+    if (descriptor.getParameterDescriptorMap() != null) {
+      for (Map.Entry<String, ParameterDescriptor> entry : descriptor.getParameterDescriptorMap().entrySet()) {
+        parameterDescriptorMap.put(entry.getKey(), copyParameterDescriptor(entry.getValue()));
+      }
+    }
+    result.setParameterDescriptorMap(parameterDescriptorMap);
+    return result;
+  }
+
+  /**
+   * @param descriptor a macro parameter descriptor of a catalog
+   * @return a copy of the macro parameter descriptor
+   */
+  private ParameterDescriptor copyParameterDescriptor(ParameterDescriptor descriptor) {
+    ParameterDescriptor result = new ParameterDescriptor();
+    result.setId(descriptor.getId());
+    result.setName(descriptor.getName());
+    result.setDescription(descriptor.getDescription());
+    result.setDefaultValue(descriptor.getDefaultValue());
+    result.setMandatory(descriptor.isMandatory());
+    ParameterType type = descriptor.getType();
+    if (type != null) {
+      ParameterType resultType = new ParameterType();
+      resultType.setName(type.getName());
+      if (type.getEnumConstants() != null) {
+        resultType.setEnumConstants(new LinkedHashMap<String, String>(type.getEnumConstants()));
+      }
+      result.setType(resultType);
+    }
+    return result;
+  }
+
+  /**
+   * @param syntaxId the syntax identifier
+   * @return the catalog of the macro descriptors of the syntax, rebuilt if the
+   *         macro components have changed since it was built
+   */
+  private MacroCatalog getMacroCatalog(String syntaxId) {
+    String signature = getMacroComponentsSignature(syntaxId);
+    MacroCatalog catalog = catalogs.get(syntaxId);
+    if (catalog == null || !catalog.getSignature().equals(signature)) {
+      synchronized (catalogs) {
+        catalog = catalogs.get(syntaxId);
+        if (catalog == null || !catalog.getSignature().equals(signature)) {
+          catalog = new MacroCatalog(signature, buildMacroDescriptors(syntaxId));
+          catalogs.put(syntaxId, catalog);
+          if (log.isDebugEnabled()) {
+            log.debug(String.format("Catalog of %d macro descriptors built for syntax %s",
+                                    catalog.getDescriptors().size(),
+                                    syntaxId));
+          }
+        }
+      }
+    }
+    return catalog;
+  }
+
+  /**
+   * @param syntaxId the syntax identifier
+   * @return the sorted role hints of the macro components, and whether the
+   *         syntax has a macro filter
+   */
+  private String getMacroComponentsSignature(String syntaxId) {
+    TreeSet<String> roleHints = new TreeSet<String>();
+    for (ComponentDescriptor<?> descriptor : componentManager.getComponentDescriptorList(Macro.class)) {
+      roleHints.add(descriptor.getRoleHint());
+    }
+    StringBuilder signature = new StringBuilder();
+    signature.append(componentManager.hasComponent(MacroFilter.class, syntaxId));
+    for (String roleHint : roleHints) {
+      signature.append('|').append(roleHint);
+    }
+    return signature.toString();
+  }
+
+  private List<MacroDescriptor> buildMacroDescriptors(String syntaxId) {
     try {
       Syntax syntax = syntaxFactory.createSyntaxFromIdString(syntaxId);
+      MacroFilter macroFilter = null;
+      try {
+        macroFilter = componentManager.getInstance(MacroFilter.class, syntaxId);
+      } catch (ComponentLookupException e) {
+        if (log.isDebugEnabled()) {
+          log.debug(String.format("Syntax %s doesn't have any macro filter", syntaxId));
+        }
+      }
+
       List<MacroDescriptor> descriptors = new ArrayList<MacroDescriptor>();
       for (String category : categoryManager.getMacroCategories(syntax)) {
         for (MacroId macroId : categoryManager.getMacroIds(category, syntax)) {
           if (!"table".equals(macroId.getId()) && !"thead".equals(macroId.getId())
               && !"th".equals(macroId.getId()) && !"table-row".equals(macroId.getId())
               && !"table-cell".equals(macroId.getId()) && !"column".equals(macroId.getId())) {
-            boolean isSupported = true;
-            try {
-              MacroFilter macroFilter = componentManager.getInstance(MacroFilter.class, syntaxId);
-              isSupported = macroFilter.isSupport(macroId.getId());
-            } catch (ComponentLookupException e) {
-              if (log.isDebugEnabled()) {
-                log.debug(String.format("Syntax %s doesn't have any macro filter", syntaxId));
-              }
-            }
-            if (isSupported) {
+            if (macroFilter == null || macroFilter.isSupport(macroId.getId())) {
               MacroDescriptor descriptor = getUntranslatedMacroDescriptor(macroId.getId(), syntaxId);
               descriptor.setCategory(category);
               descriptors.add(macroDescriptorTranslator.translate(descriptor));
@@ -225,4 +350,36 @@ public class WikiMacroService implements MacroService {
     }
   }
 
+  /**
+   * The translated descriptors of the macros of a syntax, sorted by name
+   */
+  private static class MacroCatalog {
+
+    private final String                       signature;
+
+    private final List<MacroDescriptor>        descriptors;
+
+    private final Map<String, MacroDescriptor> descriptorsById = new HashMap<String, MacroDescriptor>();
+
+    private MacroCatalog(String signature, List<MacroDescriptor> descriptors) {
+      this.signature = signature;
+      this.descriptors = Collections.unmodifiableList(descriptors);
+      for (MacroDescriptor descriptor : descriptors) {
+        descriptorsById.put(descriptor.getId(), descriptor);
+      }
+    }
+
+    private String getSignature() {
+      return signature;
+    }
+
+    private List<MacroDescriptor> getDescriptors() {
+      return descriptors;
+    }
+
+    private MacroDescriptor getDescriptor(String macroId) {
+      return descriptorsById.get(macroId);
+    }
+  }
+
 }
@@ -19,23 +19,24 @@ package org.exoplatform.wiki.tree;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
-import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.api.PageTreeItem;
 import org.exoplatform.wiki.mow.api.PermissionType;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
 import org.exoplatform.wiki.tree.utils.TreeUtils;
-import org.exoplatform.wiki.utils.Utils;
 
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 
 public class PageTreeNode extends TreeNode {
   private static final Log log = ExoLogger.getLogger(PageTreeNode.class);
 
   private Page page;
 
+  /** The data of the page loaded with its parent, null if the node has been created from a page */
+  private PageTreeItem pageItem;
+
   private WikiService wikiService;
 
   public PageTreeNode(Page page) throws Exception {
@@ -45,7 +46,18 @@ public class PageTreeNode extends TreeNode {
 
     this.page = page;
     this.path = buildPath();
-    this.hasChild = !wikiService.getChildrenPageOf(page).isEmpty();
+    this.hasChild = !wikiService.getChildrenTreeItemsOfPage(page, getCurrentIdentity(), 1, 0, 1).isEmpty();
+  }
+
+  public PageTreeNode(PageTreeItem pageItem) {
+    super(pageItem.getTitle(), TreeNodeType.PAGE);
+
+    this.wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
+
+    this.pageItem = pageItem;
+    this.page = pageItem.toPage();
+    this.path = buildPath();
+    this.hasChild = pageItem.isHasChildren();
   }
 
   public Page getPage() {
@@ -56,23 +68,28 @@ public class PageTreeNode extends TreeNode {
     this.page = page;
   }
 
-  @Override
-  protected void addChildren(HashMap<String, Object> context) throws Exception {
-    Collection<Page> pages = wikiService.getChildrenPageOf(page);
-    Iterator<Page> childPageIterator = pages.iterator();
-    int count = 0;
-    int size = getNumberOfChildren(context, pages.size());
-    
-    Page currentPage = (Page) context.get(TreeNode.SELECTED_PAGE);
-    while (childPageIterator.hasNext() && count < size) {
-      Page childPage = childPageIterator.next();
-      if (wikiService.hasPermissionOnPage(childPage, PermissionType.VIEWPAGE, ConversationState.getCurrent().getIdentity())
-              ||  (currentPage != null && Utils.isDescendantPage(currentPage, childPage))) {
-        PageTreeNode child = new PageTreeNode(childPage);
-        this.children.add(child);
+  /**
+   * Checks a permission of the current user on the page. The permissions
+   * loaded with the page are used when available.
+   * 
+   * @param permissionType the permission type
+   * @return true if the current user has the permission on the page
+   * @throws WikiException
+   */
+  public boolean hasPermission(PermissionType permissionType) throws WikiException {
+    if (pageItem != null) {
+      if (PermissionType.VIEWPAGE.equals(permissionType)) {
+        return pageItem.isCanView();
+      } else if (PermissionType.EDITPAGE.equals(permissionType)) {
+        return pageItem.isCanEdit();
       }
-      count++;
     }
+    return wikiService.hasPermissionOnPage(page, permissionType, getCurrentIdentity());
+  }
+
+  @Override
+  protected void addChildren(HashMap<String, Object> context) throws Exception {
+    addChildrenPages(page, (pageItem != null) ? pageItem.getChildren() : null, context);
     super.addChildren(context);
   }
 
@@ -22,10 +22,16 @@ import java.util.List;
 import java.util.Stack;
 
 import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.ExoContainerContext;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.IdentityConstants;
 import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.api.PageTreeItem;
 import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.mow.core.api.wiki.PageImpl;
 import org.exoplatform.wiki.service.WikiPageParams;
+import org.exoplatform.wiki.service.WikiService;
 import org.exoplatform.wiki.utils.Utils;
 
 
@@ -63,6 +69,12 @@ public class TreeNode {
   public static final String CHILDREN_NUMBER = "childrenNumber";
 
   public static final String DEPTH           = "depth";
+
+  /** Index of the first child to display, only applies to the first level */
+  public static final String OFFSET          = "offset";
+
+  /** Maximum number of children to display, only applies to the first level */
+  public static final String LIMIT           = "limit";
   
   public enum TREETYPE {
     ALL, CHILDREN
@@ -198,6 +210,79 @@ public class TreeNode {
     return childrenNUm;
   }
   
+  /**
+   * Adds the children pages of a page as children nodes. The children are
+   * loaded in a single call with their permissions, as well as their
+   * descendants when several levels are displayed.
+   *
+   * @param page the page
+   * @param loadedChildren the children of the page if they have already been
+   *          loaded with its parent, null otherwise
+   * @param context the page tree context
+   * @throws Exception
+   */
+  protected void addChildrenPages(Page page, List<PageTreeItem> loadedChildren, HashMap<String, Object> context) throws Exception {
+    List<PageTreeItem> childrenItems = loadedChildren;
+    if (childrenItems == null) {
+      int offset = getIntValue(context, OFFSET, 0);
+      int limit = getIntValue(context, LIMIT, -1);
+      int childrenNumber = getIntValue(context, CHILDREN_NUMBER, -1);
+      if (childrenNumber >= 0 && (limit < 0 || childrenNumber < limit)) {
+        limit = childrenNumber;
+      }
+      // Only apply for the first level
+      context.remove(OFFSET);
+      context.remove(LIMIT);
+      context.remove(CHILDREN_NUMBER);
+
+      WikiService wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
+      Page selectedPage = (Page) context.get(SELECTED_PAGE);
+      childrenItems = wikiService.getChildrenTreeItemsOfPage(page, selectedPage, getCurrentIdentity(), getDepthToLoad(context),
+                                                             offset, limit);
+    }
+    for (PageTreeItem childItem : childrenItems) {
+      this.children.add(new PageTreeNode(childItem));
+    }
+  }
+
+  /**
+   * @return the number of levels of descendants which will be displayed, the
+   *         descendants of the pages in the path of the selected page are
+   *         loaded level by level
+   */
+  private int getDepthToLoad(HashMap<String, Object> context) {
+    Boolean showDesCdt = (Boolean) context.get(SHOW_DESCENDANT);
+    int depth = getIntValue(context, DEPTH, -1);
+    if (Boolean.FALSE.equals(showDesCdt) || context.get(STACK_PARAMS) != null || depth < 1) {
+      return 1;
+    }
+    return depth;
+  }
+
+  /**
+   * @return the number held by a key of the context, or the default value if
+   *         there is no number, such as a malformed parameter of a request
+   */
+  private int getIntValue(HashMap<String, Object> context, String key, int defaultValue) {
+    Object value = context.get(key);
+    if (value == null || StringUtils.EMPTY.equals(value.toString())) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.toString().trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  protected Identity getCurrentIdentity() {
+    ConversationState conversationState = ConversationState.getCurrent();
+    if (conversationState != null) {
+      return conversationState.getIdentity();
+    }
+    return new Identity(IdentityConstants.ANONIM);
+  }
+
   private void pushChildren(HashMap<String, Object> context) throws Exception {
     Stack<WikiPageParams> paramsStk = (Stack<WikiPageParams>) context.get(STACK_PARAMS);
     if (paramsStk == null) {
@@ -230,10 +315,9 @@ public class TreeNode {
   private void pushChild(TreeNode child, HashMap<String, Object> context) throws Exception {
     Boolean showDesCdt = (Boolean) context.get(SHOW_DESCENDANT);
 
-    String depthCdt = (String) context.get(DEPTH);
     boolean showDes = (showDesCdt == null) ? true : showDesCdt;
 
-    int depth = (depthCdt == null || StringUtils.EMPTY.equals(depthCdt)) ? -1 : Integer.valueOf(depthCdt);
+    int depth = getIntValue(context, DEPTH, -1);
     --depth;
     TreeNode temp = new TreeNode();
     if (showDes) {
@@ -243,7 +327,7 @@ public class TreeNode {
           temp = children.get(i);
           if (child == null) {
             temp.pushDescendants(context);
-          } else if (child.equals(temp)) {
+          } else if (child.equals(temp) || isSamePage(child, temp)) {
             temp.pushDescendants(context);
             return;
           }
@@ -252,6 +336,15 @@ public class TreeNode {
     }
   }
 
+  /**
+   * Page nodes are matched by path, as a node loaded with its parent may
+   * differ from the node created from the same page
+   */
+  private boolean isSamePage(TreeNode node1, TreeNode node2) {
+    return node1 instanceof PageTreeNode && node2 instanceof PageTreeNode && node1.getPath() != null
+        && node1.getPath().equals(node2.getPath());
+  }
+
   private void pushChild(HashMap<String, Object> context) throws Exception {
     pushChild(null, context);
   }
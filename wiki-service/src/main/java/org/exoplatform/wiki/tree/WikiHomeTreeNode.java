@@ -19,19 +19,14 @@ package org.exoplatform.wiki.tree;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
-import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
-import org.exoplatform.wiki.mow.api.PermissionType;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
 import org.exoplatform.wiki.tree.utils.TreeUtils;
-import org.exoplatform.wiki.utils.Utils;
 import org.exoplatform.wiki.utils.WikiConstants;
 
-import java.util.Collection;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 
 public class WikiHomeTreeNode extends TreeNode {
@@ -48,25 +43,12 @@ public class WikiHomeTreeNode extends TreeNode {
 
     this.wikiHome = wikiHome;
     this.path = this.buildPath();
-    this.hasChild = !wikiService.getChildrenPageOf(wikiHome).isEmpty();
+    this.hasChild = !wikiService.getChildrenTreeItemsOfPage(wikiHome, getCurrentIdentity(), 1, 0, 1).isEmpty();
   }
 
   @Override
   protected void addChildren(HashMap<String, Object> context) throws Exception {
-    Collection<Page> pages = wikiService.getChildrenPageOf(wikiHome);
-    Iterator<Page> childPageIterator = pages.iterator();
-    int count = 0;
-    int size = getNumberOfChildren(context, pages.size());
-    Page currentPage = (Page) context.get(TreeNode.SELECTED_PAGE);
-    while (childPageIterator.hasNext() && count < size) {
-      Page childPage = childPageIterator.next();
-      if (wikiService.hasPermissionOnPage(childPage, PermissionType.VIEWPAGE, ConversationState.getCurrent().getIdentity())
-              ||  (currentPage != null && Utils.isDescendantPage(currentPage, childPage))) {
-        PageTreeNode child = new PageTreeNode(childPage);
-        this.children.add(child);
-      }
-      count++;
-    }
+    addChildrenPages(wikiHome, null, context);
     super.addChildren(context);
   }
 
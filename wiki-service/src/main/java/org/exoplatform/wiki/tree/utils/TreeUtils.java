@@ -35,8 +35,11 @@ import org.exoplatform.wiki.utils.WikiConstants;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class TreeUtils {
+
+  private static final String PAGES_IN_CURRENT_PAGE = "pagesInCurrentPage";
   
   /**
    * Create a tree node with a given {@link WikiPageParams}
@@ -95,6 +98,8 @@ public class TreeUtils {
       showExcerpt = (Boolean) context.get(TreeNode.SHOW_EXCERPT);
       canEdit     = (Boolean)context.get(TreeNode.CAN_EDIT);
     }
+    // A page is in the current page if it is the current page or if its parent is in the current page
+    boolean isInCurrentPage = (currentPage != null) && isInCurrentPage(treeNode, currentPage, context);
     
     List<JsonNodeData> children = new ArrayList<JsonNodeData>();
     for (TreeNode child : treeNode.getChildren()) {
@@ -107,16 +112,20 @@ public class TreeUtils {
       if (child.getNodeType().equals(TreeNodeType.WIKI)) {
         isSelectable = false;
       } else if (child.getNodeType().equals(TreeNodeType.PAGE)) {
-        Page page = ((PageTreeNode) child).getPage();
-        if (((currentPage != null) && (currentPage.equals(page) || Utils.isDescendantPage(page, currentPage)))) {
-          isSelectable = false;
+        PageTreeNode pageNode = (PageTreeNode) child;
+        if (currentPage != null) {
+          boolean isChildInCurrentPage = isInCurrentPage || isSamePage(pageNode.getPage(), currentPage);
+          getPagesInCurrentPage(context).put(child.getPath(), isChildInCurrentPage);
+          if (isChildInCurrentPage) {
+            isSelectable = false;
+          }
         }
         
-        if (!wikiService.hasPermissionOnPage(page, PermissionType.VIEWPAGE, ConversationState.getCurrent().getIdentity())) {
+        if (!pageNode.hasPermission(PermissionType.VIEWPAGE)) {
           isSelectable = false;
           child.setRetricted(true);
         }
-        if(BooleanUtils.isTrue(canEdit) && !wikiService.hasPermissionOnPage(page, PermissionType.EDITPAGE, ConversationState.getCurrent().getIdentity())){
+        if(BooleanUtils.isTrue(canEdit) && !pageNode.hasPermission(PermissionType.EDITPAGE)){
           isSelectable = false;
           child.setRetricted(true);
         }
@@ -146,6 +155,41 @@ public class TreeUtils {
     return children;
   }
   
+  /**
+   * Checks if the page of a tree node is the current page or one of its
+   * descendants. The result is kept in the context so that the ancestors of
+   * a page are only walked once for the whole tree.
+   */
+  private static boolean isInCurrentPage(TreeNode treeNode, Page currentPage, HashMap<String, Object> context) throws Exception {
+    Map<String, Boolean> pagesInCurrentPage = getPagesInCurrentPage(context);
+    Boolean isInCurrentPage = pagesInCurrentPage.get(treeNode.getPath());
+    if (isInCurrentPage == null) {
+      Page page = null;
+      if (treeNode instanceof PageTreeNode) {
+        page = ((PageTreeNode) treeNode).getPage();
+      } else if (treeNode instanceof WikiHomeTreeNode) {
+        page = ((WikiHomeTreeNode) treeNode).getWikiHome();
+      }
+      isInCurrentPage = (page != null) && Utils.isDescendantPage(page, currentPage);
+      pagesInCurrentPage.put(treeNode.getPath(), isInCurrentPage);
+    }
+    return isInCurrentPage;
+  }
+
+  private static Map<String, Boolean> getPagesInCurrentPage(HashMap<String, Object> context) {
+    Map<String, Boolean> pagesInCurrentPage = (Map<String, Boolean>) context.get(PAGES_IN_CURRENT_PAGE);
+    if (pagesInCurrentPage == null) {
+      pagesInCurrentPage = new HashMap<String, Boolean>();
+      context.put(PAGES_IN_CURRENT_PAGE, pagesInCurrentPage);
+    }
+    return pagesInCurrentPage;
+  }
+
+  private static boolean isSamePage(Page page, Page otherPage) {
+    return page.getName().equals(otherPage.getName()) && page.getWikiType().equals(otherPage.getWikiType())
+        && page.getWikiOwner().equals(otherPage.getWikiOwner());
+  }
+
   public static WikiPageParams getPageParamsFromPath(String path) throws Exception {
     if (path == null) {
       return null;
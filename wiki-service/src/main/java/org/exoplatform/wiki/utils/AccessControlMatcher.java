@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.exoplatform.services.jcr.access.AccessControlEntry;
+import org.exoplatform.services.jcr.access.AccessControlList;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.IdentityConstants;
+import org.exoplatform.services.security.MembershipEntry;
+
+/**
+ * Access control list compiled for fast permission checks.
+ *
+ * The entries of the list are indexed by action, then by user and by group,
+ * so that a check does not scan nor parse the entries again. The decisions
+ * are the same as {@link JCRUtils#hasPermission(AccessControlList, String[], Identity)}.
+ */
+public class AccessControlMatcher implements Serializable {
+
+  private static final long                 serialVersionUID = 1L;
+
+  private final String                      owner;
+
+  private final boolean                     hasEntries;
+
+  private final Map<String, ActionMatcher>  actions          = new HashMap<String, ActionMatcher>();
+
+  public AccessControlMatcher(AccessControlList acl) {
+    this.owner = acl.getOwner();
+    this.hasEntries = acl.getPermissionsSize() > 0;
+    for (AccessControlEntry ace : acl.getPermissionEntries()) {
+      ActionMatcher action = actions.get(ace.getPermission());
+      if (action == null) {
+        action = new ActionMatcher();
+        actions.put(ace.getPermission(), action);
+      }
+      action.add(ace);
+    }
+  }
+
+  /**
+   * @param permission the JCR actions, all of them are required
+   * @param user the user identity
+   * @return true if the user is allowed to perform all the actions
+   */
+  public boolean hasPermission(String[] permission, Identity user) {
+    String userId = user.getUserId();
+    if (userId.equals(IdentityConstants.SYSTEM)) {
+      // SYSTEM has permission everywhere
+      return true;
+    } else if (userId.equals(owner)) {
+      // Current user is owner of node so has all privileges
+      return true;
+    } else if (userId.equals(IdentityConstants.ANONIM)) {
+      for (String action : permission) {
+        ActionMatcher actionMatcher = actions.get(action);
+        if (actionMatcher == null || !actionMatcher.any) {
+          return false;
+        }
+      }
+      return true;
+    } else {
+      if (!hasEntries || permission.length == 0) {
+        return false;
+      }
+      for (String action : permission) {
+        ActionMatcher actionMatcher = actions.get(action);
+        if (actionMatcher == null || !actionMatcher.matches(user)) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /**
+   * The identities allowed to perform an action
+   */
+  private static class ActionMatcher implements Serializable {
+
+    private static final long                        serialVersionUID = 1L;
+
+    private boolean                                  any;
+
+    private final Set<String>                        users            = new HashSet<String>();
+
+    private final Map<String, List<MembershipEntry>> memberships      = new HashMap<String, List<MembershipEntry>>();
+
+    private void add(AccessControlEntry ace) {
+      String identity = ace.getIdentity();
+      if (IdentityConstants.ANY.equals(identity)) {
+        any = true;
+      } else if (identity.indexOf(":") == -1) {
+        users.add(identity);
+      } else {
+        MembershipEntry membership = ace.getMembershipEntry();
+        List<MembershipEntry> groupMemberships = memberships.get(membership.getGroup());
+        if (groupMemberships == null) {
+          groupMemberships = new ArrayList<MembershipEntry>();
+          memberships.put(membership.getGroup(), groupMemberships);
+        }
+        groupMemberships.add(membership);
+      }
+    }
+
+    private boolean matches(Identity user) {
+      if (any || users.contains(user.getUserId())) {
+        return true;
+      }
+      if (!memberships.isEmpty()) {
+        for (String group : user.getGroups()) {
+          List<MembershipEntry> groupMemberships = memberships.get(group);
+          if (groupMemberships != null) {
+            for (MembershipEntry membership : groupMemberships) {
+              if (user.isMemberOf(membership)) {
+                return true;
+              }
+            }
+          }
+        }
+      }
+      return false;
+    }
+  }
+}
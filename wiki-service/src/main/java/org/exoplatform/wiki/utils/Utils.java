@@ -1,9 +1,6 @@
 package org.exoplatform.wiki.utils;
 
 import org.apache.commons.lang.StringUtils;
-import org.exoplatform.commons.utils.CommonsUtils;
-import org.exoplatform.commons.utils.PageList;
-import org.exoplatform.container.ExoContainer;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.container.PortalContainer;
 import org.exoplatform.portal.application.PortalRequestContext;
@@ -13,10 +10,7 @@ import org.exoplatform.portal.mop.SiteType;
 import org.exoplatform.portal.webui.util.Util;
 import org.exoplatform.services.log.ExoLogger;
 import org.exoplatform.services.log.Log;
-import org.exoplatform.services.mail.MailService;
-import org.exoplatform.services.mail.Message;
 import org.exoplatform.services.organization.OrganizationService;
-import org.exoplatform.services.organization.User;
 import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.web.application.RequestContext;
 import org.exoplatform.web.url.navigation.NavigationResource;
@@ -24,23 +18,14 @@ import org.exoplatform.web.url.navigation.NodeURL;
 import org.exoplatform.webui.application.WebuiRequestContext;
 import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.*;
-import org.exoplatform.wiki.rendering.RenderingService;
 import org.exoplatform.wiki.service.IDType;
 import org.exoplatform.wiki.service.WikiContext;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
-import org.exoplatform.wiki.service.diff.DiffResult;
-import org.exoplatform.wiki.service.diff.DiffService;
+import org.exoplatform.wiki.service.impl.PageChangeNotifier;
 import org.exoplatform.wiki.service.impl.WikiPageHistory;
-import org.exoplatform.wiki.service.search.SearchResult;
 import org.exoplatform.wiki.service.search.WikiSearchData;
-import org.suigeneris.jrcs.diff.DifferentiationFailedException;
-import org.xwiki.component.manager.ComponentLookupException;
-import org.xwiki.rendering.converter.ConversionException;
-import org.xwiki.rendering.syntax.Syntax;
 
-import javax.mail.internet.AddressException;
-import javax.mail.internet.InternetAddress;
 import javax.servlet.http.HttpServletRequest;
 import java.util.*;
 
@@ -59,8 +44,6 @@ public class Utils {
   
   public static final String VER_NAME = "verName";
 
-  final private static String MIMETYPE_TEXTHTML = "text/html";
-
   private static Map<String, Map<String, WikiPageHistory>> editPageLogs = new HashMap<String, Map<String, WikiPageHistory>>();
   
   public static final String WIKI_RESOUCE_BUNDLE_NAME = "locale.wiki.service.WikiService";
@@ -421,101 +404,17 @@ public class Utils {
     }
   }
   
-  public static void sendMailOnChangeContent(Page page)
-          throws WikiException, DifferentiationFailedException, ComponentLookupException, ConversionException {
-    ExoContainer container = ExoContainerContext.getCurrentContainer();
-    WikiService wikiService = container.getComponentInstanceOfType(WikiService.class);
-    DiffService diffService = container.getComponentInstanceOfType(DiffService.class);
-    RenderingService renderingService = container.getComponentInstanceOfType(RenderingService.class);
-    Message message = new Message();
-    ConversationState conversationState = ConversationState.getCurrent();
-    // Get author
-    String author = conversationState.getIdentity().getUserId();
-
-    // Get watchers' mails
-    List<String> list = wikiService.getWatchersOfPage(page);
-    List<String> emailList = new ArrayList<>();
-    for (int i = 0; i < list.size(); i++) {
-      try {
-        if (isEnabledUser(list.get(i))) {
-          emailList.add(getEmailUser(list.get(i)));
-        }
-      } catch (WikiException e) {
-        log_.error("Cannot get email address of user " + list.get(i) + " - Cause : " + e.getMessage(), e);
-      }
-    }   
-    
-    // Get differences
-    String pageTitle = page.getTitle();
-    String currentVersionContent = page.getContent() != null ? new String(page.getContent()) : StringUtils.EMPTY;
-    List<PageVersion> versions = wikiService.getVersionsOfPage(page);
-    String previousVersionContent = StringUtils.EMPTY;
-    if(versions != null && !versions.isEmpty()) {
-      PageVersion previousVersion = versions.get(0);
-      previousVersionContent = previousVersion.getContent();
-    }
-    DiffResult diffResult = diffService.getDifferencesAsHTML(previousVersionContent,
-                                                             currentVersionContent,
-                                                             false);
-    String fullContent = renderingService.render(currentVersionContent,
-                                                 page.getSyntax(),
-                                                 Syntax.XHTML_1_0.toIdString(),
-                                                 false);
-    
-    if (diffResult.getChanges() == 0) {
-      diffResult.setDiffHTML("No changes, new revision is created.");
-    } 
-    
-    String currentDomain = CommonsUtils.getCurrentDomain();
-    StringBuilder sbt = new StringBuilder();
-    sbt.append("<html>")
-        .append("  <head>")
-        .append("     <link rel=\"stylesheet\" href=\"")
-        .append(renderingService.getCssURL())
-        .append("\" type=\"text/css\">")
-        .append("  </head>")
-        .append("  <body>")
-        .append("    Page <a href=\"")
-        .append(currentDomain)
-        .append(page.getUrl())
-        .append("\">")
-        .append(page.getTitle())
-        .append("</a> is modified by ")
-        .append(page.getAuthor())
-        .append("    <br/><br/>")
-        .append("    Changes(")
-            .append(diffResult.getChanges())
-            .append(")")
-            .append("    <br/><br/>")
-            .append(insertStyle(diffResult.getDiffHTML()))
-            .append("    Full content: ")
-            .append("    <br/><br/>")
-            .append(     fullContent)
-            .append("  </body>")
-            .append("</html>");
-    // Create message
-    message.setFrom(makeNotificationSender(author));
-    message.setSubject("\"" + pageTitle + "\" page was modified");
-    message.setMimeType(MIMETYPE_TEXTHTML);
-    message.setBody(sbt.toString());
-    MailService mailService = container.getComponentInstanceOfType(MailService.class);
-    for (String address : emailList) {
-      message.setTo(address);
-      try {
-        mailService.sendMessage(message);
-      } catch (Exception e) {
-        log_.error(String.format("Failed to send notification email to user: %s", address), e);
-      }
-    }
-  }
-  
-  private static boolean isEnabledUser(String userName) throws WikiException {
-    OrganizationService orgService = org.exoplatform.wiki.rendering.util.Utils.getService(OrganizationService.class);
-    try {
-      return orgService.getUserHandler().findUserByName(userName) != null;
-    } catch (Exception e) {
-      throw new WikiException("Cannot check if user " + userName + " is enabled", e);
-    }
+  /**
+   * Queues the notification of a content change of a page to its watchers
+   * @param page the modified page
+   * @throws WikiException
+   * @deprecated use {@link PageChangeNotifier#notifyChange(Page)}, the notifications are sent asynchronously
+   */
+  @Deprecated
+  public static void sendMailOnChangeContent(Page page) throws WikiException {
+    PageChangeNotifier pageChangeNotifier = ExoContainerContext.getCurrentContainer()
+            .getComponentInstanceOfType(PageChangeNotifier.class);
+    pageChangeNotifier.notifyChange(page);
   }
   
   public static String getEmailUser(String userName) throws WikiException {
@@ -543,43 +442,6 @@ public class Utils {
     return permissionMap;
   }
 
-  private static String makeNotificationSender(String from) {
-    InternetAddress addr = null;
-    if (from == null) return null;
-    try {
-      addr = new InternetAddress(from);
-    } catch (AddressException e) {
-      if (log_.isDebugEnabled()) { log_.debug("value of 'from' field in message made by forum notification feature is not in format of mail address", e); }
-      return null;
-    }
-    Properties props = new Properties(System.getProperties());
-    String mailAddr = props.getProperty("gatein.email.smtp.from");
-    if (mailAddr == null || mailAddr.length() == 0) mailAddr = props.getProperty("mail.from");
-    if (mailAddr != null) {
-      try {
-        InternetAddress serMailAddr = new InternetAddress(mailAddr);
-        addr.setAddress(serMailAddr.getAddress());
-        return addr.toUnicodeString();
-      } catch (AddressException e) {
-        if (log_.isDebugEnabled()) { log_.debug("value of 'gatein.email.smtp.from' or 'mail.from' in configuration file is not in format of mail address", e); }
-        return null;
-      }
-    } else {
-      return null;
-    }
-  }
-  
-
-  private static String insertStyle(String rawHTML) {
-    String result = rawHTML;
-    result = result.replaceAll("class=\"diffaddword\"", "style=\"background: #b5ffbf;\"");
-    result = result.replaceAll("<span class=\"diffremoveword\">",
-                               "<span style=\" background: #ffd8da;text-decoration: line-through;\">");
-    result = result.replaceAll("<pre class=\"diffremoveword\">",
-                               "<pre style=\" background: #ffd8da;\">");
-    return result;
-  }
-  
   /*
    * get URL to public on social activity
    */
@@ -590,12 +452,8 @@ public class Utils {
   }
   
   public static long countSearchResult(WikiSearchData data) throws Exception {
-    data.setOffset(0);
-    data.setLimit(Integer.MAX_VALUE);
     WikiService wikiservice = (WikiService) PortalContainer.getComponent(WikiService.class);
-    PageList<SearchResult> results = wikiservice.search(data);
-    return results.getAll().size();
-
+    return wikiservice.countSearchResults(data);
   }
   
   public static String getAttachmentCssClass(Attachment attachment, String append) throws Exception {
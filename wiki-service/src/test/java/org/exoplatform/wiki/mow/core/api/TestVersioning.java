@@ -16,12 +16,14 @@
  */
 package org.exoplatform.wiki.mow.core.api;
 
+import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.PageVersion;
 import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.mow.api.WikiType;
 import org.exoplatform.wiki.service.PageUpdateType;
 import org.exoplatform.wiki.service.WikiService;
+import org.exoplatform.wiki.service.diff.DiffResult;
 
 import java.util.Iterator;
 import java.util.List;
@@ -96,4 +98,55 @@ public class TestVersioning extends AbstractMOWTestcase {
     pageVersion = itVersions.next();
     assertEquals("testCreateVersionHistoryTree-ver0.0", pageVersion.getContent());
   }
+
+  public void testGetVersionSummaries() throws Exception {
+    Wiki wiki = wikiService.createWiki(WikiType.PORTAL.toString(), "versioning3");
+    Page page = new Page("testGetVersionSummaries-001", "testGetVersionSummaries-001");
+    page.setContent("testGetVersionSummaries-ver1.0");
+    page = wikiService.createPage(wiki, "WikiHome", page);
+
+    page.setContent("testGetVersionSummaries-ver2.0.0");
+    wikiService.updatePage(page, PageUpdateType.EDIT_PAGE_CONTENT);
+    wikiService.createVersionOfPage(page);
+
+    List<PageVersion> versions = wikiService.getVersionSummariesOfPage(page);
+    assertEquals(2, versions.size());
+    assertNull(versions.get(0).getContent());
+    assertEquals("testGetVersionSummaries-ver2.0.0".length(), versions.get(0).getSize());
+    assertEquals("testGetVersionSummaries-ver1.0".length(), versions.get(1).getSize());
+
+    PageVersion latestVersion = wikiService.getLatestVersionOfPage(page);
+    assertEquals(versions.get(0).getName(), latestVersion.getName());
+    assertNull(latestVersion.getContent());
+
+    PageVersion version = wikiService.getVersionOfPageByName(versions.get(1).getName(), page);
+    assertEquals("testGetVersionSummaries-ver1.0", version.getContent());
+    assertNull(wikiService.getVersionOfPageByName("100", page));
+  }
+
+  public void testGetDifferencesBetweenVersions() throws Exception {
+    Wiki wiki = wikiService.createWiki(WikiType.PORTAL.toString(), "versioning4");
+    Page page = new Page("testGetDifferencesBetweenVersions-001", "testGetDifferencesBetweenVersions-001");
+    page.setContent("first line\nsecond line");
+    page = wikiService.createPage(wiki, "WikiHome", page);
+
+    page.setContent("first line\nsecond modified line");
+    wikiService.updatePage(page, PageUpdateType.EDIT_PAGE_CONTENT);
+    wikiService.createVersionOfPage(page);
+
+    List<PageVersion> versions = wikiService.getVersionSummariesOfPage(page);
+    assertEquals(2, versions.size());
+    DiffResult diffResult = wikiService.getDifferencesBetweenVersionsOfPage(page, versions.get(1).getName(), versions.get(0).getName());
+    assertEquals(1, diffResult.getChanges());
+    assertTrue(diffResult.getDiffHTML().contains("<span class=\"diffaddword\">modified</span>"));
+    // the versions are immutable, the differences are computed once
+    assertSame(diffResult, wikiService.getDifferencesBetweenVersionsOfPage(page, versions.get(1).getName(), versions.get(0).getName()));
+
+    try {
+      wikiService.getDifferencesBetweenVersionsOfPage(page, "100", versions.get(0).getName());
+      fail("Comparing a version which does not exist should fail");
+    } catch (WikiException e) {
+      // expected
+    }
+  }
 }
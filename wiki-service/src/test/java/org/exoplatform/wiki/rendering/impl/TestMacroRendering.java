@@ -16,6 +16,9 @@
  */
 package org.exoplatform.wiki.rendering.impl;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.apache.commons.lang.StringUtils;
 import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.portal.config.model.PortalConfig;
@@ -24,10 +27,15 @@ import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.service.PageUpdateType;
 import org.exoplatform.wiki.service.WikiContext;
 import org.exoplatform.wiki.service.WikiService;
+import org.xwiki.component.descriptor.DefaultComponentDescriptor;
 import org.xwiki.component.manager.ComponentLookupException;
+import org.xwiki.component.manager.ComponentManager;
 import org.xwiki.component.manager.ComponentRepositoryException;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroDescriptor;
+import org.xwiki.gwt.wysiwyg.client.plugin.macro.MacroService;
+import org.xwiki.rendering.macro.Macro;
 import org.xwiki.rendering.syntax.Syntax;
 
 public class TestMacroRendering extends AbstractRenderingTestCase {  
@@ -215,6 +223,46 @@ public class TestMacroRendering extends AbstractRenderingTestCase {
     assertEquals(expectedHtml, outputXwiki);
   }
   
+  public void testMacroDescriptorsCatalog() throws Exception {
+    ComponentManager componentManager = renderingService.getComponentManager();
+    MacroService macroService = componentManager.getInstance(MacroService.class);
+    String syntaxId = Syntax.XWIKI_2_0.toIdString();
+    assertTrue(getMacroIds(macroService.getMacroDescriptors(syntaxId)).contains("note"));
+    assertFalse(getMacroIds(macroService.getMacroDescriptors(syntaxId)).contains("catalognote"));
+
+    // the descriptors handed out are copies of the ones of the catalog
+    MacroDescriptor descriptor = macroService.getMacroDescriptor("note", syntaxId);
+    String name = descriptor.getName();
+    descriptor.setName("Modified");
+    descriptor.getParameterDescriptorMap().clear();
+    assertEquals(name, macroService.getMacroDescriptor("note", syntaxId).getName());
+
+    // the catalog is rebuilt when a macro is registered
+    DefaultComponentDescriptor<Macro> macroDescriptor = new DefaultComponentDescriptor<Macro>();
+    macroDescriptor.setRoleType(Macro.class);
+    macroDescriptor.setRoleHint("catalognote");
+    Macro<?> noteMacro = componentManager.getInstance(Macro.class, "note");
+    componentManager.registerComponent(macroDescriptor, noteMacro);
+    try {
+      assertTrue(getMacroIds(macroService.getMacroDescriptors(syntaxId)).contains("catalognote"));
+      assertNotNull(macroService.getMacroDescriptor("catalognote", syntaxId));
+    } finally {
+      componentManager.unregisterComponent(Macro.class, "catalognote");
+    }
+
+    // and when it is removed
+    assertFalse(getMacroIds(macroService.getMacroDescriptors(syntaxId)).contains("catalognote"));
+    assertTrue(getMacroIds(macroService.getMacroDescriptors(syntaxId)).contains("note"));
+  }
+
+  private List<String> getMacroIds(List<MacroDescriptor> descriptors) {
+    List<String> ids = new ArrayList<String>();
+    for (MacroDescriptor descriptor : descriptors) {
+      ids.add(descriptor.getId());
+    }
+    return ids;
+  }
+
   private void setupDefaultWikiContext() throws ComponentLookupException, ComponentRepositoryException {
     Execution ec = renderingService.getExecution();
     ec.setContext(new ExecutionContext());
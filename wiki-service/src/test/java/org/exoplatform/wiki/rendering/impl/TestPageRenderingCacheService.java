@@ -19,6 +19,9 @@ package org.exoplatform.wiki.rendering.impl;
 import org.exoplatform.portal.config.model.PortalConfig;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
+import org.exoplatform.wiki.rendering.cache.CacheStatistics;
+import org.exoplatform.wiki.rendering.cache.MarkupData;
+import org.exoplatform.wiki.rendering.cache.MarkupKey;
 import org.exoplatform.wiki.service.WikiContext;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
@@ -73,6 +76,73 @@ public final class TestPageRenderingCacheService extends AbstractRenderingTestCa
     assertEquals(2, ((WikiServiceImpl)wikiService).getRenderingCache().getCacheHit());
   }
   
+  public void testRenderingCacheStatistics() throws Exception {
+    CacheStatistics<MarkupKey, MarkupData> statistics = ((WikiServiceImpl)wikiService).getRenderingCacheStatistics();
+    long invalidations = statistics.getInvalidations();
+    int hits = statistics.getHits();
+
+    Wiki wiki = wikiService.createWiki(PortalConfig.PORTAL_TYPE, "statistics");
+    Page home = wiki.getWikiHome();
+    home.setContent("Sample content");
+    wikiService.updatePage(home, null);
+    wikiService.getPageRenderedContent(home, Syntax.XHTML_1_0.toIdString());
+    wikiService.getPageRenderedContent(home, Syntax.XHTML_1_0.toIdString());
+    assertEquals(1, statistics.getSize());
+    assertEquals(hits + 1, statistics.getHits());
+    assertTrue(statistics.getHitRatio() > 0);
+
+    home.setContent("Another text");
+    wikiService.updatePage(home, null);
+    assertEquals(0, statistics.getSize());
+    assertEquals(invalidations + 1, statistics.getInvalidations());
+  }
+
+  public void testTransitiveInvalidation() throws Exception {
+    Wiki wiki = wikiService.createWiki(PortalConfig.PORTAL_TYPE, "links");
+    Page home = wiki.getWikiHome();
+    Page middle = wikiService.createPage(wiki, home.getName(), new Page("middle", "middle"));
+    Page leaf = wikiService.createPage(wiki, home.getName(), new Page("leaf", "leaf"));
+    WikiPageParams homeParams = new WikiPageParams(wiki.getType(), wiki.getOwner(), home.getName());
+    WikiPageParams middleParams = new WikiPageParams(wiki.getType(), wiki.getOwner(), middle.getName());
+    WikiPageParams leafParams = new WikiPageParams(wiki.getType(), wiki.getOwner(), leaf.getName());
+
+    ((WikiServiceImpl)wikiService).getRenderingCache().clearCache();
+    wikiService.getPageRenderedContent(home, Syntax.XHTML_1_0.toIdString());
+    wikiService.getPageRenderedContent(middle, Syntax.XHTML_1_0.toIdString());
+    wikiService.getPageRenderedContent(leaf, Syntax.XHTML_1_0.toIdString());
+    assertEquals(3, ((WikiServiceImpl)wikiService).getRenderingCache().getCacheSize());
+
+    // home embeds middle which embeds leaf, twice to check deduplication
+    wikiService.addPageLink(homeParams, middleParams);
+    wikiService.addPageLink(middleParams, leafParams);
+    wikiService.addPageLink(middleParams, leafParams);
+
+    // editing home does not touch its dependencies
+    wikiService.updatePage(home, null);
+    assertEquals(2, ((WikiServiceImpl)wikiService).getRenderingCache().getCacheSize());
+
+    wikiService.getPageRenderedContent(home, Syntax.XHTML_1_0.toIdString());
+    wikiService.addPageLink(homeParams, middleParams);
+    assertEquals(3, ((WikiServiceImpl)wikiService).getRenderingCache().getCacheSize());
+
+    // editing leaf invalidates middle, then home
+    wikiService.updatePage(leaf, null);
+    assertEquals(0, ((WikiServiceImpl)wikiService).getRenderingCache().getCacheSize());
+  }
+
+  public void testMarkupKey() throws Exception {
+    WikiPageParams params = new WikiPageParams(PortalConfig.PORTAL_TYPE, "classic", "page");
+    MarkupKey key = new MarkupKey("repository", params, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
+    params.setPageName("otherPage");
+    assertEquals("page", key.getPageParams().getPageName());
+
+    MarkupKey sectionKey = key.withSupportSectionEdit(true);
+    assertFalse(key.equals(sectionKey));
+    assertEquals(key, sectionKey.withSupportSectionEdit(false));
+    assertEquals(key.hashCode(), sectionKey.withSupportSectionEdit(false).hashCode());
+    assertFalse(key.equals(new MarkupKey("otherRepository", key.getPageParams(), Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false)));
+  }
+
   @Override
   protected void tearDown() throws Exception {
     ((WikiServiceImpl)wikiService).getRenderingCache().clearCache();
@@ -25,8 +25,11 @@ import org.exoplatform.wiki.service.WikiContext;
 import org.exoplatform.wiki.service.WikiService;
 import org.xwiki.context.Execution;
 import org.xwiki.context.ExecutionContext;
+import org.xwiki.rendering.block.XDOM;
 import org.xwiki.rendering.syntax.Syntax;
 
+import java.util.Arrays;
+
 public class TestRenderingService extends AbstractRenderingTestCase {
 
   private WikiService wikiService;
@@ -153,6 +156,28 @@ public class TestRenderingService extends AbstractRenderingTestCase {
      assertEquals(expectedImageSpaceInName, renderingService.render("[[image:space in name.png]]", Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false));
   }
 
+  public void testRenderImageOfNonExistedPage() throws Exception {
+    wikiService.createWiki(PortalConfig.PORTAL_TYPE, "classic");
+
+    Execution ec = renderingService.getExecution();
+    ec.setContext(new ExecutionContext());
+    WikiContext wikiContext = new WikiContext();
+    wikiContext.setPortalURL("http://loclahost:8080/portal/classic/");
+    wikiContext.setPortletURI("wiki");
+    wikiContext.setType("portal");
+    wikiContext.setOwner("classic");
+    wikiContext.setPageName("WikiHome");
+
+    ec.getContext().setProperty(WikiContext.WIKICONTEXT, wikiContext);
+
+    String html = renderingService.render("[[image:NonExistedWikiPage-002@eXoWikiHome.png]] [[image:NonExistedWikiPage-002@eXoWikiHome.png]]",
+                                          Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false);
+    assertFalse(html.contains("/rest/wiki/images"));
+    // rendering does not create any page nor draft
+    assertNull(wikiService.getExistedPageOrDraftById("portal", "classic", "NonExistedWikiPage-002"));
+    assertNull(ec.getContext().getProperty(RenderingServiceImpl.RENDER_SCOPE));
+  }
+
   public void testGetContentOfSection() throws Exception {
     String content = "= Section 1 =\n== Section 1.1 ==\n== Section 1.2 ==\n= Section 2 =\n== Section 2.1 ==\n== Section 2.2 ==";
     assertEquals("= Section 1 =\n\n== Section 1.1 ==\n\n== Section 1.2 ==", renderingService.getContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "1"));
@@ -163,6 +188,21 @@ public class TestRenderingService extends AbstractRenderingTestCase {
     assertEquals("== Section 2.2 ==", renderingService.getContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "6"));
   }
 
+  public void testSectionEditLinks() throws Exception {
+    String content = "= Section 1 =\n== Section 1.1 ==\nSome text";
+    String html = renderingService.render(content, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), true);
+    assertTrue(renderingService.hasSectionAnchors(html));
+    assertFalse(html.contains("section=1"));
+    assertFalse(renderingService.hasSectionAnchors(renderingService.render(content, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), false)));
+
+    String decoratedHtml = renderingService.addSectionEditLinks(html);
+    assertFalse(renderingService.hasSectionAnchors(decoratedHtml));
+    assertTrue(decoratedHtml.contains("section=1"));
+    assertTrue(decoratedHtml.contains("section=2"));
+    assertTrue(decoratedHtml.contains("Section 1.1"));
+    assertTrue(decoratedHtml.contains("Some text"));
+  }
+
   public void testUpdateContentOfSection() throws Exception {
     String content = "= Section 1 =\n== Section 1.1 ==\n== Section 1.2 ==\n= Section 2 =\n== Section 2.1 ==\n== Section 2.2 ==";
     content = renderingService.updateContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "1", "= Section 1 updated =\n\n== Section 1.1 ==\n\n== Section 1.2 ==");
@@ -179,6 +219,21 @@ public class TestRenderingService extends AbstractRenderingTestCase {
     assertEquals("== Section 2.2 updated ==", renderingService.getContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "6"));
   }
   
+  public void testParseCache() throws Exception {
+    String content = "= Section 1 =\n{{excerpt}}first excerpt{{/excerpt}}\n= Section 2 =\n{{excerpt}}second excerpt{{/excerpt}}";
+    XDOM xdom = renderingService.parse(content, Syntax.XWIKI_2_0.toIdString());
+    // the callers get their own copy of the parsed markup
+    assertNotSame(xdom, renderingService.parse(content, Syntax.XWIKI_2_0.toIdString()));
+    xdom.getChildren().clear();
+    assertFalse(renderingService.parse(content, Syntax.XWIKI_2_0.toIdString()).getChildren().isEmpty());
+    String html = renderingService.render(content, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), true);
+    assertEquals(html, renderingService.render(content, Syntax.XWIKI_2_0.toIdString(), Syntax.XHTML_1_0.toIdString(), true));
+
+    assertEquals(Arrays.asList("first excerpt", "second excerpt"), renderingService.getExcerpts(content, Syntax.XWIKI_2_0.toIdString()));
+    assertEquals("= Section 2 =\n\n{{excerpt}}second excerpt{{/excerpt}}", renderingService.getContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "2"));
+    assertNull(renderingService.getContentOfSection(content, Syntax.XWIKI_2_0.toIdString(), "3"));
+  }
+
   public void testEscapeString() throws Exception {
     String expectedHtml = "<p><tt class=\"wikimodel-verbatim\">_</tt>hello</p>";
     String outputConfluence = renderingService.render("\\_hello",
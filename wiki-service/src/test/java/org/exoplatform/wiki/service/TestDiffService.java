@@ -17,11 +17,13 @@
 package org.exoplatform.wiki.service;
 
 import java.util.List;
+import java.util.Random;
 
 import junit.framework.TestCase;
 
 import org.exoplatform.wiki.service.diff.DiffResult;
 import org.exoplatform.wiki.service.diff.DiffService;
+import org.exoplatform.wiki.service.diff.MyersDiff;
 import org.suigeneris.jrcs.diff.delta.Chunk;
 import org.suigeneris.jrcs.diff.delta.Delta;
 
@@ -78,4 +80,56 @@ public class TestDiffService extends TestCase {
                  html);
     assertEquals("Diff is incorrect", 2, result.getChanges());
   }
+
+  public void testModifiedLinesAsHTML() throws Exception {
+    String text1 = "A\nB C D\nE F\nG";
+    String text2 = "A\nB X D\n\nE F G\nG";
+    DiffResult result = this.diffService.getDifferencesAsHTML(text1, text2, false);
+    assertEquals("Diff is incorrect",
+                 "<div class=\"diff\"><div class=\"diffmodifiedline\">B <span class=\"diffremoveword\">C</span><span class=\"diffaddword\">X</span> D</div><div class=\"diffmodifiedline\">E F <span class=\"diffaddword\">G</span></div><div class=\"diffmodifiedline\"><pre class=\"diffaddword\"></pre></div></div>",
+                 result.getDiffHTML());
+    assertEquals("Diff is incorrect", 3, result.getChanges());
+  }
+
+  public void testLargeLineDiffAsHTML() throws Exception {
+    StringBuilder text1 = new StringBuilder();
+    StringBuilder text2 = new StringBuilder();
+    Random random = new Random(0);
+    String lastLine1 = null;
+    String lastLine2 = null;
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder line1 = new StringBuilder();
+      StringBuilder line2 = new StringBuilder();
+      for (int j = 0; j < 50; j++) {
+        line1.append(' ').append(random.nextInt(100));
+        line2.append(' ').append(random.nextInt(100));
+      }
+      lastLine1 = line1.toString();
+      lastLine2 = line2.toString();
+      text1.append(lastLine1).append('\n');
+      text2.append(lastLine2).append('\n');
+    }
+    // the word comparison budget is exceeded, the last lines are compared as a whole
+    DiffResult result = this.diffService.getDifferencesAsHTML(text1.toString(), text2.toString(), false);
+    assertTrue(result.getChanges() >= 2000);
+    assertTrue(result.getDiffHTML().endsWith("<span class=\"diffremoveword\">" + lastLine1 + "</span><span class=\"diffaddword\">"
+        + lastLine2 + "</span></div></div>"));
+  }
+
+  public void testMyersDiff() throws Exception {
+    String[] original = "a b c a b b a".split(" ");
+    String[] revised = "c b a b a c".split(" ");
+    MyersDiff diff = new MyersDiff(original, revised, Long.MAX_VALUE);
+    assertFalse(diff.isBudgetExceeded());
+    int editLength = 0;
+    for (MyersDiff.Edit edit : diff.getEdits()) {
+      editLength += edit.getOriginalEnd() - edit.getOriginalStart() + edit.getRevisedEnd() - edit.getRevisedStart();
+    }
+    // shortest edit script of the Myers' paper example
+    assertEquals(5, editLength);
+
+    diff = new MyersDiff(original, revised, 1);
+    assertTrue(diff.isBudgetExceeded());
+    assertEquals(1, diff.getEdits().size());
+  }
 }
@@ -2,15 +2,29 @@ package org.exoplatform.wiki.service;
 
 import org.apache.commons.compress.utils.IOUtils;
 import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Attachment;
+import org.exoplatform.wiki.mow.api.DraftPage;
 import org.exoplatform.wiki.mow.api.EmotionIcon;
+import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.rendering.RenderingService;
+import org.exoplatform.wiki.service.impl.DraftAutoSaver;
 import org.exoplatform.wiki.service.impl.WikiRestServiceImpl;
 import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -25,7 +39,7 @@ public class TestWikiRestService {
     // Given
     WikiService wikiService = mock(WikiService.class);
     RenderingService renderingService = mock(RenderingService.class);
-    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, renderingService);
+    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, renderingService, mock(DraftAutoSaver.class));
 
     EmotionIcon emotionIcon = new EmotionIcon();
     emotionIcon.setName("test.gif");
@@ -49,7 +63,7 @@ public class TestWikiRestService {
     // Given
     WikiService wikiService = mock(WikiService.class);
     RenderingService renderingService = mock(RenderingService.class);
-    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, renderingService);
+    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, renderingService, mock(DraftAutoSaver.class));
 
     when(wikiService.getEmotionIconByName("test.gif")).thenReturn(null);
 
@@ -61,4 +75,154 @@ public class TestWikiRestService {
     assertEquals(404, emotionIconResponse.getStatus());
   }
 
+  @Test
+  public void shouldStreamAttachment() throws Exception {
+    // Given
+    WikiService wikiService = mockAttachment("content of the attachment".getBytes());
+    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, mock(RenderingService.class), mock(DraftAutoSaver.class));
+
+    // When
+    Response response = wikiRestService.getAttachment(null, mock(Request.class), null, null, "portal", "intranet", "WikiHome", "file.txt", null);
+
+    // Then
+    assertEquals(200, response.getStatus());
+    assertNotNull(response.getMetadata().getFirst("ETag"));
+    assertEquals("bytes", response.getMetadata().getFirst("Accept-Ranges"));
+    assertEquals("content of the attachment", new String(write(response)));
+    verify(wikiService, never()).getAttachmentOfPageByName(eq("file.txt"), any(Page.class), eq(true));
+  }
+
+  @Test
+  public void shouldStreamRangeOfAttachment() throws Exception {
+    // Given
+    WikiService wikiService = mockAttachment("content of the attachment".getBytes());
+    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, mock(RenderingService.class), mock(DraftAutoSaver.class));
+
+    // When
+    Response response = wikiRestService.getAttachment(null, mock(Request.class), "bytes=11-13", null, "portal", "intranet", "WikiHome", "file.txt", null);
+    Response suffixResponse = wikiRestService.getAttachment(null, mock(Request.class), "bytes=-10", null, "portal", "intranet", "WikiHome", "file.txt", null);
+    Response unsatisfiableResponse = wikiRestService.getAttachment(null, mock(Request.class), "bytes=100-", null, "portal", "intranet", "WikiHome", "file.txt", null);
+    Response outdatedResponse = wikiRestService.getAttachment(null, mock(Request.class), "bytes=11-13", "\"outdated\"", "portal", "intranet", "WikiHome", "file.txt", null);
+
+    // Then
+    assertEquals(206, response.getStatus());
+    assertEquals("bytes 11-13/25", response.getMetadata().getFirst("Content-Range"));
+    assertEquals("the", new String(write(response)));
+    assertEquals(206, suffixResponse.getStatus());
+    assertEquals("attachment", new String(write(suffixResponse)));
+    assertEquals(416, unsatisfiableResponse.getStatus());
+    assertEquals("bytes */25", unsatisfiableResponse.getMetadata().getFirst("Content-Range"));
+    assertEquals(200, outdatedResponse.getStatus());
+  }
+
+  @Test
+  public void shouldGetNotModifiedResponseWhenAttachmentIsUnchanged() throws Exception {
+    // Given
+    WikiService wikiService = mockAttachment("content of the attachment".getBytes());
+    WikiRestServiceImpl wikiRestService = new WikiRestServiceImpl(wikiService, mock(RenderingService.class), mock(DraftAutoSaver.class));
+    Request request = mock(Request.class);
+    when(request.evaluatePreconditions(any(Date.class), any(EntityTag.class))).thenReturn(Response.notModified());
+
+    // When
+    Response response = wikiRestService.getAttachment(null, request, null, null, "portal", "intranet", "WikiHome", "file.txt", null);
+
+    // Then
+    assertEquals(304, response.getStatus());
+    assertNull(response.getEntity());
+    verify(wikiService, never()).writeAttachmentContent(anyString(), any(Page.class), anyLong(), anyLong(), any(OutputStream.class));
+  }
+
+  @Test
+  public void shouldOnlyWriteChangedAutoSavedDrafts() throws Exception {
+    // Given
+    WikiService wikiService = mock(WikiService.class);
+    Page page = new Page("WikiHome", "Wiki Home");
+    page.setId("WikiHomeId");
+    DraftPage draftPage = new DraftPage();
+    draftPage.setName("WikiHome_draft");
+    when(wikiService.getPageOfWikiByName("portal", "intranet", "WikiHome")).thenReturn(page);
+    when(wikiService.createDraftForExistPage(any(DraftPage.class), eq(page), anyString(), anyLong())).thenReturn(draftPage);
+    when(wikiService.updateDraft(any(DraftPage.class))).thenReturn(true);
+    DraftAutoSaver draftAutoSaver = new DraftAutoSaver(wikiService);
+
+    // When
+    String createdDraftName = draftAutoSaver.saveDraft("john", "portal", "intranet", "WikiHome", "1", null, false, 0,
+                                                       "Wiki Home", "<p>content</p>", "xhtml/1.0");
+    String unchangedDraftName = draftAutoSaver.saveDraft("john", "portal", "intranet", "WikiHome", "1", createdDraftName, false, 0,
+                                                         "Wiki Home", "<p>content</p>", "xhtml/1.0");
+    String updatedDraftName = draftAutoSaver.saveDraft("john", "portal", "intranet", "WikiHome", "1", createdDraftName, false, 0,
+                                                       "Wiki Home", "<p>updated content</p>", "xhtml/1.0");
+
+    // Then
+    assertEquals("WikiHome_draft", createdDraftName);
+    assertEquals("WikiHome_draft", unchangedDraftName);
+    assertEquals("WikiHome_draft", updatedDraftName);
+    verify(wikiService, times(1)).getPageOfWikiByName("portal", "intranet", "WikiHome");
+    verify(wikiService, times(1)).createDraftForExistPage(any(DraftPage.class), eq(page), anyString(), anyLong());
+    verify(wikiService, times(1)).updateDraft(any(DraftPage.class));
+    verify(wikiService, never()).updatePage(any(Page.class), any(PageUpdateType.class));
+  }
+
+  @Test
+  public void shouldResolveTheTargetPageAgainWhenItIsDeleted() throws Exception {
+    // Given
+    WikiService wikiService = mock(WikiService.class);
+    Page deletedPage = new Page("Page1", "Page 1");
+    deletedPage.setId("DeletedPageId");
+    Page recreatedPage = new Page("Page1", "Page 1");
+    recreatedPage.setId("RecreatedPageId");
+    DraftPage deletedPageDraft = new DraftPage();
+    deletedPageDraft.setName("Page1_draft");
+    DraftPage recreatedPageDraft = new DraftPage();
+    recreatedPageDraft.setName("Page1_draft_2");
+    when(wikiService.getPageOfWikiByName("portal", "intranet", "Page1")).thenReturn(deletedPage, recreatedPage);
+    when(wikiService.createDraftForExistPage(any(DraftPage.class), eq(deletedPage), anyString(), anyLong())).thenReturn(deletedPageDraft);
+    when(wikiService.createDraftForExistPage(any(DraftPage.class), eq(recreatedPage), anyString(), anyLong())).thenReturn(recreatedPageDraft);
+    // the draft of the deleted page does not target the recreated page
+    when(wikiService.updateDraft(any(DraftPage.class))).thenReturn(false);
+    DraftAutoSaver draftAutoSaver = new DraftAutoSaver(wikiService);
+
+    // When
+    String firstDraftName = draftAutoSaver.saveDraft("john", "portal", "intranet", "Page1", "1", null, false, 0,
+                                                     "Page 1", "<p>content</p>", "xhtml/1.0");
+    draftAutoSaver.discardTargetPage("portal", "intranet", "Page1", "DeletedPageId");
+    String secondDraftName = draftAutoSaver.saveDraft("john", "portal", "intranet", "Page1", "1", firstDraftName, false, 0,
+                                                      "Page 1", "<p>updated content</p>", "xhtml/1.0");
+
+    // Then
+    assertEquals("Page1_draft", firstDraftName);
+    assertEquals("Page1_draft_2", secondDraftName);
+    verify(wikiService, times(2)).getPageOfWikiByName("portal", "intranet", "Page1");
+    verify(wikiService, times(1)).createDraftForExistPage(any(DraftPage.class), eq(recreatedPage), anyString(), anyLong());
+  }
+
+  private WikiService mockAttachment(final byte[] content) throws Exception {
+    WikiService wikiService = mock(WikiService.class);
+    Page page = new Page("WikiHome", "Wiki Home");
+    Attachment attachment = new Attachment();
+    attachment.setName("file.txt");
+    attachment.setMimeType("text/plain");
+    attachment.setWeightInBytes(content.length);
+    attachment.setUpdatedDate(Calendar.getInstance());
+    when(wikiService.getPageOfWikiByName("portal", "intranet", "WikiHome")).thenReturn(page);
+    when(wikiService.getAttachmentOfPageByName("file.txt", page, false)).thenReturn(attachment);
+    doAnswer(new Answer<Void>() {
+      @Override
+      public Void answer(InvocationOnMock invocation) throws Throwable {
+        Object[] args = invocation.getArguments();
+        int offset = ((Long) args[2]).intValue();
+        int length = ((Long) args[3]).intValue();
+        ((OutputStream) args[4]).write(Arrays.copyOfRange(content, offset, offset + length));
+        return null;
+      }
+    }).when(wikiService).writeAttachmentContent(eq("file.txt"), eq(page), anyLong(), anyLong(), any(OutputStream.class));
+    return wikiService;
+  }
+
+  private byte[] write(Response response) throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ((StreamingOutput) response.getEntity()).write(output);
+    return output.toByteArray();
+  }
+
 }
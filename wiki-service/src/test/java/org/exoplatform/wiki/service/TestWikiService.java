@@ -21,14 +21,24 @@ import org.apache.commons.io.IOUtils;
 import org.exoplatform.commons.utils.PageList;
 import org.exoplatform.container.component.RequestLifeCycle;
 import org.exoplatform.portal.config.model.PortalConfig;
+import org.exoplatform.services.security.Identity;
 import org.exoplatform.services.security.IdentityConstants;
 import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.mow.api.*;
 import org.exoplatform.wiki.mow.core.api.AbstractMOWTestcase;
+import org.exoplatform.wiki.mow.core.api.MOWService;
+import org.exoplatform.wiki.mow.core.api.PageNameIndex;
+import org.exoplatform.wiki.mow.core.api.wiki.PageImpl;
+import org.exoplatform.wiki.mow.core.api.wiki.UserWiki;
+import org.exoplatform.wiki.rendering.RenderingService;
+import org.exoplatform.wiki.service.impl.LegacyPageMigrator;
+import org.exoplatform.wiki.service.impl.PageChangeNotifier;
+import org.exoplatform.wiki.service.impl.PagePermissionPropagator;
 import org.exoplatform.wiki.service.search.SearchResult;
 import org.exoplatform.wiki.service.search.TemplateSearchData;
 import org.exoplatform.wiki.service.search.TemplateSearchResult;
 import org.exoplatform.wiki.service.search.WikiSearchData;
+import org.exoplatform.wiki.utils.WikiConstants;
 import org.xwiki.rendering.syntax.Syntax;
 
 import java.io.IOException;
@@ -406,6 +416,12 @@ public class TestWikiService extends AbstractMOWTestcase {
 
     result = wService.search(data);
     assertEquals(1, result.getAll().size());
+    SearchResult searchResult = result.getAll().get(0);
+    assertEquals(PortalConfig.PORTAL_TYPE, searchResult.getWikiType());
+    assertEquals("classic", searchResult.getWikiOwner());
+    assertEquals("test search service", searchResult.getTitle());
+    assertNotNull(searchResult.getCreatedDate());
+    assertNotNull(searchResult.getUpdatedDate());
 
     data = new WikiSearchData("exoplatform", "exoplatform", PortalConfig.GROUP_TYPE, null);
     result = wService.search(data);
@@ -424,6 +440,55 @@ public class TestWikiService extends AbstractMOWTestcase {
     assertEquals(1, result.getAll().size());
   }
 
+  public void testSearchWindow() throws Exception {
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "classic");
+    for (int i = 1; i <= 3; i++) {
+      Page page = new Page("paged search " + i, "paged search " + i);
+      page.setContent("pagedsearchcontent");
+      wService.createPage(wiki, "WikiHome", page);
+    }
+
+    WikiSearchData data = new WikiSearchData(null, "pagedsearchcontent", PortalConfig.PORTAL_TYPE, "classic");
+    assertEquals(3, wService.countSearchResults(data));
+
+    // first window
+    data.setOffset(0);
+    data.setLimit(2);
+    List<SearchResult> firstWindow = wService.search(data).getAll();
+    assertEquals(2, firstWindow.size());
+
+    // last window, only the remaining result
+    data.setOffset(2);
+    List<SearchResult> lastWindow = wService.search(data).getAll();
+    assertEquals(1, lastWindow.size());
+
+    Set<String> titles = new HashSet<>();
+    for (SearchResult result : firstWindow) {
+      titles.add(result.getTitle());
+    }
+    titles.add(lastWindow.get(0).getTitle());
+    assertEquals(3, titles.size());
+
+    // no result after the last window
+    data.setOffset(3);
+    assertEquals(0, wService.search(data).getAll().size());
+
+    // the wiki home follows the results found by title, only once
+    wService.createPage(wiki, "WikiHome", new Page("Home of paged search", "Home of paged search"));
+    data = new WikiSearchData("Home", null, PortalConfig.PORTAL_TYPE, "classic");
+    assertEquals(2, wService.countSearchResults(data));
+    data.setLimit(1);
+    List<SearchResult> pageWindow = wService.search(data).getAll();
+    assertEquals(1, pageWindow.size());
+    assertEquals("Home of paged search", pageWindow.get(0).getTitle());
+    data.setOffset(1);
+    List<SearchResult> wikiHomeWindow = wService.search(data).getAll();
+    assertEquals(1, wikiHomeWindow.size());
+    assertEquals(WikiConstants.WIKI_HOME_TITLE, wikiHomeWindow.get(0).getTitle());
+    data.setOffset(2);
+    assertEquals(0, wService.search(data).getAll().size());
+  }
+
   public void testSearchTitle() throws Exception {
     wService.createWiki(PortalConfig.PORTAL_TYPE, "classic");
     wService.createWiki(PortalConfig.GROUP_TYPE, "/platform/users");
@@ -482,6 +547,19 @@ public class TestWikiService extends AbstractMOWTestcase {
     assertEquals("foo", new String(attachments.get(0).getContent()));
     assertNotNull(attachments.get(0).getDownloadURL());
     assertEquals("/portal/rest/jcr/repository/collaboration/exo:applications/eXoWiki/wikis/classic/WikiHome/AddAttachment/attachment1.txt", attachments.get(0).getDownloadURL());
+
+    // the metadata of the attachments are listed without their content
+    attachments = wService.getAttachmentsOfPage(page, false);
+    assertEquals(1, attachments.size());
+    assertNull(attachments.get(0).getContent());
+    assertEquals(3, attachments.get(0).getWeightInBytes());
+    assertEquals("text/plain", attachments.get(0).getMimeType());
+
+    // an attachment is found by its name
+    assertEquals("foo", new String(wService.getAttachmentOfPageByName("attachment1.txt", page).getContent()));
+    assertNull(wService.getAttachmentOfPageByName("attachment1.txt", page, false).getContent());
+    assertNull(wService.getAttachmentOfPageByName("attachment2.txt", page));
+    assertNull(wService.getAttachmentOfPageByName("..", page));
   }
 
   public void testAddImageAttachment() throws WikiException, IOException {
@@ -664,4 +742,357 @@ public class TestWikiService extends AbstractMOWTestcase {
     assertNotNull(watchersOfPage1);
     assertEquals(2, watchersOfPage1.size());
   }
+
+  public void testCoalescePageChangeNotifications() throws WikiException {
+    PageChangeNotifier pageChangeNotifier = container.getComponentInstanceOfType(PageChangeNotifier.class);
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiNotifications");
+    Page page = wService.createPage(wiki, "WikiHome", new Page("notifiedPage", "notifiedPage"));
+    wService.addWatcherToPage("mary", page);
+    assertFalse(pageChangeNotifier.hasPendingChange(page));
+
+    page.setContent("first change");
+    wService.updatePage(page, PageUpdateType.EDIT_PAGE_CONTENT);
+    wService.createVersionOfPage(page);
+    page.setContent("second change");
+    wService.updatePage(page, PageUpdateType.EDIT_PAGE_CONTENT);
+    wService.createVersionOfPage(page);
+
+    // both changes are sent later in the same notification
+    assertTrue(pageChangeNotifier.hasPendingChange(page));
+
+    Page otherPage = wService.createPage(wiki, "WikiHome", new Page("otherNotifiedPage", "otherNotifiedPage"));
+    wService.updatePage(otherPage, PageUpdateType.EDIT_PAGE_TITLE);
+    assertFalse(pageChangeNotifier.hasPendingChange(otherPage));
+  }
+
+  public void testGetChildrenTreeItemsOfPage() throws WikiException {
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiTree");
+    Page parentPage = wService.createPage(wiki, "WikiHome", new Page("treeParent", "Tree parent"));
+    wService.createPage(wiki, "treeParent", new Page("treeChild3", "Tree child 3"));
+    wService.createPage(wiki, "treeParent", new Page("treeChild1", "Tree child 1"));
+    wService.createPage(wiki, "treeParent", new Page("treeChild2", "Tree child 2"));
+    wService.createPage(wiki, "treeChild1", new Page("treeGrandChild", "Tree grand child"));
+    Page privatePage = new Page("treePrivate", "Tree private");
+    privatePage.setPermissions(Arrays.asList(new PermissionEntry("john", "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true),
+            new Permission(PermissionType.EDITPAGE, true)
+    })));
+    privatePage = wService.createPage(wiki, "treeParent", privatePage);
+    Page readOnlyPage = new Page("treeReadOnly", "Tree read only");
+    readOnlyPage.setPermissions(Arrays.asList(new PermissionEntry(IdentityConstants.ANY, "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true)
+    })));
+    wService.createPage(wiki, "treeParent", readOnlyPage);
+
+    Identity mary = new Identity("mary");
+    List<PageTreeItem> children = wService.getChildrenTreeItemsOfPage(parentPage, mary, 1, 0, -1);
+    assertEquals(4, children.size());
+    assertEquals("treeChild1", children.get(0).getName());
+    assertEquals("Tree child 1", children.get(0).getTitle());
+    assertEquals(PortalConfig.PORTAL_TYPE, children.get(0).getWikiType());
+    assertEquals("wikiTree", children.get(0).getWikiOwner());
+    assertTrue(children.get(0).isHasChildren());
+    assertNull(children.get(0).getChildren());
+    assertTrue(children.get(0).isCanEdit());
+    assertEquals("treeChild2", children.get(1).getName());
+    assertFalse(children.get(1).isHasChildren());
+    assertEquals("treeChild3", children.get(2).getName());
+    assertEquals("treeReadOnly", children.get(3).getName());
+    assertFalse(children.get(3).isCanEdit());
+
+    // paging
+    children = wService.getChildrenTreeItemsOfPage(parentPage, mary, 1, 1, 2);
+    assertEquals(2, children.size());
+    assertEquals("treeChild2", children.get(0).getName());
+    assertEquals("treeChild3", children.get(1).getName());
+    assertEquals(0, wService.getChildrenTreeItemsOfPage(parentPage, mary, 1, 10, 2).size());
+
+    // descendants
+    children = wService.getChildrenTreeItemsOfPage(parentPage, mary, 2, 0, 1);
+    assertEquals(1, children.size());
+    assertEquals(1, children.get(0).getChildren().size());
+    assertEquals("treeGrandChild", children.get(0).getChildren().get(0).getName());
+    assertNull(children.get(0).getChildren().get(0).getChildren());
+
+    // private pages are only returned to the users who can view them
+    children = wService.getChildrenTreeItemsOfPage(parentPage, new Identity("john"), 1, 0, -1);
+    assertEquals(5, children.size());
+    assertEquals("treePrivate", children.get(3).getName());
+    assertTrue(children.get(3).isCanView());
+
+    // the pages in the path of the selected page are kept, as not viewable
+    children = wService.getChildrenTreeItemsOfPage(parentPage, privatePage, mary, 1, 0, -1);
+    assertEquals(5, children.size());
+    assertEquals("treePrivate", children.get(3).getName());
+    assertFalse(children.get(3).isCanView());
+    assertFalse(children.get(3).isCanEdit());
+    assertTrue(children.get(0).isCanView());
+  }
+
+  public void testPagePermissionChanges() throws WikiException {
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiPermissions");
+    Page page = wService.createPage(wiki, "WikiHome", new Page("permissionsPage", "permissionsPage"));
+    Identity mary = new Identity("mary");
+    Identity john = new Identity("john");
+    assertTrue(wService.hasPermissionOnPage(page, PermissionType.VIEWPAGE, mary));
+    assertTrue(wService.hasPermissionOnPage(page, PermissionType.EDITPAGE, mary));
+
+    page.setPermissions(Arrays.asList(new PermissionEntry("john", "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true)
+    })));
+    wService.updatePage(page, PageUpdateType.EDIT_PAGE_TITLE);
+
+    // the permission checks made before the change are not reused
+    assertFalse(wService.hasPermissionOnPage(page, PermissionType.VIEWPAGE, mary));
+    assertFalse(wService.hasPermissionOnPage(page, PermissionType.EDITPAGE, mary));
+    assertTrue(wService.hasPermissionOnPage(page, PermissionType.VIEWPAGE, john));
+    assertFalse(wService.hasPermissionOnPage(page, PermissionType.EDITPAGE, john));
+  }
+
+  public void testUpdateWikiPermission() throws Exception {
+    PagePermissionPropagator permissionPropagator = container.getComponentInstanceOfType(PagePermissionPropagator.class);
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiPropagation");
+    wService.createPage(wiki, "WikiHome", new Page("propagationParent", "propagationParent"));
+    wService.createPage(wiki, "propagationParent", new Page("propagationChild", "propagationChild"));
+    Page overridingPage = wService.createPage(wiki, "WikiHome", new Page("propagationOverriding", "propagationOverriding"));
+    overridingPage.setPermissions(Arrays.asList(new PermissionEntry("mary", "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true)
+    })));
+    wService.updatePage(overridingPage, PageUpdateType.EDIT_PAGE_TITLE);
+    Identity mary = new Identity("mary");
+    Identity john = new Identity("john");
+
+    List<PermissionEntry> permissions = Arrays.asList(new PermissionEntry("john", "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true)
+    }));
+    wService.updateWikiPermission(PortalConfig.PORTAL_TYPE, "wikiPropagation", permissions);
+    PagePermissionPropagator.Propagation propagation = waitForPropagation(permissionPropagator, "wikiPropagation");
+    assertEquals(4, propagation.getVisitedPages());
+    assertEquals(3, propagation.getUpdatedPages());
+
+    end();
+    begin();
+    Page childPage = wService.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiPropagation", "propagationChild");
+    assertTrue(wService.hasPermissionOnPage(childPage, PermissionType.VIEWPAGE, john));
+    assertFalse(wService.hasPermissionOnPage(childPage, PermissionType.VIEWPAGE, mary));
+    overridingPage = wService.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiPropagation", "propagationOverriding");
+    assertTrue(wService.hasPermissionOnPage(overridingPage, PermissionType.VIEWPAGE, mary));
+
+    // the pages which already have the permissions are not updated again
+    wService.updateWikiPermission(PortalConfig.PORTAL_TYPE, "wikiPropagation", permissions);
+    propagation = waitForPropagation(permissionPropagator, "wikiPropagation");
+    assertEquals(4, propagation.getVisitedPages());
+    assertEquals(0, propagation.getUpdatedPages());
+  }
+
+  public void testPageNameIndex() throws WikiException {
+    PageNameIndex pageNameIndex = container.getComponentInstanceOfType(PageNameIndex.class);
+    DataStorage dataStorage = container.getComponentInstanceOfType(DataStorage.class);
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiIndex");
+    Page page = wService.createPage(wiki, "WikiHome", new Page("indexedPage", "indexedPage"));
+    Page otherPage = wService.createPage(wiki, "WikiHome", new Page("otherIndexedPage", "otherIndexedPage"));
+    assertEquals(page.getId(), pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "indexedPage"));
+
+    assertTrue(wService.renamePage(PortalConfig.PORTAL_TYPE, "wikiIndex", "indexedPage", "renamedIndexedPage", "renamedIndexedPage"));
+    assertNull(pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "indexedPage"));
+    assertEquals(page.getId(), pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+
+    // an outdated entry of the index is not trusted
+    pageNameIndex.put(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage", otherPage.getId());
+    Page renamedPage = dataStorage.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage");
+    assertNotNull(renamedPage);
+    assertEquals(page.getId(), renamedPage.getId());
+    assertEquals(page.getId(), pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+
+    // the index is rebuilt from the repository
+    pageNameIndex.clear();
+    assertNotNull(dataStorage.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiIndex", "otherIndexedPage"));
+    assertTrue(pageNameIndex.isIndexed(PortalConfig.PORTAL_TYPE, "wikiIndex"));
+    assertEquals(page.getId(), pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+
+    assertTrue(wService.deletePage(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+    assertNull(pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+    assertNull(dataStorage.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiIndex", "renamedIndexedPage"));
+
+    // a missing page is kept as missing until a page is created with its name
+    assertNull(dataStorage.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiIndex", "missingIndexedPage"));
+    assertTrue(pageNameIndex.isMissingPage(PortalConfig.PORTAL_TYPE, "wikiIndex", "missingIndexedPage"));
+    assertNull(pageNameIndex.getPageUUID(PortalConfig.PORTAL_TYPE, "wikiIndex", "missingIndexedPage"));
+    Page missingPage = wService.createPage(wiki, "WikiHome", new Page("missingIndexedPage", "missingIndexedPage"));
+    assertFalse(pageNameIndex.isMissingPage(PortalConfig.PORTAL_TYPE, "wikiIndex", "missingIndexedPage"));
+    assertEquals(missingPage.getId(), dataStorage.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiIndex", "missingIndexedPage").getId());
+  }
+
+  public void testDraftIndex() throws WikiException {
+    startSessionAs("john");
+    DataStorage dataStorage = container.getComponentInstanceOfType(DataStorage.class);
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiDraftIndex");
+    Page page = wService.createPage(wiki, "WikiHome", new Page("DraftIndexPage", "DraftIndexPage"));
+    WikiPageParams param = new WikiPageParams(PortalConfig.PORTAL_TYPE, "wikiDraftIndex", page.getName());
+
+    DraftPage draft = new DraftPage();
+    draft.setTitle("first draft");
+    DraftPage firstDraft = wService.createDraftForExistPage(draft, page, null, 1000);
+    draft.setTitle("second draft");
+    DraftPage secondDraft = wService.createDraftForExistPage(draft, page, null, 2000);
+    DraftPage newPageDraft = wService.createDraftForNewPage(new DraftPage(), page, 3000);
+
+    // the latest draft of the page and the latest draft of the user
+    assertEquals(secondDraft.getName(), dataStorage.getDraft(param, "john").getName());
+    assertEquals(newPageDraft.getName(), wService.getLastestDraft().getName());
+    assertEquals(firstDraft.getName(), wService.getDraftOfPage(page).getName());
+
+    // the summaries are listed without content
+    List<DraftPage> summaries = wService.getDraftSummariesOfUser("john");
+    assertEquals(3, summaries.size());
+    for (DraftPage summary : summaries) {
+      assertNull(summary.getContent());
+      assertEquals(page.getId(), summary.getTargetPageId());
+    }
+
+    // a draft removed without updating the index is not returned
+    boolean created = mowService.startSynchronization();
+    try {
+      UserWiki userWiki = (UserWiki) mowService.getWikiStore().getWiki(WikiType.USER, "john");
+      userWiki.getDraftPagesContainer().getChildPage(secondDraft.getName()).remove();
+      mowService.persist();
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+    assertEquals(firstDraft.getName(), dataStorage.getDraft(param, "john").getName());
+    assertEquals(2, wService.getDraftSummariesOfUser("john").size());
+
+    // saving a draft again makes it the latest draft
+    firstDraft.setContent("saved again");
+    firstDraft.setUpdatedDate(new Date(System.currentTimeMillis() + 60000));
+    assertTrue(wService.updateDraft(firstDraft));
+    assertEquals(firstDraft.getName(), wService.getLastestDraft().getName());
+    assertEquals(2, wService.getDraftSummariesOfUser("john").size());
+
+    wService.removeDraft(newPageDraft.getName());
+    assertEquals(firstDraft.getName(), wService.getLastestDraft().getName());
+    wService.removeDraftOfPage(param);
+    assertNull(wService.getDraftOfPage(page));
+    assertNull(wService.getLastestDraft());
+    assertEquals(0, wService.getDraftSummariesOfUser("john").size());
+  }
+
+  public void testPageTitleIndex() throws WikiException {
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiTitleIndex");
+    wService.createPage(wiki, "WikiHome", new Page("titleIndexAlpha", "Release notes alpha"));
+    wService.createPage(wiki, "WikiHome", new Page("titleIndexBeta", "Release plan"));
+    wService.createPage(wiki, "titleIndexAlpha", new Page("titleIndexGamma", "Meeting notes"));
+    Page privatePage = new Page("titleIndexPrivate", "Release private");
+    privatePage.setPermissions(Arrays.asList(new PermissionEntry("john", "", IDType.USER, new Permission[] {
+            new Permission(PermissionType.VIEWPAGE, true)
+    })));
+    wService.createPage(wiki, "WikiHome", privatePage);
+    Identity mary = new Identity("mary");
+
+    // the prefix matches the start of any word of the titles, case insensitive
+    List<Page> pages = wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "release", mary, 0, -1);
+    assertEquals(2, pages.size());
+    assertEquals("titleIndexAlpha", pages.get(0).getName());
+    assertEquals("Release notes alpha", pages.get(0).getTitle());
+    assertEquals("titleIndexBeta", pages.get(1).getName());
+    pages = wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "NOTES", mary, 0, -1);
+    assertEquals(2, pages.size());
+    assertEquals("titleIndexGamma", pages.get(0).getName());
+    assertEquals("titleIndexAlpha", pages.get(1).getName());
+    assertEquals(3, wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "release", new Identity("john"), 0, -1).size());
+
+    // paging
+    pages = wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "notes", mary, 1, 1);
+    assertEquals(1, pages.size());
+    assertEquals("titleIndexAlpha", pages.get(0).getName());
+    assertEquals(0, wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "notes", mary, 2, 1).size());
+
+    // the index is updated by the page listeners
+    Page betaPage = wService.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "titleIndexBeta");
+    betaPage.setTitle("Roadmap");
+    wService.updatePage(betaPage, PageUpdateType.EDIT_PAGE_TITLE);
+    assertEquals(1, wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "release", mary, 0, -1).size());
+    pages = wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "road", mary, 0, -1);
+    assertEquals(1, pages.size());
+    assertEquals("titleIndexBeta", pages.get(0).getName());
+    pages = wService.getRecentlyUpdatedPages(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", mary, 0, 1);
+    assertEquals(1, pages.size());
+    assertEquals("titleIndexBeta", pages.get(0).getName());
+
+    wService.deletePage(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "titleIndexGamma");
+    pages = wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiTitleIndex", "notes", mary, 0, -1);
+    assertEquals(1, pages.size());
+    assertEquals("titleIndexAlpha", pages.get(0).getName());
+    assertEquals(0, wService.getPagesByTitlePrefix(PortalConfig.PORTAL_TYPE, "wikiNotExisting", "", mary, 0, -1).size());
+  }
+
+  public void testLegacyPageMigration() throws Exception {
+    LegacyPageMigrator legacyPageMigrator = container.getComponentInstanceOfType(LegacyPageMigrator.class);
+    Wiki wiki = wService.createWiki(PortalConfig.PORTAL_TYPE, "wikiLegacyPages");
+    Page confluencePage = wService.createPage(wiki, "WikiHome", new Page("legacyConfluencePage", "legacyConfluencePage"));
+    setConfluenceContent(confluencePage, "*bold*");
+
+    assertTrue(legacyPageMigrator.migratePages());
+    for (int i = 0; i < 100 && legacyPageMigrator.getState() != LegacyPageMigrator.State.DONE; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(LegacyPageMigrator.State.DONE, legacyPageMigrator.getState());
+    assertTrue(legacyPageMigrator.getMigratedPages() > 0);
+    Page page = wService.getPageById(confluencePage.getId());
+    assertEquals(Syntax.XWIKI_2_0.toIdString(), page.getSyntax());
+    assertEquals("**bold**", page.getContent());
+
+    // the progress of the migration is restored after a restart
+    LegacyPageMigrator restartedMigrator = new LegacyPageMigrator(container.getComponentInstanceOfType(MOWService.class),
+                                                                  container.getComponentInstanceOfType(RenderingService.class),
+                                                                  null);
+    restartedMigrator.start();
+    try {
+      for (int i = 0; i < 100 && restartedMigrator.getState() != LegacyPageMigrator.State.DONE; i++) {
+        Thread.sleep(100);
+      }
+      assertEquals(LegacyPageMigrator.State.DONE, restartedMigrator.getState());
+      assertEquals(legacyPageMigrator.getLastCommittedPath(), restartedMigrator.getLastCommittedPath());
+      assertEquals(legacyPageMigrator.getMigratedPages(), restartedMigrator.getMigratedPages());
+    } finally {
+      restartedMigrator.stop();
+    }
+
+    // the pages read before the migration reaches them are migrated on the fly, whatever the way they are read
+    Page otherPage = wService.createPage(wiki, "WikiHome", new Page("legacyConfluenceOtherPage", "legacyConfluenceOtherPage"));
+    setConfluenceContent(otherPage, "*bold*");
+    page = wService.getPageOfWikiByName(PortalConfig.PORTAL_TYPE, "wikiLegacyPages", "legacyConfluenceOtherPage");
+    assertEquals(Syntax.XWIKI_2_0.toIdString(), page.getSyntax());
+    assertEquals("**bold**", page.getContent());
+    setConfluenceContent(otherPage, "*bold*");
+    page = wService.getPageById(otherPage.getId());
+    assertEquals(Syntax.XWIKI_2_0.toIdString(), page.getSyntax());
+    assertEquals("**bold**", page.getContent());
+  }
+
+  /**
+   * Turns a page into a legacy page, whose content is in the Confluence syntax
+   */
+  private void setConfluenceContent(Page page, String content) {
+    boolean created = mowService.startSynchronization();
+    try {
+      PageImpl pageImpl = mowService.getSession().findById(PageImpl.class, page.getId());
+      pageImpl.setSyntax(Syntax.CONFLUENCE_1_0.toIdString());
+      pageImpl.getContent().setText(content);
+      mowService.persist();
+    } finally {
+      mowService.stopSynchronization(created);
+    }
+  }
+
+  private PagePermissionPropagator.Propagation waitForPropagation(PagePermissionPropagator permissionPropagator,
+                                                                  String wikiOwner) throws InterruptedException {
+    PagePermissionPropagator.Propagation propagation = permissionPropagator.getPropagation(PortalConfig.PORTAL_TYPE, wikiOwner);
+    assertNotNull(propagation);
+    for (int i = 0; i < 100 && propagation.getState() != PagePermissionPropagator.State.DONE; i++) {
+      Thread.sleep(100);
+    }
+    assertEquals(PagePermissionPropagator.State.DONE, propagation.getState());
+    return propagation;
+  }
 }
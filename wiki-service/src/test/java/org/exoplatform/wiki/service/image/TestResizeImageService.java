@@ -0,0 +1,189 @@
+package org.exoplatform.wiki.service.image;
+
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.wiki.service.image.impl.ResizeImageServiceImpl;
+import org.exoplatform.wiki.service.image.impl.ThumbnailStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TestResizeImageService {
+
+  private File directory;
+
+  @Before
+  public void setUp() throws IOException {
+    directory = Files.createTempDirectory("thumbnails").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    directory.delete();
+  }
+
+  @Test
+  public void shouldKeepOneThumbnailPerImageContentAndSize() throws IOException {
+    // Given
+    ResizeImageService resizeImageService = new ResizeImageServiceImpl(createInitParams(1));
+    byte[] redImage = createImage(Color.RED);
+    byte[] blueImage = createImage(Color.BLUE);
+
+    // When
+    File thumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/image.png", new ByteArrayInputStream(redImage), 50, 0, true);
+    File sameThumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/image.png", new ByteArrayInputStream(redImage), 50, 0, true);
+    File otherPageThumbnail = resizeImageService.resizeImageToFile("portal/intranet/OtherPage/image.png", new ByteArrayInputStream(blueImage), 50, 0, true);
+    File updatedThumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/image.png", new ByteArrayInputStream(blueImage), 50, 0, true);
+    File otherSizeThumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/image.png", new ByteArrayInputStream(blueImage), 20, 0, true);
+
+    // Then
+    assertNotNull(thumbnail);
+    assertEquals(thumbnail, sameThumbnail);
+    assertFalse(thumbnail.equals(otherPageThumbnail));
+    assertFalse(thumbnail.equals(updatedThumbnail));
+    assertFalse(updatedThumbnail.equals(otherSizeThumbnail));
+    assertEquals(50, ImageIO.read(thumbnail).getWidth());
+    assertEquals(20, ImageIO.read(otherSizeThumbnail).getWidth());
+    assertEquals(Color.BLUE.getRGB(), ImageIO.read(updatedThumbnail).getRGB(10, 10));
+  }
+
+  @Test
+  public void shouldFindThumbnailsOfImageVersionsWithoutContent() throws IOException {
+    // Given
+    ResizeImageService resizeImageService = new ResizeImageServiceImpl(createInitParams(1));
+    byte[] redImage = createImage(Color.RED);
+    String imageVersion = "portal/intranet/WikiHome/image.png/1-2";
+
+    // When
+    File missingThumbnail = resizeImageService.getResizedImageVersionFile(imageVersion, 50, 0, true);
+    File thumbnail = resizeImageService.resizeImageVersionToFile(imageVersion, new ByteArrayInputStream(redImage), 50, 0, true);
+    File storedThumbnail = resizeImageService.getResizedImageVersionFile(imageVersion, 50, 0, true);
+    File otherVersionThumbnail = resizeImageService.getResizedImageVersionFile("portal/intranet/WikiHome/image.png/1-3", 50, 0, true);
+
+    // Then
+    assertNull(missingThumbnail);
+    assertNotNull(thumbnail);
+    assertEquals(thumbnail, storedThumbnail);
+    assertNull(otherVersionThumbnail);
+    assertEquals(50, ImageIO.read(thumbnail).getWidth());
+  }
+
+  @Test
+  public void shouldKeepPhotographsInJPEG() throws IOException {
+    // Given
+    ResizeImageService resizeImageService = new ResizeImageServiceImpl(createInitParams(1));
+    byte[] photo = createImage(Color.GREEN, 2000, 1500, "jpeg");
+    byte[] drawing = createImage(Color.GREEN, 2000, 1500, "png");
+
+    // When
+    File photoThumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/photo.jpg", new ByteArrayInputStream(photo), 200, 0, true);
+    File drawingThumbnail = resizeImageService.resizeImageToFile("portal/intranet/WikiHome/drawing.png", new ByteArrayInputStream(drawing), 200, 0, true);
+
+    // Then
+    assertTrue(photoThumbnail.getName().endsWith(".jpeg"));
+    assertTrue(drawingThumbnail.getName().endsWith(".png"));
+    BufferedImage photoImage = ImageIO.read(photoThumbnail);
+    assertEquals(200, photoImage.getWidth());
+    assertEquals(150, photoImage.getHeight());
+    assertEquals(200, ImageIO.read(drawingThumbnail).getWidth());
+  }
+
+  @Test
+  public void shouldEvictLeastRecentlyUsedThumbnails() throws IOException {
+    // Given
+    ThumbnailStore store = new ThumbnailStore(directory, 25);
+
+    // When
+    File first = store.put("first", "png", createTempFile(store, 10));
+    File second = store.put("second", "png", createTempFile(store, 10));
+    assertNotNull(store.get("first"));
+    File third = store.put("third", "png", createTempFile(store, 10));
+
+    // Then
+    assertEquals(20, store.getSize());
+    assertNotNull(store.get("first"));
+    assertNull(store.get("second"));
+    assertFalse(second.exists());
+    assertTrue(first.exists());
+    assertTrue(third.exists());
+  }
+
+  @Test
+  public void shouldReloadThumbnailsOnRestart() throws IOException {
+    // Given
+    ThumbnailStore store = new ThumbnailStore(directory, 100);
+    File thumbnail = store.put("thumbnail", "png", createTempFile(store, 10));
+    File crashedTempFile = createTempFile(store, 10);
+
+    // When
+    ThumbnailStore restartedStore = new ThumbnailStore(directory, 100);
+
+    // Then
+    assertEquals(thumbnail, restartedStore.get("thumbnail"));
+    assertEquals(1, restartedStore.getCount());
+    assertEquals(10, restartedStore.getSize());
+    assertFalse(crashedTempFile.exists());
+  }
+
+  private InitParams createInitParams(long maxSizeInMB) {
+    InitParams initParams = new InitParams();
+    ValueParam directoryParam = new ValueParam();
+    directoryParam.setName(ResizeImageServiceImpl.THUMBNAILS_DIRECTORY_PARAM);
+    directoryParam.setValue(directory.getAbsolutePath());
+    initParams.addParameter(directoryParam);
+    ValueParam maxSizeParam = new ValueParam();
+    maxSizeParam.setName(ResizeImageServiceImpl.THUMBNAILS_MAX_SIZE_PARAM);
+    maxSizeParam.setValue(String.valueOf(maxSizeInMB));
+    initParams.addParameter(maxSizeParam);
+    return initParams;
+  }
+
+  private byte[] createImage(Color color) throws IOException {
+    return createImage(color, 100, 80, "png");
+  }
+
+  private byte[] createImage(Color color, int width, int height, String format) throws IOException {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    Graphics2D graphics = image.createGraphics();
+    graphics.setColor(color);
+    graphics.fillRect(0, 0, width, height);
+    graphics.dispose();
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    ImageIO.write(image, format, output);
+    return output.toByteArray();
+  }
+
+  private File createTempFile(ThumbnailStore store, int length) throws IOException {
+    File file = store.createTempFile();
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(new byte[length]);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+}
@@ -17,11 +17,17 @@
 package org.exoplatform.wiki.utils;
 
 import junit.framework.TestCase;
+import org.exoplatform.services.jcr.access.AccessControlEntry;
+import org.exoplatform.services.jcr.access.AccessControlList;
+import org.exoplatform.services.security.Identity;
+import org.exoplatform.services.security.IdentityConstants;
+import org.exoplatform.services.security.MembershipEntry;
 import org.exoplatform.wiki.mow.api.Permission;
 import org.exoplatform.wiki.mow.api.PermissionEntry;
 import org.exoplatform.wiki.mow.api.PermissionType;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 
@@ -54,4 +60,40 @@ public class TestUtils extends TestCase {
     assertEquals(1, permissionEntries.size());
     assertEquals("ID", permissionEntries.get(0).getId());
   }
+
+  public void testAccessControlMatcher() {
+    String[] view = new String[] { "read" };
+    String[] edit = new String[] { "add_node", "remove", "set_property" };
+    List<AccessControlEntry> aces = new ArrayList<AccessControlEntry>();
+    aces.add(new AccessControlEntry(IdentityConstants.ANY, "read"));
+    for (String action : edit) {
+      aces.add(new AccessControlEntry("john", action));
+      aces.add(new AccessControlEntry("manager:/spaces/team", action));
+    }
+    aces.add(new AccessControlEntry("*:/platform/administrators", "add_node"));
+    AccessControlList acl = new AccessControlList("root", aces);
+    AccessControlList privateAcl = new AccessControlList("root",
+                                                         Arrays.asList(new AccessControlEntry("*:/spaces/team", "read")));
+
+    List<Identity> users = Arrays.asList(new Identity(IdentityConstants.SYSTEM),
+                                         new Identity(IdentityConstants.ANONIM),
+                                         new Identity("root"),
+                                         new Identity("john"),
+                                         new Identity("mary", Arrays.asList(new MembershipEntry("/spaces/team", "member"))),
+                                         new Identity("paul", Arrays.asList(new MembershipEntry("/spaces/team", "manager"))),
+                                         new Identity("jack", Arrays.asList(new MembershipEntry("/platform/administrators", "member"))));
+    AccessControlMatcher matcher = new AccessControlMatcher(acl);
+    AccessControlMatcher privateMatcher = new AccessControlMatcher(privateAcl);
+    for (Identity user : users) {
+      for (String[] permission : Arrays.asList(view, edit, new String[] { "add_node" })) {
+        assertEquals(user.getUserId(), JCRUtils.hasPermission(acl, permission, user), matcher.hasPermission(permission, user));
+        assertEquals(user.getUserId(), JCRUtils.hasPermission(privateAcl, permission, user), privateMatcher.hasPermission(permission, user));
+      }
+    }
+    assertTrue(matcher.hasPermission(view, new Identity(IdentityConstants.ANONIM)));
+    assertFalse(matcher.hasPermission(edit, new Identity("mary", Arrays.asList(new MembershipEntry("/spaces/team", "member")))));
+    assertTrue(matcher.hasPermission(edit, new Identity("paul", Arrays.asList(new MembershipEntry("/spaces/team", "manager")))));
+    assertTrue(privateMatcher.hasPermission(view, new Identity("mary", Arrays.asList(new MembershipEntry("/spaces/team", "member")))));
+    assertFalse(privateMatcher.hasPermission(view, new Identity("john")));
+  }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program. If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.upgrade.legacypage;
+
+import org.exoplatform.commons.upgrade.UpgradeProductPlugin;
+import org.exoplatform.commons.version.util.VersionComparator;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.rendering.util.Utils;
+import org.exoplatform.wiki.service.impl.LegacyPageMigrator;
+
+/**
+ * Starts the migration of the pages stored by the previous versions of the
+ * wiki: their history, the permissions of their attachments and their
+ * Confluence content. The pages are migrated in background, by batches, so
+ * that the upgrade does not delay the start of the server.
+ */
+public class WikiLegacyPageUpgradePlugin extends UpgradeProductPlugin {
+
+  private Log log = ExoLogger.getLogger(this.getClass().getName());
+
+  public WikiLegacyPageUpgradePlugin(InitParams initParams) {
+    super(initParams);
+  }
+
+  @Override
+  public void processUpgrade(String oldVersion, String newVersion) {
+    if (log.isInfoEnabled()) {
+      log.info("-------------- Starting " + this.getName() + " --------------");
+    }
+    try {
+      LegacyPageMigrator legacyPageMigrator = Utils.getService(LegacyPageMigrator.class);
+      if (legacyPageMigrator.migratePages() && log.isInfoEnabled()) {
+        log.info("-------------- " + this.getName() + " queued the migration of the legacy pages --------------");
+      }
+    } catch (Exception e) {
+      if (log.isErrorEnabled()) {
+        log.error("Error when migrating the legacy wiki pages.", e);
+      }
+    }
+  }
+
+  @Override
+  public boolean shouldProceedToUpgrade(String newVersion, String previousVersion) {
+    return VersionComparator.isAfter(newVersion, previousVersion);
+  }
+}
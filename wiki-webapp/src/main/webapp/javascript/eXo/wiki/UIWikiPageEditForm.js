@@ -36,6 +36,7 @@ UIWikiPageEditForm.prototype.init = function(pageEditFormId, restURL, isRunAutoS
   me.isDraftForNewPage = isDraftForNewPage || me.isDraftForNewPage;
   me.autoSaveSequeneTime = autoSaveSequeneTime || me.autoSaveSequeneTime;
   me.pageSaved = false;
+  me.lastSavedDraft = null;
 	
   var pageEditForm = document.getElementById(me.pageEditFormId);
   if (!pageEditForm) {
@@ -185,6 +186,13 @@ UIWikiPageEditForm.prototype.saveDraft = function() {
     }
   }
   
+  // Do not send the draft again if nothing changed since the last autosave
+  var draft = pageTitle + '\u0000' + isMarkup + '\u0000' + pageContent;
+  if (draft == me.lastSavedDraft) {
+    me.changed = false;
+    return;
+  }
+
   // Create rest request
   if (me.restParam) {
     var dataString = {'title': pageTitle, 'content': pageContent, 'isMarkup': isMarkup}
@@ -196,6 +204,7 @@ UIWikiPageEditForm.prototype.saveDraft = function() {
     data : dataString,
     dataType: 'json',
     success : function(data) {
+      me.lastSavedDraft = draft;
       me.onSaveDraftSuccess(data);
     }
     });
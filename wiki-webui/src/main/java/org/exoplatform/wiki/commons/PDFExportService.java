@@ -0,0 +1,452 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.commons;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.lang.StringUtils;
+import org.exoplatform.container.xml.InitParams;
+import org.exoplatform.container.xml.ValueParam;
+import org.exoplatform.services.log.ExoLogger;
+import org.exoplatform.services.log.Log;
+import org.exoplatform.wiki.WikiException;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.rendering.RenderingService;
+import org.exoplatform.wiki.service.WikiService;
+import org.picocontainer.Startable;
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.resource.FSEntityResolver;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.lowagie.text.pdf.BaseFont;
+
+/**
+ * Exports the wiki pages as PDF documents.
+ *
+ * The pages are rendered to XHTML in the request thread, which holds the wiki
+ * context of the rendering, and the PDF documents are laid out by a bounded
+ * pool of workers, so that the concurrent exports do not use more memory and
+ * CPU than the pool allows. An export is rejected when too many exports are
+ * already waiting for a worker. The stylesheet and the font are loaded once.
+ * The PDF documents are written to temporary files, kept in a bounded cache by
+ * user and version of the exported pages, and deleted once evicted. The
+ * concurrent exports of the same pages wait for the same layout, and the
+ * cached files are opened while holding the cache, so that they cannot be
+ * evicted in between. The file of a layout cancelled on timeout is deleted
+ * by the worker once the layout is over.
+ */
+public class PDFExportService implements Startable {
+
+  private static final Log          log                      = ExoLogger.getLogger(PDFExportService.class);
+
+  public static final String        POOL_SIZE_PARAM          = "pdf.export.poolSize";
+
+  public static final String        MAX_PENDING_PARAM        = "pdf.export.maxPendingExports";
+
+  public static final String        CACHE_SIZE_PARAM         = "pdf.export.cacheSize";
+
+  public static final String        TIMEOUT_PARAM            = "pdf.export.timeoutInSeconds";
+
+  private static final String       STYLESHEET_PATH          = "/css/PDFStylesheet.css";
+
+  private static final String       FONT_PATH                = "/fonts/ARIALUNI.TTF";
+
+  private final RenderingService    renderingService;
+
+  private final WikiService         wikiService;
+
+  private final int                 poolSize;
+
+  private final int                 maxPendingExports;
+
+  private final int                 cacheSize;
+
+  private final long                timeout;
+
+  private final DocumentBuilderFactory documentBuilderFactory;
+
+  private String                    stylesheet;
+
+  private boolean                   fontAvailable;
+
+  /** The exported documents by user and version of the pages, in access order. Guarded by itself. */
+  private final Map<String, File>   exports;
+
+  /** The layouts of the documents to be cached, by user and version of the pages. Guarded by {@link #exports}. */
+  private final Map<String, PDFExport> pendingExports = new HashMap<String, PDFExport>();
+
+  private ThreadPoolExecutor        executor;
+
+  public PDFExportService(RenderingService renderingService, WikiService wikiService, InitParams initParams) {
+    this.renderingService = renderingService;
+    this.wikiService = wikiService;
+    this.poolSize = Math.max(1, getIntParam(initParams, POOL_SIZE_PARAM, 2));
+    this.maxPendingExports = Math.max(1, getIntParam(initParams, MAX_PENDING_PARAM, 10));
+    this.cacheSize = Math.max(0, getIntParam(initParams, CACHE_SIZE_PARAM, 20));
+    this.timeout = Math.max(1, getIntParam(initParams, TIMEOUT_PARAM, 120));
+    this.documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    this.documentBuilderFactory.setValidating(false);
+    this.exports = new LinkedHashMap<String, File>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, File> eldest) {
+        if (size() > cacheSize) {
+          deleteFile(eldest.getValue());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  @Override
+  public void start() {
+    stylesheet = loadStylesheet();
+    try {
+      // the font is parsed once and kept in the font cache of iText
+      BaseFont.createFont(FONT_PATH, BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
+      fontAvailable = true;
+    } catch (Exception e) {
+      log.warn("Cannot load the font " + FONT_PATH + " used by the PDF exports - Cause : " + e.getMessage());
+    }
+    executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                                      new ArrayBlockingQueue<Runnable>(maxPendingExports), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "wiki-pdf-export");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    synchronized (exports) {
+      // the files of the layouts still running are deleted by the workers
+      for (PDFExport export : new ArrayList<PDFExport>(pendingExports.values())) {
+        export.cancel(true);
+      }
+      for (File file : exports.values()) {
+        deleteFile(file);
+      }
+      exports.clear();
+    }
+  }
+
+  /**
+   * Exports a page as a PDF document
+   *
+   * @param page the page
+   * @param withDescendants true to export the descendants of the page viewable by the current user after the page
+   * @param userId the user doing the export, whose permissions apply to the rendering of the pages
+   * @return the PDF document, to be closed by the caller
+   * @throws WikiException if the export fails or too many exports are running
+   */
+  public InputStream exportAsPDF(Page page, boolean withDescendants, String userId) throws WikiException {
+    List<Page> pages = new ArrayList<Page>();
+    pages.add(page);
+    if (withDescendants) {
+      addDescendants(page, pages);
+    }
+
+    StringBuilder keyBuilder = new StringBuilder(String.valueOf(userId));
+    for (Page exportedPage : pages) {
+      keyBuilder.append('|').append(exportedPage.getWikiType()).append(':').append(exportedPage.getWikiOwner())
+                .append(':').append(exportedPage.getName()).append('@')
+                .append(exportedPage.getUpdatedDate() != null ? exportedPage.getUpdatedDate().getTime() : 0);
+    }
+    String key = keyBuilder.toString();
+
+    if (cacheSize == 0) {
+      File pdfFile = waitForExport(startExport(null, renderXHTML(pages)));
+      try {
+        return openFile(pdfFile, page);
+      } finally {
+        // the file is still readable until the stream is closed
+        deleteFile(pdfFile);
+      }
+    }
+
+    while (true) {
+      PDFExport export;
+      synchronized (exports) {
+        File pdfFile = exports.get(key);
+        if (pdfFile != null && pdfFile.exists()) {
+          return openFile(pdfFile, page);
+        }
+        exports.remove(key);
+        export = pendingExports.get(key);
+      }
+      if (export == null) {
+        export = startExport(key, renderXHTML(pages));
+      }
+      if (export != null) {
+        waitForExport(export);
+      }
+      // the document is cached once laid out, and it is laid out again if it has been evicted before being opened
+    }
+  }
+
+  private InputStream openFile(File pdfFile, Page page) throws WikiException {
+    try {
+      return new BufferedInputStream(new FileInputStream(pdfFile));
+    } catch (IOException e) {
+      throw new WikiException("Cannot read the PDF export of page " + page.getName(), e);
+    }
+  }
+
+  private void addDescendants(Page page, List<Page> pages) throws WikiException {
+    for (Page childPage : wikiService.getChildrenPageOf(page)) {
+      pages.add(childPage);
+      addDescendants(childPage, pages);
+    }
+  }
+
+  private String renderXHTML(List<Page> pages) throws WikiException {
+    StringBuilder xhtml = new StringBuilder();
+    xhtml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    xhtml.append("<!DOCTYPE xsl:stylesheet [<!ENTITY nbsp \"&#160;\">]><html>");
+    xhtml.append("<head><style type=\"text/css\"> ").append(stylesheet).append(" </style></head><body>");
+    boolean first = true;
+    for (Page page : pages) {
+      xhtml.append(first ? "<div>" : "<div style=\"page-break-before: always\">");
+      xhtml.append("<h1>").append(StringEscapeUtils.escapeXml(page.getTitle())).append("</h1><hr />");
+      try {
+        xhtml.append(renderingService.render(page.getContent(), page.getSyntax(), Syntax.XHTML_1_0.toIdString(), false));
+      } catch (Exception e) {
+        throw new WikiException("Cannot render page " + page.getName() + " for the PDF export", e);
+      }
+      xhtml.append("</div>");
+      first = false;
+    }
+    xhtml.append("</body></html>");
+    return xhtml.toString();
+  }
+
+  /**
+   * Starts the layout of a PDF document, unless the same pages are already
+   * laid out or cached
+   *
+   * @param key the user and version of the pages, or null if the document is not cached
+   * @param xhtml the pages rendered to XHTML
+   * @return the layout of the document, or null if it is already cached
+   * @throws WikiException if too many exports are running
+   */
+  private PDFExport startExport(String key, final String xhtml) throws WikiException {
+    PDFExport export = new PDFExport(key, new Callable<File>() {
+      @Override
+      public File call() throws Exception {
+        return layoutPDFFile(xhtml);
+      }
+    });
+    if (key != null) {
+      synchronized (exports) {
+        if (exports.containsKey(key)) {
+          return null;
+        }
+        PDFExport pendingExport = pendingExports.get(key);
+        if (pendingExport != null) {
+          return pendingExport;
+        }
+        pendingExports.put(key, export);
+      }
+    }
+    try {
+      executor.execute(export);
+    } catch (RejectedExecutionException e) {
+      export.cancel(false);
+      throw new WikiException("Too many PDF exports are running, the export has been rejected", e);
+    }
+    return export;
+  }
+
+  private File waitForExport(PDFExport export) throws WikiException {
+    try {
+      return export.get(timeout, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      if (!export.isCached()) {
+        // nobody else waits for this layout
+        export.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new WikiException("The PDF export has been interrupted", e);
+    } catch (TimeoutException e) {
+      if (!export.cancel(true)) {
+        // the layout is over in the meantime
+        return waitForExport(export);
+      }
+      throw new WikiException("The PDF export took more than " + timeout + " seconds", e);
+    } catch (CancellationException e) {
+      throw new WikiException("The PDF export has been cancelled", e);
+    } catch (ExecutionException e) {
+      throw new WikiException("Cannot export as PDF", e.getCause());
+    }
+  }
+
+  private File layoutPDFFile(String xhtml) throws Exception {
+    File pdfFile = File.createTempFile("wiki-export", ".pdf");
+    boolean created = false;
+    OutputStream os = new BufferedOutputStream(new FileOutputStream(pdfFile));
+    try {
+      ITextRenderer renderer = new ITextRenderer();
+      if (fontAvailable) {
+        renderer.getFontResolver().addFont(FONT_PATH, BaseFont.IDENTITY_H, BaseFont.NOT_EMBEDDED);
+      }
+      DocumentBuilder builder;
+      synchronized (documentBuilderFactory) {
+        builder = documentBuilderFactory.newDocumentBuilder();
+      }
+      builder.setEntityResolver(FSEntityResolver.instance());
+      Document document = builder.parse(new ByteArrayInputStream(xhtml.getBytes(StandardCharsets.UTF_8)));
+      renderer.setDocument(document, null);
+      renderer.layout();
+      renderer.createPDF(os);
+      created = true;
+    } finally {
+      os.close();
+      if (!created) {
+        deleteFile(pdfFile);
+      }
+    }
+    return pdfFile;
+  }
+
+  private String loadStylesheet() {
+    StringBuilder css = new StringBuilder();
+    InputStream in = getClass().getResourceAsStream(STYLESHEET_PATH);
+    if (in == null) {
+      log.warn("Cannot find the stylesheet " + STYLESHEET_PATH + " of the PDF exports");
+      return "";
+    }
+    try {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          css.append(line).append('\n');
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      log.warn("Cannot read the stylesheet " + STYLESHEET_PATH + " of the PDF exports", e);
+    }
+    return css.toString();
+  }
+
+  /**
+   * The layout of a PDF document by a worker, shared by the concurrent exports
+   * of the same pages. The document is cached once laid out, or deleted if the
+   * layout has been cancelled meanwhile.
+   */
+  private class PDFExport extends FutureTask<File> {
+
+    private final String key;
+
+    private PDFExport(String key, Callable<File> layout) {
+      super(layout);
+      this.key = key;
+    }
+
+    private boolean isCached() {
+      return key != null;
+    }
+
+    @Override
+    protected void set(File pdfFile) {
+      super.set(pdfFile);
+      // the result of a cancelled layout is dropped
+      if (isCancelled()) {
+        deleteFile(pdfFile);
+      }
+    }
+
+    @Override
+    protected void done() {
+      if (key == null) {
+        return;
+      }
+      synchronized (exports) {
+        pendingExports.remove(key);
+        if (!isCancelled()) {
+          try {
+            File pdfFile = get();
+            File oldFile = exports.put(key, pdfFile);
+            if (oldFile != null && !oldFile.equals(pdfFile)) {
+              deleteFile(oldFile);
+            }
+          } catch (InterruptedException | ExecutionException e) {
+            // the layout has failed, the waiting exports report it
+          }
+        }
+      }
+    }
+  }
+
+  private static void deleteFile(File file) {
+    if (file != null && file.exists() && !file.delete()) {
+      file.deleteOnExit();
+    }
+  }
+
+  private static int getIntParam(InitParams initParams, String name, int defaultValue) {
+    if (initParams != null) {
+      ValueParam param = initParams.getValueParam(name);
+      if (param != null && StringUtils.isNotBlank(param.getValue())) {
+        return Integer.parseInt(param.getValue().trim());
+      }
+    }
+    return defaultValue;
+  }
+}
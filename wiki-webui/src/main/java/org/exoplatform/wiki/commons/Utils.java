@@ -56,7 +56,6 @@ import org.exoplatform.webui.form.UIFormTextAreaInput;
 import org.exoplatform.wiki.mow.api.*;
 import org.exoplatform.wiki.rendering.RenderingService;
 import org.exoplatform.wiki.rendering.impl.RenderingServiceImpl;
-import org.exoplatform.wiki.resolver.PageResolver;
 import org.exoplatform.wiki.service.WikiContext;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
@@ -117,6 +116,10 @@ public class Utils {
   }
 
   public static String getCurrentRequestURL() throws Exception {
+    return WikiRequestContext.getCurrent().getRequestURL();
+  }
+
+  static String resolveRequestURL() throws Exception {
     PortalRequestContext portalRequestContext = Util.getPortalRequestContext();
     HttpServletRequest request = portalRequestContext.getRequest();
     String requestURL = java.net.URLDecoder.decode(request.getRequestURL().toString(), "UTF-8");
@@ -131,26 +134,17 @@ public class Utils {
   }
 
   public static WikiPageParams getCurrentWikiPageParams() throws Exception {
-    String requestURL = getCurrentRequestURL();
-    PageResolver pageResolver = (PageResolver) PortalContainer.getComponent(PageResolver.class);
-    WikiPageParams params = pageResolver.extractWikiPageParams(requestURL, Util.getUIPortal().getSelectedUserNode());
-    HttpServletRequest request = Util.getPortalRequestContext().getRequest();
-    Map<String, String[]> paramsMap = request.getParameterMap();
-    params.setParameters(paramsMap);
-    return params;
+    return WikiRequestContext.getCurrent().getPageParams();
   }
 
   /**
-   * Gets current wiki page directly from data base
+   * Gets current wiki page, fetched from data base once per request
    * 
    * @return current wiki page
    * @throws Exception
    */
   public static Page getCurrentWikiPage() throws Exception {
-    String requestURL = Utils.getCurrentRequestURL();
-    PageResolver pageResolver = (PageResolver) PortalContainer.getComponent(PageResolver.class);
-    Page page = pageResolver.resolve(requestURL, Util.getUIPortal().getSelectedUserNode());
-    return page;
+    return WikiRequestContext.getCurrent().getPage();
   }
 
   public static boolean canModifyPagePermission() throws Exception {
@@ -231,9 +225,7 @@ public class Utils {
   }
 
   public static Wiki getCurrentWiki() throws Exception {
-    WikiService wikiService = (WikiService) PortalContainer.getComponent(WikiService.class);
-    WikiPageParams params = Utils.getCurrentWikiPageParams();
-    return wikiService.getWikiByTypeAndOwner(params.getType(), params.getOwner());
+    return WikiRequestContext.getCurrent().getWiki();
   }
 
   public static WikiContext setUpWikiContext(UIWikiPortlet wikiPortlet) throws Exception {
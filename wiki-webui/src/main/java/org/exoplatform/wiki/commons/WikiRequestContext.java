@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2003-2016 eXo Platform SAS.
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Affero General Public License
+ * as published by the Free Software Foundation; either version 3
+ * of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, see<http://www.gnu.org/licenses/>.
+ */
+package org.exoplatform.wiki.commons;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.exoplatform.container.PortalContainer;
+import org.exoplatform.portal.webui.util.Util;
+import org.exoplatform.services.security.ConversationState;
+import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.mow.api.PermissionType;
+import org.exoplatform.wiki.mow.api.Wiki;
+import org.exoplatform.wiki.resolver.PageResolver;
+import org.exoplatform.wiki.service.WikiPageParams;
+import org.exoplatform.wiki.service.WikiService;
+
+/**
+ * The wiki page targeted by the current request, with its wiki and the
+ * permissions of the current user on it. The URL is resolved and the page is
+ * fetched once per request, then shared by all the components, action
+ * components and extension filters of the portlet.
+ * <p>
+ * The pages are handed out as copies, that the callers can modify. The
+ * context is reset when the portlet starts its render, and by the actions
+ * which update, rename, move or delete the page or change its permissions, so
+ * that the rest of the request sees their changes.
+ */
+public class WikiRequestContext {
+
+  private static final String           ATTRIBUTE_NAME = WikiRequestContext.class.getName();
+
+  private final String                  requestURL;
+
+  private final WikiPageParams          pageParams;
+
+  private boolean                       pageResolved;
+
+  private Page                          page;
+
+  private Wiki                          wiki;
+
+  private boolean                       parentPageResolved;
+
+  private Page                          parentPage;
+
+  private final Map<PermissionType, Boolean> permissions = new EnumMap<>(PermissionType.class);
+
+  private WikiRequestContext(String requestURL, WikiPageParams pageParams) {
+    this.requestURL = requestURL;
+    this.pageParams = pageParams;
+  }
+
+  /**
+   * Gets the wiki context of the current request, resolving it on the first call
+   *
+   * @return the wiki context of the current request
+   * @throws Exception
+   */
+  public static WikiRequestContext getCurrent() throws Exception {
+    HttpServletRequest request = Util.getPortalRequestContext().getRequest();
+    WikiRequestContext context = (WikiRequestContext) request.getAttribute(ATTRIBUTE_NAME);
+    if (context == null) {
+      String requestURL = Utils.resolveRequestURL();
+      PageResolver pageResolver = (PageResolver) PortalContainer.getComponent(PageResolver.class);
+      WikiPageParams params = pageResolver.extractWikiPageParams(requestURL, Util.getUIPortal().getSelectedUserNode());
+      context = new WikiRequestContext(requestURL, params);
+      request.setAttribute(ATTRIBUTE_NAME, context);
+    }
+    return context;
+  }
+
+  /**
+   * Forgets the wiki context of the current request, the next call to
+   * {@link #getCurrent()} resolves it again
+   */
+  public static void reset() {
+    Util.getPortalRequestContext().getRequest().removeAttribute(ATTRIBUTE_NAME);
+  }
+
+  public String getRequestURL() {
+    return requestURL;
+  }
+
+  /**
+   * @return a copy of the parameters of the current page, that the caller can modify
+   */
+  public WikiPageParams getPageParams() {
+    WikiPageParams params = new WikiPageParams();
+    params.setType(pageParams.getType());
+    params.setOwner(pageParams.getOwner());
+    params.setPageName(pageParams.getPageName());
+    params.setAttachmentName(pageParams.getAttachmentName());
+    params.setParameters(Util.getPortalRequestContext().getRequest().getParameterMap());
+    return params;
+  }
+
+  /**
+   * @return a copy of the current page, that the caller can modify, null if it does not exist
+   * @throws Exception
+   */
+  public Page getPage() throws Exception {
+    return copyPage(getResolvedPage());
+  }
+
+  private Page getResolvedPage() throws Exception {
+    if (!pageResolved) {
+      if (pageParams.getType() != null) {
+        page = getWikiService().getPageOfWikiByName(pageParams.getType(), pageParams.getOwner(), pageParams.getPageName());
+      }
+      pageResolved = true;
+    }
+    return page;
+  }
+
+  /**
+   * @return the current wiki, null if it does not exist yet
+   * @throws Exception
+   */
+  public Wiki getWiki() throws Exception {
+    // a missing wiki is not kept, the portlet creates it on its first render
+    if (wiki == null) {
+      wiki = getWikiService().getWikiByTypeAndOwner(pageParams.getType(), pageParams.getOwner());
+    }
+    return wiki;
+  }
+
+  /**
+   * @return a copy of the parent of the current page, null for the wiki home or a missing page
+   * @throws Exception
+   */
+  public Page getParentPage() throws Exception {
+    if (!parentPageResolved) {
+      Page currentPage = getResolvedPage();
+      parentPage = currentPage != null ? getWikiService().getParentPageOf(currentPage) : null;
+      parentPageResolved = true;
+    }
+    return copyPage(parentPage);
+  }
+
+  /**
+   * Checks a permission of the current user on the current page
+   *
+   * @param permissionType the permission to check
+   * @return true if the current user has the permission
+   * @throws Exception
+   */
+  public boolean hasPermissionOnPage(PermissionType permissionType) throws Exception {
+    Boolean hasPermission = permissions.get(permissionType);
+    if (hasPermission == null) {
+      hasPermission = getWikiService().hasPermissionOnPage(getResolvedPage(),
+                                                           permissionType,
+                                                           ConversationState.getCurrent().getIdentity());
+      permissions.put(permissionType, hasPermission);
+    }
+    return hasPermission;
+  }
+
+  private static Page copyPage(Page page) {
+    if (page == null) {
+      return null;
+    }
+    Page copy = new Page(page.getName(), page.getTitle());
+    copy.setId(page.getId());
+    copy.setOwner(page.getOwner());
+    copy.setAuthor(page.getAuthor());
+    copy.setCreatedDate(page.getCreatedDate() != null ? new Date(page.getCreatedDate().getTime()) : null);
+    copy.setUpdatedDate(page.getUpdatedDate() != null ? new Date(page.getUpdatedDate().getTime()) : null);
+    copy.setContent(page.getContent());
+    copy.setSyntax(page.getSyntax());
+    copy.setComment(page.getComment());
+    copy.setPermissions(page.getPermissions() != null ? new ArrayList<>(page.getPermissions()) : null);
+    copy.setUrl(page.getUrl());
+    copy.setActivityId(page.getActivityId());
+    copy.setWikiId(page.getWikiId());
+    copy.setWikiType(page.getWikiType());
+    copy.setWikiOwner(page.getWikiOwner());
+    copy.setMinorEdit(page.isMinorEdit());
+    return copy;
+  }
+
+  private WikiService getWikiService() {
+    return (WikiService) PortalContainer.getComponent(WikiService.class);
+  }
+}
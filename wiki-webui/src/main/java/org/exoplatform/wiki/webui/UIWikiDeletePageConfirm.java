@@ -28,6 +28,7 @@ import org.exoplatform.webui.event.Event;
 import org.exoplatform.webui.event.EventListener;
 import org.exoplatform.webui.form.UIForm;
 import org.exoplatform.wiki.commons.Utils;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.service.WikiPageParams;
 import org.exoplatform.wiki.service.WikiService;
@@ -109,6 +110,7 @@ public class UIWikiDeletePageConfirm extends UIForm implements UIPopupComponent
       WikiPageParams params = Utils.getCurrentWikiPageParams();
       wService.removeDraftOfPage(params);
       wService.deletePage(params.getType(), params.getOwner(), params.getPageName());
+      WikiRequestContext.reset();
       UIWikiPortlet wikiPortlet = uiWikiDeletePageConfirm.getAncestorOfType(UIWikiPortlet.class);
       wikiPortlet.changeMode(WikiMode.VIEW);
       UIWikiBreadCrumb breadcumb = wikiPortlet.findFirstComponentOfType(UIWikiBreadCrumb.class);
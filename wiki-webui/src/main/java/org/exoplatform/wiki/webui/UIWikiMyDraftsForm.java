@@ -80,7 +80,7 @@ public class UIWikiMyDraftsForm extends UIForm {
     }
     
     WikiService wService = (WikiService) PortalContainer.getComponent(WikiService.class);
-    List<DraftPage> drafts = wService.getDraftsOfUser(org.exoplatform.wiki.utils.Utils.getCurrentUser());
+    List<DraftPage> drafts = wService.getDraftSummariesOfUser(org.exoplatform.wiki.utils.Utils.getCurrentUser());
     List<DraftBean> draftBeans = new ArrayList<>();
     UIWikiDraftGrid grid = getChild(UIWikiDraftGrid.class);
     grid.clearBreadcrum();
@@ -287,9 +287,9 @@ public class UIWikiPageEditForm extends UIWikiForm {
     UIWikiPortlet wikiPortlet = getAncestorOfType(UIWikiPortlet.class);
     if (wikiPortlet.getWikiMode() == WikiMode.EDITPAGE) {
       Page page = Utils.getCurrentWikiPage();
-      List<PageVersion> versions = wikiService.getVersionsOfPage(page);
-      if(versions != null && !versions.isEmpty()) {
-        return versions.get(0).getName();
+      PageVersion latestVersion = wikiService.getLatestVersionOfPage(page);
+      if(latestVersion != null) {
+        return latestVersion.getName();
       } else {
         return null;
       }
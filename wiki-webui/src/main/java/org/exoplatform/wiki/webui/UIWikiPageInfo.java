@@ -50,7 +50,7 @@ public class UIWikiPageInfo extends UIWikiContainer {
   protected List<PageVersion> getVersionList(Page page) {
     List<PageVersion> versions = null;
     try {
-      versions = wikiService.getVersionsOfPage(page);
+      versions = wikiService.getVersionSummariesOfPage(page);
       Collections.sort(versions, new VersionNameComparatorDesc());
       return versions.subList(0,
                               versions.size() > NUMBER_OF_SHOWN_CHANGES ? NUMBER_OF_SHOWN_CHANGES : versions.size());
@@ -95,7 +95,7 @@ public class UIWikiPageInfoArea extends UIWikiContainer {
   protected int getNumberOfVersions(Page page) {
     int nbOfversions = 0;
     try {
-      List<PageVersion> versions = wikiService.getVersionsOfPage(page);
+      List<PageVersion> versions = wikiService.getVersionSummariesOfPage(page);
       if (versions != null && !versions.isEmpty()) {
         nbOfversions = versions.size();
       }
@@ -161,7 +161,7 @@ public class UIWikiPageInfoArea extends UIWikiContainer {
   public static class CompareRevisionActionListener extends
                                                    org.exoplatform.wiki.webui.control.action.CompareRevisionActionListener {
     public void execute(Event<UIComponent> event) throws Exception {
-      List<PageVersion> lstVersion = wikiService.getVersionsOfPage(Utils.getCurrentWikiPage());
+      List<PageVersion> lstVersion = wikiService.getVersionSummariesOfPage(Utils.getCurrentWikiPage());
       this.setVersionToCompare(lstVersion);
       WikiPageParams pageParams = Utils.getCurrentWikiPageParams();
       String verName = pageParams.getParameter(org.exoplatform.wiki.utils.Utils.VER_NAME);
@@ -24,6 +24,7 @@ import org.exoplatform.webui.event.Event;
 import org.exoplatform.webui.form.UIFormInputInfo;
 import org.exoplatform.webui.form.UIFormStringInput;
 import org.exoplatform.wiki.commons.Utils;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.resolver.TitleResolver;
 import org.exoplatform.wiki.service.PageUpdateType;
@@ -134,6 +135,7 @@ public class UIWikiPageTitleControlArea extends UIWikiExtensionContainer {
       page.setUrl(Utils.getURLFromParams(pageParams));
       wikiService.updatePage(page, PageUpdateType.EDIT_PAGE_TITLE);
     }
+    WikiRequestContext.reset();
     Utils.redirect(pageParams, WikiMode.VIEW);
   }
   
@@ -34,7 +34,6 @@ import org.exoplatform.wiki.commons.Utils;
 import org.exoplatform.wiki.mow.api.PageVersion;
 import org.exoplatform.wiki.service.WikiService;
 import org.exoplatform.wiki.service.diff.DiffResult;
-import org.exoplatform.wiki.service.diff.DiffService;
 import org.exoplatform.wiki.utils.VersionNameComparatorDesc;
 import org.exoplatform.wiki.webui.control.action.CompareRevisionActionListener;
 import org.exoplatform.wiki.webui.control.action.ShowHistoryActionListener;
@@ -190,28 +189,25 @@ public class UIWikiPageVersionsCompare extends UIWikiContainer {
     }
     this.versions = versions;
     PageVersion toVersion = versions.get(to);
-    String toVersionContent = toVersion.getContent();
     PageVersion fromVersion = versions.get(from);
-    String fromVersionContent = fromVersion.getContent();
-    DiffService diffService = this.getApplicationComponent(DiffService.class);
     this.setRendered(true);
     this.setFromVersion(fromVersion);
     this.setToVersion(toVersion);
     this.setCurrentVersionIndex(String.valueOf(versions.size()));
-    DiffResult diffResult = diffService.getDifferencesAsHTML(fromVersionContent,
-                                                             toVersionContent,
-                                                             true);
+    DiffResult diffResult = wikiService.getDifferencesBetweenVersionsOfPage(Utils.getCurrentWikiPage(),
+                                                                            fromVersion.getName(),
+                                                                            toVersion.getName());
     this.setDifferencesAsHTML(diffResult.getDiffHTML());
     this.setChanges(diffResult.getChanges());
   }
-  
+
   static public class CompareActionListener extends CompareRevisionActionListener {
     @Override
     public void execute(Event<UIComponent> event) throws Exception {
       UIWikiPageVersionsCompare component = (UIWikiPageVersionsCompare) event.getSource();
       String fromVersionName = event.getRequestContext().getRequestParameter(FROM_PARAM);
       String toVersionName = event.getRequestContext().getRequestParameter(TO_PARAM);
-      List<PageVersion> versions = wikiService.getVersionsOfPage(Utils.getCurrentWikiPage());
+      List<PageVersion> versions = wikiService.getVersionSummariesOfPage(Utils.getCurrentWikiPage());
       this.setVersionToCompare(new ArrayList<>(versions));
       for (int i = 0; i < versions.size(); i++) {
         PageVersion version = versions.get(i);
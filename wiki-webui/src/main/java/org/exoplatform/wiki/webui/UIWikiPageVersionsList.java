@@ -70,7 +70,7 @@ public class UIWikiPageVersionsList extends UIWikiForm {
 
   @Override
   public void processRender(WebuiRequestContext context) throws Exception {
-    this.versionsList = wikiService.getVersionsOfPage(Utils.getCurrentWikiPage());
+    this.versionsList = wikiService.getVersionSummariesOfPage(Utils.getCurrentWikiPage());
     getChildren().clear();
     for (PageVersion version : this.versionsList) {
       addUIFormInput(new UICheckBoxInput(VERSION_NAME_PREFIX + "_" + version.getName(), "", false));
@@ -108,7 +108,7 @@ public class UIWikiPageVersionsList extends UIWikiForm {
     public void execute(Event<UIComponent> event) throws Exception {
       UIWikiPageVersionsList uiForm = (UIWikiPageVersionsList) event.getSource();
       List<PageVersion> checkedVersions = new ArrayList<>();
-      List<PageVersion> versions = wikiService.getVersionsOfPage(Utils.getCurrentWikiPage());
+      List<PageVersion> versions = wikiService.getVersionSummariesOfPage(Utils.getCurrentWikiPage());
       for (PageVersion version : versions) {
         UICheckBoxInput uiCheckBox = uiForm.getUICheckBoxInput(VERSION_NAME_PREFIX + "_" + version.getName());
         if (uiCheckBox.isChecked()) {
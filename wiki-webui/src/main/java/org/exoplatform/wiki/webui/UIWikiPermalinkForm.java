@@ -28,6 +28,7 @@ import org.exoplatform.webui.event.Event;
 import org.exoplatform.webui.event.EventListener;
 import org.exoplatform.webui.form.UIForm;
 import org.exoplatform.wiki.commons.Utils;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Permission;
 import org.exoplatform.wiki.mow.api.PermissionEntry;
@@ -127,6 +128,7 @@ public class UIWikiPermalinkForm extends UIForm implements UIPopupComponent {
         currentPage.setPermissions(permissions);
 
         wikiService.updatePage(currentPage, null);
+        WikiRequestContext.reset();
         
         UIWikiPortlet uiWikiPortlet = uiWikiPermalinkForm.getAncestorOfType(UIWikiPortlet.class);
         if (wikiService.hasPermissionOnPage(currentPage, PermissionType.VIEWPAGE, ConversationState.getCurrent().getIdentity())) {
@@ -159,6 +161,7 @@ public class UIWikiPermalinkForm extends UIForm implements UIPopupComponent {
         currentPage.setPermissions(permissions);
 
         wikiService.updatePage(currentPage, null);
+        WikiRequestContext.reset();
         
         UIWikiPortlet uiWikiPortlet = uiWikiPermalinkForm.getAncestorOfType(UIWikiPortlet.class);
         UIWikiPageInfoArea uiWikiPageInfoArea = uiWikiPortlet.findFirstComponentOfType(UIWikiPageInfoArea.class);
@@ -39,6 +39,7 @@ import org.exoplatform.webui.organization.UIGroupMembershipSelector;
 import org.exoplatform.webui.organization.account.UIGroupSelector;
 import org.exoplatform.webui.organization.account.UIUserSelector;
 import org.exoplatform.wiki.commons.Utils;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Permission;
 import org.exoplatform.wiki.mow.api.PermissionEntry;
@@ -523,6 +524,8 @@ public class UIWikiPermissionForm extends UIWikiForm implements UIPopupComponent
         WikiService wikiService = uiWikiPermissionForm.getApplicationComponent(WikiService.class);
         WikiPageParams pageParams = Utils.getCurrentWikiPageParams();
         wikiService.updateWikiPermission(pageParams.getType(), pageParams.getOwner(), uiWikiPermissionForm.permissionEntries);
+        // the current page may inherit the permissions of the wiki
+        WikiRequestContext.reset();
 
         uiWikiPermissionForm.setPermission(wikiService.getWikiPermission(pageParams.getType(), pageParams.getOwner()));
         event.getRequestContext()
@@ -535,6 +538,7 @@ public class UIWikiPermissionForm extends UIWikiForm implements UIPopupComponent
         Page page = Utils.getCurrentWikiPage();
         page.setPermissions(uiWikiPermissionForm.permissionEntries);
         wikiService.updatePage(page, null);
+        WikiRequestContext.reset();
 
         // Update page info area
         UIWikiPortlet uiWikiPortlet = uiWikiPermissionForm.getAncestorOfType(UIWikiPortlet.class);
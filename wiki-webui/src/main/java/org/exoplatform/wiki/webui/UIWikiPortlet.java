@@ -24,7 +24,6 @@ import javax.portlet.PortletPreferences;
 
 import org.apache.commons.lang.StringUtils;
 import org.exoplatform.container.ExoContainerContext;
-import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.webui.application.WebuiApplication;
 import org.exoplatform.webui.application.WebuiRequestContext;
 import org.exoplatform.webui.application.portlet.PortletRequestContext;
@@ -39,6 +38,7 @@ import org.exoplatform.webui.event.Event;
 import org.exoplatform.webui.event.EventListener;
 import org.exoplatform.wiki.WikiPortletPreference;
 import org.exoplatform.wiki.commons.Utils;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.commons.WikiConstants;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
@@ -134,6 +134,8 @@ public class UIWikiPortlet extends UIPortletApplication {
 
   public void processRender(WebuiApplication app, WebuiRequestContext context) throws Exception {
     PortletRequestContext portletReqContext = (PortletRequestContext) context;
+    // the actions processed before the render may have changed the current page
+    WikiRequestContext.reset();
     redirectURL = this.url(this.REDIRECT_ACTION);
     loadPreferences();
     portletMode = portletReqContext.getApplicationMode();
@@ -171,7 +173,7 @@ public class UIWikiPortlet extends UIPortletApplication {
         }
 
         if((WikiMode.EDITPAGE.equals(this.getWikiMode()) || WikiMode.ADDPAGE.equals(this.getWikiMode()))
-                && !wikiService.hasPermissionOnPage(page, PermissionType.EDITPAGE, ConversationState.getCurrent().getIdentity())) {
+                && !WikiRequestContext.getCurrent().hasPermissionOnPage(PermissionType.EDITPAGE)) {
           changeMode(WikiMode.VIEW);
         }
       }
@@ -84,7 +84,7 @@ public class UIWikiVersionSelect extends UIWikiContainer {
   
   protected boolean hasNextVersion() throws Exception {
     Page wikipage = Utils.getCurrentWikiPage();
-    List<PageVersion> versions = wikiService.getVersionsOfPage(wikipage);
+    List<PageVersion> versions = wikiService.getVersionSummariesOfPage(wikipage);
     int nbOfVersions = 0;
     if(versions != null) {
       nbOfVersions = versions.size();
@@ -117,7 +117,7 @@ public class UIWikiVersionSelect extends UIWikiContainer {
     @Override
     public void execute(Event<UIComponent> event) throws Exception {
       UIWikiVersionSelect versionSelect = (UIWikiVersionSelect) event.getSource();
-      List<PageVersion> versionsList = wikiService.getVersionsOfPage(Utils.getCurrentWikiPage());
+      List<PageVersion> versionsList = wikiService.getVersionSummariesOfPage(Utils.getCurrentWikiPage());
       this.setVersionToCompare(versionsList);
       this.setTo(0);
       for (int i = 0; i < versionsList.size(); i++) {
@@ -43,6 +43,7 @@ import org.exoplatform.webui.form.input.UICheckBoxInput;
 import org.exoplatform.wiki.WikiException;
 import org.exoplatform.wiki.commons.Utils;
 import org.exoplatform.wiki.commons.WikiConstants;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Attachment;
 import org.exoplatform.wiki.mow.api.DraftPage;
 import org.exoplatform.wiki.mow.api.Page;
@@ -227,6 +228,8 @@ public class SavePageActionComponent extends UIComponent {
               }
               wikiService.updatePage(page, updateType);
               wikiService.createVersionOfPage(page);
+              // the current page is fetched again with its new name, title and content
+              WikiRequestContext.reset();
 
               if (!"__anonim".equals(currentUser)) {
                 wikiService.removeDraftOfPage(pageParams);
@@ -251,6 +254,7 @@ public class SavePageActionComponent extends UIComponent {
             newPage.setSyntax(syntaxId);
             newPage.setUrl(Utils.getURLFromParams(pageParams));
             Page createdPage = wikiService.createPage(wiki, page.getName(), newPage);
+            WikiRequestContext.reset();
 
             // Add all the attachments to the newly created page
             for (Attachment attachment : attachments) {
@@ -299,7 +303,7 @@ public class SavePageActionComponent extends UIComponent {
       WikiService wikiService = (WikiService) PortalContainer.getComponent(WikiService.class);
       String parentUUID = parentPage.getId();
       String currentUser = org.exoplatform.wiki.utils.Utils.getCurrentUser();
-      List<DraftPage> draftPages = wikiService.getDraftsOfUser(currentUser);
+      List<DraftPage> draftPages = wikiService.getDraftSummariesOfUser(currentUser);
       for (DraftPage draftPage : draftPages) {
         if (draftPage.getTitle() != null && draftPage.getTitle().equals(pageTitle) && draftPage.getTargetPageId() != null
             && draftPage.getTargetPageId().equals(parentUUID)) {
@@ -16,34 +16,26 @@
  */
 package org.exoplatform.wiki.webui.control.filter;
 
-import org.exoplatform.container.ExoContainerContext;
-import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.webui.ext.filter.UIExtensionAbstractFilter;
 import org.exoplatform.webui.ext.filter.UIExtensionFilterType;
-import org.exoplatform.wiki.commons.Utils;
-import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.PermissionType;
-import org.exoplatform.wiki.service.WikiService;
 
 import java.util.Map;
 
 public class AdminPagesPermissionFilter extends UIExtensionAbstractFilter {
 
-  private WikiService wikiService;
-
   public AdminPagesPermissionFilter() {
     this(null);
   }
 
   public AdminPagesPermissionFilter(String messageKey) {
     super(messageKey, UIExtensionFilterType.MANDATORY);
-    wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
   }
 
   @Override
   public boolean accept(Map<String, Object> context) throws Exception {
-    Page page = Utils.getCurrentWikiPage();
-    return wikiService.hasPermissionOnPage(page, PermissionType.ADMINPAGE, ConversationState.getCurrent().getIdentity());
+    return WikiRequestContext.getCurrent().hasPermissionOnPage(PermissionType.ADMINPAGE);
   }
 
   @Override
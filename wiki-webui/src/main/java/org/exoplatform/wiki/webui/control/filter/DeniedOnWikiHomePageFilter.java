@@ -16,12 +16,9 @@
  */
 package org.exoplatform.wiki.webui.control.filter;
 
-import org.exoplatform.container.ExoContainerContext;
 import org.exoplatform.webui.ext.filter.UIExtensionFilter;
 import org.exoplatform.webui.ext.filter.UIExtensionFilterType;
-import org.exoplatform.wiki.commons.Utils;
-import org.exoplatform.wiki.mow.api.Page;
-import org.exoplatform.wiki.service.WikiService;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 
 import java.util.Map;
 
@@ -30,16 +27,9 @@ import java.util.Map;
  */
 public class DeniedOnWikiHomePageFilter implements UIExtensionFilter {
 
-  private WikiService wikiService;
-
-  public DeniedOnWikiHomePageFilter() {
-    this.wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
-  }
-
   @Override
   public boolean accept(Map<String, Object> context) throws Exception {
-    Page page = Utils.getCurrentWikiPage();
-    return (page != null && wikiService.getParentPageOf(page) != null);
+    return WikiRequestContext.getCurrent().getParentPage() != null;
   }
 
   @Override
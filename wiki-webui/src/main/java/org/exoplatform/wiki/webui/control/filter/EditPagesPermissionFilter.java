@@ -16,37 +16,30 @@
  */
 package org.exoplatform.wiki.webui.control.filter;
 
-import org.exoplatform.container.ExoContainerContext;
-import org.exoplatform.services.security.ConversationState;
 import org.exoplatform.webui.ext.filter.UIExtensionAbstractFilter;
 import org.exoplatform.webui.ext.filter.UIExtensionFilterType;
-import org.exoplatform.wiki.commons.Utils;
-import org.exoplatform.wiki.mow.api.Page;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.PermissionType;
-import org.exoplatform.wiki.service.WikiService;
 
 import java.util.Map;
 
 public class EditPagesPermissionFilter extends UIExtensionAbstractFilter {
 
-  private WikiService wikiService;
-
   public EditPagesPermissionFilter() {
     this(null);
   }
 
   public EditPagesPermissionFilter(String messageKey) {
     super(messageKey, UIExtensionFilterType.MANDATORY);
-    this.wikiService = ExoContainerContext.getCurrentContainer().getComponentInstanceOfType(WikiService.class);
   }
   
   @Override
   public boolean accept(Map<String, Object> context) throws Exception {
-    Page page = Utils.getCurrentWikiPage();
-    if (page == null) {
+    WikiRequestContext wikiContext = WikiRequestContext.getCurrent();
+    if (wikiContext.getPage() == null) {
       return false;
     }
-    return wikiService.hasPermissionOnPage(page, PermissionType.EDITPAGE, ConversationState.getCurrent().getIdentity());
+    return wikiContext.hasPermissionOnPage(PermissionType.EDITPAGE);
   }
 
   @Override
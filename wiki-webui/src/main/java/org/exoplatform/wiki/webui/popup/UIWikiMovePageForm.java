@@ -38,6 +38,7 @@ import org.exoplatform.webui.form.UIFormStringInput;
 import org.exoplatform.webui.form.UIFormTextAreaInput;
 import org.exoplatform.wiki.commons.Utils;
 import org.exoplatform.wiki.commons.WikiConstants;
+import org.exoplatform.wiki.commons.WikiRequestContext;
 import org.exoplatform.wiki.mow.api.Page;
 import org.exoplatform.wiki.mow.api.Wiki;
 import org.exoplatform.wiki.service.WikiPageParams;
@@ -261,7 +262,7 @@ public class UIWikiMovePageForm extends UIForm implements UIPopupComponent {
              .addMessage(new ApplicationMessage("UIWikiMovePageForm.msg.no-permission-at-destination", null, ApplicationMessage.WARNING));
         return;
       }
-      
+      WikiRequestContext.reset();
       
       // Update Page URL
       movepage.setUrl(org.exoplatform.wiki.commons.Utils.getURLFromParams(newLocationParams));